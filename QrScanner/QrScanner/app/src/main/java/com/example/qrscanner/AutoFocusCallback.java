@@ -1,39 +1,58 @@
 package com.example.qrscanner;
 
 import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
-import static com.example.qrscanner.CameraManager.AUTO_FOCUS;
-
 final class AutoFocusCallback implements Camera.AutoFocusCallback {
 
     private static final String TAG = AutoFocusCallback.class.getSimpleName();
 
-    private static final long AUTOFOCUS_INTERVAL_MS = 1500L;
+    private DecodeScheduler mDecodeScheduler;
+    private Listener mListener;
+    private volatile int mFocusState = FrameRecording.FOCUS_UNKNOWN;
+
+    /**
+     * Told about the outcome of every sweep.
+     */
+    interface Listener {
+        void onAutoFocusFinished(boolean success);
+    }
+
+    void setDecodeScheduler(DecodeScheduler decodeScheduler) {
+        this.mDecodeScheduler = decodeScheduler;
+    }
+
+    void setListener(Listener listener) {
+        this.mListener = listener;
+    }
 
-    private Handler mAutoFocusHandler;
+    /**
+     * Called right before camera.autoFocus() is.
+     */
+    void onAutoFocusStarted() {
+        mFocusState = FrameRecording.FOCUS_SCANNING;
+    }
 
-    void setHandler(Handler autoFocusHandler) {
-        this.mAutoFocusHandler = autoFocusHandler;
+    /**
+     * @return The state of the last autofocus sweep, one of the FrameRecording.FOCUS_ constants.
+     */
+    int getFocusState() {
+        return mFocusState;
     }
 
     /**
-     * Autofocus callbacks arrive here, and are dispatched to the Handler which requested them.
+     * Autofocus callbacks arrive here, on the main thread, and are passed to the listener, which
+     * decides when to sweep again.
      */
     public void onAutoFocus(boolean success, Camera camera) {
-        if (mAutoFocusHandler != null) {
-            Message message = mAutoFocusHandler.obtainMessage(AUTO_FOCUS, success);
-            // Simulate continuous autofocus by sending a focus request every
-            // AUTOFOCUS_INTERVAL_MS milliseconds.
-            Log.d(TAG, "Got auto-focus callback; requesting another");
-            mAutoFocusHandler.sendMessageDelayed(message, AUTOFOCUS_INTERVAL_MS);
-            mAutoFocusHandler = null;
-        } else {
-            Log.d(TAG, "Got auto-focus callback, but no handler for it");
+        mFocusState = success ? FrameRecording.FOCUS_FOCUSED : FrameRecording.FOCUS_FAILED;
+        if (mDecodeScheduler != null) {
+            mDecodeScheduler.onAutoFocusFinished();
+        }
+        Log.d(TAG, "Got auto-focus callback: " + success);
+        if (mListener != null) {
+            mListener.onAutoFocusFinished(success);
         }
     }
 
 }
-
@@ -0,0 +1,270 @@
+package com.example.qrscanner;
+
+import android.app.Activity;
+import android.content.ClipData;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.provider.DocumentsContract;
+import android.util.Log;
+import android.widget.TextView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes a batch of images on background threads and streams the results to a CSV or JSON
+ * lines file. Progress is shown while the batch runs.
+ *
+ * The images are those shared to the activity, e.g. from the gallery, or an image file or
+ * directory of images given with EXTRA_INPUT. Launched without either, it lets the user pick
+ * images, or with EXTRA_PICK_FOLDER a folder of them, in the system picker. Shared and picked
+ * images are read through their content URIs, so no storage permission is needed.
+ */
+public class BatchDecodeActivity extends Activity {
+
+    /**
+     * Optional string extra: image file or directory of images to decode, which the app must be
+     * able to read, e.g. in its external files directory.
+     */
+    public static final String EXTRA_INPUT = "input";
+    /**
+     * Optional boolean extra: without images to decode, pick a folder instead of images.
+     */
+    public static final String EXTRA_PICK_FOLDER = "pick_folder";
+    /**
+     * Optional string extra: file name, in the app's external files directory, the results
+     * are written to. Ending in ".csv" selects CSV, anything else JSON lines.
+     * "batch_results.jsonl" by default.
+     */
+    public static final String EXTRA_OUTPUT = "output";
+    private static final String DEFAULT_OUTPUT = "batch_results.jsonl";
+    /**
+     * Optional int extra: decode threads, by default as many as the camera decoder would use.
+     */
+    public static final String EXTRA_THREADS = "threads";
+
+    private static final String TAG = BatchDecodeActivity.class.getSimpleName();
+    private static final int PICK_IMAGES_REQUEST_CODE = 1;
+    private static final int PICK_FOLDER_REQUEST_CODE = 2;
+
+    private TextView mStatusView;
+    private Thread mBatchThread;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_scan_result);
+        mStatusView = findViewById(R.id.res);
+
+        String input = getIntent().getStringExtra(EXTRA_INPUT);
+        List<String> shared = getSharedImages(getIntent());
+        if (input != null) {
+            startBatch(null, new File(input), null);
+        } else if (!shared.isEmpty()) {
+            startBatch(shared, null, null);
+        } else if (savedInstanceState == null) {
+            // The picker's result also reaches an activity recreated meanwhile.
+            pickImages();
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null) {
+            finish();
+        } else if (requestCode == PICK_FOLDER_REQUEST_CODE && data.getData() != null) {
+            startBatch(null, null, data.getData());
+        } else if (requestCode == PICK_IMAGES_REQUEST_CODE) {
+            startBatch(getSharedImages(data), null, null);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mBatchThread != null) {
+            mBatchThread.interrupt();
+        }
+        super.onDestroy();
+    }
+
+    private void pickImages() {
+        Intent pick;
+        int requestCode;
+        if (getIntent().getBooleanExtra(EXTRA_PICK_FOLDER, false)) {
+            pick = new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE);
+            requestCode = PICK_FOLDER_REQUEST_CODE;
+        } else {
+            pick = new Intent(Intent.ACTION_GET_CONTENT);
+            pick.setType("image/*");
+            pick.addCategory(Intent.CATEGORY_OPENABLE);
+            pick.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+            requestCode = PICK_IMAGES_REQUEST_CODE;
+        }
+        startActivityForResult(pick, requestCode);
+    }
+
+    /**
+     * @return The URIs of the images shared with ACTION_SEND or ACTION_SEND_MULTIPLE, or
+     * returned by the picker, in order.
+     */
+    private static List<String> getSharedImages(Intent intent) {
+        List<String> uris = new ArrayList<String>();
+        ClipData clip = intent.getClipData();
+        if (clip != null) {
+            for (int i = 0; i < clip.getItemCount(); i++) {
+                if (clip.getItemAt(i).getUri() != null) {
+                    uris.add(clip.getItemAt(i).getUri().toString());
+                }
+            }
+        } else if (Intent.ACTION_SEND_MULTIPLE.equals(intent.getAction())) {
+            ArrayList<Parcelable> streams =
+                    intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+            if (streams != null) {
+                for (Parcelable stream : streams) {
+                    uris.add(stream.toString());
+                }
+            }
+        } else if (Intent.ACTION_SEND.equals(intent.getAction())) {
+            Parcelable stream = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+            if (stream != null) {
+                uris.add(stream.toString());
+            }
+        } else if (intent.getData() != null && !Intent.ACTION_MAIN.equals(intent.getAction())) {
+            uris.add(intent.getData().toString());
+        }
+        return uris;
+    }
+
+    /**
+     * Decodes the images of one of sources, input or tree in the background.
+     */
+    private void startBatch(List<String> sources, File input, Uri tree) {
+        String name = getIntent().getStringExtra(EXTRA_OUTPUT);
+        File directory = getExternalFilesDir(null);
+        // Only a name: the activity is exported, so the extra must not reach other directories.
+        File output = new File(directory != null ? directory : getFilesDir(),
+                name != null ? new File(name).getName() : DEFAULT_OUTPUT);
+        int threads = getIntent().getIntExtra(EXTRA_THREADS,
+                DecodeWorkerPool.defaultWorkerCount());
+        mBatchThread = new Thread(new BatchRunnable(sources, input, tree, output, threads),
+                "BatchDecode");
+        mBatchThread.start();
+    }
+
+    private void showStatus(final String status) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mStatusView.setText(status);
+            }
+        });
+    }
+
+    /**
+     * @return The URIs of the images directly inside the picked folder, by name.
+     */
+    private static List<String> listTree(ContentResolver resolver, Uri tree) {
+        Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(tree,
+                DocumentsContract.getTreeDocumentId(tree));
+        TreeMap<String, String> images = new TreeMap<String, String>();
+        Cursor cursor = resolver.query(children, new String[]{
+                DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+                DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+                DocumentsContract.Document.COLUMN_MIME_TYPE}, null, null, null);
+        if (cursor == null) {
+            return new ArrayList<String>();
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String mimeType = cursor.getString(2);
+                if (mimeType != null && mimeType.startsWith("image/")) {
+                    String id = cursor.getString(0);
+                    images.put(cursor.getString(1) + '\u0000' + id,
+                            DocumentsContract.buildDocumentUriUsingTree(tree, id).toString());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return new ArrayList<String>(images.values());
+    }
+
+    private final class BatchRunnable implements Runnable {
+        private final List<String> mSources;
+        private final File mInput;
+        private final Uri mTree;
+        private final File mOutput;
+        private final int mThreads;
+
+        /**
+         * @param sources Image URIs, or null to decode input or tree.
+         * @param input Image file or directory, or null.
+         * @param tree Folder picked with ACTION_OPEN_DOCUMENT_TREE, or null.
+         */
+        BatchRunnable(List<String> sources, File input, Uri tree, File output, int threads) {
+            mSources = sources;
+            mInput = input;
+            mTree = tree;
+            mOutput = output;
+            mThreads = threads;
+        }
+
+        @Override
+        public void run() {
+            final List<String> sources;
+            if (mSources != null) {
+                sources = mSources;
+            } else if (mTree != null) {
+                sources = listTree(getContentResolver(), mTree);
+            } else if (mInput.isDirectory()) {
+                sources = BatchDecoder.pathsOf(BatchDecoder.listImages(mInput));
+            } else {
+                sources = Collections.singletonList(mInput.getAbsolutePath());
+            }
+            BatchDecoder decoder = new BatchDecoder(mThreads,
+                    new BitmapImageLoader(getContentResolver()),
+                    FrameDecoder.createStillImageHints(), BatchDecoder.DEFAULT_MAX_SIDE);
+            BatchResultWriter.Format format = mOutput.getName().endsWith(".csv")
+                    ? BatchResultWriter.Format.CSV : BatchResultWriter.Format.JSONL;
+            final AtomicInteger done = new AtomicInteger();
+            long start = System.nanoTime();
+            try {
+                final BatchResultWriter writer = new BatchResultWriter(new OutputStreamWriter(
+                        new FileOutputStream(mOutput), Charset.forName("UTF-8")), format);
+                int decoded;
+                try {
+                    decoded = decoder.decodeAll(sources, new BatchDecoder.Listener() {
+                        @Override
+                        public void onResult(BatchResult result) {
+                            writer.onResult(result);
+                            showStatus(done.incrementAndGet() + " / " + sources.size());
+                        }
+                    });
+                } finally {
+                    writer.close();
+                }
+                long millis = (System.nanoTime() - start) / 1000000L;
+                showStatus("Decoded " + decoded + " of " + sources.size() + " images in "
+                        + millis + " ms\n" + mOutput);
+            } catch (IOException e) {
+                Log.e(TAG, "Batch decode failed", e);
+                showStatus("Batch decode failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Batch decode cancelled after " + done.get() + " images");
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.qrscanner;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes QR codes from images on a fixed number of threads. At most three times the thread
+ * count are queued or being decoded; the submitting thread waits for a free slot, so a
+ * directory of thousands of images never piles up in memory.
+ *
+ * Every image is first loaded downsampled so that its longer side is at most twice maxSide,
+ * which is much faster for camera photos, and loaded again at full resolution if that does not
+ * decode. Decoding works on plain ARGB pixels; reading the images, from file paths or content
+ * URIs, is up to the ImageLoader.
+ */
+final class BatchDecoder {
+
+    /**
+     * Reads an image into ARGB pixels.
+     */
+    interface ImageLoader {
+        /**
+         * @param source The image's file path or URI.
+         * @param maxSide Downsample by a power of two while the longer side stays at least this
+         *                long, 0 for full resolution.
+         */
+        Pixels load(String source, int maxSide) throws IOException;
+    }
+
+    /**
+     * Receives the result of every image, on whichever batch thread decoded it.
+     */
+    interface Listener {
+        void onResult(BatchResult result);
+    }
+
+    static final class Pixels {
+        final int[] argb;
+        final int width;
+        final int height;
+        /**
+         * How much the image was downsampled while loading, 1 for full resolution.
+         */
+        final int sampleSize;
+
+        Pixels(int[] argb, int width, int height, int sampleSize) {
+            this.argb = argb;
+            this.width = width;
+            this.height = height;
+            this.sampleSize = sampleSize;
+        }
+    }
+
+    static final int DEFAULT_MAX_SIDE = 1024;
+
+    private static final String[] IMAGE_EXTENSIONS = {
+            ".jpg", ".jpeg", ".png", ".webp", ".bmp", ".gif"
+    };
+
+    private final int mThreadCount;
+    private final ImageLoader mLoader;
+    private final Map<DecodeHintType, ?> mHints;
+    private final int mMaxSide;
+
+    /**
+     * @param maxSide Longer side images are first downsampled to, 0 to always decode at full
+     *                resolution.
+     */
+    BatchDecoder(int threadCount, ImageLoader loader, Map<DecodeHintType, ?> hints, int maxSide) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Bad thread count: " + threadCount);
+        }
+        mThreadCount = threadCount;
+        mLoader = loader;
+        mHints = hints;
+        mMaxSide = maxSide;
+    }
+
+    /**
+     * @return The image files directly inside the directory, sorted by name.
+     */
+    static List<File> listImages(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                if (!file.isFile()) {
+                    return false;
+                }
+                String name = file.getName().toLowerCase(Locale.US);
+                for (String extension : IMAGE_EXTENSIONS) {
+                    if (name.endsWith(extension)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(files);
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+
+    /**
+     * @return The power of two inSampleSize which keeps the longer side of a width x height
+     * image at least maxSide long.
+     */
+    static int sampleSizeFor(int width, int height, int maxSide) {
+        int side = Math.max(width, height);
+        int sampleSize = 1;
+        if (maxSide > 0) {
+            while (side / (sampleSize * 2) >= maxSide) {
+                sampleSize *= 2;
+            }
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return The paths of the files.
+     */
+    static List<String> pathsOf(List<File> files) {
+        List<String> paths = new ArrayList<String>(files.size());
+        for (File file : files) {
+            paths.add(file.getPath());
+        }
+        return paths;
+    }
+
+    /**
+     * Decodes every image and blocks until all results have been passed to the listener. If
+     * the calling thread is interrupted, the images not started yet are dropped, and the call
+     * waits for those being decoded, so that no result arrives after it returned.
+     *
+     * @param sources File paths or URIs the ImageLoader reads.
+     * @return How many images held a QR code.
+     */
+    int decodeAll(List<String> sources, final Listener listener) throws InterruptedException {
+        final AtomicInteger decoded = new AtomicInteger();
+        final ThreadLocal<FrameDecoder> decoders = new ThreadLocal<FrameDecoder>() {
+            @Override
+            protected FrameDecoder initialValue() {
+                return new FrameDecoder(mHints);
+            }
+        };
+        // The caller never decodes itself, so an interrupt always reaches acquire().
+        final Semaphore slots = new Semaphore(mThreadCount * 3);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(mThreadCount, mThreadCount,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mIndex = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "BatchDecode-" + mIndex.getAndIncrement());
+                    }
+                });
+        try {
+            for (final String source : sources) {
+                slots.acquire();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            BatchResult result = decode(source, decoders.get());
+                            if (result.isDecoded()) {
+                                decoded.incrementAndGet();
+                            }
+                            listener.onResult(result);
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            awaitTerminationUninterruptibly(executor);
+            throw e;
+        }
+        return decoded.get();
+    }
+
+    private static void awaitTerminationUninterruptibly(ThreadPoolExecutor executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decodes one image on the calling thread.
+     */
+    BatchResult decode(String source, FrameDecoder decoder) {
+        long loadNanos = 0;
+        long decodeNanos = 0;
+        Pixels pixels = null;
+        Result result = null;
+        try {
+            int maxSide = mMaxSide;
+            while (true) {
+                long start = System.nanoTime();
+                pixels = mLoader.load(source, maxSide);
+                long loaded = System.nanoTime();
+                result = decoder.decode(pixels.argb, pixels.width, pixels.height);
+                loadNanos += loaded - start;
+                decodeNanos += System.nanoTime() - loaded;
+                if (result != null || pixels.sampleSize == 1) {
+                    break;
+                }
+                // Small codes may not survive downsampling, try the full image.
+                maxSide = 0;
+            }
+        } catch (IOException e) {
+            return new BatchResult(source, null, null, 0, 0, 0, loadNanos, decodeNanos,
+                    e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+        return new BatchResult(source, result != null ? result.getText() : null,
+                result != null ? result.getBarcodeFormat() : null,
+                pixels.width, pixels.height, pixels.sampleSize, loadNanos, decodeNanos, null);
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+/**
+ * Outcome of decoding one image in a batch.
+ */
+final class BatchResult {
+
+    static final String CSV_HEADER = "path,text,format,width,height,sampleSize,loadMs,decodeMs,error";
+
+    /**
+     * The image's file path or URI.
+     */
+    final String source;
+    /**
+     * Decoded contents, or null if no QR was found or the image could not be read.
+     */
+    final String text;
+    final BarcodeFormat format;
+    /**
+     * Size of the image that was decoded, after downsampling.
+     */
+    final int width;
+    final int height;
+    final int sampleSize;
+    final long loadNanos;
+    final long decodeNanos;
+    /**
+     * Why the image could not be read, or null.
+     */
+    final String error;
+
+    BatchResult(String source, String text, BarcodeFormat format, int width, int height,
+                int sampleSize, long loadNanos, long decodeNanos, String error) {
+        this.source = source;
+        this.text = text;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.sampleSize = sampleSize;
+        this.loadNanos = loadNanos;
+        this.decodeNanos = decodeNanos;
+        this.error = error;
+    }
+
+    boolean isDecoded() {
+        return text != null;
+    }
+
+    String toCsvLine() {
+        return csv(source) + ',' + csv(text) + ',' + csv(format) + ',' + width + ','
+                + height + ',' + sampleSize + ',' + millis(loadNanos) + ','
+                + millis(decodeNanos) + ',' + csv(error);
+    }
+
+    String toJsonLine() {
+        return "{\"path\":" + json(source) + ",\"text\":" + json(text)
+                + ",\"format\":" + json(format) + ",\"width\":" + width
+                + ",\"height\":" + height + ",\"sampleSize\":" + sampleSize
+                + ",\"loadMs\":" + millis(loadNanos) + ",\"decodeMs\":" + millis(decodeNanos)
+                + ",\"error\":" + json(error) + '}';
+    }
+
+    private static String millis(long nanos) {
+        return Long.toString(nanos / 1000000L);
+    }
+
+    private static String csv(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String s = value.toString();
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0
+                && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static String json(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        String s = value.toString();
+        StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+}
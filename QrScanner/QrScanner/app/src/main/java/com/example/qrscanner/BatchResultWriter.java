@@ -0,0 +1,57 @@
+package com.example.qrscanner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams batch results to a Writer as CSV (with a header line) or JSON lines, one line per
+ * image, as they come in. May be used as the listener of several batch threads at once.
+ */
+final class BatchResultWriter implements BatchDecoder.Listener, Closeable {
+
+    enum Format {
+        CSV,
+        JSONL
+    }
+
+    private final Writer mWriter;
+    private final Format mFormat;
+    private IOException mError;
+
+    BatchResultWriter(Writer writer, Format format) throws IOException {
+        mWriter = writer;
+        mFormat = format;
+        if (format == Format.CSV) {
+            writer.write(BatchResult.CSV_HEADER);
+            writer.write('\n');
+        }
+    }
+
+    @Override
+    public synchronized void onResult(BatchResult result) {
+        if (mError != null) {
+            return;
+        }
+        try {
+            mWriter.write(mFormat == Format.CSV ? result.toCsvLine() : result.toJsonLine());
+            mWriter.write('\n');
+        } catch (IOException e) {
+            // Remembered for close(), the batch goes on either way.
+            mError = e;
+        }
+    }
+
+    /**
+     * Closes the writer.
+     *
+     * @throws IOException If writing any of the results failed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        mWriter.close();
+        if (mError != null) {
+            throw mError;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.qrscanner;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads images with BitmapFactory, downsampling with inSampleSize. Sources starting with '/' are
+ * file paths, anything else a URI read through the ContentResolver, e.g. a content URI granted
+ * by the gallery or the document picker.
+ */
+final class BitmapImageLoader implements BatchDecoder.ImageLoader {
+
+    private final ContentResolver mResolver;
+
+    BitmapImageLoader(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    @Override
+    public BatchDecoder.Pixels load(String source, int maxSide) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(source, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image: " + source);
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = BatchDecoder.sampleSizeFor(options.outWidth, options.outHeight,
+                maxSide);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = decode(source, options);
+        if (bitmap == null) {
+            throw new IOException("Could not decode " + source);
+        }
+        try {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] argb = new int[width * height];
+            bitmap.getPixels(argb, 0, width, 0, 0, width, height);
+            return new BatchDecoder.Pixels(argb, width, height, options.inSampleSize);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private Bitmap decode(String source, BitmapFactory.Options options) throws IOException {
+        if (source.startsWith("/")) {
+            return BitmapFactory.decodeFile(source, options);
+        }
+        InputStream in;
+        try {
+            in = mResolver.openInputStream(Uri.parse(source));
+        } catch (SecurityException e) {
+            throw new IOException("No access to " + source, e);
+        }
+        if (in == null) {
+            throw new IOException("Could not open " + source);
+        }
+        try {
+            return BitmapFactory.decodeStream(new BufferedInputStream(in), null, options);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,560 @@
+package com.example.qrscanner;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.qrscanner.CameraManager.DECODE;
+
+/**
+ * Camera backend built on camera2. Preview frames come from an ImageReader in YUV_420_888 and
+ * are decoded straight from the Y plane's direct ByteBuffer, so no NV21 copy is made per frame.
+ * The Image stays open until the decoder gives the frame back with releaseFrame().
+ *
+ * The preview size and focus mode picked for a camera and surface size are remembered in the
+ * default SharedPreferences, like CameraConfigurationManager does, so later starts do not read
+ * the camera characteristics again.
+ */
+final class Camera2Manager implements CameraSource {
+
+    private static final String TAG = Camera2Manager.class.getSimpleName();
+    private static final long OPEN_TIMEOUT_MS = 2500L;
+    /**
+     * CameraSettings focus mode for CONTROL_AF_MODE_CONTINUOUS_PICTURE, named like the
+     * android.hardware.Camera one.
+     */
+    private static final String FOCUS_MODE_CONTINUOUS = "continuous-picture";
+    /**
+     * Images the ImageReader needs for itself on top of the ones held by the decoder, so that
+     * acquireLatestImage() can always drop a stale image.
+     */
+    private static final int READER_IMAGES = 2;
+
+    private final Context mContext;
+    private final Handler mDecodeHandler;
+    private final int mDecodeImageCount;
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private ImageReader mImageReader;
+    private Size mPreviewSize;
+    private Size mCameraResolution;
+    private Rect mDecodeRect;
+    private boolean mContinuousFocus;
+    private DecodeScheduler mDecodeScheduler;
+    private ScanMetrics mScanMetrics = ScanMetrics.DISABLED;
+    private boolean mUseSettingsCache = true;
+    private int mQrVersion;
+    private long mDecodeBudgetNanos;
+    private PreviewSizeStrategy mPreviewSizeStrategy;
+    private Surface mPreviewSurface;
+    private PendingOpen mPendingOpen;
+    /**
+     * Guards the images held by the decoder and the readers they came from, which tell when a
+     * reader replaced by applyPreviewSize() or closeDriver() can be closed without freeing the
+     * plane of an image still being decoded.
+     */
+    private final Object mReaderLock = new Object();
+    private final Map<Image, ImageReader> mImagesOut = new IdentityHashMap<Image, ImageReader>();
+    private final List<ImageReader> mRetiredReaders = new ArrayList<ImageReader>();
+    private volatile Handler mArmedHandler;
+
+    /**
+     * @param decodeImageCount How many frames the decoder may hold on to at the same time.
+     */
+    Camera2Manager(Context context, Handler handler, int decodeImageCount) {
+        this.mContext = context;
+        this.mDecodeHandler = handler;
+        this.mDecodeImageCount = Math.max(1, decodeImageCount);
+    }
+
+    @Override
+    public void setPreviewSize(int width, int height) {
+        mPreviewSize = new Size(width, height);
+    }
+
+    @Override
+    public void setDecodeScheduler(DecodeScheduler scheduler) {
+        mDecodeScheduler = scheduler;
+    }
+
+    @Override
+    public void setScanMetrics(ScanMetrics metrics) {
+        mScanMetrics = metrics;
+    }
+
+    /**
+     * Turns reusing the preview size and focus mode picked by an earlier start on or off. On by
+     * default.
+     */
+    void setUseSettingsCache(boolean useSettingsCache) {
+        mUseSettingsCache = useSettingsCache;
+    }
+
+    @Override
+    public void setDecodeBudget(int qrVersion, long budgetNanos) {
+        mQrVersion = qrVersion;
+        mDecodeBudgetNanos = budgetNanos;
+    }
+
+    @Override
+    public PreviewSizeStrategy getPreviewSizeStrategy() {
+        return mPreviewSizeStrategy;
+    }
+
+    @Override
+    public int getDisplayOrientation() {
+        // The sensor orientation is not looked up, see negotiateSettings().
+        return 0;
+    }
+
+    /**
+     * Only the ImageReader changes size; the preview surface keeps its size and the capture
+     * session is recreated with the new reader, on the camera thread.
+     */
+    @Override
+    public void applyPreviewSize() {
+        final PreviewSizeStrategy strategy = mPreviewSizeStrategy;
+        if (mCameraDevice == null || mPreviewSurface == null || strategy == null) {
+            return;
+        }
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCameraDevice == null) {
+                    return;
+                }
+                int[] size = strategy.getSize();
+                Log.i(TAG, "Switching reader to " + size[0] + "x" + size[1]);
+                mArmedHandler = null;
+                if (mCaptureSession != null) {
+                    mCaptureSession.close();
+                    mCaptureSession = null;
+                }
+                mCameraResolution = new Size(size[0], size[1]);
+                mDecodeRect = CameraManager.toPreviewRect(
+                        CameraManager.computeFramingRect(mPreviewSize, 0, 0),
+                        mPreviewSize, mCameraResolution);
+                retireImageReader();
+                mImageReader = createImageReader();
+                try {
+                    startPreview(mPreviewSurface);
+                } catch (CameraAccessException | IllegalStateException e) {
+                    Log.e(TAG, "Could not restart camera preview : " + e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void prepare() {
+        if (mCameraDevice != null || mPendingOpen != null) {
+            return;
+        }
+        android.hardware.camera2.CameraManager manager = getCameraService();
+        try {
+            String cameraId = findBackCamera(manager);
+            if (cameraId != null) {
+                mPendingOpen = startOpening(manager, cameraId);
+            }
+        } catch (CameraAccessException | SecurityException e) {
+            Log.w(TAG, "Could not start opening camera: " + e);
+        }
+    }
+
+    @Override
+    public void openDriver(SurfaceHolder holder) throws IOException {
+        if (mCameraDevice != null) {
+            return;
+        }
+        android.hardware.camera2.CameraManager manager = getCameraService();
+        try {
+            PendingOpen pendingOpen = mPendingOpen;
+            String cameraId = pendingOpen != null ? pendingOpen.cameraId : findBackCamera(manager);
+            if (cameraId == null) {
+                throw new IOException("No back facing camera");
+            }
+            if (pendingOpen == null) {
+                pendingOpen = mPendingOpen = startOpening(manager, cameraId);
+            }
+            negotiateSettings(manager, cameraId);
+            Log.i(TAG, "Camera resolution: " + mCameraResolution);
+            mDecodeRect = CameraManager.toPreviewRect(
+                    CameraManager.computeFramingRect(mPreviewSize, 0, 0),
+                    mPreviewSize, mCameraResolution);
+
+            mImageReader = createImageReader();
+
+            mCameraDevice = awaitCamera(pendingOpen);
+            mPendingOpen = null;
+            holder.setFixedSize(mCameraResolution.getWidth(), mCameraResolution.getHeight());
+            mPreviewSurface = holder.getSurface();
+            startPreview(mPreviewSurface);
+        } catch (CameraAccessException | SecurityException e) {
+            closeDriver();
+            throw new IOException("Could not open camera", e);
+        }
+    }
+
+    @Override
+    public void closeDriver() {
+        mArmedHandler = null;
+        if (mPendingOpen != null) {
+            try {
+                awaitCamera(mPendingOpen).close();
+            } catch (IOException e) {
+                Log.d(TAG, "Camera opened in the background failed: " + e);
+            }
+            mPendingOpen = null;
+        }
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+        }
+        if (mImageReader != null) {
+            // The decode thread may still be reading an image of it.
+            retireImageReader();
+            mImageReader = null;
+        }
+        mPreviewSurface = null;
+        if (mCameraThread != null) {
+            mCameraThread.quitSafely();
+            mCameraThread = null;
+        }
+    }
+
+    @Override
+    public void stopPreview() {
+        mArmedHandler = null;
+        if (mCaptureSession != null) {
+            try {
+                mCaptureSession.stopRepeating();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.d(TAG, "Could not stop camera preview : " + e);
+            }
+        }
+    }
+
+    @Override
+    public void previewAndDecode() {
+        if (mCaptureSession != null) {
+            mArmedHandler = mDecodeHandler;
+        }
+    }
+
+    /**
+     * Focus stays continuous, the FocusController only drives the old camera API.
+     */
+    @Override
+    public void onFrameAnalyzed(double sharpness, float[] finderPoints, int finderPointCount) {
+    }
+
+    @Override
+    public void releaseFrame(PreviewFrame frame) {
+        if (frame.owner instanceof Image) {
+            // Closing an image whose reader is already closed is a no-op.
+            ((Image) frame.owner).close();
+            synchronized (mReaderLock) {
+                ImageReader reader = mImagesOut.remove(frame.owner);
+                if (reader != null && !mImagesOut.containsValue(reader)
+                        && mRetiredReaders.remove(reader)) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    private ImageReader createImageReader() {
+        ImageReader reader = ImageReader.newInstance(mCameraResolution.getWidth(),
+                mCameraResolution.getHeight(), ImageFormat.YUV_420_888,
+                mDecodeImageCount + READER_IMAGES);
+        reader.setOnImageAvailableListener(new ImageListener(), mCameraHandler);
+        return reader;
+    }
+
+    /**
+     * Closes the current reader once the decoder has given back all of its images.
+     */
+    private void retireImageReader() {
+        synchronized (mReaderLock) {
+            if (mImagesOut.containsValue(mImageReader)) {
+                mRetiredReaders.add(mImageReader);
+            } else {
+                mImageReader.close();
+            }
+        }
+    }
+
+    private void startPreview(final Surface previewSurface) throws CameraAccessException {
+        final Surface readerSurface = mImageReader.getSurface();
+        mCameraDevice.createCaptureSession(Arrays.asList(previewSurface, readerSurface),
+                new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(CameraCaptureSession session) {
+                        if (mCameraDevice == null) {
+                            return;
+                        }
+                        mCaptureSession = session;
+                        try {
+                            CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(
+                                    CameraDevice.TEMPLATE_PREVIEW);
+                            builder.addTarget(previewSurface);
+                            builder.addTarget(readerSurface);
+                            if (mContinuousFocus) {
+                                builder.set(CaptureRequest.CONTROL_AF_MODE,
+                                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                            }
+                            session.setRepeatingRequest(builder.build(),
+                                    mContinuousFocus && mDecodeScheduler != null
+                                            ? new FocusStateCallback() : null,
+                                    mCameraHandler);
+                            previewAndDecode();
+                        } catch (CameraAccessException | IllegalStateException e) {
+                            Log.e(TAG, "Could not start camera preview : " + e);
+                        }
+                    }
+
+                    @Override
+                    public void onConfigureFailed(CameraCaptureSession session) {
+                        Log.e(TAG, "Could not configure capture session");
+                    }
+                }, mCameraHandler);
+    }
+
+    private android.hardware.camera2.CameraManager getCameraService() {
+        return (android.hardware.camera2.CameraManager)
+                mContext.getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    /**
+     * Sets mCameraResolution and mContinuousFocus, from the settings remembered for this camera
+     * and surface size if there are any, and mPreviewSizeStrategy with a decode budget.
+     */
+    private void negotiateSettings(android.hardware.camera2.CameraManager manager,
+                                   String cameraId) throws CameraAccessException {
+        // The camera2 preview is not rotated, so the display rotation does not matter.
+        String key = CameraSettings.key(Build.FINGERPRINT, cameraId, 0,
+                mPreviewSize.getWidth(), mPreviewSize.getHeight());
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        // With a decode budget the size changes while scanning, so it is not remembered.
+        boolean useSettingsCache = mUseSettingsCache && mDecodeBudgetNanos <= 0;
+        CameraSettings settings = useSettingsCache
+                ? CameraSettings.decode(prefs.getString(key, null)) : null;
+        mPreviewSizeStrategy = null;
+        if (settings == null) {
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map =
+                    characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Size[] outputSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+            Size resolution;
+            if (mDecodeBudgetNanos > 0) {
+                List<int[]> sizes = new ArrayList<int[]>();
+                for (Size size : outputSizes) {
+                    sizes.add(new int[]{size.getWidth(), size.getHeight()});
+                }
+                mPreviewSizeStrategy = new PreviewSizeStrategy(sizes, mPreviewSize.getWidth(),
+                        mPreviewSize.getHeight(), mQrVersion, mDecodeBudgetNanos);
+                int[] size = mPreviewSizeStrategy.getSize();
+                resolution = new Size(size[0], size[1]);
+            } else {
+                resolution = CameraConfigurationManager.findBestPreviewSize(outputSizes,
+                        mPreviewSize);
+            }
+            boolean continuousFocus = contains(
+                    characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES),
+                    CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            settings = new CameraSettings(resolution.getWidth(), resolution.getHeight(),
+                    continuousFocus ? FOCUS_MODE_CONTINUOUS : null, null, 0);
+            if (useSettingsCache) {
+                prefs.edit().putString(key, settings.encode()).apply();
+            }
+        }
+        mCameraResolution = new Size(settings.previewWidth, settings.previewHeight);
+        mContinuousFocus = FOCUS_MODE_CONTINUOUS.equals(settings.focusMode);
+    }
+
+    /**
+     * Starts the camera thread if needed and asks for the camera to be opened on it.
+     */
+    private PendingOpen startOpening(android.hardware.camera2.CameraManager manager,
+                                     String cameraId) throws CameraAccessException {
+        if (mCameraThread == null) {
+            mCameraThread = new HandlerThread("Camera2Thread");
+            mCameraThread.start();
+            mCameraHandler = new Handler(mCameraThread.getLooper());
+        }
+        PendingOpen pendingOpen = new PendingOpen(cameraId);
+        manager.openCamera(cameraId, pendingOpen, mCameraHandler);
+        return pendingOpen;
+    }
+
+    private static CameraDevice awaitCamera(PendingOpen pendingOpen) throws IOException {
+        try {
+            if (!pendingOpen.opened.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    || pendingOpen.device == null) {
+                throw new IOException("Timed out opening camera " + pendingOpen.cameraId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted opening camera " + pendingOpen.cameraId);
+        }
+        return pendingOpen.device;
+    }
+
+    private static String findBackCamera(android.hardware.camera2.CameraManager manager)
+            throws CameraAccessException {
+        for (String cameraId : manager.getCameraIdList()) {
+            Integer facing = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraMetadata.LENS_FACING_BACK) {
+                return cameraId;
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values != null) {
+            for (int v : values) {
+                if (v == value) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A camera device being opened on the camera thread.
+     */
+    private static final class PendingOpen extends CameraDevice.StateCallback {
+        final String cameraId;
+        final CountDownLatch opened = new CountDownLatch(1);
+        volatile CameraDevice device;
+
+        PendingOpen(String cameraId) {
+            this.cameraId = cameraId;
+        }
+
+        @Override
+        public void onOpened(CameraDevice camera) {
+            device = camera;
+            opened.countDown();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            camera.close();
+            opened.countDown();
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            Log.e(TAG, "Camera error: " + error);
+            camera.close();
+            opened.countDown();
+        }
+    }
+
+    /**
+     * Image callbacks arrive here, and the Y plane is passed to DecodeHandler.
+     */
+    private final class ImageListener implements ImageReader.OnImageAvailableListener {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                // Every image is held by the decoder, wait for one to be released.
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+            if (reader != mImageReader) {
+                // Replaced by applyPreviewSize().
+                image.close();
+                return;
+            }
+            mScanMetrics.onFrameReceived();
+            Handler handler = mArmedHandler;
+            if (handler == null
+                    || (mDecodeScheduler != null && !mDecodeScheduler.shouldDecode())) {
+                image.close();
+                return;
+            }
+            mArmedHandler = null;
+            synchronized (mReaderLock) {
+                mImagesOut.put(image, reader);
+            }
+            Image.Plane yPlane = image.getPlanes()[0];
+            PreviewFrame frame = new PreviewFrame(yPlane.getBuffer(), yPlane.getRowStride(),
+                    yPlane.getPixelStride(), image.getWidth(), image.getHeight(),
+                    System.nanoTime(), image);
+            Rect rect = mDecodeRect;
+            if (rect.right <= frame.width && rect.bottom <= frame.height) {
+                frame.setCrop(rect.left, rect.top, rect.width(), rect.height());
+            }
+            handler.obtainMessage(DECODE, frame).sendToTarget();
+        }
+    }
+
+    /**
+     * Tells the decode scheduler when continuous autofocus starts and stops a sweep.
+     */
+    private final class FocusStateCallback extends CameraCaptureSession.CaptureCallback {
+        private boolean mScanning;
+
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            boolean scanning = afState != null
+                    && (afState == CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN
+                    || afState == CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN);
+            if (scanning != mScanning) {
+                mScanning = scanning;
+                if (scanning) {
+                    mDecodeScheduler.onAutoFocusStarted();
+                } else {
+                    mDecodeScheduler.onAutoFocusFinished();
+                }
+            }
+        }
+    }
+}
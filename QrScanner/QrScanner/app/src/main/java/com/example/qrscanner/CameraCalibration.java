@@ -0,0 +1,377 @@
+package com.example.qrscanner;
+
+import android.content.SharedPreferences;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the CameraProfile which reads a reference code fastest on this device, by scanning it
+ * for a while with each candidate profile and comparing how many decodes per second it got.
+ *
+ * Sweeping every combination would take minutes, so the settings are swept one after the other
+ * from the start profile, each stage keeping the best value so far: first the preview size,
+ * then focus mode and autofocus interval, then the decode worker count. A profile measured in
+ * an earlier stage is not run again. Ties go to the profile measured first.
+ *
+ * Either the trials are run by the caller, with next() and onTrialFinished(), or by start(),
+ * which has a Host scan into getSession() with every profile and stores the best one.
+ *
+ * Not thread-safe, except that getSession() may be handed results on any thread.
+ */
+final class CameraCalibration {
+
+    /**
+     * Scans with the profiles of a calibration run by start().
+     */
+    interface Host {
+        /**
+         * Sets the scanner up again with the profile, with its results going to getSession(),
+         * and calls finishTrial() once the trial time is over.
+         */
+        void startTrial(CameraProfile profile);
+
+        /**
+         * Called once every profile was tried.
+         *
+         * @param best The profile stored, or null if no trial decoded the reference code.
+         */
+        void onCalibrationFinished(CameraProfile best);
+    }
+
+    /**
+     * Autofocus intervals tried with the focus modes driven by autofocus sweeps.
+     */
+    static final long[] AUTO_FOCUS_INTERVALS_MS = {750L, 1500L, 3000L};
+    /**
+     * Focus modes tried when the camera supports them, as in Camera.Parameters.FOCUS_MODE_*.
+     */
+    static final String[] FOCUS_MODES = {"auto", "macro", "continuous-picture"};
+    static final int MAX_PREVIEW_SIZES = 4;
+    static final int MIN_PIXELS = 640 * 480;
+    static final int MAX_PIXELS = 1920 * 1080;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final int STAGE_PREVIEW_SIZE = 0;
+    private static final int STAGE_FOCUS = 1;
+    private static final int STAGE_WORKERS = 2;
+    private static final int STAGE_COUNT = 3;
+
+    private final List<int[]> mPreviewSizes;
+    private final List<String> mFocusModes;
+    private final int[] mWorkerCounts;
+    private final Map<CameraProfile, Double> mRates = new HashMap<CameraProfile, Double>();
+    private CameraProfile mBest;
+    private double mBestRate = -1;
+    private int mStage = -1;
+    private final List<CameraProfile> mStageTrials = new ArrayList<CameraProfile>();
+    private int mNextTrial;
+    private CameraProfile mCurrent;
+    private final AtomicInteger mTrialDecodes = new AtomicInteger();
+    private volatile String mReferenceText;
+    private final ScanSession mSession;
+    private Host mHost;
+    private DecodeScheduler.Clock mClock;
+    private SharedPreferences mPreferences;
+    private String mPreferenceKey;
+    private long mTrialStartNanos;
+
+    /**
+     * @param previewSizes Preview sizes to try, as {width, height}.
+     * @param focusModes Focus modes to try.
+     * @param workerCounts Decode worker counts to try.
+     * @param start Profile the sweep starts from, also the first one measured.
+     */
+    CameraCalibration(List<int[]> previewSizes, List<String> focusModes, int[] workerCounts,
+                      CameraProfile start) {
+        mPreviewSizes = previewSizes;
+        mFocusModes = focusModes;
+        mWorkerCounts = workerCounts;
+        mBest = start;
+        mStageTrials.add(start);
+        mSession = createSession(new ScanSession.Listener() {
+            @Override
+            public void onNewCode(String text, BarcodeFormat format, int codeCount) {
+                String reference = mReferenceText;
+                if (reference == null || reference.equals(text)) {
+                    mTrialDecodes.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return A calibration of the sizes and focus modes out of those supported worth trying
+     * for a surface of the given size, and of 1, 2 and the default number of decode workers.
+     */
+    static CameraCalibration create(List<int[]> supportedSizes, List<String> supportedFocusModes,
+                                    int surfaceWidth, int surfaceHeight, CameraProfile start) {
+        List<String> focusModes = new ArrayList<String>();
+        for (String focusMode : FOCUS_MODES) {
+            if (supportedFocusModes.contains(focusMode)) {
+                focusModes.add(focusMode);
+            }
+        }
+        Set<Integer> workerCounts = new TreeSet<Integer>();
+        workerCounts.add(1);
+        workerCounts.add(Math.min(2, Runtime.getRuntime().availableProcessors()));
+        workerCounts.add(DecodeWorkerPool.defaultWorkerCount());
+        int[] workers = new int[workerCounts.size()];
+        int i = 0;
+        for (int count : workerCounts) {
+            workers[i++] = count;
+        }
+        return new CameraCalibration(candidatePreviewSizes(supportedSizes, surfaceWidth,
+                surfaceHeight, MIN_PIXELS, MAX_PIXELS, MAX_PREVIEW_SIZES), focusModes, workers,
+                start);
+    }
+
+    /**
+     * @return A session which keeps every decode from ending the scan, but counts nothing, for
+     * scanning before a calibration starts.
+     */
+    static ScanSession createIdleSession() {
+        return createSession(new ScanSession.Listener() {
+            @Override
+            public void onNewCode(String text, BarcodeFormat format, int codeCount) {
+            }
+        });
+    }
+
+    private static ScanSession createSession(ScanSession.Listener listener) {
+        // Without a ttl every decode of the reference code counts.
+        return new ScanSession(new ResultDedupCache(1, 0), listener,
+                DecodeScheduler.SYSTEM_CLOCK);
+    }
+
+    /**
+     * Only decodes of this text count, null for any code.
+     */
+    void setReferenceText(String text) {
+        mReferenceText = text;
+    }
+
+    /**
+     * @return The session the scanner reports decodes to during trials run by start().
+     */
+    ScanSession getSession() {
+        return mSession;
+    }
+
+    /**
+     * Starts the first trial. Once every profile was tried, the best one is stored under
+     * preferenceKey and passed to the host.
+     *
+     * @param preferences Where the best profile is stored, or null to not store it.
+     */
+    void start(Host host, DecodeScheduler.Clock clock, SharedPreferences preferences,
+               String preferenceKey) {
+        mHost = host;
+        mClock = clock;
+        mPreferences = preferences;
+        mPreferenceKey = preferenceKey;
+        startTrial(next());
+    }
+
+    /**
+     * Ends the running trial of start() with the decodes counted by the session, and starts
+     * the next one or finishes the calibration.
+     */
+    void finishTrial() {
+        if (mHost == null) {
+            throw new IllegalStateException("Not started");
+        }
+        onTrialFinished(mTrialDecodes.get(), mClock.nanoTime() - mTrialStartNanos);
+        CameraProfile next = next();
+        if (next != null) {
+            startTrial(next);
+            return;
+        }
+        Host host = mHost;
+        mHost = null;
+        CameraProfile best = getBest();
+        if (best != null && mPreferences != null) {
+            mPreferences.edit().putString(mPreferenceKey, best.encode()).apply();
+        }
+        host.onCalibrationFinished(best);
+    }
+
+    /**
+     * @return The decodes counted by the session during the running trial.
+     */
+    int getTrialDecodes() {
+        return mTrialDecodes.get();
+    }
+
+    private void startTrial(CameraProfile profile) {
+        mHost.startTrial(profile);
+        // After the host set the scanner up, which may take a while.
+        mTrialDecodes.set(0);
+        mTrialStartNanos = mClock.nanoTime();
+    }
+
+    /**
+     * @return The profile to measure next, or null once the sweep is done.
+     */
+    CameraProfile next() {
+        if (mCurrent != null) {
+            throw new IllegalStateException("Trial of " + mCurrent + " not finished");
+        }
+        while (true) {
+            while (mNextTrial < mStageTrials.size()) {
+                CameraProfile trial = mStageTrials.get(mNextTrial++);
+                if (!mRates.containsKey(trial)) {
+                    mCurrent = trial;
+                    return trial;
+                }
+            }
+            if (++mStage == STAGE_COUNT) {
+                return null;
+            }
+            mStageTrials.clear();
+            mStageTrials.addAll(stageTrials(mStage, mBest));
+            mNextTrial = 0;
+        }
+    }
+
+    /**
+     * Ends the trial of the profile returned by next().
+     *
+     * @param decodes How often the reference code was decoded during the trial.
+     */
+    void onTrialFinished(int decodes, long elapsedNanos) {
+        if (mCurrent == null) {
+            throw new IllegalStateException("No trial running");
+        }
+        double rate = elapsedNanos > 0 ? decodes * NANOS_PER_SECOND / elapsedNanos : 0;
+        mRates.put(mCurrent, rate);
+        if (rate > mBestRate) {
+            mBest = mCurrent;
+            mBestRate = rate;
+        }
+        mCurrent = null;
+    }
+
+    /**
+     * @return The fastest profile so far, or null if no trial decoded the code.
+     */
+    CameraProfile getBest() {
+        return mBestRate > 0 ? mBest : null;
+    }
+
+    /**
+     * @return Decodes per second of getBest().
+     */
+    double getBestRate() {
+        return Math.max(0, mBestRate);
+    }
+
+    /**
+     * @return How many trials finished.
+     */
+    int getTrialCount() {
+        return mRates.size();
+    }
+
+    /**
+     * @return Decodes per second measured for the profile, or -1 if it was not measured.
+     */
+    double getRate(CameraProfile profile) {
+        Double rate = mRates.get(profile);
+        return rate != null ? rate : -1;
+    }
+
+    /**
+     * @return Up to maxCount of the supported {width, height} sizes worth trying for the surface:
+     * from minPixels to maxPixels, within a tenth of the aspect ratio of those closest to the
+     * surface's, in even steps from the largest to the smallest.
+     */
+    static List<int[]> candidatePreviewSizes(List<int[]> supported, int surfaceWidth,
+                                             int surfaceHeight, int minPixels, int maxPixels,
+                                             int maxCount) {
+        double surfaceRatio = ratio(surfaceWidth, surfaceHeight);
+        List<int[]> sizes = new ArrayList<int[]>();
+        // Screens are often taller than any preview size, so match the closest ratio there is.
+        double closestRatio = 0;
+        for (int[] size : supported) {
+            int pixels = size[0] * size[1];
+            if (pixels >= minPixels && pixels <= maxPixels) {
+                sizes.add(size);
+                double ratio = ratio(size[0], size[1]);
+                if (Math.abs(ratio - surfaceRatio) < Math.abs(closestRatio - surfaceRatio)) {
+                    closestRatio = ratio;
+                }
+            }
+        }
+        for (int i = sizes.size() - 1; i >= 0; i--) {
+            double ratio = ratio(sizes.get(i)[0], sizes.get(i)[1]);
+            if (Math.abs(ratio - closestRatio) / closestRatio > 0.1) {
+                sizes.remove(i);
+            }
+        }
+        Collections.sort(sizes, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(b[0] * b[1], a[0] * a[1]);
+            }
+        });
+        if (sizes.size() <= maxCount) {
+            return sizes;
+        }
+        List<int[]> spread = new ArrayList<int[]>();
+        for (int i = 0; i < maxCount; i++) {
+            int index = maxCount == 1 ? 0 : i * (sizes.size() - 1) / (maxCount - 1);
+            spread.add(sizes.get(index));
+        }
+        return spread;
+    }
+
+    private List<CameraProfile> stageTrials(int stage, CameraProfile best) {
+        List<CameraProfile> trials = new ArrayList<CameraProfile>();
+        switch (stage) {
+            case STAGE_PREVIEW_SIZE:
+                for (int[] size : mPreviewSizes) {
+                    trials.add(new CameraProfile(size[0], size[1], best.focusMode,
+                            best.autoFocusIntervalMs, best.decodeWorkers));
+                }
+                break;
+            case STAGE_FOCUS:
+                for (String focusMode : mFocusModes) {
+                    long[] intervals = CameraProfile.isContinuousFocus(focusMode)
+                            ? new long[]{0} : AUTO_FOCUS_INTERVALS_MS;
+                    for (long interval : intervals) {
+                        trials.add(new CameraProfile(best.previewWidth, best.previewHeight,
+                                focusMode, interval, best.decodeWorkers));
+                    }
+                }
+                break;
+            case STAGE_WORKERS:
+            default:
+                for (int workers : mWorkerCounts) {
+                    trials.add(new CameraProfile(best.previewWidth, best.previewHeight,
+                            best.focusMode, best.autoFocusIntervalMs, workers));
+                }
+                break;
+        }
+        return trials;
+    }
+
+    private static double ratio(double x, double y) {
+        return x < y ? x / y : y / x;
+    }
+
+    @Override
+    public String toString() {
+        return mRates.size() + " trials, best " + mBest + " at "
+                + Math.round(getBestRate() * 10) / 10.0 + " decodes/s";
+    }
+}
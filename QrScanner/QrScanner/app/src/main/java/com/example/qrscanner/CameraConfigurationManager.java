@@ -3,6 +3,7 @@ package com.example.qrscanner;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.hardware.Camera;
+import android.os.Build;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.util.Size;
@@ -10,25 +11,50 @@ import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Collection;
 
 /**
  * A class which deals with reading, parsing, and setting the camera parameters which are used to
  * configure the camera hardware.
+ *
+ * The negotiated preview size, focus and flash mode and display orientation are remembered in
+ * the default SharedPreferences, so later starts on the same device skip the negotiation. A
+ * CameraProfile replaces the negotiated preview size and focus mode where the camera supports
+ * them.
  */
 final class CameraConfigurationManager {
 
     private static final String TAG = "CameraConfiguration";
+    /**
+     * Camera.open() opens the first back facing camera, which getCameraInfo() reports as 0.
+     */
+    private static final int CAMERA_ID = 0;
 
     private final Context mContext;
     private Size mCameraResolution;
-    private int cwRotationFromDisplayToCamera;
+    private int mDisplayRotation;
+    private int mDisplayOrientation;
+    private boolean mUseSettingsCache = true;
+    private int mQrVersion;
+    private long mDecodeBudgetNanos;
+    private PreviewSizeStrategy mPreviewSizeStrategy;
+    private CameraProfile mProfile;
+    private String mFocusMode;
 
     CameraConfigurationManager(Context context) {
         this.mContext = context;
     }
 
+    /**
+     * Turns the remembered camera settings on or off, e.g. to measure a cold start. On by
+     * default.
+     */
+    void setUseSettingsCache(boolean useSettingsCache) {
+        mUseSettingsCache = useSettingsCache;
+    }
+
     private static void initializeTorch(Camera.Parameters parameters) {
         boolean currentSetting = false;
         doSetTorch(parameters, currentSetting);
@@ -65,15 +91,142 @@ final class CameraConfigurationManager {
         return result;
     }
 
+    /**
+     * Sets the profile applied by the next setDesiredCameraParameters() call, null for the
+     * negotiated settings. The settings are then not remembered, as the profile may change.
+     */
+    void setCameraProfile(CameraProfile profile) {
+        mProfile = profile;
+    }
+
+    /**
+     * Picks the preview size with a PreviewSizeStrategy for the given decode budget instead of
+     * the largest size matching the surface. The negotiated size is then not remembered, as it
+     * changes while scanning.
+     */
+    void setDecodeBudget(int qrVersion, long budgetNanos) {
+        mQrVersion = qrVersion;
+        mDecodeBudgetNanos = budgetNanos;
+    }
+
+    /**
+     * @return The strategy picking the preview size since the last setDesiredCameraParameters()
+     * call, or null without a decode budget.
+     */
+    PreviewSizeStrategy getPreviewSizeStrategy() {
+        return mPreviewSizeStrategy;
+    }
+
+    /**
+     * Switches the camera to the given {width, height} preview size. The preview must be
+     * stopped.
+     */
+    void setPreviewSize(Camera camera, int[] size) {
+        Camera.Parameters parameters = camera.getParameters();
+        parameters.setPreviewSize(size[0], size[1]);
+        camera.setParameters(parameters);
+        mCameraResolution = new Size(size[0], size[1]);
+    }
+
     /**
      * Reads, one time, values from the camera that are needed by the app.
      */
     void initFromCameraParameters(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
         WindowManager manager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
         Display display = manager.getDefaultDisplay();
-        int displayRotation = display.getRotation();
+        mDisplayRotation = display.getRotation();
+    }
+
+    void setDesiredCameraParameters(Camera camera, Size previewSize) {
+        Camera.Parameters parameters = camera.getParameters();
+
+        if (parameters == null) {
+            Log.w(TAG, "Device error: no camera parameters are available." +
+                    "Proceeding without configuration.");
+            return;
+        }
+
+        String key = CameraSettings.key(Build.FINGERPRINT, String.valueOf(CAMERA_ID),
+                mDisplayRotation, previewSize.getWidth(), previewSize.getHeight());
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mPreviewSizeStrategy = null;
+        if (mDecodeBudgetNanos > 0) {
+            List<int[]> sizes = new ArrayList<int[]>();
+            for (Camera.Size size : parameters.getSupportedPreviewSizes()) {
+                sizes.add(new int[]{size.width, size.height});
+            }
+            mPreviewSizeStrategy = new PreviewSizeStrategy(sizes, previewSize.getWidth(),
+                    previewSize.getHeight(), mQrVersion, mDecodeBudgetNanos);
+        }
+        boolean useSettingsCache = mUseSettingsCache && mPreviewSizeStrategy == null
+                && mProfile == null;
+        CameraSettings settings = useSettingsCache
+                ? CameraSettings.decode(prefs.getString(key, null)) : null;
+        if (settings != null) {
+            try {
+                applySettings(camera, parameters, settings);
+                Log.i(TAG, "Reused camera settings " + settings.encode());
+                return;
+            } catch (RuntimeException e) {
+                // The driver no longer takes them, negotiate from scratch.
+                Log.w(TAG, "Could not reuse camera settings: " + e);
+                prefs.edit().remove(key).apply();
+                parameters = camera.getParameters();
+            }
+        }
 
+        initializeTorch(parameters);
+        String focusMode = null;
+        if (mProfile != null) {
+            focusMode = findSettableValue(parameters.getSupportedFocusModes(),
+                    mProfile.focusMode);
+        }
+        if (focusMode == null) {
+            // Continuous focus needs no sweeps, the FocusController adds them where it fails.
+            focusMode = findSettableValue(parameters.getSupportedFocusModes(),
+                    Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
+                    Camera.Parameters.FOCUS_MODE_AUTO,
+                    Camera.Parameters.FOCUS_MODE_MACRO);
+        }
+        Size resolution;
+        if (mPreviewSizeStrategy != null) {
+            int[] size = mPreviewSizeStrategy.getSize();
+            resolution = new Size(size[0], size[1]);
+        } else if (mProfile != null && isSupported(parameters.getSupportedPreviewSizes(),
+                mProfile.previewWidth, mProfile.previewHeight)) {
+            resolution = new Size(mProfile.previewWidth, mProfile.previewHeight);
+        } else {
+            resolution = getBestPreviewSize(parameters, previewSize);
+        }
+        settings = new CameraSettings(resolution.getWidth(), resolution.getHeight(),
+                focusMode, parameters.getFlashMode(), getDisplayOrientation(mDisplayRotation));
+        applySettings(camera, parameters, settings);
+        if (useSettingsCache) {
+            prefs.edit().putString(key, settings.encode()).apply();
+        }
+    }
+
+    private void applySettings(Camera camera, Camera.Parameters parameters,
+                               CameraSettings settings) {
+        if (settings.flashMode != null) {
+            parameters.setFlashMode(settings.flashMode);
+        }
+        if (settings.focusMode != null) {
+            parameters.setFocusMode(settings.focusMode);
+        }
+        mFocusMode = settings.focusMode;
+        parameters.setPreviewSize(settings.previewWidth, settings.previewHeight);
+        camera.setParameters(parameters);
+        camera.setDisplayOrientation(settings.displayOrientation);
+        mDisplayOrientation = settings.displayOrientation;
+        mCameraResolution = new Size(settings.previewWidth, settings.previewHeight);
+    }
+
+    /**
+     * @return The clockwise rotation from the display to the camera, for
+     * Camera.setDisplayOrientation().
+     */
+    private static int getDisplayOrientation(int displayRotation) {
         int cwRotationFromNaturalToDisplay;
         switch (displayRotation) {
             case Surface.ROTATION_0:
@@ -98,7 +251,7 @@ final class CameraConfigurationManager {
         }
         Log.i(TAG, "Display at: " + cwRotationFromNaturalToDisplay);
         Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-        Camera.getCameraInfo(0, cameraInfo);
+        Camera.getCameraInfo(CAMERA_ID, cameraInfo);
 
         int cwRotationFromNaturalToCamera = cameraInfo.orientation;
         Log.i(TAG, "Camera at: " + cwRotationFromNaturalToCamera);
@@ -106,30 +259,24 @@ final class CameraConfigurationManager {
         int cwRotationFromDisplayToCamera =
                 (360 + cwRotationFromNaturalToCamera - cwRotationFromNaturalToDisplay) % 360;
         Log.i(TAG, "Display orientation: " + cwRotationFromDisplayToCamera);
-        camera.setDisplayOrientation(cwRotationFromDisplayToCamera);
+        return cwRotationFromDisplayToCamera;
     }
 
-    void setDesiredCameraParameters(Camera camera, Size previewSize) {
-        Camera.Parameters parameters = camera.getParameters();
-
-        if (parameters == null) {
-            Log.w(TAG, "Device error: no camera parameters are available." +
-                    "Proceeding without configuration.");
-            return;
-        }
-
-        initializeTorch(parameters);
-        String focusMode = findSettableValue(parameters.getSupportedFocusModes(),
-                Camera.Parameters.FOCUS_MODE_AUTO,
-                Camera.Parameters.FOCUS_MODE_MACRO);
-        if (focusMode != null) {
-            parameters.setFocusMode(focusMode);
-        }
-        mCameraResolution = getBestPreviewSize(parameters, previewSize);
-        parameters.setPreviewSize(mCameraResolution.getWidth(), mCameraResolution.getHeight());
-        camera.setParameters(parameters);
+    /**
+     * @return The clockwise rotation of the preview on the display since the last
+     * setDesiredCameraParameters() call, in degrees.
+     */
+    int getDisplayOrientation() {
+        return mDisplayOrientation;
     }
 
+    /**
+     * @return The focus mode set by the last setDesiredCameraParameters() call, or null if it
+     * was left at the camera's default.
+     */
+    String getFocusMode() {
+        return mFocusMode;
+    }
 
     Size getCameraResolution() {
         return mCameraResolution;
@@ -143,23 +290,45 @@ final class CameraConfigurationManager {
     }
 
     private Size getBestPreviewSize(Camera.Parameters parameters, Size windowSize) {
+        List<Camera.Size> supportedSizes = parameters.getSupportedPreviewSizes();
+        Size[] sizes = new Size[supportedSizes.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new Size(supportedSizes.get(i).width, supportedSizes.get(i).height);
+        }
+        return findBestPreviewSize(sizes, windowSize);
+    }
+
+    /**
+     * Picks the largest size whose aspect ratio is close to the window. Shared with the camera2
+     * backend, which gets its sizes from the StreamConfigurationMap.
+     */
+    static Size findBestPreviewSize(Size[] supportedSizes, Size windowSize) {
         final double minRatioDiffPercent = 0.1;
         final double winRatio = getRatio(windowSize.getWidth(), windowSize.getHeight());
         double bestChoiceRatio = 0;
         Size bestChoice = new Size(0, 0);
-        for (Camera.Size size : parameters.getSupportedPreviewSizes()) {
-            double ratio = getRatio(size.width, size.height);
-            if (size.height * size.width > bestChoice.getWidth() * bestChoice.getHeight()
+        for (Size size : supportedSizes) {
+            double ratio = getRatio(size.getWidth(), size.getHeight());
+            if (size.getHeight() * size.getWidth() > bestChoice.getWidth() * bestChoice.getHeight()
                     && (Math.abs(bestChoiceRatio - winRatio) / winRatio > minRatioDiffPercent
                     || Math.abs(ratio - winRatio) / winRatio <= minRatioDiffPercent)) {
-                bestChoice = new Size(size.width, size.height);
-                bestChoiceRatio = getRatio(size.width, size.height);
+                bestChoice = size;
+                bestChoiceRatio = ratio;
             }
         }
         return bestChoice;
     }
 
-    private double getRatio(double x, double y) {
+    private static boolean isSupported(List<Camera.Size> sizes, int width, int height) {
+        for (Camera.Size size : sizes) {
+            if (size.width == width && size.height == height) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double getRatio(double x, double y) {
         return (x < y) ? x / y : y / x;
     }
 }
@@ -2,7 +2,9 @@ package com.example.qrscanner;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.os.Message;
@@ -16,21 +18,37 @@ import java.lang.Exception;
 import com.example.qrscanner.CameraConfigurationManager;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * This object wraps the Camera service object and expects to be the only one talking to it. The
  * implementation encapsulates the steps needed to take preview-sized images, which are used for
  * both preview and decoding.
  */
-public final class CameraManager {
+public final class CameraManager implements CameraSource {
 
     public static final int DECODE = 1;
-    public static final int AUTO_FOCUS = 2;
+    public static final int DECODE_SUCCEEDED = 3;
     private static final String TAG = CameraManager.class.getSimpleName();
+    /**
+     * Number of buffers kept queued with the camera driver in buffer pool mode.
+     */
+    private static final int PREVIEW_QUEUE_DEPTH = 2;
+    /**
+     * Fraction of the shorter surface side covered by the square viewfinder, in eighths.
+     */
+    private static final int FRAMING_RECT_EIGHTHS = 6;
+    private static final int MIN_FRAME_SIZE = 240;
     private final Context context;
     private final PreviewCallback previewCallback;
     private final AutoFocusCallback autoFocusCallback;
     private Camera camera;
+    private FutureTask<Camera> mPendingOpen;
     private boolean initialized;
     private boolean previewing;
     private int requestedFramingRectWidth;
@@ -38,18 +56,55 @@ public final class CameraManager {
     private Handler mDecodeHandler;
     private CameraConfigurationManager configManager;
     private Size mPreviewSize;
+    private boolean mUseBufferPool;
+    private int mDecodeBufferCount = 1;
+    private PreviewBufferPool mBufferPool;
+    private int mQueuedBuffers;
+    private Rect mFramingRect;
+    private Rect mFramingRectInPreview;
+    private Rect mFullFrameRect;
+    private DecodeScheduler mDecodeScheduler;
+    private ScanMetrics mScanMetrics = ScanMetrics.DISABLED;
+    private FrameRecorder mFrameRecorder;
+    private long mAutoFocusIntervalMs = FocusController.DEFAULT_INTERVAL_MS;
+    private volatile FocusController mFocusController;
 
     public CameraManager(Context context, Handler handler) {
         this.context = context;
         this.mDecodeHandler = handler;
         previewCallback = new PreviewCallback();
         autoFocusCallback = new AutoFocusCallback();
+        autoFocusCallback.setListener(new AutoFocusCallback.Listener() {
+            @Override
+            public void onAutoFocusFinished(boolean success) {
+                FocusController controller = mFocusController;
+                if (controller != null) {
+                    perform(controller, controller.onFocusFinished(success, System.nanoTime()));
+                }
+            }
+        });
         this.configManager = new CameraConfigurationManager(context);
     }
 
+    @Override
+    public void prepare() {
+        if (camera != null || mPendingOpen != null) {
+            return;
+        }
+        mPendingOpen = new FutureTask<Camera>(new Callable<Camera>() {
+            @Override
+            public Camera call() {
+                return Camera.open();
+            }
+        });
+        // This thread has no Looper, so camera callbacks still arrive on the main thread.
+        new Thread(mPendingOpen, "CameraOpen").start();
+    }
+
+    @Override
     public void openDriver(SurfaceHolder holder) throws IOException {
         if (camera == null) {
-            camera = Camera.open();
+            camera = mPendingOpen != null ? takePendingCamera() : Camera.open();
             if (camera == null) {
                 throw new IOException();
             }
@@ -59,6 +114,8 @@ public final class CameraManager {
             configManager.initFromCameraParameters(camera);
         }
         configManager.setDesiredCameraParameters(camera, mPreviewSize);
+        mFramingRect = null;
+        mFramingRectInPreview = null;
         camera.setPreviewDisplay(holder);
         startPreview(holder);
     }
@@ -66,22 +123,60 @@ public final class CameraManager {
     /**
      * Closes the camera driver if still in use.
      */
+    @Override
     public void closeDriver() {
+        if (mPendingOpen != null) {
+            try {
+                Camera pending = takePendingCamera();
+                if (pending != null) {
+                    pending.release();
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Camera opened in the background failed: " + e);
+            }
+        }
         if (camera != null) {
-            camera.release();
-            camera = null;
+            Camera closing;
+            // Decode threads returning buffers must not queue them on the released camera.
+            synchronized (previewCallback) {
+                closing = camera;
+                camera = null;
+                mBufferPool = null;
+            }
+            closing.release();
             initialized = false;
         }
     }
 
+    /**
+     * Waits for the camera opened by prepare().
+     */
+    private Camera takePendingCamera() throws IOException {
+        FutureTask<Camera> pendingOpen = mPendingOpen;
+        mPendingOpen = null;
+        try {
+            return pendingOpen.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not open camera", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted opening camera");
+        }
+    }
+
     /**
      * Tells the camera to stop drawing preview frames.
      */
+    @Override
     public void stopPreview() {
         if (previewing) {
             Log.d(TAG, "stoping camera preview");
+            if (mBufferPool != null) {
+                camera.setPreviewCallbackWithBuffer(null);
+            }
             camera.stopPreview();
             previewing = false;
+            Log.i(TAG, "Autofocus: " + mFocusController);
         }
     }
 
@@ -92,12 +187,18 @@ public final class CameraManager {
         Log.d(TAG, "starting camera preview");
         if (camera != null && !previewing) {
             try {
+                if (mUseBufferPool) {
+                    setUpBufferPool();
+                }
                 camera.startPreview();
             } catch (Exception e) {
                 Log.d(TAG, "Could not start camera preview : " + e);
             }
             previewing = true;
-            requestAutoFocus();
+            // A fresh controller starts a sweep with the first frame unless focus is continuous.
+            mFocusController = new FocusController(
+                    CameraProfile.isContinuousFocus(configManager.getFocusMode()),
+                    mAutoFocusIntervalMs);
             previewAndDecode();
         }
     }
@@ -114,31 +215,371 @@ public final class CameraManager {
         camera.setDisplayOrientation(val);
     }
 
+    @Override
     public void previewAndDecode() {
         if (camera != null && previewing) {
             previewCallback.setHandler(mDecodeHandler);
-            camera.setOneShotPreviewCallback(previewCallback);
+            if (mBufferPool == null) {
+                camera.setOneShotPreviewCallback(previewCallback);
+            }
+        }
+    }
+
+    /**
+     * Makes the camera write preview frames into a fixed set of buffers instead of allocating a
+     * new byte[] per frame. Must be called before openDriver(). In this mode every frame passed
+     * to the decode handler has to be given back with releaseFrame().
+     */
+    public void setUseBufferPool(boolean useBufferPool) {
+        mUseBufferPool = useBufferPool;
+    }
+
+    @Override
+    public void setDecodeBudget(int qrVersion, long budgetNanos) {
+        configManager.setDecodeBudget(qrVersion, budgetNanos);
+    }
+
+    @Override
+    public PreviewSizeStrategy getPreviewSizeStrategy() {
+        return configManager.getPreviewSizeStrategy();
+    }
+
+    @Override
+    public int getDisplayOrientation() {
+        return configManager.getDisplayOrientation();
+    }
+
+    @Override
+    public void applyPreviewSize() {
+        PreviewSizeStrategy strategy = configManager.getPreviewSizeStrategy();
+        if (camera == null || !previewing || strategy == null) {
+            return;
+        }
+        int[] size = strategy.getSize();
+        Log.i(TAG, "Switching preview to " + size[0] + "x" + size[1]);
+        stopPreview();
+        configManager.setPreviewSize(camera, size);
+        mFramingRectInPreview = null;
+        // Frames of the old size still being decoded go back to a pool which no longer owns
+        // them and are dropped.
+        startPreview(null);
+    }
+
+    /**
+     * Turns reusing the camera settings negotiated by an earlier start on or off. On by default.
+     */
+    public void setUseSettingsCache(boolean useSettingsCache) {
+        configManager.setUseSettingsCache(useSettingsCache);
+    }
+
+    /**
+     * Sets how many frames the decoder may hold on to at the same time in buffer pool mode, so
+     * that enough buffers are left for the camera. Must be called before openDriver().
+     */
+    public void setDecodeBufferCount(int count) {
+        mDecodeBufferCount = Math.max(1, count);
+    }
+
+    /**
+     * Returns a frame buffer to the pool once the decoder is done with it. Does nothing when
+     * buffer pool mode is off.
+     */
+    public void releasePreviewBuffer(byte[] data) {
+        synchronized (previewCallback) {
+            if (mBufferPool == null || !mBufferPool.owns(data)) {
+                return;
+            }
+            mBufferPool.release(data);
+            queuePreviewBuffers();
+        }
+    }
+
+    @Override
+    public void releaseFrame(PreviewFrame frame) {
+        releasePreviewBuffer(frame.data);
+    }
+
+    private void setUpBufferPool() {
+        Size cameraResolution = configManager.getCameraResolution();
+        int bufferSize = cameraResolution.getWidth() * cameraResolution.getHeight()
+                * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        synchronized (previewCallback) {
+            // Buffers queued during a previous preview session are dropped by the driver, so
+            // every session starts from a fresh pool.
+            mBufferPool = new PreviewBufferPool(PREVIEW_QUEUE_DEPTH + mDecodeBufferCount,
+                    bufferSize);
+            mQueuedBuffers = 0;
+            queuePreviewBuffers();
+        }
+        camera.setPreviewCallbackWithBuffer(previewCallback);
+    }
+
+    /**
+     * Tops the camera driver up to PREVIEW_QUEUE_DEPTH buffers. Must hold the previewCallback
+     * lock.
+     */
+    private void queuePreviewBuffers() {
+        if (camera == null) {
+            return;
         }
+        while (mQueuedBuffers < PREVIEW_QUEUE_DEPTH) {
+            byte[] buffer = mBufferPool.acquire();
+            if (buffer == null) {
+                break;
+            }
+            camera.addCallbackBuffer(buffer);
+            mQueuedBuffers++;
+        }
+    }
+
+    @Override
+    public void setDecodeScheduler(DecodeScheduler scheduler) {
+        mDecodeScheduler = scheduler;
+        autoFocusCallback.setDecodeScheduler(scheduler);
+    }
+
+    @Override
+    public void setScanMetrics(ScanMetrics metrics) {
+        mScanMetrics = metrics;
+    }
+
+    /**
+     * Records every preview frame, before it is decoded or skipped, or null to stop. Recording
+     * copies each frame on the main thread, which delays the next one, so it is for collecting
+     * test data rather than for everyday scanning.
+     */
+    void setFrameRecorder(FrameRecorder recorder) {
+        mFrameRecorder = recorder;
+    }
+
+    /**
+     * Applies a calibrated profile's preview size, focus mode and autofocus interval from the
+     * next openDriver() call on, null for the negotiated settings.
+     */
+    void setCameraProfile(CameraProfile profile) {
+        configManager.setCameraProfile(profile);
+        mAutoFocusIntervalMs = profile != null ? profile.autoFocusIntervalMs
+                : FocusController.DEFAULT_INTERVAL_MS;
     }
 
-    protected void setPreviewSize(int width, int height) {
+    /**
+     * @return The settings the camera was opened with, as a profile with the given worker
+     * count, or null if it is not open.
+     */
+    CameraProfile getOpenedProfile(int decodeWorkers) {
+        Size resolution = configManager.getCameraResolution();
+        if (camera == null || resolution == null) {
+            return null;
+        }
+        String focusMode = configManager.getFocusMode();
+        return new CameraProfile(resolution.getWidth(), resolution.getHeight(), focusMode,
+                CameraProfile.isContinuousFocus(focusMode) ? 0 : mAutoFocusIntervalMs,
+                decodeWorkers);
+    }
+
+    /**
+     * @return The preview sizes of the open camera as {width, height}, or an empty list if it
+     * is not open.
+     */
+    List<int[]> getSupportedPreviewSizes() {
+        List<int[]> sizes = new ArrayList<int[]>();
+        if (camera != null) {
+            for (Camera.Size size : camera.getParameters().getSupportedPreviewSizes()) {
+                sizes.add(new int[]{size.width, size.height});
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * @return The focus modes of the open camera, or an empty list if it is not open.
+     */
+    List<String> getSupportedFocusModes() {
+        List<String> modes = camera != null
+                ? camera.getParameters().getSupportedFocusModes() : null;
+        return modes != null ? modes : new ArrayList<String>();
+    }
+
+    @Override
+    public void setPreviewSize(int width, int height) {
         mPreviewSize =  new Size(width, height);
+        mFramingRect = null;
+        mFramingRectInPreview = null;
+    }
+
+    /**
+     * Allows third party apps to specify the size of the viewfinder, in surface pixels, instead
+     * of the default square centered on the surface.
+     */
+    public void setManualFramingRect(int width, int height) {
+        requestedFramingRectWidth = width;
+        requestedFramingRectHeight = height;
+        mFramingRect = null;
+        mFramingRectInPreview = null;
     }
 
+    /**
+     * Calculates the viewfinder rectangle, centered on the surface, where the user is expected
+     * to hold the QR code.
+     *
+     * @return The rectangle in surface coordinates, or null if the surface size is not known yet.
+     */
+    public Rect getFramingRect() {
+        if (mFramingRect == null) {
+            if (mPreviewSize == null) {
+                return null;
+            }
+            mFramingRect = computeFramingRect(mPreviewSize,
+                    requestedFramingRectWidth, requestedFramingRectHeight);
+            Log.d(TAG, "Calculated framing rect: " + mFramingRect);
+        }
+        return mFramingRect;
+    }
+
+    /**
+     * Like getFramingRect() but coordinates are in terms of the preview frame, not the surface.
+     */
+    public Rect getFramingRectInPreview() {
+        if (mFramingRectInPreview == null) {
+            Rect framingRect = getFramingRect();
+            Size cameraResolution = configManager.getCameraResolution();
+            if (framingRect == null || cameraResolution == null) {
+                return null;
+            }
+            mFramingRectInPreview = toPreviewRect(framingRect, mPreviewSize, cameraResolution);
+        }
+        return mFramingRectInPreview;
+    }
 
     /**
-     * This method is copied from com.google.zxing.client.android.camera.CameraManager class.
-     * @return A PlanarYUVLuminanceSource instance.
+     * @return The viewfinder on a surface of the given size: the requested size if set, else a
+     * square covering most of the shorter side, centered.
      */
-    public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
-        return new PlanarYUVLuminanceSource(data, width, height);
+    static Rect computeFramingRect(Size surfaceSize, int requestedWidth, int requestedHeight) {
+        int surfaceWidth = surfaceSize.getWidth();
+        int surfaceHeight = surfaceSize.getHeight();
+        int width = requestedWidth;
+        int height = requestedHeight;
+        if (width <= 0 || height <= 0) {
+            int side = Math.min(surfaceWidth, surfaceHeight) * FRAMING_RECT_EIGHTHS / 8;
+            width = height = Math.max(side, MIN_FRAME_SIZE);
+        }
+        width = Math.min(width, surfaceWidth);
+        height = Math.min(height, surfaceHeight);
+        int leftOffset = (surfaceWidth - width) / 2;
+        int topOffset = (surfaceHeight - height) / 2;
+        return new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
     }
 
-    public void requestAutoFocus() {
-        if (camera != null && previewing) {
-            autoFocusCallback.setHandler(mDecodeHandler);
-            camera.autoFocus(autoFocusCallback);
+    /**
+     * Maps a rectangle on the surface into preview frame coordinates. The preview frame is
+     * always landscape, so the rectangle is swapped when the surface is portrait.
+     */
+    static Rect toPreviewRect(Rect framingRect, Size surfaceSize, Size cameraResolution) {
+        int surfaceWidth = surfaceSize.getWidth();
+        int surfaceHeight = surfaceSize.getHeight();
+        Rect rect = new Rect(framingRect);
+        if ((surfaceWidth < surfaceHeight)
+                != (cameraResolution.getWidth() < cameraResolution.getHeight())) {
+            rect.set(framingRect.top, framingRect.left, framingRect.bottom, framingRect.right);
+            surfaceWidth = surfaceSize.getHeight();
+            surfaceHeight = surfaceSize.getWidth();
         }
+        rect.left = rect.left * cameraResolution.getWidth() / surfaceWidth;
+        rect.right = rect.right * cameraResolution.getWidth() / surfaceWidth;
+        rect.top = rect.top * cameraResolution.getHeight() / surfaceHeight;
+        rect.bottom = rect.bottom * cameraResolution.getHeight() / surfaceHeight;
+        return rect;
+    }
+
+    /**
+     * @return The part of a width x height preview frame which should be decoded: the viewfinder
+     * from getFramingRectInPreview(), or the whole frame when the viewfinder is not known.
+     */
+    public Rect getDecodeRect(int width, int height) {
+        Rect rect = getFramingRectInPreview();
+        if (rect != null && rect.right <= width && rect.bottom <= height) {
+            return rect;
+        }
+        if (mFullFrameRect == null
+                || mFullFrameRect.width() != width || mFullFrameRect.height() != height) {
+            mFullFrameRect = new Rect(0, 0, width, height);
+        }
+        return mFullFrameRect;
+    }
+
+    /**
+     * Passes the frame to the FocusController and does what it asks for. Called on the decode
+     * thread or a decode worker.
+     */
+    @Override
+    public void onFrameAnalyzed(double sharpness, float[] finderPoints, int finderPointCount) {
+        FocusController controller = mFocusController;
+        if (controller == null || !previewing) {
+            return;
+        }
+        FocusController.Action action;
+        // Workers finish frames at the same time, keep their points apart.
+        synchronized (controller) {
+            for (int i = 0; i + 1 < finderPointCount * 2; i += 2) {
+                controller.onFinderPattern(finderPoints[i], finderPoints[i + 1]);
+            }
+            action = controller.onFrame(sharpness, System.nanoTime());
+        }
+        perform(controller, action);
+    }
+
+    private void perform(FocusController controller, FocusController.Action action) {
+        if (camera == null || !previewing) {
+            return;
+        }
+        try {
+            if (action == FocusController.Action.FOCUS) {
+                autoFocus(controller.getFocusArea());
+            } else if (action == FocusController.Action.RESUME_CONTINUOUS) {
+                setFocusArea(null);
+                camera.cancelAutoFocus();
+            }
+        } catch (RuntimeException e) {
+            // The preview stopped meanwhile, the sweep times out in the controller.
+            Log.w(TAG, "Could not change focus: " + e);
+        }
+    }
+
+    /**
+     * @param area {left, top, right, bottom} in frame pixels to focus and meter on, or null.
+     */
+    private void autoFocus(int[] area) {
+        setFocusArea(area);
+        if (mDecodeScheduler != null) {
+            mDecodeScheduler.onAutoFocusStarted();
+        }
+        autoFocusCallback.onAutoFocusStarted();
+        camera.autoFocus(autoFocusCallback);
+    }
+
+    private void setFocusArea(int[] area) {
+        Size resolution = configManager.getCameraResolution();
+        Camera.Parameters parameters = camera.getParameters();
+        boolean focusAreas = parameters.getMaxNumFocusAreas() > 0;
+        boolean meteringAreas = parameters.getMaxNumMeteringAreas() > 0;
+        if (resolution == null || !focusAreas && !meteringAreas) {
+            return;
+        }
+        List<Camera.Area> areas = null;
+        if (area != null) {
+            int[] rect = FocusController.toCameraArea(area, resolution.getWidth(),
+                    resolution.getHeight());
+            areas = Collections.singletonList(new Camera.Area(
+                    new Rect(rect[0], rect[1], rect[2], rect[3]), 1000));
+        }
+        if (focusAreas) {
+            parameters.setFocusAreas(areas);
+        }
+        if (meteringAreas) {
+            parameters.setMeteringAreas(areas);
+        }
+        camera.setParameters(parameters);
     }
 
     /**
@@ -152,19 +593,52 @@ public final class CameraManager {
         }
 
         public void onPreviewFrame(byte[] data, Camera camera) {
+            mScanMetrics.onFrameReceived();
             Size cameraResolution = configManager.getCameraResolution();
-            if (decodeHandler != null) {
-                Message message = new Message();
-                message.obj = data;
-                message.arg1 = cameraResolution.getWidth();
-                message.arg2 = cameraResolution.getHeight();
-                message.what = DECODE;
-                decodeHandler.sendMessage(message);
+            if (mFrameRecorder != null) {
+                record(data, cameraResolution);
+            }
+            boolean pooled;
+            synchronized (this) {
+                pooled = mBufferPool != null && mBufferPool.owns(data);
+                if (pooled) {
+                    mQueuedBuffers--;
+                }
+            }
+            if (decodeHandler != null
+                    && mDecodeScheduler != null && !mDecodeScheduler.shouldDecode()) {
+                // Skipped, stay armed and wait for the next frame.
+                if (pooled) {
+                    releasePreviewBuffer(data);
+                } else {
+                    camera.setOneShotPreviewCallback(this);
+                }
+            } else if (decodeHandler != null) {
+                int width = cameraResolution.getWidth();
+                int height = cameraResolution.getHeight();
+                PreviewFrame frame = new PreviewFrame(data, width, height, System.nanoTime());
+                Rect rect = getDecodeRect(width, height);
+                frame.setCrop(rect.left, rect.top, rect.width(), rect.height());
+                decodeHandler.obtainMessage(DECODE, frame).sendToTarget();
                 decodeHandler = null;
+            } else if (pooled) {
+                // Nobody wants this frame, hand the buffer straight back to the camera.
+                releasePreviewBuffer(data);
             } else {
                 Log.d(TAG, "Got preview callback, but no handler for it");
             }
         }
+
+        private void record(byte[] data, Size cameraResolution) {
+            try {
+                mFrameRecorder.record(data, cameraResolution.getWidth(),
+                        cameraResolution.getHeight(), System.nanoTime(),
+                        autoFocusCallback.getFocusState());
+            } catch (IOException e) {
+                Log.e(TAG, "Could not record frame, recording stopped: " + e);
+                mFrameRecorder = null;
+            }
+        }
     }
 }
 
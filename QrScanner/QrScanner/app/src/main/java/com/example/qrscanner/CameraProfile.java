@@ -0,0 +1,102 @@
+package com.example.qrscanner;
+
+/**
+ * The scanner settings a CameraCalibration found to read codes fastest on a device: preview
+ * size, focus mode, autofocus interval and decode worker count. Stored per device and camera,
+ * and applied whenever the camera is opened.
+ *
+ * Settings the camera no longer supports, e.g. after a system update, are left at their
+ * negotiated defaults.
+ */
+final class CameraProfile {
+
+    private static final char SEPARATOR = ',';
+
+    final int previewWidth;
+    final int previewHeight;
+    /**
+     * A Camera.Parameters focus mode.
+     */
+    final String focusMode;
+    /**
+     * Least time from one autofocus sweep to the next, see FocusController; 0 in the
+     * continuous focus modes, which need none.
+     */
+    final long autoFocusIntervalMs;
+    final int decodeWorkers;
+
+    CameraProfile(int previewWidth, int previewHeight, String focusMode, long autoFocusIntervalMs,
+                  int decodeWorkers) {
+        if (previewWidth <= 0 || previewHeight <= 0) {
+            throw new IllegalArgumentException("Bad preview size: " + previewWidth + "x"
+                    + previewHeight);
+        }
+        if (decodeWorkers <= 0) {
+            throw new IllegalArgumentException("Bad worker count: " + decodeWorkers);
+        }
+        this.previewWidth = previewWidth;
+        this.previewHeight = previewHeight;
+        this.focusMode = focusMode;
+        this.autoFocusIntervalMs = Math.max(0, autoFocusIntervalMs);
+        this.decodeWorkers = decodeWorkers;
+    }
+
+    /**
+     * @return Whether the camera focuses by itself in this mode, so autofocus sweeps would only
+     * lock it. The values are those of Camera.Parameters.FOCUS_MODE_CONTINUOUS_*.
+     */
+    static boolean isContinuousFocus(String focusMode) {
+        return "continuous-picture".equals(focusMode) || "continuous-video".equals(focusMode);
+    }
+
+    /**
+     * @return The key the profile is stored under. The device fingerprint changes with every
+     * system update, which may change what the camera supports.
+     */
+    static String key(String fingerprint, String cameraId) {
+        return "camera_profile/" + fingerprint + '/' + cameraId;
+    }
+
+    String encode() {
+        return Integer.toString(previewWidth) + SEPARATOR + previewHeight + SEPARATOR
+                + (focusMode != null ? focusMode : "") + SEPARATOR + autoFocusIntervalMs
+                + SEPARATOR + decodeWorkers;
+    }
+
+    /**
+     * @return The profile encoded by encode(), or null if the value is missing or malformed.
+     */
+    static CameraProfile decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length != 5) {
+            return null;
+        }
+        try {
+            return new CameraProfile(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                    fields[2].isEmpty() ? null : fields[2], Long.parseLong(fields[3]),
+                    Integer.parseInt(fields[4]));
+        } catch (IllegalArgumentException e) {
+            // Also catches NumberFormatException.
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CameraProfile && encode().equals(((CameraProfile) o).encode());
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return previewWidth + "x" + previewHeight + ", focus " + focusMode + " every "
+                + autoFocusIntervalMs + " ms, " + decodeWorkers + " workers";
+    }
+}
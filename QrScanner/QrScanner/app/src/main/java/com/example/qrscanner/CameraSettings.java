@@ -0,0 +1,73 @@
+package com.example.qrscanner;
+
+/**
+ * Camera parameters negotiated once for a device, camera, display rotation and surface size, so
+ * later starts can apply them without going through the supported sizes and modes again.
+ */
+final class CameraSettings {
+
+    private static final char SEPARATOR = ',';
+
+    final int previewWidth;
+    final int previewHeight;
+    /**
+     * Focus and flash mode to set, or null to leave the camera's default.
+     */
+    final String focusMode;
+    final String flashMode;
+    final int displayOrientation;
+
+    CameraSettings(int previewWidth, int previewHeight, String focusMode, String flashMode,
+                   int displayOrientation) {
+        this.previewWidth = previewWidth;
+        this.previewHeight = previewHeight;
+        this.focusMode = focusMode;
+        this.flashMode = flashMode;
+        this.displayOrientation = displayOrientation;
+    }
+
+    /**
+     * @return The key the settings are stored under. The device fingerprint changes with every
+     * system update, which may change what the camera supports.
+     */
+    static String key(String fingerprint, String cameraId, int displayRotation,
+                      int surfaceWidth, int surfaceHeight) {
+        return "camera_settings/" + fingerprint + '/' + cameraId + '/' + displayRotation + '/'
+                + surfaceWidth + 'x' + surfaceHeight;
+    }
+
+    String encode() {
+        return Integer.toString(previewWidth) + SEPARATOR + previewHeight + SEPARATOR
+                + (focusMode != null ? focusMode : "") + SEPARATOR
+                + (flashMode != null ? flashMode : "") + SEPARATOR + displayOrientation;
+    }
+
+    /**
+     * @return The settings encoded by encode(), or null if the value is missing or malformed.
+     */
+    static CameraSettings decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length != 5) {
+            return null;
+        }
+        try {
+            int width = Integer.parseInt(fields[0]);
+            int height = Integer.parseInt(fields[1]);
+            int orientation = Integer.parseInt(fields[4]);
+            if (width <= 0 || height <= 0 || orientation % 90 != 0) {
+                return null;
+            }
+            return new CameraSettings(width, height, emptyToNull(fields[2]),
+                    emptyToNull(fields[3]), orientation);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
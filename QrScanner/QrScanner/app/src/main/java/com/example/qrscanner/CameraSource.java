@@ -0,0 +1,97 @@
+package com.example.qrscanner;
+
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * A camera backend which draws the preview on a surface and feeds preview frames to the
+ * DecodeHandler. After each previewAndDecode() call one frame is sent to the handler as a
+ * CameraManager.DECODE message holding a PreviewFrame, which must be given back with
+ * releaseFrame() once it has been decoded.
+ */
+interface CameraSource {
+
+    /**
+     * Sets the size of the preview surface, in pixels. Must be called before openDriver().
+     */
+    void setPreviewSize(int width, int height);
+
+    /**
+     * Sets the scheduler asked before each frame is sent to the decode handler, and told about
+     * autofocus sweeps. Must be called before openDriver().
+     */
+    void setDecodeScheduler(DecodeScheduler scheduler);
+
+    /**
+     * Sets the metrics told about every frame delivered by the camera.
+     */
+    void setScanMetrics(ScanMetrics metrics);
+
+    /**
+     * Picks preview frame sizes with a PreviewSizeStrategy for the given decode budget instead
+     * of the largest size matching the surface. Must be called before openDriver().
+     */
+    void setDecodeBudget(int qrVersion, long budgetNanos);
+
+    /**
+     * @return The strategy picking the preview size of the open camera, or null without a
+     * decode budget.
+     */
+    PreviewSizeStrategy getPreviewSizeStrategy();
+
+    /**
+     * @return The clockwise rotation, in degrees, which shows preview frames upright on the
+     * display, 0 if unknown.
+     */
+    int getDisplayOrientation();
+
+    /**
+     * Restarts the preview at the size the PreviewSizeStrategy currently picks. Call on the
+     * main thread.
+     */
+    void applyPreviewSize();
+
+    /**
+     * Starts opening the camera in the background, so that it is ready by the time the preview
+     * surface exists and openDriver() is called. Optional: openDriver() opens the camera itself
+     * otherwise.
+     */
+    void prepare();
+
+    /**
+     * Opens the camera and starts drawing the preview on the given surface.
+     */
+    void openDriver(SurfaceHolder holder) throws IOException;
+
+    /**
+     * Closes the camera driver if still in use.
+     */
+    void closeDriver();
+
+    /**
+     * Tells the camera to stop drawing preview frames.
+     */
+    void stopPreview();
+
+    /**
+     * Asks for the next preview frame to be sent to the decode handler.
+     */
+    void previewAndDecode();
+
+    /**
+     * Tells the source how a decoded frame looked, so that it can decide when to refocus. May be
+     * called from several decode workers at once.
+     *
+     * @param sharpness The frame's FrameQualityFilter sharpness, NaN if it was not measured.
+     * @param finderPoints The finder patterns found in the frame, as {x0, y0, x1, y1, ...} in
+     * frame pixels.
+     * @param finderPointCount How many points finderPoints holds.
+     */
+    void onFrameAnalyzed(double sharpness, float[] finderPoints, int finderPointCount);
+
+    /**
+     * Gives a frame received from this source back once it is no longer used.
+     */
+    void releaseFrame(PreviewFrame frame);
+}
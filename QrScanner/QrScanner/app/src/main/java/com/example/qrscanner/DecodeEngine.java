@@ -0,0 +1,24 @@
+package com.example.qrscanner;
+
+/**
+ * A QR decoder working on luma planes, so that decoders, e.g. two ZXing releases, can be run side
+ * by side on the same frames.
+ *
+ * Public because engines built against another ZXing release are relocated to another package.
+ */
+public interface DecodeEngine {
+
+    /**
+     * @return A short name for reports, e.g. "zxing-3.5.3".
+     */
+    String getName();
+
+    /**
+     * Decodes the given rectangle of a dataWidth x dataHeight luma plane, e.g. the Y plane of
+     * an NV21 frame.
+     *
+     * @return The text of the code found, or null if none was.
+     */
+    String decode(byte[] luma, int dataWidth, int dataHeight, int left, int top, int width,
+                  int height);
+}
@@ -1,84 +1,577 @@
 package com.example.qrscanner;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.util.Log;
 
-import com.google.zxing.common.HybridBinarizer;
 import com.google.zxing.BarcodeFormat;
-import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.LuminanceSource;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.ReaderException;
-import com.google.zxing.RGBLuminanceSource;
 import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
 
-import java.util.Hashtable;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static com.example.qrscanner.CameraManager.AUTO_FOCUS;
 import static com.example.qrscanner.CameraManager.DECODE;
+import static com.example.qrscanner.CameraManager.DECODE_SUCCEEDED;
 
 /**
  * Handler class to decode the scanned data.
+ *
+ * With a single worker frames are decoded on this handler's thread, one at a time. With more
+ * workers frames are handed to a DecodeWorkerPool and the next frame is requested right away.
+ * Either way, frames rejected by the FrameQualityFilter, if one is set, are not decoded, and a
+ * VariantRetry, if set, decodes missed frames again inverted and rotated, on the worker which
+ * missed them. A TryHarderRetry, if set, then decodes the sharpest of a run of missed frames
+ * again with TRY_HARDER. With a single worker a FrameFusion, if set, decodes the average of the
+ * last missed frames first, counting frames the filter rejected as moving as missed, and a
+ * PyramidDecoder, if set, decodes every frame at half resolution and then in tiles on several
+ * threads.
+ *
+ * With a RegionTracker set, a frame is only decoded in a window around the code found last,
+ * whole or in part, until the window misses a few frames in a row. With the worker pool the
+ * window is applied before a frame is submitted, and the workers report back to the tracker
+ * under its lock.
+ *
+ * After every frame the camera source is told its sharpness and, outside the PyramidDecoder,
+ * where ZXing found finder patterns in it, even if it was not decoded, so that it can refocus
+ * on them. Frames decoded by the worker pool are reported from the worker which decoded them.
+ *
+ * In multi-code mode whole frames are decoded on this handler's thread for every QR code they
+ * hold, until a MultiCodeCollector has enough codes or times out.
+ *
+ * With a ScanSession set the camera keeps running after a result: results go to the session,
+ * which drops codes still in view, and decoding carries on with the next frame.
+ *
+ * The handler outlives a single camera session: pause() drops the frames of the closed camera,
+ * and decoding carries on once the camera is reopened.
  */
 
 public class DecodeHandler extends Handler {
-    private final MultiFormatReader mMultiFormatReader;
-    private final Hashtable<DecodeHintType, Object> mHints;
+    /**
+     * Frames waiting for a free worker. Kept at one so workers always get the newest frame.
+     */
+    private static final int FRAME_QUEUE_CAPACITY = 1;
+    /**
+     * Side of the synthetic frame decoded by warmUp(), and the scale of the code in it.
+     */
+    private static final int WARM_UP_SIZE = 240;
+    private static final int WARM_UP_SCALE = 4;
+
+    private final FrameDecoder mFrameDecoder;
+    private final DecodeWorkerPool mWorkerPool;
+    private final DecodeScheduler mDecodeScheduler;
+    private final Map<DecodeHintType, ?> mHints;
+    private FrameQualityFilter mFrameFilter;
+    private TryHarderRetry mTryHarderRetry;
+    private VariantRetry mVariantRetry;
+    private FrameFusion mFrameFusion;
+    private PyramidDecoder mPyramidDecoder;
+    private RegionTracker mRegionTracker;
+    private ScanMetrics mScanMetrics = ScanMetrics.DISABLED;
+    private boolean mMultiCodeMode;
+    private int mMultiCodeTarget;
+    private long mMultiCodeTimeoutNanos;
+    private MultiCodeCollector mMultiCodeCollector;
+    private ScanSession mScanSession;
+    /**
+     * Frames decoded since the last result or pause.
+     */
+    private final AtomicInteger mScanFrames = new AtomicInteger();
+    /**
+     * Finder patterns found in the current frame by the single worker.
+     */
+    private final FinderPoints mFinderPoints = new FinderPoints();
     private final String TAG = "DecodeHandler";
     private QrScanActivity mActivity;
 
     public DecodeHandler(Looper looper, QrScanActivity activity) {
+        this(looper, activity, 1);
+    }
+
+    public DecodeHandler(Looper looper, QrScanActivity activity, int workerCount) {
+        this(looper, activity, workerCount,
+                DecodeScheduler.maxThroughput(DecodeScheduler.SYSTEM_CLOCK));
+    }
+
+    public DecodeHandler(Looper looper, QrScanActivity activity, int workerCount,
+                         DecodeScheduler scheduler) {
+        this(looper, activity, workerCount, scheduler, FrameDecoder.createQrCodeHints());
+    }
+
+    /**
+     * @param hints Hints every frame is decoded with, see FrameDecoder.createQrCodeHints().
+     */
+    public DecodeHandler(Looper looper, QrScanActivity activity, int workerCount,
+                         DecodeScheduler scheduler, Map<DecodeHintType, ?> hints) {
+        super(looper);
         this.mActivity = activity;
-        mMultiFormatReader = new MultiFormatReader();
-        mHints = new Hashtable<DecodeHintType, Object>();
-        Vector<BarcodeFormat> formats = new Vector<BarcodeFormat>();
-        formats.add(BarcodeFormat.QR_CODE);
-        mHints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
-        mMultiFormatReader.setHints(mHints);
+        this.mDecodeScheduler = scheduler;
+        this.mHints = hints;
+        if (workerCount > 1) {
+            mFrameDecoder = null;
+            mWorkerPool = new DecodeWorkerPool(workerCount, FRAME_QUEUE_CAPACITY, hints,
+                    new DecodeWorkerPool.Callback() {
+                        @Override
+                        public void onDecodeSucceeded(Result result) {
+                            obtainMessage(DECODE_SUCCEEDED, result).sendToTarget();
+                        }
+
+                        @Override
+                        public void onFrameDecoded(PreviewFrame frame, long decodeNanos,
+                                                   Result result, FinderPoints finderPoints) {
+                            onDecodeFinished(frame, System.nanoTime() - decodeNanos,
+                                    decodeNanos, result != null);
+                            RegionTracker tracker = mRegionTracker;
+                            if (tracker != null) {
+                                synchronized (tracker) {
+                                    tracker.onFrameDecoded(frame.windowed, result,
+                                            frame.cropLeft, frame.cropTop, finderPoints.points,
+                                            finderPoints.count);
+                                }
+                            }
+                            CameraSource cameraSource = mActivity.getCameraManager();
+                            if (cameraSource != null) {
+                                cameraSource.onFrameAnalyzed(frame.sharpness,
+                                        finderPoints.points, finderPoints.count);
+                            }
+                        }
+
+                        @Override
+                        public void onFrameReleased(PreviewFrame frame) {
+                            CameraSource cameraSource = mActivity.getCameraManager();
+                            if (cameraSource != null) {
+                                cameraSource.releaseFrame(frame);
+                            }
+                        }
+                    });
+        } else {
+            mFrameDecoder = new FrameDecoder(
+                    FrameDecoder.withResultPointCallback(hints, mFinderPoints));
+            mWorkerPool = null;
+        }
+    }
+
+    /**
+     * @return How many preview buffers the decoder may hold on to at the same time.
+     */
+    int getMaxFramesInFlight() {
+        return mWorkerPool != null ? mWorkerPool.getMaxFramesInFlight() : 1;
+    }
+
+    /**
+     * Sets the filter which drops blurred or moving frames before they are decoded, or null to
+     * decode every frame. Must be called before the first frame arrives.
+     */
+    void setFrameFilter(FrameQualityFilter filter) {
+        mFrameFilter = filter;
+    }
+
+    /**
+     * Retries the sharpest of every windowFrames undecoded frames with TRY_HARDER, 0 for no
+     * retries. Must be called before the first frame arrives.
+     */
+    void setTryHarderRetry(int windowFrames) {
+        mTryHarderRetry = windowFrames > 0 ? new TryHarderRetry(windowFrames, mHints) : null;
+        if (mWorkerPool != null) {
+            mWorkerPool.setTryHarderRetry(mTryHarderRetry);
+        }
+    }
+
+    /**
+     * Decodes every everyFrames-th of a run of undecoded frames again with inverted luma and
+     * rotated, 0 for no retries. Must be called before the first frame arrives.
+     */
+    void setVariantRetry(int everyFrames) {
+        if (mWorkerPool != null) {
+            mWorkerPool.setVariantRetry(everyFrames);
+            return;
+        }
+        mVariantRetry = everyFrames > 0 ? new VariantRetry(everyFrames, mHints) : null;
+    }
+
+    /**
+     * Decodes the average of the last frameCount undecoded frames, for dim, noisy frames, 0 to
+     * decode single frames only. Only works with a single worker. Must be called before the
+     * first frame arrives.
+     */
+    void setFrameFusion(int frameCount) {
+        if (frameCount > 0 && mWorkerPool != null) {
+            throw new IllegalStateException("Frame fusion needs a single worker");
+        }
+        mFrameFusion = frameCount > 0
+                ? new FrameFusion(frameCount, FrameFusion.DEFAULT_MAX_MOTION, mHints) : null;
+    }
+
+    /**
+     * Decodes frames only around the code found last, until maxMisses of them in a row are not
+     * decoded, 0 to always decode the whole viewfinder. Not used with pyramid decoding. Must be
+     * called before the first frame arrives.
+     */
+    void setRegionTracking(int maxMisses) {
+        mRegionTracker = maxMisses > 0 ? new RegionTracker(maxMisses) : null;
+    }
+
+    /**
+     * Decodes every frame with a PyramidDecoder on threadCount threads, which finds small codes
+     * in large frames. Only works with a single worker. Must be called before the first frame
+     * arrives.
+     */
+    void setPyramidDecoding(int threadCount) {
+        if (mWorkerPool != null) {
+            throw new IllegalStateException("Pyramid decoding needs a single worker");
+        }
+        mPyramidDecoder = new PyramidDecoder(mHints, threadCount);
+    }
+
+    /**
+     * Sets the metrics fed with every decoded or rejected frame. Must be called before the
+     * first frame arrives.
+     */
+    void setScanMetrics(ScanMetrics metrics) {
+        mScanMetrics = metrics;
+        if (mWorkerPool != null) {
+            mWorkerPool.setScanMetrics(metrics);
+        }
+    }
+
+    /**
+     * Switches to multi-code mode: collect codes until targetCount distinct codes were seen (0
+     * for no limit) or timeoutMs passed since the first frame, then hand them all to the
+     * activity at once. Only works with a single worker. Must be called before the first frame
+     * arrives.
+     */
+    void setMultiCodeMode(int targetCount, long timeoutMs) {
+        if (mWorkerPool != null) {
+            throw new IllegalStateException("Multi-code mode needs a single worker");
+        }
+        mMultiCodeMode = true;
+        mMultiCodeTarget = targetCount;
+        mMultiCodeTimeoutNanos = timeoutMs * 1000000L;
+    }
+
+    /**
+     * Switches to continuous scanning, passing every result to the session. Must be called
+     * before the first frame arrives.
+     */
+    void setScanSession(ScanSession session) {
+        mScanSession = session;
+    }
+
+    FrameQualityFilter getFrameFilter() {
+        return mFrameFilter;
+    }
+
+    DecodeScheduler getDecodeScheduler() {
+        return mDecodeScheduler;
+    }
+
+    /**
+     * Decodes a synthetic QR code once on this handler's thread, so that ZXing's classes are
+     * loaded and its tables built while the camera is still opening instead of on the first
+     * preview frame.
+     */
+    void warmUp() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                byte[] luma = new byte[WARM_UP_SIZE * WARM_UP_SIZE];
+                Arrays.fill(luma, (byte) 235);
+                try {
+                    BitMatrix matrix = new QRCodeWriter().encode("warm-up",
+                            BarcodeFormat.QR_CODE, 0, 0);
+                    int offset = (WARM_UP_SIZE - matrix.getWidth() * WARM_UP_SCALE) / 2;
+                    for (int y = 0; y < matrix.getHeight() * WARM_UP_SCALE; y++) {
+                        for (int x = 0; x < matrix.getWidth() * WARM_UP_SCALE; x++) {
+                            if (matrix.get(x / WARM_UP_SCALE, y / WARM_UP_SCALE)) {
+                                luma[(offset + y) * WARM_UP_SIZE + offset + x] = 16;
+                            }
+                        }
+                    }
+                } catch (WriterException e) {
+                    Log.w(TAG, "Could not draw warm-up code: " + e);
+                }
+                // A decoder of its own, so the real one keeps buffers sized for the camera.
+                Result result = new FrameDecoder(mHints).decode(
+                        new PreviewFrame(luma, WARM_UP_SIZE, WARM_UP_SIZE, start));
+                Log.d(TAG, "Warm-up decode " + (result != null ? "succeeded" : "failed")
+                        + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        });
+    }
+
+    /**
+     * @return Frames decoded since the scan started or the last result was posted.
+     */
+    int getScanFrames() {
+        return mScanFrames.get();
+    }
+
+    /**
+     * Drops everything belonging to the current camera session: pending messages, queued
+     * frames and codes collected in multi-code mode. Call after the camera was closed; the
+     * handler can be used again once it is reopened.
+     */
+    void pause() {
+        removeCallbacksAndMessages(null);
+        mScanFrames.set(0);
+        if (mWorkerPool != null) {
+            mWorkerPool.clear();
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mMultiCodeCollector = null;
+                if (mTryHarderRetry != null) {
+                    synchronized (mTryHarderRetry) {
+                        mTryHarderRetry.reset();
+                    }
+                }
+                if (mVariantRetry != null) {
+                    mVariantRetry.reset();
+                }
+                if (mFrameFusion != null) {
+                    mFrameFusion.reset();
+                }
+                if (mRegionTracker != null) {
+                    synchronized (mRegionTracker) {
+                        mRegionTracker.reset();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the decode workers, if any. Pending messages are not touched.
+     */
+    void quit() {
+        if (mWorkerPool != null) {
+            mWorkerPool.shutdown();
+        }
+        if (mFrameFilter != null) {
+            Log.i(TAG, "Frame filter: " + mFrameFilter);
+        }
+        if (mRegionTracker != null) {
+            Log.i(TAG, "Region tracking: " + mRegionTracker);
+        }
+        if (mTryHarderRetry != null) {
+            Log.i(TAG, "TRY_HARDER retries: " + mTryHarderRetry.getRetries() + ", decoded "
+                    + mTryHarderRetry.getRetriesDecoded());
+        }
+        if (mFrameFusion != null) {
+            Log.i(TAG, "Frame fusion: " + mFrameFusion);
+        }
+        int variantRetries = mVariantRetry != null ? mVariantRetry.getRetries()
+                : mWorkerPool != null ? mWorkerPool.getVariantRetries() : 0;
+        if (variantRetries > 0) {
+            StringBuilder decoded = new StringBuilder();
+            for (int i = 0; i < VariantRetry.VARIANTS.length; i++) {
+                decoded.append(i > 0 ? ", " : "").append(VariantRetry.VARIANTS[i]).append(' ')
+                        .append(mVariantRetry != null ? mVariantRetry.getDecoded(i)
+                                : mWorkerPool.getVariantDecoded(i));
+            }
+            Log.i(TAG, "Variant retries: " + variantRetries + ", decoded " + decoded);
+        }
+        if (mPyramidDecoder != null) {
+            mPyramidDecoder.shutdown();
+            Log.i(TAG, "Pyramid decodes: " + mPyramidDecoder.getHalfHits() + " at half size, "
+                    + mPyramidDecoder.getTileHits() + " in tiles, "
+                    + mPyramidDecoder.getMisses() + " missed");
+        }
     }
 
     @Override
     public void handleMessage(Message msg) {
         super.handleMessage(msg);
         if (msg.what == DECODE) {
-            decode((byte[]) msg.obj, msg.arg1, msg.arg2);
-        } else if (msg.what == AUTO_FOCUS) {
-            mActivity.getCameraManager().requestAutoFocus();
+            PreviewFrame frame = (PreviewFrame) msg.obj;
+            if (mMultiCodeMode) {
+                // Labels are spread over the whole view, not just the viewfinder.
+                frame.setCrop(0, 0, frame.width, frame.height);
+            }
+            mFinderPoints.start(frame.cropLeft, frame.cropTop);
+            boolean accepted = mFrameFilter == null || mFrameFilter.accept(frame);
+            // Before the frame is decoded, which may end the scan.
+            frame.sharpness = mFrameFilter != null ? mFrameFilter.getLastSharpness() : Double.NaN;
+            boolean submitted = false;
+            if (!accepted) {
+                mScanMetrics.onFrameRejected();
+                Result fused = fuseRejected(frame);
+                mActivity.getCameraManager().releaseFrame(frame);
+                if (fused != null) {
+                    deliver(fused);
+                } else {
+                    mActivity.getCameraManager().previewAndDecode();
+                }
+            } else if (mMultiCodeMode) {
+                decodeMultiple(frame);
+            } else if (mWorkerPool != null) {
+                mWorkerPool.setDisplayOrientation(
+                        mActivity.getCameraManager().getDisplayOrientation());
+                if (mRegionTracker != null) {
+                    synchronized (mRegionTracker) {
+                        frame.windowed = mRegionTracker.apply(frame);
+                    }
+                }
+                submitted = mWorkerPool.submit(frame);
+                mActivity.getCameraManager().previewAndDecode();
+            } else {
+                decode(frame);
+            }
+            CameraSource cameraSource = mActivity.getCameraManager();
+            if (cameraSource != null && !submitted) {
+                cameraSource.onFrameAnalyzed(frame.sharpness, mFinderPoints.points,
+                        mFinderPoints.count);
+            }
+        } else if (msg.what == DECODE_SUCCEEDED) {
+            deliver((Result) msg.obj);
         }
     }
 
     /**
      * Decode the QR from image.
      */
-    private void decode(byte[] data, int width, int height) {
-        Result rawResult = null;
-        PlanarYUVLuminanceSource source = mActivity.getCameraManager()
-                .buildLuminanceSource(data, width, height);
-        if (source != null) {
-            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-            try {
-                if(bitmap !=null) {
-                    rawResult = mMultiFormatReader.decode(bitmap);
-                }
-            } catch (ReaderException re) {
-                // continue
-            } finally {
-                mMultiFormatReader.reset();
+    private void decode(PreviewFrame frame) {
+        long start = System.nanoTime();
+        frame.windowed = mPyramidDecoder == null && mRegionTracker != null
+                && mRegionTracker.apply(frame);
+        if (frame.windowed) {
+            mFinderPoints.start(frame.cropLeft, frame.cropTop);
+        }
+        Result rawResult = mPyramidDecoder != null ? mPyramidDecoder.decode(frame)
+                : mFrameDecoder.decode(frame);
+        onDecodeFinished(frame, start, System.nanoTime() - start, rawResult != null);
+        if (mFrameFusion != null) {
+            if (rawResult == null) {
+                rawResult = mFrameFusion.onFrameFailed(frame);
+            } else {
+                mFrameFusion.reset();
+            }
+        }
+        if (mVariantRetry != null) {
+            if (rawResult == null) {
+                mVariantRetry.setDisplayOrientation(
+                        mActivity.getCameraManager().getDisplayOrientation());
+                rawResult = mVariantRetry.onFrameFailed(frame, mScanMetrics);
+            } else {
+                mVariantRetry.reset();
+            }
+        }
+        if (mTryHarderRetry != null) {
+            if (rawResult == null) {
+                rawResult = mTryHarderRetry.onFrameFailed(frame,
+                        mFrameFilter != null ? mFrameFilter.getLastSharpness() : 0);
+            } else {
+                mTryHarderRetry.reset();
             }
         }
+        if (mPyramidDecoder == null && mRegionTracker != null) {
+            mRegionTracker.onFrameDecoded(frame.windowed, rawResult, frame.cropLeft,
+                    frame.cropTop, mFinderPoints.points, mFinderPoints.count);
+        }
+        mActivity.getCameraManager().releaseFrame(frame);
         if (rawResult != null) {
-            mActivity.getCameraManager().stopPreview();
-            mActivity.handleDecode(rawResult.getText());
+            deliver(rawResult);
         } else {
             //valid QR not found continue to sacn and decode.
             mActivity.getCameraManager().previewAndDecode();
         }
 
     }
-}
 
+    /**
+     * Adds a frame the filter rejected as moving to the FrameFusion, if set, since in dim light
+     * the filter takes the noise of most frames for motion, and fusion would otherwise only get
+     * the frames it lets through after a run of rejects. FrameFusion measures motion against
+     * the noise itself and starts over on real motion. Frames rejected as blurred are left out.
+     *
+     * @return The result of decoding the average, or null.
+     */
+    private Result fuseRejected(PreviewFrame frame) {
+        if (mFrameFusion == null || mMultiCodeMode || !mFrameFilter.isLastRejectedMoving()) {
+            return null;
+        }
+        // The crop decoded frames have, so that the window does not start over.
+        if (mPyramidDecoder == null && mRegionTracker != null) {
+            mRegionTracker.apply(frame);
+        }
+        return mFrameFusion.onFrameFailed(frame);
+    }
+
+    /**
+     * Decode every QR in the frame and add it to the collected codes.
+     */
+    private void decodeMultiple(PreviewFrame frame) {
+        long start = System.nanoTime();
+        Result[] results = mFrameDecoder.decodeMultiple(frame);
+        long now = System.nanoTime();
+        onDecodeFinished(frame, start, now - start, results.length > 0);
+        mActivity.getCameraManager().releaseFrame(frame);
+        if (mMultiCodeCollector == null) {
+            mMultiCodeCollector = new MultiCodeCollector(mMultiCodeTarget,
+                    mMultiCodeTimeoutNanos, start);
+        }
+        if (mMultiCodeCollector.add(results, frame.cropLeft, frame.cropTop, now) > 0) {
+            Log.d(TAG, "Collected " + mMultiCodeCollector.size() + " codes");
+        }
+        if (mMultiCodeCollector.isComplete(now)) {
+            mActivity.getCameraManager().stopPreview();
+            final ArrayList<String> texts = mMultiCodeCollector.getTexts();
+            mActivity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mActivity.handleMultiDecode(texts);
+                }
+            });
+        } else {
+            mActivity.getCameraManager().previewAndDecode();
+        }
+    }
+
+    /**
+     * Tells the scheduler, metrics and preview size strategy about a finished decode. Called
+     * on this handler's thread or a decode worker.
+     */
+    private void onDecodeFinished(PreviewFrame frame, long startNanos, long decodeNanos,
+                                  boolean success) {
+        mDecodeScheduler.onDecodeFinished(decodeNanos, success);
+        mScanFrames.incrementAndGet();
+        mScanMetrics.onFrameDecoded(frame.timestampNanos, startNanos, decodeNanos);
+        final CameraSource cameraSource = mActivity.getCameraManager();
+        PreviewSizeStrategy strategy = cameraSource.getPreviewSizeStrategy();
+        if (strategy != null
+                && strategy.onDecodeFinished(frame.width, frame.height, decodeNanos, success)) {
+            mActivity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    cameraSource.applyPreviewSize();
+                }
+            });
+        }
+    }
+
+    private void deliver(Result rawResult) {
+        if (mScanSession != null) {
+            if (mScanSession.onResult(rawResult)) {
+                mScanMetrics.onScanSucceeded(System.nanoTime());
+            }
+            if (mWorkerPool != null) {
+                // The next frame was already requested when this one was submitted.
+                mWorkerPool.reset();
+            } else {
+                mActivity.getCameraManager().previewAndDecode();
+            }
+            return;
+        }
+        mActivity.getCameraManager().stopPreview();
+        // The activity tears the camera and this thread down, do that from the UI thread.
+        mActivity.postResult(rawResult, System.nanoTime(), mScanFrames.getAndSet(0));
+    }
+}
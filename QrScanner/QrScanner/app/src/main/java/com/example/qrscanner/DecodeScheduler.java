@@ -0,0 +1,179 @@
+package com.example.qrscanner;
+
+/**
+ * Decides which preview frames are worth decoding. The camera callbacks ask shouldDecode() for
+ * every frame and the decoder reports how long each decode took, from which a rolling average
+ * is kept. Frames are skipped while an autofocus sweep is running, because they are blurred
+ * anyway, and according to the policy:
+ *
+ * MAX_THROUGHPUT decodes every frame the decoder is ready for.
+ * BATTERY_SAVER keeps the decoder busy at most a quarter of the time and at most 5 times a
+ * second, and backs off further while decodes keep failing.
+ * FIXED_RATE decodes at most the given number of frames per second.
+ *
+ * All methods are thread-safe.
+ */
+final class DecodeScheduler {
+
+    interface Clock {
+        long nanoTime();
+    }
+
+    enum Policy {
+        MAX_THROUGHPUT,
+        BATTERY_SAVER,
+        FIXED_RATE
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    /**
+     * Weight of a new sample in the rolling decode time, as a power of two (1/8).
+     */
+    private static final int AVERAGE_WEIGHT_SHIFT = 3;
+    private static final int BATTERY_SAVER_DUTY_PERCENT = 25;
+    private static final long BATTERY_SAVER_MIN_INTERVAL_NANOS = NANOS_PER_SECOND / 5;
+    /**
+     * The battery saver doubles its interval after this many failed decodes in a row...
+     */
+    private static final int BACKOFF_FAILURES = 10;
+    /**
+     * ...up to 2^MAX_BACKOFF_SHIFT times.
+     */
+    private static final int MAX_BACKOFF_SHIFT = 2;
+    /**
+     * Frames are decoded again if an autofocus sweep did not report back within this time.
+     */
+    private static final long AUTOFOCUS_TIMEOUT_NANOS = 2 * NANOS_PER_SECOND;
+
+    private final Clock mClock;
+    private final Policy mPolicy;
+    private final long mFixedIntervalNanos;
+
+    private long mAverageDecodeNanos;
+    private long mLastDecodeStartNanos;
+    private boolean mStarted;
+    private int mConsecutiveFailures;
+    private boolean mFocusing;
+    private long mFocusStartNanos;
+    private long mDecodedCount;
+    private long mSkippedCount;
+    private long mFocusSkippedCount;
+
+    private DecodeScheduler(Clock clock, Policy policy, long fixedIntervalNanos) {
+        mClock = clock;
+        mPolicy = policy;
+        mFixedIntervalNanos = fixedIntervalNanos;
+    }
+
+    static DecodeScheduler maxThroughput(Clock clock) {
+        return new DecodeScheduler(clock, Policy.MAX_THROUGHPUT, 0);
+    }
+
+    static DecodeScheduler batterySaver(Clock clock) {
+        return new DecodeScheduler(clock, Policy.BATTERY_SAVER, 0);
+    }
+
+    static DecodeScheduler fixedRate(Clock clock, float framesPerSecond) {
+        if (!(framesPerSecond > 0)) {
+            throw new IllegalArgumentException("Bad frame rate: " + framesPerSecond);
+        }
+        return new DecodeScheduler(clock, Policy.FIXED_RATE,
+                (long) (NANOS_PER_SECOND / framesPerSecond));
+    }
+
+    Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Called for every preview frame the decoder could take.
+     *
+     * @return true if the frame should be decoded, in which case the decode start is recorded.
+     */
+    synchronized boolean shouldDecode() {
+        long now = mClock.nanoTime();
+        if (mFocusing) {
+            if (now - mFocusStartNanos < AUTOFOCUS_TIMEOUT_NANOS) {
+                mFocusSkippedCount++;
+                return false;
+            }
+            mFocusing = false;
+        }
+        if (mStarted && now - mLastDecodeStartNanos < getTargetIntervalNanos()) {
+            mSkippedCount++;
+            return false;
+        }
+        mStarted = true;
+        mLastDecodeStartNanos = now;
+        mDecodedCount++;
+        return true;
+    }
+
+    /**
+     * Reports a finished decode.
+     */
+    synchronized void onDecodeFinished(long decodeNanos, boolean success) {
+        if (mAverageDecodeNanos == 0) {
+            mAverageDecodeNanos = decodeNanos;
+        } else {
+            mAverageDecodeNanos += (decodeNanos - mAverageDecodeNanos) >> AVERAGE_WEIGHT_SHIFT;
+        }
+        mConsecutiveFailures = success ? 0 : mConsecutiveFailures + 1;
+    }
+
+    synchronized void onAutoFocusStarted() {
+        mFocusing = true;
+        mFocusStartNanos = mClock.nanoTime();
+    }
+
+    synchronized void onAutoFocusFinished() {
+        mFocusing = false;
+    }
+
+    /**
+     * @return The shortest time between the start of two decodes under the current policy.
+     */
+    synchronized long getTargetIntervalNanos() {
+        switch (mPolicy) {
+            case FIXED_RATE:
+                return mFixedIntervalNanos;
+            case BATTERY_SAVER:
+                long interval = Math.max(BATTERY_SAVER_MIN_INTERVAL_NANOS,
+                        mAverageDecodeNanos * 100 / BATTERY_SAVER_DUTY_PERCENT);
+                int backoff = Math.min(MAX_BACKOFF_SHIFT, mConsecutiveFailures / BACKOFF_FAILURES);
+                return interval << backoff;
+            case MAX_THROUGHPUT:
+            default:
+                return 0;
+        }
+    }
+
+    synchronized long getAverageDecodeNanos() {
+        return mAverageDecodeNanos;
+    }
+
+    synchronized long getDecodedCount() {
+        return mDecodedCount;
+    }
+
+    /**
+     * @return Frames skipped to keep to the target rate.
+     */
+    synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return Frames skipped because autofocus was sweeping.
+     */
+    synchronized long getFocusSkippedCount() {
+        return mFocusSkippedCount;
+    }
+}
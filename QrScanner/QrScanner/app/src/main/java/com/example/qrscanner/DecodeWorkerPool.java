@@ -0,0 +1,329 @@
+package com.example.qrscanner;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes preview frames on several threads at once. Every worker owns its own FrameDecoder,
+ * which reports the finder patterns it finds in every frame along with the result.
+ * Frames wait in a small bounded queue; when the queue is full the oldest frame is dropped, so
+ * workers always pick up the most recent frame.
+ *
+ * The first successful result is delivered exactly once, after which queued frames are
+ * dropped and frames still being decoded are ignored, until reset() is called.
+ *
+ * With setVariantRetry() every worker also owns a VariantRetry, and the frames none of them
+ * decoded are counted across workers, so every everyFrames-th of them is retried inverted and
+ * rotated by the worker which missed it. A TryHarderRetry set with setTryHarderRetry() is shared
+ * by the workers under its lock: it is offered every frame the live decode and the variants
+ * missed, and decodes the sharpest of a run of them on the worker completing the run.
+ */
+final class DecodeWorkerPool {
+
+    interface Callback {
+        /**
+         * Called once, on a worker thread, with the first successful result.
+         */
+        void onDecodeSucceeded(Result result);
+
+        /**
+         * Called on a worker thread after each decode attempt, before the frame is released.
+         *
+         * @param decodeNanos How long the live decode took, without retries.
+         * @param result The result of the frame, or of a retry of it, null if none decoded.
+         * @param finderPoints The finder patterns the live decode found, only valid during the
+         *                     call.
+         */
+        void onFrameDecoded(PreviewFrame frame, long decodeNanos, Result result,
+                            FinderPoints finderPoints);
+
+        /**
+         * Called on any thread once a frame is no longer referenced by the pool.
+         */
+        void onFrameReleased(PreviewFrame frame);
+    }
+
+    private static final int MAX_DEFAULT_WORKERS = 4;
+
+    private final int mWorkerCount;
+    private final int mQueueCapacity;
+    private final LinkedBlockingDeque<PreviewFrame> mQueue;
+    private final ExecutorService mExecutor;
+    private final Map<DecodeHintType, ?> mHints;
+    private final Callback mCallback;
+    private final Worker[] mWorkers;
+    /**
+     * Frames missed since the last result, shared by the workers' VariantRetry.
+     */
+    private final AtomicInteger mVariantMisses = new AtomicInteger();
+    private volatile TryHarderRetry mTryHarderRetry;
+    private volatile ScanMetrics mScanMetrics = ScanMetrics.DISABLED;
+    private volatile int mDisplayOrientation;
+    private final AtomicBoolean mDelivered = new AtomicBoolean();
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mDecodedCount = new AtomicLong();
+    private volatile boolean mShutdown;
+
+    DecodeWorkerPool(int workerCount, int queueCapacity, final Map<DecodeHintType, ?> hints,
+                     Callback callback) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Bad worker count: " + workerCount);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Bad queue capacity: " + queueCapacity);
+        }
+        mWorkerCount = workerCount;
+        mQueueCapacity = queueCapacity;
+        mQueue = new LinkedBlockingDeque<PreviewFrame>(queueCapacity);
+        mHints = hints;
+        mCallback = callback;
+        mExecutor = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private final AtomicInteger mIndex = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "DecodeWorker-" + mIndex.getAndIncrement());
+            }
+        });
+        mWorkers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            mWorkers[i] = new Worker(hints);
+            mExecutor.execute(mWorkers[i]);
+        }
+    }
+
+    /**
+     * Retries every everyFrames-th frame no worker decoded inverted and rotated, 0 for no
+     * retries. Must be called before the first frame is submitted.
+     */
+    void setVariantRetry(int everyFrames) {
+        for (Worker worker : mWorkers) {
+            worker.mVariantRetry = everyFrames > 0
+                    ? new VariantRetry(everyFrames, mHints, mVariantMisses) : null;
+        }
+    }
+
+    /**
+     * Sets the retry every missed frame is offered to, or null for none. Must be called before
+     * the first frame is submitted.
+     */
+    void setTryHarderRetry(TryHarderRetry retry) {
+        mTryHarderRetry = retry;
+    }
+
+    /**
+     * Sets the metrics variant retries are timed into.
+     */
+    void setScanMetrics(ScanMetrics metrics) {
+        mScanMetrics = metrics;
+    }
+
+    /**
+     * @param displayOrientation Clockwise rotation of the frames on the display, in degrees,
+     *                           which the rotated variant turns them back by.
+     */
+    void setDisplayOrientation(int displayOrientation) {
+        mDisplayOrientation = displayOrientation;
+    }
+
+    /**
+     * @return A worker count which leaves one core for the camera and UI threads.
+     */
+    static int defaultWorkerCount() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(MAX_DEFAULT_WORKERS, cores - 1));
+    }
+
+    /**
+     * @return How many frame buffers the pool may hold on to at the same time.
+     */
+    int getMaxFramesInFlight() {
+        return mWorkerCount + mQueueCapacity;
+    }
+
+    /**
+     * Queues a frame for decoding, dropping the oldest queued frame if the queue is full.
+     *
+     * @return false if the frame was not queued because a result was already delivered or the
+     * pool is shut down. The frame is released in that case.
+     */
+    boolean submit(PreviewFrame frame) {
+        if (mShutdown || mDelivered.get()) {
+            mCallback.onFrameReleased(frame);
+            return false;
+        }
+        mSubmittedCount.incrementAndGet();
+        while (!mQueue.offerLast(frame)) {
+            PreviewFrame stale = mQueue.pollFirst();
+            if (stale != null) {
+                drop(stale);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Allows another result to be delivered.
+     */
+    void reset() {
+        mDelivered.set(false);
+    }
+
+    /**
+     * Releases every queued frame and allows another result to be delivered, e.g. before the
+     * camera is reopened. Frames being decoded are released when their worker finishes.
+     */
+    void clear() {
+        drainQueue();
+        mVariantMisses.set(0);
+        reset();
+    }
+
+    /**
+     * Stops all workers and releases every queued frame. Frames being decoded are released
+     * when their worker finishes.
+     */
+    void shutdown() {
+        mShutdown = true;
+        mExecutor.shutdownNow();
+        drainQueue();
+    }
+
+    long getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    /**
+     * @return How many frames were thrown away without being decoded.
+     */
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * @return How many frames went through a full decode attempt.
+     */
+    long getDecodedCount() {
+        return mDecodedCount.get();
+    }
+
+    /**
+     * @return How many frames the workers retried as variants, roughly while they run.
+     */
+    int getVariantRetries() {
+        int retries = 0;
+        for (Worker worker : mWorkers) {
+            VariantRetry retry = worker.mVariantRetry;
+            retries += retry != null ? retry.getRetries() : 0;
+        }
+        return retries;
+    }
+
+    /**
+     * @return How many retries the given variant decoded, roughly while the workers run.
+     */
+    int getVariantDecoded(int variant) {
+        int decoded = 0;
+        for (Worker worker : mWorkers) {
+            VariantRetry retry = worker.mVariantRetry;
+            decoded += retry != null ? retry.getDecoded(variant) : 0;
+        }
+        return decoded;
+    }
+
+    private void drop(PreviewFrame frame) {
+        mDroppedCount.incrementAndGet();
+        mCallback.onFrameReleased(frame);
+    }
+
+    private void drainQueue() {
+        PreviewFrame frame;
+        while ((frame = mQueue.pollFirst()) != null) {
+            drop(frame);
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final FinderPoints mFinderPoints = new FinderPoints();
+        private final FrameDecoder mFrameDecoder;
+        private volatile VariantRetry mVariantRetry;
+
+        Worker(Map<DecodeHintType, ?> hints) {
+            mFrameDecoder = new FrameDecoder(
+                    FrameDecoder.withResultPointCallback(hints, mFinderPoints));
+        }
+
+        @Override
+        public void run() {
+            while (!mShutdown) {
+                PreviewFrame frame;
+                try {
+                    frame = mQueue.takeFirst();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (mShutdown || mDelivered.get()) {
+                    drop(frame);
+                    continue;
+                }
+                Result result = null;
+                long start = System.nanoTime();
+                long decodeNanos = 0;
+                mFinderPoints.start(frame.cropLeft, frame.cropTop);
+                try {
+                    result = mFrameDecoder.decode(frame);
+                    decodeNanos = System.nanoTime() - start;
+                    result = retry(frame, result);
+                } finally {
+                    mDecodedCount.incrementAndGet();
+                    mCallback.onFrameDecoded(frame, decodeNanos, result, mFinderPoints);
+                    mCallback.onFrameReleased(frame);
+                }
+                if (result != null && !mShutdown && mDelivered.compareAndSet(false, true)) {
+                    drainQueue();
+                    mCallback.onDecodeSucceeded(result);
+                }
+            }
+        }
+
+        /**
+         * @return The live result, or that of a retry if the frame was not decoded live.
+         */
+        private Result retry(PreviewFrame frame, Result result) {
+            VariantRetry variantRetry = mVariantRetry;
+            TryHarderRetry tryHarderRetry = mTryHarderRetry;
+            if (result != null) {
+                if (variantRetry != null) {
+                    variantRetry.reset();
+                }
+                if (tryHarderRetry != null) {
+                    synchronized (tryHarderRetry) {
+                        tryHarderRetry.reset();
+                    }
+                }
+                return result;
+            }
+            if (variantRetry != null) {
+                variantRetry.setDisplayOrientation(mDisplayOrientation);
+                result = variantRetry.onFrameFailed(frame, mScanMetrics);
+            }
+            if (result == null && tryHarderRetry != null) {
+                synchronized (tryHarderRetry) {
+                    result = tryHarderRetry.onFrameFailed(frame,
+                            Double.isNaN(frame.sharpness) ? 0 : frame.sharpness);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.qrscanner;
+
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+/**
+ * Collects the finder patterns ZXing reports while decoding one frame, in frame pixels, so that
+ * the camera can focus on a code it sees but cannot read. Pass it to the decoder's hints with
+ * FrameDecoder.withResultPointCallback() and call start() before every frame.
+ *
+ * Not thread-safe: every decode thread needs its own.
+ */
+final class FinderPoints implements ResultPointCallback {
+
+    /**
+     * Finder patterns kept per frame; the detector reports a few per attempt.
+     */
+    static final int MAX_POINTS = 16;
+
+    /**
+     * The points of the current frame, as {x0, y0, x1, y1, ...}.
+     */
+    final float[] points = new float[MAX_POINTS * 2];
+    int count;
+    private int mCropLeft;
+    private int mCropTop;
+
+    /**
+     * Forgets the points of the last frame.
+     *
+     * @param cropLeft Left of the crop being decoded, which the points are relative to.
+     * @param cropTop Top of the crop being decoded.
+     */
+    void start(int cropLeft, int cropTop) {
+        count = 0;
+        mCropLeft = cropLeft;
+        mCropTop = cropTop;
+    }
+
+    @Override
+    public void foundPossibleResultPoint(ResultPoint point) {
+        if (count < MAX_POINTS) {
+            points[count * 2] = mCropLeft + point.getX();
+            points[count * 2 + 1] = mCropTop + point.getY();
+            count++;
+        }
+    }
+}
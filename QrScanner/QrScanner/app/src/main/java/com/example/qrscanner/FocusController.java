@@ -0,0 +1,262 @@
+package com.example.qrscanner;
+
+/**
+ * Decides when the camera should run an autofocus sweep, from how sharp the preview frames are
+ * and where ZXing found finder patterns in them, instead of sweeping at a fixed interval.
+ *
+ * Finder patterns found in STUCK_FRAMES frames in a row mean a code is in view but cannot be
+ * read, often because focus settled on the background behind it. That starts a sweep focused
+ * and metered on the finder patterns, in any focus mode. In a continuous focus mode the sweep
+ * locks focus; once BLURRED_FRAMES frames in a row show no finder patterns and are blurred, the
+ * code is gone and continuous focus resumes. A failed sweep resumes it right away.
+ *
+ * In the other modes the first frame starts a sweep. After a successful one, BLURRED_FRAMES
+ * blurred frames in a row without finder patterns start another. A frame is blurred below
+ * SHARPNESS_DROP of the sharpness of the first frame after the sweep; without a sharpness
+ * measure, every frame without finder patterns counts as blurred. A failed sweep is retried
+ * after the interval, which is also the least time from one sweep to the next.
+ *
+ * Methods may be called from any thread.
+ */
+final class FocusController {
+
+    enum Action {
+        NONE,
+        /**
+         * Start a sweep, on getFocusArea() unless it is null.
+         */
+        FOCUS,
+        /**
+         * Leave the focus locked by a sweep for continuous focus.
+         */
+        RESUME_CONTINUOUS
+    }
+
+    private enum State {
+        CONTINUOUS,
+        FOCUSING,
+        FOCUSED,
+        FAILED
+    }
+
+    static final long DEFAULT_INTERVAL_MS = 1500L;
+    static final int STUCK_FRAMES = 4;
+    static final int BLURRED_FRAMES = 5;
+    static final double SHARPNESS_DROP = 0.5;
+    /**
+     * A sweep without a callback after this long is taken as failed.
+     */
+    static final long SWEEP_TIMEOUT_NANOS = 3000L * 1000000L;
+    /**
+     * Finder patterns seen longer ago than this are not focused on.
+     */
+    static final long FINDER_AREA_TTL_NANOS = 1000L * 1000000L;
+    /**
+     * Padding around the finder patterns, as a fraction of the larger side of their bounding
+     * box and at least MIN_PADDING pixels. Their centers are 3.5 modules inside the code.
+     */
+    private static final float PADDING = 0.25f;
+    private static final int MIN_PADDING = 32;
+
+    private final boolean mContinuous;
+    private final long mIntervalNanos;
+    private State mState;
+    private long mStateNanos;
+    private long mLastSweepNanos;
+    private boolean mSwept;
+    private double mReferenceSharpness = Double.NaN;
+    private int mStuckFrames;
+    private int mBlurredFrames;
+    private float mMinX = Float.MAX_VALUE;
+    private float mMinY = Float.MAX_VALUE;
+    private float mMaxX = -Float.MAX_VALUE;
+    private float mMaxY = -Float.MAX_VALUE;
+    private int mFramePoints;
+    private int[] mFinderArea;
+    private long mFinderAreaNanos;
+    private int[] mFocusArea;
+    private int mSweeps;
+    private int mAreaSweeps;
+    private int mFailedSweeps;
+
+    /**
+     * @param continuous Whether the camera is in a continuous focus mode.
+     * @param intervalMs Least time from one sweep to the next, 0 for DEFAULT_INTERVAL_MS.
+     */
+    FocusController(boolean continuous, long intervalMs) {
+        if (intervalMs < 0) {
+            throw new IllegalArgumentException("Bad interval: " + intervalMs);
+        }
+        mContinuous = continuous;
+        mIntervalNanos = (intervalMs > 0 ? intervalMs : DEFAULT_INTERVAL_MS) * 1000000L;
+        mState = continuous ? State.CONTINUOUS : State.FAILED;
+    }
+
+    /**
+     * Adds a finder pattern found in the current frame, in frame pixels.
+     */
+    synchronized void onFinderPattern(float x, float y) {
+        mMinX = Math.min(mMinX, x);
+        mMinY = Math.min(mMinY, y);
+        mMaxX = Math.max(mMaxX, x);
+        mMaxY = Math.max(mMaxY, y);
+        mFramePoints++;
+    }
+
+    /**
+     * Ends the current frame, whose finder patterns were passed to onFinderPattern().
+     *
+     * @param sharpness The frame's FrameQualityFilter sharpness, NaN if it was not measured.
+     * @return What the camera should do. FOCUS means the sweep is taken as started.
+     */
+    synchronized Action onFrame(double sharpness, long nowNanos) {
+        boolean found = mFramePoints > 0;
+        if (found) {
+            float padding = Math.max(MIN_PADDING,
+                    PADDING * Math.max(mMaxX - mMinX, mMaxY - mMinY));
+            mFinderArea = new int[]{Math.round(mMinX - padding), Math.round(mMinY - padding),
+                    Math.round(mMaxX + padding), Math.round(mMaxY + padding)};
+            mFinderAreaNanos = nowNanos;
+            mMinX = mMinY = Float.MAX_VALUE;
+            mMaxX = mMaxY = -Float.MAX_VALUE;
+            mFramePoints = 0;
+        }
+        mStuckFrames = found ? mStuckFrames + 1 : 0;
+        switch (mState) {
+            case FOCUSING:
+                if (nowNanos - mStateNanos >= SWEEP_TIMEOUT_NANOS) {
+                    return onFocusFinished(false, nowNanos);
+                }
+                return Action.NONE;
+            case FAILED:
+                return intervalPassed(nowNanos) ? startSweep(nowNanos) : Action.NONE;
+            case FOCUSED:
+                if (Double.isNaN(mReferenceSharpness) && !Double.isNaN(sharpness)) {
+                    mReferenceSharpness = sharpness;
+                }
+                boolean blurred = !found && (Double.isNaN(sharpness)
+                        || sharpness < mReferenceSharpness * SHARPNESS_DROP);
+                mBlurredFrames = blurred ? mBlurredFrames + 1 : 0;
+                if (mBlurredFrames >= BLURRED_FRAMES) {
+                    if (mContinuous) {
+                        enter(State.CONTINUOUS, nowNanos);
+                        return Action.RESUME_CONTINUOUS;
+                    }
+                    if (intervalPassed(nowNanos)) {
+                        return startSweep(nowNanos);
+                    }
+                }
+                // Focus on a code still not read.
+                return sweepIfStuck(nowNanos);
+            case CONTINUOUS:
+            default:
+                return sweepIfStuck(nowNanos);
+        }
+    }
+
+    /**
+     * Called with the outcome of a sweep.
+     *
+     * @return RESUME_CONTINUOUS if a failed sweep left continuous focus locked, else NONE.
+     */
+    synchronized Action onFocusFinished(boolean success, long nowNanos) {
+        if (success) {
+            enter(State.FOCUSED, nowNanos);
+            return Action.NONE;
+        }
+        mFailedSweeps++;
+        if (mContinuous) {
+            enter(State.CONTINUOUS, nowNanos);
+            return Action.RESUME_CONTINUOUS;
+        }
+        enter(State.FAILED, nowNanos);
+        return Action.NONE;
+    }
+
+    /**
+     * @return The area of the sweep started last, as {left, top, right, bottom} in frame pixels,
+     * or null to let the camera choose. May reach past the frame.
+     */
+    synchronized int[] getFocusArea() {
+        return mFocusArea != null ? mFocusArea.clone() : null;
+    }
+
+    synchronized int getSweepCount() {
+        return mSweeps;
+    }
+
+    /**
+     * @return How many sweeps were on finder patterns.
+     */
+    synchronized int getAreaSweepCount() {
+        return mAreaSweeps;
+    }
+
+    synchronized int getFailedSweepCount() {
+        return mFailedSweeps;
+    }
+
+    /**
+     * @return The area in the Camera.Area coordinates of a width x height frame, from -1000 to
+     * 1000 on both axes, clipped to them.
+     */
+    static int[] toCameraArea(int[] area, int width, int height) {
+        int left = clip(area[0] * 2000L / width - 1000);
+        int top = clip(area[1] * 2000L / height - 1000);
+        int right = clip(area[2] * 2000L / width - 1000);
+        int bottom = clip(area[3] * 2000L / height - 1000);
+        // Camera.Area rejects empty rectangles.
+        if (right <= left) {
+            right = Math.min(1000, left + 1);
+            left = right - 1;
+        }
+        if (bottom <= top) {
+            bottom = Math.min(1000, top + 1);
+            top = bottom - 1;
+        }
+        return new int[]{left, top, right, bottom};
+    }
+
+    private Action startSweep(long nowNanos) {
+        boolean recent = mFinderArea != null
+                && nowNanos - mFinderAreaNanos <= FINDER_AREA_TTL_NANOS;
+        mFocusArea = recent ? mFinderArea : null;
+        if (recent) {
+            mAreaSweeps++;
+        }
+        mSweeps++;
+        mSwept = true;
+        mLastSweepNanos = nowNanos;
+        mStuckFrames = 0;
+        enter(State.FOCUSING, nowNanos);
+        return Action.FOCUS;
+    }
+
+    private Action sweepIfStuck(long nowNanos) {
+        if (mStuckFrames >= STUCK_FRAMES && intervalPassed(nowNanos)) {
+            return startSweep(nowNanos);
+        }
+        return Action.NONE;
+    }
+
+    private boolean intervalPassed(long nowNanos) {
+        return !mSwept || nowNanos - mLastSweepNanos >= mIntervalNanos;
+    }
+
+    private void enter(State state, long nowNanos) {
+        mState = state;
+        mStateNanos = nowNanos;
+        mBlurredFrames = 0;
+        mReferenceSharpness = Double.NaN;
+    }
+
+    private static int clip(long value) {
+        return (int) Math.max(-1000, Math.min(1000, value));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mSweeps + " sweeps, " + mAreaSweeps + " on finder patterns, " + mFailedSweeps
+                + " failed";
+    }
+}
@@ -0,0 +1,393 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.detector.FinderPattern;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Decodes a single frame with its own reader. ZXing readers are not thread-safe, so every decode
+ * thread needs its own FrameDecoder.
+ *
+ * When the hints only ask for QR codes, frames go straight to a QRCodeReader instead of through
+ * MultiFormatReader's dispatch. The QRCodeReader and its Reed-Solomon decoder are kept across
+ * frames, and the hints are copied once, not per frame. If such a frame does not decode but
+ * finder patterns with modules of two pixels or less were seen, the window around them is
+ * decoded again enlarged, see UpscaledLuminanceSource.
+ *
+ * Preview frames are read through a PlanarYUVLuminanceSource (or YPlaneLuminanceSource for
+ * camera2 frames) and ReusableHybridBinarizer which are kept as long as the frame layout and crop
+ * rectangle stay the same, so decoding a stream of preview frames does not allocate in the
+ * luminance and binarizer stages. With setTransform() they read the crop rectangle rotated or
+ * with inverted luma, still without copying the frame.
+ */
+final class FrameDecoder {
+
+    private static final Result[] NO_RESULTS = new Result[0];
+    /**
+     * Finder patterns with larger modules are confirmed on enough rows without enlarging.
+     */
+    private static final float MAX_UPSCALED_MODULE_SIZE = 2.5f;
+    /**
+     * Farthest apart finder patterns are enlarged, so that scattered false positives in a busy
+     * scene do not enlarge most of the frame.
+     */
+    private static final int MAX_UPSCALED_SPAN = 256;
+    private static final int MIN_UPSCALED_MARGIN = 16;
+
+    private final MultiFormatReader mMultiFormatReader;
+    private final QRCodeReader mQrCodeReader;
+    private final Map<DecodeHintType, ?> mHints;
+    private final SmallPatterns mSmallPatterns;
+    private QRCodeMultiReader mMultiReader;
+    private PlanarYUVLuminanceSource mSource;
+    private ReusableHybridBinarizer mBinarizer;
+    private YPlaneLuminanceSource mPlaneSource;
+    private ReusableHybridBinarizer mPlaneBinarizer;
+    private int mQuarterTurns;
+    private boolean mInverted;
+
+    FrameDecoder(Map<DecodeHintType, ?> hints) {
+        this(hints, isQrCodeOnly(hints));
+    }
+
+    /**
+     * @param qrCodeReader Decode with a QRCodeReader directly instead of MultiFormatReader.
+     *                     Only QR codes are found then, whatever the hints say.
+     */
+    FrameDecoder(Map<DecodeHintType, ?> hints, boolean qrCodeReader) {
+        if (qrCodeReader) {
+            mMultiFormatReader = null;
+            mQrCodeReader = new QRCodeReader();
+            mSmallPatterns = new SmallPatterns(hints != null ? (ResultPointCallback)
+                    hints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK) : null);
+            mHints = withResultPointCallback(hints != null ? hints
+                    : new EnumMap<DecodeHintType, Object>(DecodeHintType.class), mSmallPatterns);
+        } else {
+            mMultiFormatReader = new MultiFormatReader();
+            mMultiFormatReader.setHints(hints);
+            mQrCodeReader = null;
+            mSmallPatterns = null;
+            mHints = hints;
+        }
+    }
+
+    /**
+     * Decodes preview frames turned counter-clockwise by quarterTurns quarters, and with
+     * inverted luma if inverted is set. Result points are then in the turned crop rectangle.
+     */
+    void setTransform(int quarterTurns, boolean inverted) {
+        if (quarterTurns == mQuarterTurns && inverted == mInverted) {
+            return;
+        }
+        mQuarterTurns = quarterTurns;
+        mInverted = inverted;
+        mSource = null;
+        mPlaneSource = null;
+    }
+
+    /**
+     * @return The hints used for live preview frames, which only look for QR codes.
+     */
+    static Map<DecodeHintType, Object> createQrCodeHints() {
+        return createQrCodeHints(false, null);
+    }
+
+    /**
+     * @param pureBarcode The image holds nothing but one upright code on a plain background,
+     *                    e.g. a kiosk with a fixed camera, so detection can be skipped.
+     * @param characterSet Encoding of byte segments without an ECI, e.g. "Shift_JIS", or null
+     *                     to guess it.
+     * @return Hints which only look for QR codes.
+     */
+    static Map<DecodeHintType, Object> createQrCodeHints(boolean pureBarcode,
+                                                         String characterSet) {
+        Map<DecodeHintType, Object> hints =
+                new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(BarcodeFormat.QR_CODE));
+        if (pureBarcode) {
+            hints.put(DecodeHintType.PURE_BARCODE, Boolean.TRUE);
+        }
+        if (characterSet != null) {
+            hints.put(DecodeHintType.CHARACTER_SET, characterSet);
+        }
+        return hints;
+    }
+
+    /**
+     * @return A copy of the hints which also looks harder, several times slower than without.
+     */
+    static Map<DecodeHintType, Object> withTryHarder(Map<DecodeHintType, ?> hints) {
+        Map<DecodeHintType, Object> copy =
+                new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        copy.putAll(hints);
+        copy.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        return copy;
+    }
+
+    /**
+     * @return A copy of the hints which also reports the finder patterns found to callback.
+     */
+    static Map<DecodeHintType, Object> withResultPointCallback(Map<DecodeHintType, ?> hints,
+                                                               ResultPointCallback callback) {
+        Map<DecodeHintType, Object> copy =
+                new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        copy.putAll(hints);
+        copy.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, callback);
+        return copy;
+    }
+
+    /**
+     * @return The hints used for still images: QR codes only, looking harder than for preview
+     * frames since there is no next frame to try.
+     */
+    static Map<DecodeHintType, Object> createStillImageHints() {
+        return withTryHarder(createQrCodeHints());
+    }
+
+    /**
+     * @return Whether the hints ask for QR codes and nothing else.
+     */
+    static boolean isQrCodeOnly(Map<DecodeHintType, ?> hints) {
+        Object formats = hints != null ? hints.get(DecodeHintType.POSSIBLE_FORMATS) : null;
+        return formats instanceof Collection
+                && ((Collection<?>) formats).size() == 1
+                && ((Collection<?>) formats).contains(BarcodeFormat.QR_CODE);
+    }
+
+    /**
+     * Decode the QR from the crop rectangle of a preview frame.
+     *
+     * @return The decoded result, or null if no valid QR was found.
+     */
+    Result decode(PreviewFrame frame) {
+        return decode(binarizerFor(frame));
+    }
+
+    /**
+     * Decode every QR code in the crop rectangle of a preview frame. Result points are relative
+     * to the crop rectangle.
+     *
+     * @return The decoded results, empty if no valid QR was found.
+     */
+    Result[] decodeMultiple(PreviewFrame frame) {
+        if (mMultiReader == null) {
+            mMultiReader = new QRCodeMultiReader();
+        }
+        try {
+            return mMultiReader.decodeMultiple(new BinaryBitmap(binarizerFor(frame)), mHints);
+        } catch (ReaderException re) {
+            return NO_RESULTS;
+        } finally {
+            mMultiReader.reset();
+        }
+    }
+
+    /**
+     * Decode the QR from the given crop rectangle of an NV21 preview frame.
+     *
+     * @return The decoded result, or null if no valid QR was found.
+     */
+    Result decode(byte[] data, int dataWidth, int dataHeight,
+                  int left, int top, int width, int height) {
+        return decode(binarizerFor(data, dataWidth, dataHeight, left, top, width, height));
+    }
+
+    /**
+     * Decode the QR from the given crop rectangle of a YUV_420_888 Y plane.
+     *
+     * @return The decoded result, or null if no valid QR was found.
+     */
+    Result decode(ByteBuffer yPlane, int rowStride, int pixelStride, int dataWidth,
+                  int dataHeight, int left, int top, int width, int height) {
+        return decode(binarizerFor(yPlane, rowStride, pixelStride,
+                dataWidth, dataHeight, left, top, width, height));
+    }
+
+    private Binarizer binarizerFor(PreviewFrame frame) {
+        if (frame.data != null) {
+            return binarizerFor(frame.data, frame.width, frame.height,
+                    frame.cropLeft, frame.cropTop, frame.cropWidth, frame.cropHeight);
+        }
+        return binarizerFor(frame.yPlane, frame.rowStride, frame.pixelStride, frame.width,
+                frame.height, frame.cropLeft, frame.cropTop, frame.cropWidth, frame.cropHeight);
+    }
+
+    private Binarizer binarizerFor(byte[] data, int dataWidth, int dataHeight,
+                                   int left, int top, int width, int height) {
+        if (mSource == null
+                || !mSource.hasGeometry(dataWidth, dataHeight, left, top, width, height)) {
+            mSource = new PlanarYUVLuminanceSource(data, dataWidth, dataHeight,
+                    left, top, width, height, mQuarterTurns, mInverted);
+            mBinarizer = new ReusableHybridBinarizer(mSource);
+        } else {
+            mSource.reset(data);
+            mBinarizer.refresh();
+        }
+        return mBinarizer;
+    }
+
+    private Binarizer binarizerFor(ByteBuffer yPlane, int rowStride, int pixelStride,
+                                   int dataWidth, int dataHeight,
+                                   int left, int top, int width, int height) {
+        if (mPlaneSource == null || !mPlaneSource.hasGeometry(dataWidth, dataHeight,
+                rowStride, pixelStride, left, top, width, height)) {
+            mPlaneSource = new YPlaneLuminanceSource(yPlane, dataWidth, dataHeight,
+                    rowStride, pixelStride, left, top, width, height, mQuarterTurns, mInverted);
+            mPlaneBinarizer = new ReusableHybridBinarizer(mPlaneSource);
+        } else {
+            mPlaneSource.reset(yPlane);
+            mPlaneBinarizer.refresh();
+        }
+        return mPlaneBinarizer;
+    }
+
+    /**
+     * Decode the QR from a still image given as ARGB pixels, e.g. from Bitmap.getPixels().
+     *
+     * @return The decoded result, or null if no valid QR was found.
+     */
+    Result decode(int[] argb, int width, int height) {
+        return decode(new RGBLuminanceSource(width, height, argb));
+    }
+
+    /**
+     * Decode the QR from image.
+     *
+     * @return The decoded result, or null if no valid QR was found.
+     */
+    Result decode(LuminanceSource source) {
+        if (source == null) {
+            return null;
+        }
+        return decode(new HybridBinarizer(source));
+    }
+
+    private Result decode(Binarizer binarizer) {
+        if (mQrCodeReader != null) {
+            mSmallPatterns.start(null);
+            try {
+                return mQrCodeReader.decode(new BinaryBitmap(binarizer), mHints);
+            } catch (ReaderException re) {
+                return decodeUpscaled(binarizer.getLuminanceSource());
+            }
+        }
+        try {
+            // decodeWithState() keeps the hints set above, decode() would reset them to all
+            // formats on every call.
+            return mMultiFormatReader.decodeWithState(new BinaryBitmap(binarizer));
+        } catch (ReaderException re) {
+            return null;
+        } finally {
+            mMultiFormatReader.reset();
+        }
+    }
+
+    /**
+     * Decodes the window around the small finder patterns seen by the last attempt again,
+     * enlarged twice.
+     *
+     * @return The result, with its points in source, or null if there were no such patterns
+     * or the window did not decode either.
+     */
+    private Result decodeUpscaled(LuminanceSource source) {
+        SmallPatterns patterns = mSmallPatterns;
+        float span = Math.max(patterns.maxX - patterns.minX, patterns.maxY - patterns.minY);
+        if (patterns.count < 3 || span > MAX_UPSCALED_SPAN) {
+            return null;
+        }
+        // The finder pattern centres lie 3.5 modules inside the code.
+        int margin = Math.max(MIN_UPSCALED_MARGIN, (int) (span / 4));
+        int left = Math.max(0, (int) patterns.minX - margin);
+        int top = Math.max(0, (int) patterns.minY - margin);
+        int right = Math.min(source.getWidth(), (int) patterns.maxX + margin + 1);
+        int bottom = Math.min(source.getHeight(), (int) patterns.maxY + margin + 1);
+        UpscaledLuminanceSource upscaled =
+                new UpscaledLuminanceSource(source, left, top, right - left, bottom - top);
+        patterns.start(upscaled);
+        Result result;
+        try {
+            result = mQrCodeReader.decode(
+                    new BinaryBitmap(new HybridBinarizer(upscaled)), mHints);
+        } catch (ReaderException re) {
+            return null;
+        } finally {
+            patterns.start(null);
+        }
+        ResultPoint[] points = result.getResultPoints();
+        if (points != null) {
+            for (int i = 0; i < points.length; i++) {
+                points[i] = upscaled.toSource(points[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forwards the points ZXing reports to the callback in the hints, if any, and keeps the
+     * bounds of the finder patterns with small modules for decodeUpscaled().
+     */
+    private static final class SmallPatterns implements ResultPointCallback {
+        private final ResultPointCallback mCallback;
+        private UpscaledLuminanceSource mUpscaled;
+        int count;
+        float minX;
+        float minY;
+        float maxX;
+        float maxY;
+
+        SmallPatterns(ResultPointCallback callback) {
+            mCallback = callback;
+            start(null);
+        }
+
+        /**
+         * Forgets the patterns of the last attempt.
+         *
+         * @param upscaled The source of the next attempt if enlarged, whose points are passed
+         *                 on in the original source.
+         */
+        void start(UpscaledLuminanceSource upscaled) {
+            mUpscaled = upscaled;
+            count = 0;
+            minX = Float.MAX_VALUE;
+            minY = Float.MAX_VALUE;
+            maxX = -Float.MAX_VALUE;
+            maxY = -Float.MAX_VALUE;
+        }
+
+        @Override
+        public void foundPossibleResultPoint(ResultPoint point) {
+            if (mUpscaled != null) {
+                point = mUpscaled.toSource(point);
+            } else if (point instanceof FinderPattern && ((FinderPattern) point)
+                    .getEstimatedModuleSize() <= MAX_UPSCALED_MODULE_SIZE) {
+                count++;
+                minX = Math.min(minX, point.getX());
+                minY = Math.min(minY, point.getY());
+                maxX = Math.max(maxX, point.getX());
+                maxY = Math.max(maxY, point.getY());
+            }
+            if (mCallback != null) {
+                mCallback.foundPossibleResultPoint(point);
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.qrscanner;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Averages the luma of the last frameCount undecoded preview frames and decodes the average, for
+ * codes held steady in light so dim that every single frame is too noisy to binarize. Averaging
+ * K frames divides the sensor noise by about the square root of K.
+ *
+ * The crop rectangle of every frame is copied into a ring of frameCount buffers and added to a
+ * 16-bit running sum, from which the oldest frame is subtracted again in the same pass. Before
+ * that the frame is compared to the window's average: while nothing moves their mean squared
+ * difference is noise, and scaled to the noise of one frame its lowest value since the window
+ * started is the noise floor. Motion is the root of what a frame adds above that floor, in luma
+ * levels, so one threshold holds in any light. If it exceeds maxMotion the camera or the code
+ * moved and the window starts over.
+ *
+ * Once the window is full the average is decoded for every undecoded frame. Memory is
+ * frameCount copies of the crop, the sum and the average, allocated when the crop size changes.
+ *
+ * Not thread-safe.
+ */
+final class FrameFusion {
+
+    static final double DEFAULT_MAX_MOTION = 5;
+    /**
+     * The sum of this many frames fits 16 bits, and more frames help little: noise only falls
+     * with the square root of the count, motion blur grows with it.
+     */
+    static final int MAX_FRAMES = 16;
+
+    private final int mFrameCount;
+    private final double mMaxMotion;
+    private final FrameDecoder mDecoder;
+    private byte[][] mFrames;
+    private char[] mSum;
+    private byte[] mFused;
+    private int mLeft;
+    private int mTop;
+    private int mWidth;
+    private int mHeight;
+    private int mNext;
+    private int mCount;
+    private double mNoiseFloor;
+    private double mLastMotion;
+    private int mFusedDecodes;
+    private int mFusedDecoded;
+    private int mMotionResets;
+
+    /**
+     * @param maxMotion Motion, in luma levels, above which the window starts over, 0 to never
+     *                  start over on motion.
+     * @param hints The hints live frames are decoded with.
+     */
+    FrameFusion(int frameCount, double maxMotion, Map<DecodeHintType, ?> hints) {
+        if (frameCount < 2 || frameCount > MAX_FRAMES) {
+            throw new IllegalArgumentException("Bad frame count: " + frameCount);
+        }
+        mFrameCount = frameCount;
+        mMaxMotion = maxMotion;
+        mDecoder = new FrameDecoder(hints);
+        mFrames = new byte[frameCount][];
+        mNoiseFloor = Double.MAX_VALUE;
+    }
+
+    /**
+     * Adds a frame which did not decode and, once frameCount steady frames were added, decodes
+     * their average. Must be called before the frame is released.
+     *
+     * @return The result of decoding the average, or null. Result points are relative to the
+     * frame's crop rectangle.
+     */
+    Result onFrameFailed(PreviewFrame frame) {
+        add(frame);
+        if (mCount < mFrameCount) {
+            return null;
+        }
+        mFusedDecodes++;
+        Result result = mDecoder.decode(fuse(), mWidth, mHeight, 0, 0, mWidth, mHeight);
+        if (result != null) {
+            mFusedDecoded++;
+        }
+        return result;
+    }
+
+    /**
+     * Adds the crop rectangle of a frame to the window, first starting over if the crop
+     * rectangle changed or the frame moved.
+     */
+    void add(PreviewFrame frame) {
+        int width = frame.cropWidth;
+        int height = frame.cropHeight;
+        if (mSum == null || mSum.length < width * height) {
+            mSum = new char[width * height];
+            mFused = new byte[width * height];
+            for (int i = 0; i < mFrameCount; i++) {
+                mFrames[i] = new byte[width * height];
+            }
+            mCount = 0;
+        }
+        if (width != mWidth || height != mHeight
+                || frame.cropLeft != mLeft || frame.cropTop != mTop) {
+            mLeft = frame.cropLeft;
+            mTop = frame.cropTop;
+            mWidth = width;
+            mHeight = height;
+            reset();
+        }
+        mLastMotion = motion(frame);
+        if (mMaxMotion > 0 && mLastMotion > mMaxMotion) {
+            mMotionResets++;
+            reset();
+        }
+
+        byte[] slot = mFrames[mNext];
+        // A full window drops the oldest frame, which is in the slot being overwritten.
+        boolean full = mCount == mFrameCount;
+        char[] sum = mSum;
+        for (int y = 0; y < height; y++) {
+            int out = y * width;
+            if (frame.data != null) {
+                int in = (frame.cropTop + y) * frame.width + frame.cropLeft;
+                for (int x = 0; x < width; x++) {
+                    int value = frame.data[in + x] & 0xff;
+                    int old = full ? slot[out + x] & 0xff : 0;
+                    slot[out + x] = (byte) value;
+                    sum[out + x] = (char) (sum[out + x] + value - old);
+                }
+            } else {
+                int in = (frame.cropTop + y) * frame.rowStride
+                        + frame.cropLeft * frame.pixelStride;
+                for (int x = 0; x < width; x++) {
+                    int value = frame.yPlane.get(in + x * frame.pixelStride) & 0xff;
+                    int old = full ? slot[out + x] & 0xff : 0;
+                    slot[out + x] = (byte) value;
+                    sum[out + x] = (char) (sum[out + x] + value - old);
+                }
+            }
+        }
+        mNext = (mNext + 1) % mFrameCount;
+        if (!full) {
+            mCount++;
+        }
+    }
+
+    /**
+     * @return The rounded average of the frames in the window, getWidth() x getHeight() bytes
+     * at the start of a buffer which is overwritten by the next call.
+     */
+    byte[] fuse() {
+        int count = mCount;
+        int half = count / 2;
+        char[] sum = mSum;
+        byte[] fused = mFused;
+        for (int i = 0; i < mWidth * mHeight; i++) {
+            fused[i] = (byte) ((sum[i] + half) / count);
+        }
+        return fused;
+    }
+
+    /**
+     * Empties the window, e.g. after a result or when the camera was closed.
+     */
+    void reset() {
+        if (mSum != null && mCount > 0) {
+            Arrays.fill(mSum, (char) 0);
+        }
+        mCount = 0;
+        mNext = 0;
+        mNoiseFloor = Double.MAX_VALUE;
+    }
+
+    /**
+     * @return How many frames the window holds.
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The motion of the last added frame against the window's average, or 0 if it
+     * could not be told yet.
+     */
+    double getLastMotion() {
+        return mLastMotion;
+    }
+
+    int getFusedDecodes() {
+        return mFusedDecodes;
+    }
+
+    /**
+     * @return How many decodes of the average found a code.
+     */
+    int getFusedDecoded() {
+        return mFusedDecoded;
+    }
+
+    int getMotionResets() {
+        return mMotionResets;
+    }
+
+    @Override
+    public String toString() {
+        return mFusedDecodes + " fused decodes, " + mFusedDecoded + " decoded, "
+                + mMotionResets + " motion resets";
+    }
+
+    /**
+     * Compares the frame with the window's average and lowers the noise floor.
+     *
+     * @return The root of the frame's squared difference from the average beyond the noise
+     * floor, 0 until the window holds two frames.
+     */
+    private double motion(PreviewFrame frame) {
+        int count = mCount;
+        if (count == 0) {
+            return 0;
+        }
+        long squares = 0;
+        for (int y = 0; y < mHeight; y++) {
+            for (int x = 0; x < mWidth; x++) {
+                // The frame scaled to count frames, against the sum of count frames.
+                long difference = (long) luma(frame, frame.cropLeft + x, frame.cropTop + y)
+                        * count - mSum[y * mWidth + x];
+                squares += difference * difference;
+            }
+        }
+        // The difference holds the frame's noise once and the average's noise, 1 / count of it.
+        double noise = (double) squares / ((long) count * count * mWidth * mHeight)
+                * count / (count + 1);
+        double motion = mNoiseFloor == Double.MAX_VALUE ? 0
+                : Math.sqrt(Math.max(0, noise - mNoiseFloor));
+        mNoiseFloor = Math.min(mNoiseFloor, noise);
+        return motion;
+    }
+
+    private static int luma(PreviewFrame frame, int x, int y) {
+        int index = y * frame.rowStride + x * frame.pixelStride;
+        return (frame.data != null ? frame.data[index] : frame.yPlane.get(index)) & 0xff;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.qrscanner;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap check run before a preview frame is decoded, which drops frames that are too blurred or
+ * moving too fast to decode anyway. Both measures look at a grid of at most GRID x GRID luma
+ * samples inside the frame's crop rectangle:
+ *
+ * Sharpness is the variance of the Laplacian (4c - l - r - u - d) at the sample points. Out of
+ * focus and motion-blurred frames have soft edges and so a low variance.
+ * Motion is the mean absolute luma difference from the same samples of the previous frame.
+ *
+ * After MAX_CONSECUTIVE_REJECTS rejected frames in a row one frame is let through anyway, so a
+ * threshold that does not suit the device cannot stop scanning altogether.
+ *
+ * Not thread-safe: frames must be passed in order from one thread. The counters may be read
+ * from any thread.
+ */
+final class FrameQualityFilter {
+
+    static final double DEFAULT_MIN_SHARPNESS = 50;
+    static final double DEFAULT_MAX_MOTION = 24;
+
+    private static final int GRID = 48;
+    private static final int MAX_CONSECUTIVE_REJECTS = 15;
+
+    private final double mMinSharpness;
+    private final double mMaxMotion;
+    private final int[] mSamples = new int[GRID * GRID];
+    private final int[] mPreviousSamples = new int[GRID * GRID];
+    private int mPreviousLeft;
+    private int mPreviousTop;
+    private int mPreviousWidth;
+    private int mPreviousHeight;
+    private boolean mHasPrevious;
+    private int mConsecutiveRejects;
+    private double mLastSharpness;
+    private double mLastMotion;
+    private boolean mLastRejectedMoving;
+    private final AtomicLong mAcceptedCount = new AtomicLong();
+    private final AtomicLong mBlurRejectedCount = new AtomicLong();
+    private final AtomicLong mMotionRejectedCount = new AtomicLong();
+
+    FrameQualityFilter() {
+        this(DEFAULT_MIN_SHARPNESS, DEFAULT_MAX_MOTION);
+    }
+
+    /**
+     * @param minSharpness Frames with a lower Laplacian variance are rejected, 0 to disable.
+     * @param maxMotion Frames differing more from the previous one are rejected, 0 to disable.
+     */
+    FrameQualityFilter(double minSharpness, double maxMotion) {
+        mMinSharpness = minSharpness;
+        mMaxMotion = maxMotion;
+    }
+
+    /**
+     * Measures the frame and remembers it for the next motion estimate.
+     *
+     * @return Whether the frame is worth decoding.
+     */
+    boolean accept(PreviewFrame frame) {
+        int left = frame.cropLeft;
+        int top = frame.cropTop;
+        int width = frame.cropWidth;
+        int height = frame.cropHeight;
+        if (width < 3 || height < 3) {
+            mAcceptedCount.incrementAndGet();
+            return true;
+        }
+        // Sample the interior, so every sample has four neighbours inside the crop.
+        int stepX = Math.max(1, (width - 2) / GRID);
+        int stepY = Math.max(1, (height - 2) / GRID);
+        int columns = Math.min(GRID, (width - 2 + stepX - 1) / stepX);
+        int rows = Math.min(GRID, (height - 2 + stepY - 1) / stepY);
+        boolean compareMotion = mHasPrevious && mMaxMotion > 0
+                && mPreviousLeft == left && mPreviousTop == top
+                && mPreviousWidth == width && mPreviousHeight == height;
+
+        long sum = 0;
+        long sumOfSquares = 0;
+        long difference = 0;
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            int y = top + 1 + row * stepY;
+            for (int column = 0; column < columns; column++) {
+                int x = left + 1 + column * stepX;
+                int center = luma(frame, x, y);
+                int laplacian = 4 * center - luma(frame, x - 1, y) - luma(frame, x + 1, y)
+                        - luma(frame, x, y - 1) - luma(frame, x, y + 1);
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+                if (compareMotion) {
+                    difference += Math.abs(center - mPreviousSamples[count]);
+                }
+                mSamples[count++] = center;
+            }
+        }
+        double mean = (double) sum / count;
+        mLastSharpness = (double) sumOfSquares / count - mean * mean;
+        mLastMotion = compareMotion ? (double) difference / count : 0;
+
+        System.arraycopy(mSamples, 0, mPreviousSamples, 0, count);
+        mPreviousLeft = left;
+        mPreviousTop = top;
+        mPreviousWidth = width;
+        mPreviousHeight = height;
+        mHasPrevious = true;
+
+        boolean blurred = mMinSharpness > 0 && mLastSharpness < mMinSharpness;
+        boolean moving = compareMotion && mLastMotion > mMaxMotion;
+        mLastRejectedMoving = false;
+        if ((blurred || moving) && mConsecutiveRejects < MAX_CONSECUTIVE_REJECTS) {
+            mConsecutiveRejects++;
+            if (blurred) {
+                mBlurRejectedCount.incrementAndGet();
+            } else {
+                mMotionRejectedCount.incrementAndGet();
+                mLastRejectedMoving = true;
+            }
+            return false;
+        }
+        mConsecutiveRejects = 0;
+        mAcceptedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return The Laplacian variance of the last frame passed to accept().
+     */
+    double getLastSharpness() {
+        return mLastSharpness;
+    }
+
+    /**
+     * @return The mean absolute difference of the last frame from the one before, or 0 if
+     * they could not be compared.
+     */
+    double getLastMotion() {
+        return mLastMotion;
+    }
+
+    /**
+     * @return Whether the last frame passed to accept() was rejected as moving, but not as
+     * blurred. Sensor noise in dim light looks like motion to the per-sample comparison.
+     */
+    boolean isLastRejectedMoving() {
+        return mLastRejectedMoving;
+    }
+
+    long getAcceptedCount() {
+        return mAcceptedCount.get();
+    }
+
+    long getBlurRejectedCount() {
+        return mBlurRejectedCount.get();
+    }
+
+    long getMotionRejectedCount() {
+        return mMotionRejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "accepted " + getAcceptedCount() + ", rejected " + getBlurRejectedCount()
+                + " blurred and " + getMotionRejectedCount() + " moving";
+    }
+
+    private static int luma(PreviewFrame frame, int x, int y) {
+        int index = y * frame.rowStride + x * frame.pixelStride;
+        return (frame.data != null ? frame.data[index] : frame.yPlane.get(index)) & 0xff;
+    }
+}
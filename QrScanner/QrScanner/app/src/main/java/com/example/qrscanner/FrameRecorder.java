@@ -0,0 +1,126 @@
+package com.example.qrscanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes preview frames to a memory-mapped file in the FrameRecording format, so that a scan can
+ * be replayed later without a camera.
+ *
+ * The file is mapped in windows of at least MAP_WINDOW_BYTES and a frame is a single copy into
+ * the page cache; the kernel writes it back in the background. The frame count in the header is
+ * updated after every frame, so a recording cut short by a crash still opens. Recording stops at
+ * maxBytes.
+ *
+ * Methods may be called from any thread.
+ */
+final class FrameRecorder implements Closeable {
+
+    static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    private static final int MAP_WINDOW_BYTES = 16 * 1024 * 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mMaxBytes;
+    private final MappedByteBuffer mHeader;
+    private MappedByteBuffer mWindow;
+    private long mWindowStart;
+    private long mPosition;
+    private int mFrameCount;
+    private int mDroppedFrames;
+    private boolean mClosed;
+
+    /**
+     * Creates the file, replacing an existing one.
+     *
+     * @param maxBytes Size the file may grow to, at most Integer.MAX_VALUE.
+     */
+    FrameRecorder(File file, long maxBytes) throws IOException {
+        if (maxBytes < FrameRecording.HEADER_BYTES || maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad maximum size: " + maxBytes);
+        }
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+            mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    FrameRecording.HEADER_BYTES);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+        mMaxBytes = maxBytes;
+        mHeader.putInt(0, FrameRecording.MAGIC);
+        mHeader.putInt(4, FrameRecording.VERSION);
+        mHeader.putInt(FrameRecording.FRAME_COUNT_OFFSET, 0);
+        mPosition = FrameRecording.HEADER_BYTES;
+    }
+
+    /**
+     * Appends a frame.
+     *
+     * @param data NV21 data, of which width * height * 3 / 2 bytes are written.
+     * @param focusState One of the FrameRecording.FOCUS_ constants.
+     * @return false if the frame was dropped because the recorder is full or closed.
+     */
+    synchronized boolean record(byte[] data, int width, int height, long timestampNanos,
+                                int focusState) throws IOException {
+        int length = width * height * 3 / 2;
+        if (data.length < length) {
+            throw new IllegalArgumentException("Frame is smaller than " + width + "x" + height);
+        }
+        long recordBytes = FrameRecording.FRAME_HEADER_BYTES + (long) length;
+        if (mClosed || mPosition + recordBytes > mMaxBytes) {
+            mDroppedFrames++;
+            return false;
+        }
+        if (mWindow == null || mPosition + recordBytes > mWindowStart + mWindow.capacity()) {
+            mWindowStart = mPosition;
+            long size = Math.min(Math.max(MAP_WINDOW_BYTES, recordBytes), mMaxBytes - mPosition);
+            mWindow = mChannel.map(FileChannel.MapMode.READ_WRITE, mWindowStart, size);
+        }
+        mWindow.position((int) (mPosition - mWindowStart));
+        mWindow.putInt(width);
+        mWindow.putInt(height);
+        mWindow.putLong(timestampNanos);
+        mWindow.putInt(focusState);
+        mWindow.putInt(length);
+        mWindow.put(data, 0, length);
+        mPosition += recordBytes;
+        mFrameCount++;
+        mHeader.putInt(FrameRecording.FRAME_COUNT_OFFSET, mFrameCount);
+        return true;
+    }
+
+    synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return How many frames did not fit within maxBytes.
+     */
+    synchronized int getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * Cuts the file to the frames written and closes it. Frames recorded afterwards are dropped.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mWindow = null;
+        try {
+            mChannel.truncate(mPosition);
+        } finally {
+            mFile.close();
+        }
+    }
+}
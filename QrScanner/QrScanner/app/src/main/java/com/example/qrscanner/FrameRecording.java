@@ -0,0 +1,147 @@
+package com.example.qrscanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file of preview frames written by FrameRecorder, memory-mapped for reading.
+ *
+ * The file starts with a HEADER_BYTES header: MAGIC, VERSION and the number of complete frames.
+ * Every frame follows as a FRAME_HEADER_BYTES header, holding width, height, timestamp, focus
+ * state and data length, and then the NV21 data as the camera delivered it. All numbers are
+ * big-endian.
+ *
+ * Frames are read from the mapping without copying the file into memory, so recordings larger
+ * than the heap can be replayed. Not thread-safe.
+ */
+final class FrameRecording implements Closeable {
+
+    static final int MAGIC = 0x51524652; // "QRFR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int FRAME_COUNT_OFFSET = 8;
+    static final int FRAME_HEADER_BYTES = 24;
+
+    /**
+     * Focus state of the camera when a frame arrived. Unknown unless autofocus is driven by
+     * autoFocus() calls.
+     */
+    static final int FOCUS_UNKNOWN = 0;
+    static final int FOCUS_SCANNING = 1;
+    static final int FOCUS_FOCUSED = 2;
+    static final int FOCUS_FAILED = 3;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int[] mOffsets;
+
+    private FrameRecording(RandomAccessFile file, MappedByteBuffer buffer, int[] offsets) {
+        mFile = file;
+        mBuffer = buffer;
+        mOffsets = offsets;
+    }
+
+    /**
+     * Opens a recording. A file cut short, e.g. by a crash while recording, holds the frames
+     * before the cut.
+     *
+     * @throws IOException If the file is not a recording or of another version.
+     */
+    static FrameRecording open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long length = randomAccessFile.length();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a frame recording: " + file);
+            }
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a frame recording: " + file);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported recording version " + buffer.getInt(4));
+            }
+            int count = Math.max(0, buffer.getInt(FRAME_COUNT_OFFSET));
+            int[] offsets = new int[count];
+            int offset = HEADER_BYTES;
+            int frames = 0;
+            while (frames < count && offset + FRAME_HEADER_BYTES <= length) {
+                int dataLength = buffer.getInt(offset + 20);
+                if (dataLength < 0 || offset + FRAME_HEADER_BYTES + (long) dataLength > length) {
+                    break;
+                }
+                offsets[frames++] = offset;
+                offset += FRAME_HEADER_BYTES + dataLength;
+            }
+            if (frames < count) {
+                int[] complete = new int[frames];
+                System.arraycopy(offsets, 0, complete, 0, frames);
+                offsets = complete;
+            }
+            return new FrameRecording(randomAccessFile, buffer, offsets);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    int getFrameCount() {
+        return mOffsets.length;
+    }
+
+    int getWidth(int index) {
+        return mBuffer.getInt(mOffsets[index]);
+    }
+
+    int getHeight(int index) {
+        return mBuffer.getInt(mOffsets[index] + 4);
+    }
+
+    /**
+     * @return System.nanoTime() on the recording device when the frame arrived.
+     */
+    long getTimestampNanos(int index) {
+        return mBuffer.getLong(mOffsets[index] + 8);
+    }
+
+    /**
+     * @return One of the FOCUS_ constants.
+     */
+    int getFocusState(int index) {
+        return mBuffer.getInt(mOffsets[index] + 16);
+    }
+
+    int getDataLength(int index) {
+        return mBuffer.getInt(mOffsets[index] + 20);
+    }
+
+    /**
+     * Copies the frame's NV21 data to the start of data, which must hold getDataLength() bytes.
+     */
+    void readFrame(int index, byte[] data) {
+        ByteBuffer frame = getData(index);
+        frame.get(data, 0, frame.remaining());
+    }
+
+    /**
+     * @return The frame's NV21 data as a read-only view of the mapping, without copying.
+     */
+    ByteBuffer getData(int index) {
+        ByteBuffer frame = mBuffer.duplicate();
+        int start = mOffsets[index] + FRAME_HEADER_BYTES;
+        frame.limit(start + getDataLength(index));
+        frame.position(start);
+        return frame.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.qrscanner;
+
+/**
+ * Feeds the frames of a FrameRecording to a consumer, the way the camera delivered them, so that
+ * the decode pipeline can be run and timed without a device.
+ *
+ * At recorded speed every frame is delivered at its recorded time relative to the first. Like
+ * the camera, which only hands over a frame once the decoder asked for the next one, frames
+ * which became due while the consumer was still busy are dropped, except the newest. At maximum
+ * speed every frame is delivered as soon as the consumer returns.
+ *
+ * Frames are copied into one reused buffer, as the camera fills its preview buffers; the copy
+ * is not part of the consumer's time. Runs on the calling thread.
+ */
+final class FrameReplayer {
+
+    interface Consumer {
+        /**
+         * Called for every delivered frame. The frame's data is overwritten by the next frame
+         * once this returns.
+         *
+         * @param focusState One of the FrameRecording.FOCUS_ constants.
+         */
+        void onFrame(PreviewFrame frame, int focusState);
+    }
+
+    /**
+     * Time source and sleep, replaceable in tests.
+     */
+    interface Timer extends DecodeScheduler.Clock {
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    static final Timer SYSTEM_TIMER = new Timer() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException {
+            Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+        }
+    };
+
+    private final FrameRecording mRecording;
+    private final Timer mTimer;
+    private byte[] mBuffer;
+    private int mDeliveredFrames;
+    private int mDroppedFrames;
+
+    FrameReplayer(FrameRecording recording, Timer timer) {
+        mRecording = recording;
+        mTimer = timer;
+    }
+
+    /**
+     * Replays the whole recording.
+     *
+     * @param recordedSpeed Deliver frames at their recorded times, else as fast as the consumer
+     *                      takes them.
+     * @return How many frames were delivered.
+     */
+    int replay(Consumer consumer, boolean recordedSpeed) throws InterruptedException {
+        int count = mRecording.getFrameCount();
+        if (count == 0) {
+            return 0;
+        }
+        long start = mTimer.nanoTime();
+        long firstTimestamp = mRecording.getTimestampNanos(0);
+        int delivered = 0;
+        for (int i = 0; i < count; i++) {
+            if (recordedSpeed) {
+                long now = mTimer.nanoTime();
+                long due = start + mRecording.getTimestampNanos(i) - firstTimestamp;
+                if (now < due) {
+                    mTimer.sleep(due - now);
+                } else {
+                    // Frames which arrived while the consumer was busy, keep the newest.
+                    while (i + 1 < count
+                            && start + mRecording.getTimestampNanos(i + 1) - firstTimestamp
+                            <= now) {
+                        i++;
+                        mDroppedFrames++;
+                    }
+                }
+            }
+            deliver(i, consumer);
+            delivered++;
+        }
+        mDeliveredFrames += delivered;
+        return delivered;
+    }
+
+    int getDeliveredFrames() {
+        return mDeliveredFrames;
+    }
+
+    /**
+     * @return How many frames were dropped at recorded speed because the consumer was busy.
+     */
+    int getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    private void deliver(int index, Consumer consumer) {
+        int length = mRecording.getDataLength(index);
+        if (mBuffer == null || mBuffer.length < length) {
+            mBuffer = new byte[length];
+        }
+        mRecording.readFrame(index, mBuffer);
+        PreviewFrame frame = new PreviewFrame(mBuffer, mRecording.getWidth(index),
+                mRecording.getHeight(index), mTimer.nanoTime());
+        consumer.onFrame(frame, mRecording.getFocusState(index));
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.qrscanner;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative long values, laid out like HdrHistogram: every power of two
+ * is split into SUB_BUCKETS linear buckets, so any recorded value is reported within 1/16
+ * (6.25%) of its true value, from nanoseconds to centuries, in a fixed 960 slot array.
+ *
+ * record() may be called from any number of threads and never allocates. Percentiles read
+ * while values are being recorded are approximate.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Values up to 2^63 - 1 leave at most 63 - SUB_BUCKET_BITS shifts.
+     */
+    private static final int BUCKET_COUNT = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a value. Negative values, e.g. from clocks of different threads, count as 0.
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts.incrementAndGet(indexOf(value));
+        mTotalCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // Another thread raised the maximum, check again.
+        }
+    }
+
+    long getCount() {
+        return mTotalCount.get();
+    }
+
+    long getMax() {
+        return mMax.get();
+    }
+
+    double getMean() {
+        long count = mTotalCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return The highest value equivalent to the value at the given percentile, or 0 if
+     * nothing was recorded.
+     */
+    long getValueAtPercentile(double percentile) {
+        long count = mTotalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Appends count, mean, p50, p95, p99 and max as a JSON object, every value divided by
+     * unit, e.g. 1000000 to turn nanoseconds into milliseconds.
+     */
+    void appendJson(StringBuilder json, long unit) {
+        json.append("{\"count\":").append(getCount())
+                .append(",\"mean\":").append(format(getMean() / unit))
+                .append(",\"p50\":").append(format((double) getValueAtPercentile(50) / unit))
+                .append(",\"p95\":").append(format((double) getValueAtPercentile(95) / unit))
+                .append(",\"p99\":").append(format((double) getValueAtPercentile(99) / unit))
+                .append(",\"max\":").append(format((double) getMax() / unit))
+                .append('}');
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        // value >>> shift lies in [SUB_BUCKETS, 2 * SUB_BUCKETS).
+        return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.detector.MathUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the distinct codes seen over consecutive frames in multi-code mode, until a target
+ * count is reached or the scan times out.
+ *
+ * Codes are told apart by content and position. Results within one frame with the same text
+ * and centers closer than the code's finder pattern span are the same code. Across frames the
+ * camera moves, so a code is matched to the nearest known code with the same text; a new code is
+ * only counted when a frame shows more codes with that text than were known before, e.g. two
+ * identical labels side by side.
+ *
+ * Not thread-safe.
+ */
+final class MultiCodeCollector {
+
+    static final class Code {
+        final String text;
+        final BarcodeFormat format;
+        final long firstSeenNanos;
+        float x;
+        float y;
+        float size;
+        int seenCount;
+        private int mLastFrame;
+
+        Code(String text, BarcodeFormat format, long firstSeenNanos) {
+            this.text = text;
+            this.format = format;
+            this.firstSeenNanos = firstSeenNanos;
+        }
+    }
+
+    private final int mTargetCount;
+    private final long mDeadlineNanos;
+    private final List<Code> mCodes = new ArrayList<Code>();
+    private final List<Code> mFrameCodes = new ArrayList<Code>();
+    private int mFrame;
+
+    /**
+     * @param targetCount Codes to collect before the scan is complete, 0 for no limit.
+     * @param timeoutNanos Time from startNanos after which the scan is complete anyway.
+     */
+    MultiCodeCollector(int targetCount, long timeoutNanos, long startNanos) {
+        mTargetCount = targetCount;
+        mDeadlineNanos = startNanos + timeoutNanos;
+    }
+
+    /**
+     * Adds the results of one frame.
+     *
+     * @param offsetX Added to the result points, e.g. the left of the frame's crop rectangle.
+     * @param offsetY Added to the result points, e.g. the top of the frame's crop rectangle.
+     * @return How many codes were seen for the first time.
+     */
+    int add(Result[] results, int offsetX, int offsetY, long nowNanos) {
+        mFrame++;
+        mFrameCodes.clear();
+        for (Result result : results) {
+            String text = result.getText();
+            if (text == null) {
+                continue;
+            }
+            Code code = new Code(text, result.getBarcodeFormat(), nowNanos);
+            locate(code, result.getResultPoints(), offsetX, offsetY);
+            if (findNearest(mFrameCodes, code, true) == null) {
+                mFrameCodes.add(code);
+            }
+        }
+
+        int added = 0;
+        for (Code seen : mFrameCodes) {
+            Code known = findNearest(mCodes, seen, false);
+            if (known == null) {
+                known = seen;
+                mCodes.add(seen);
+                added++;
+            }
+            known.x = seen.x;
+            known.y = seen.y;
+            known.size = seen.size;
+            known.seenCount++;
+            known.mLastFrame = mFrame;
+        }
+        return added;
+    }
+
+    boolean isComplete(long nowNanos) {
+        return (mTargetCount > 0 && mCodes.size() >= mTargetCount) || nowNanos >= mDeadlineNanos;
+    }
+
+    int size() {
+        return mCodes.size();
+    }
+
+    /**
+     * @return The codes in the order they were first seen.
+     */
+    List<Code> getCodes() {
+        return Collections.unmodifiableList(mCodes);
+    }
+
+    /**
+     * @return The texts of all codes in the order they were first seen.
+     */
+    ArrayList<String> getTexts() {
+        ArrayList<String> texts = new ArrayList<String>(mCodes.size());
+        for (Code code : mCodes) {
+            texts.add(code.text);
+        }
+        return texts;
+    }
+
+    /**
+     * @param sameSpot Only match codes closer than their size, otherwise match the nearest
+     *                 code with the same text which was not matched in this frame yet.
+     */
+    private Code findNearest(List<Code> codes, Code code, boolean sameSpot) {
+        Code nearest = null;
+        float nearestDistance = Float.MAX_VALUE;
+        for (Code candidate : codes) {
+            if (!candidate.text.equals(code.text)
+                    || (!sameSpot && candidate.mLastFrame == mFrame)) {
+                continue;
+            }
+            float distance = MathUtils.distance(candidate.x, candidate.y, code.x, code.y);
+            if (sameSpot && distance > Math.max(candidate.size, code.size)) {
+                continue;
+            }
+            if (distance < nearestDistance) {
+                nearest = candidate;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Sets the center of the code to the mean of its result points, and its size to the largest
+     * distance between two of them.
+     */
+    private static void locate(Code code, ResultPoint[] points, int offsetX, int offsetY) {
+        if (points == null || points.length == 0) {
+            return;
+        }
+        float sumX = 0;
+        float sumY = 0;
+        float size = 0;
+        for (int i = 0; i < points.length; i++) {
+            sumX += points[i].getX();
+            sumY += points[i].getY();
+            for (int j = i + 1; j < points.length; j++) {
+                size = Math.max(size, ResultPoint.distance(points[i], points[j]));
+            }
+        }
+        code.x = offsetX + sumX / points.length;
+        code.y = offsetY + sumY / points.length;
+        code.size = size;
+    }
+}
@@ -2,43 +2,251 @@ package com.example.qrscanner;
 
 import com.google.zxing.LuminanceSource;
 
-import android.graphics.Bitmap;
-
 /**
  * This class refers to com.google.zxing.client.android.camera.PlanarYUVLuminanceSource.java
  *
  * This object extends LuminanceSource around an array of YUV data returned from the camera driver.
  * This can be used to exclude superfluous pixels around the perimeter and speed up decoding.
  *
+ * A source can be re-pointed at the next frame of the same size with reset(), in which case the
+ * cropped matrix is copied into the same scratch array for every frame.
+ *
+ * rotateCounterClockwise() and invert() return views which read the same frame data, rotated by
+ * quarter turns or with inverted luma, pixel by pixel as they are asked for. Nothing is copied
+ * beyond the rows and matrix handed out.
  */
 public final class PlanarYUVLuminanceSource extends LuminanceSource {
 
-  private final byte[] yuvData;
+  private byte[] yuvData;
+  private byte[] matrix;
+  private byte[] row;
   private final int dataWidth;
   private final int dataHeight;
+  private final int left;
+  private final int top;
+  private final int cropWidth;
+  private final int cropHeight;
+  private final int quarterTurns;
+  private final boolean inverted;
+  // Offset of the view's top left pixel and the offset steps to its right and downwards.
+  private final int origin;
+  private final int xStep;
+  private final int yStep;
 
   public PlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight) {
-    super(dataWidth, dataHeight);
+    this(yuvData, dataWidth, dataHeight, 0, 0, dataWidth, dataHeight);
+  }
+
+  public PlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight,
+                                  int left, int top, int width, int height) {
+    this(yuvData, dataWidth, dataHeight, left, top, width, height, 0, false);
+  }
+
+  /**
+   * @param quarterTurns Counter-clockwise quarter turns the crop rectangle is viewed with.
+   * @param inverted View light as dark and dark as light, for white on black codes.
+   */
+  public PlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight,
+                                  int left, int top, int width, int height,
+                                  int quarterTurns, boolean inverted) {
+    super(quarterTurns % 2 == 0 ? width : height, quarterTurns % 2 == 0 ? height : width);
+
+    if (left < 0 || top < 0 || left + width > dataWidth || top + height > dataHeight) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+    if (quarterTurns < 0 || quarterTurns > 3) {
+      throw new IllegalArgumentException("Bad quarter turns: " + quarterTurns);
+    }
 
     this.yuvData = yuvData;
     this.dataWidth = dataWidth;
     this.dataHeight = dataHeight;
+    this.left = left;
+    this.top = top;
+    this.cropWidth = width;
+    this.cropHeight = height;
+    this.quarterTurns = quarterTurns;
+    this.inverted = inverted;
+    int right = left + width - 1;
+    int bottom = top + height - 1;
+    switch (quarterTurns) {
+      case 0:
+        origin = top * dataWidth + left;
+        xStep = 1;
+        yStep = dataWidth;
+        break;
+      case 1:
+        // The top right corner comes to the top left, columns become rows.
+        origin = top * dataWidth + right;
+        xStep = dataWidth;
+        yStep = -1;
+        break;
+      case 2:
+        origin = bottom * dataWidth + right;
+        xStep = -1;
+        yStep = -dataWidth;
+        break;
+      default:
+        origin = bottom * dataWidth + left;
+        xStep = -dataWidth;
+        yStep = 1;
+        break;
+    }
+  }
+
+  /**
+   * Points this source at another frame with the same dimensions.
+   */
+  public void reset(byte[] yuvData) {
+    if (yuvData.length < dataWidth * dataHeight) {
+      throw new IllegalArgumentException("Frame is smaller than " + dataWidth + "x" + dataHeight);
+    }
+    this.yuvData = yuvData;
+  }
+
+  /**
+   * @return Whether this source reads the given crop rectangle out of frames of the given size.
+   */
+  public boolean hasGeometry(int dataWidth, int dataHeight, int left, int top,
+                             int width, int height) {
+    return this.dataWidth == dataWidth && this.dataHeight == dataHeight
+        && this.left == left && this.top == top
+        && cropWidth == width && cropHeight == height;
   }
+
   @Override
   public byte[] getRow(int y, byte[] row) {
-    if (y < 0 || y >= dataHeight) {
+    if (y < 0 || y >= getHeight()) {
       throw new IllegalArgumentException("Requested row is outside the image: " + y);
     }
-    if (row == null || row.length < dataWidth) {
-      row = new byte[dataWidth];
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      if (this.row == null) {
+        this.row = new byte[width];
+      }
+      row = this.row;
     }
-    System.arraycopy(yuvData, y * dataWidth, row, 0, dataWidth);
+    readRow(y, row, 0);
     return row;
   }
 
   @Override
   public byte[] getMatrix() {
-    return yuvData;
+    int width = getWidth();
+    int height = getHeight();
+
+    if (quarterTurns != 0 || inverted) {
+      if (matrix == null) {
+        matrix = new byte[width * height];
+      }
+      for (int y = 0; y < height; y++) {
+        readRow(y, matrix, y * width);
+      }
+      return matrix;
+    }
+
+    // If the caller asks for the entire underlying image, save the copy and give them the
+    // original data. The docs specifically warn that result.length must be ignored.
+    if (width == dataWidth && height == dataHeight) {
+      return yuvData;
+    }
+
+    int area = width * height;
+    if (matrix == null) {
+      matrix = new byte[area];
+    }
+    int inputOffset = top * dataWidth + left;
+
+    // If the width matches the full width of the underlying data, perform a single copy.
+    if (width == dataWidth) {
+      System.arraycopy(yuvData, inputOffset, matrix, 0, area);
+      return matrix;
+    }
+
+    // Otherwise copy one cropped row at a time.
+    for (int y = 0; y < height; y++) {
+      int outputOffset = y * width;
+      System.arraycopy(yuvData, inputOffset, matrix, outputOffset, width);
+      inputOffset += dataWidth;
+    }
+    return matrix;
+  }
+
+  @Override
+  public boolean isCropSupported() {
+    return true;
+  }
+
+  /**
+   * Returns a view of a sub-rectangle of this source. The frame data is shared, not copied.
+   */
+  @Override
+  public LuminanceSource crop(int left, int top, int width, int height) {
+    // Map the rectangle, given in this view's coordinates, back to the frame.
+    int cropLeft;
+    int cropTop;
+    switch (quarterTurns) {
+      case 0:
+        cropLeft = left;
+        cropTop = top;
+        break;
+      case 1:
+        cropLeft = cropWidth - top - height;
+        cropTop = left;
+        break;
+      case 2:
+        cropLeft = cropWidth - left - width;
+        cropTop = cropHeight - top - height;
+        break;
+      default:
+        cropLeft = top;
+        cropTop = cropHeight - left - width;
+        break;
+    }
+    boolean turned = quarterTurns % 2 != 0;
+    return new PlanarYUVLuminanceSource(yuvData, dataWidth, dataHeight,
+        this.left + cropLeft, this.top + cropTop, turned ? height : width,
+        turned ? width : height, quarterTurns, inverted);
+  }
+
+  @Override
+  public boolean isRotateSupported() {
+    return true;
+  }
+
+  /**
+   * Returns this source rotated by 90 degrees counter-clockwise, reading the same frame data.
+   */
+  @Override
+  public LuminanceSource rotateCounterClockwise() {
+    return new PlanarYUVLuminanceSource(yuvData, dataWidth, dataHeight,
+        left, top, cropWidth, cropHeight, (quarterTurns + 1) % 4, inverted);
+  }
+
+  /**
+   * Returns this source with inverted luma, reading the same frame data.
+   */
+  @Override
+  public LuminanceSource invert() {
+    return new PlanarYUVLuminanceSource(yuvData, dataWidth, dataHeight,
+        left, top, cropWidth, cropHeight, quarterTurns, !inverted);
   }
-}
 
+  private void readRow(int y, byte[] destination, int destinationOffset) {
+    int width = getWidth();
+    int offset = origin + y * yStep;
+    if (xStep == 1) {
+      System.arraycopy(yuvData, offset, destination, destinationOffset, width);
+      if (inverted) {
+        for (int x = destinationOffset; x < destinationOffset + width; x++) {
+          destination[x] = (byte) ~destination[x];
+        }
+      }
+      return;
+    }
+    int mask = inverted ? 0xff : 0;
+    for (int x = 0; x < width; x++) {
+      destination[destinationOffset + x] = (byte) (yuvData[offset + x * xStep] ^ mask);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.example.qrscanner;
+
+import java.util.ArrayDeque;
+
+/**
+ * A fixed ring of preview buffers which are handed to the camera driver with
+ * Camera.addCallbackBuffer() and given back once the decoder is done with them, so that no
+ * byte[] is allocated per preview frame.
+ *
+ * This class does not touch the camera, it only does the accounting. All methods are safe to
+ * call from the camera callback thread and the decode thread at the same time.
+ */
+final class PreviewBufferPool {
+
+    private final int mBufferSize;
+    private final int mCapacity;
+    private final byte[][] mBuffers;
+    private final boolean[] mIsFree;
+    private final ArrayDeque<byte[]> mFreeBuffers;
+
+    private long mAcquireCount;
+    private long mReleaseCount;
+    private long mStarvationCount;
+
+    PreviewBufferPool(int capacity, int bufferSize) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Bad capacity: " + capacity);
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Bad buffer size: " + bufferSize);
+        }
+        this.mCapacity = capacity;
+        this.mBufferSize = bufferSize;
+        mBuffers = new byte[capacity][];
+        mIsFree = new boolean[capacity];
+        mFreeBuffers = new ArrayDeque<byte[]>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mBuffers[i] = new byte[bufferSize];
+            mFreeBuffers.addLast(mBuffers[i]);
+            mIsFree[i] = true;
+        }
+    }
+
+    /**
+     * Takes a free buffer out of the pool.
+     *
+     * @return A buffer of getBufferSize() bytes, or null if every buffer is in use.
+     */
+    synchronized byte[] acquire() {
+        byte[] buffer = mFreeBuffers.pollFirst();
+        if (buffer == null) {
+            mStarvationCount++;
+        } else {
+            mIsFree[indexOf(buffer)] = false;
+            mAcquireCount++;
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer obtained from acquire() back to the pool.
+     */
+    synchronized void release(byte[] buffer) {
+        int index = indexOf(buffer);
+        if (index < 0) {
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        }
+        if (mIsFree[index]) {
+            throw new IllegalStateException("Buffer released twice");
+        }
+        mIsFree[index] = true;
+        mFreeBuffers.addLast(buffer);
+        mReleaseCount++;
+    }
+
+    /**
+     * @return Whether the buffer was allocated by this pool.
+     */
+    boolean owns(byte[] buffer) {
+        return indexOf(buffer) >= 0;
+    }
+
+    private int indexOf(byte[] buffer) {
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] == buffer) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int getBufferSize() {
+        return mBufferSize;
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    synchronized int getAvailableCount() {
+        return mFreeBuffers.size();
+    }
+
+    synchronized long getAcquireCount() {
+        return mAcquireCount;
+    }
+
+    synchronized long getReleaseCount() {
+        return mReleaseCount;
+    }
+
+    /**
+     * @return How many times acquire() was called while every buffer was in use.
+     */
+    synchronized long getStarvationCount() {
+        return mStarvationCount;
+    }
+}
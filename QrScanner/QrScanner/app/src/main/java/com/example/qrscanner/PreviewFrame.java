@@ -0,0 +1,74 @@
+package com.example.qrscanner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One preview frame as delivered by the camera, waiting to be decoded, together with the crop
+ * rectangle that should be decoded.
+ *
+ * The luma is either the start of an NV21 byte[] (android.hardware.Camera) or a Y plane
+ * ByteBuffer with its row and pixel stride (camera2 ImageReader). The frame must be handed back
+ * to its CameraSource with releaseFrame() once it has been decoded.
+ */
+final class PreviewFrame {
+
+    final byte[] data;
+    final ByteBuffer yPlane;
+    final int rowStride;
+    final int pixelStride;
+    final int width;
+    final int height;
+    /**
+     * System.nanoTime() when the frame arrived from the camera.
+     */
+    final long timestampNanos;
+    /**
+     * Whatever the camera source needs to release the frame, e.g. the camera2 Image.
+     */
+    final Object owner;
+
+    int cropLeft;
+    int cropTop;
+    int cropWidth;
+    int cropHeight;
+    /**
+     * The frame's FrameQualityFilter sharpness, NaN if it was not measured.
+     */
+    double sharpness = Double.NaN;
+    /**
+     * Whether the crop was narrowed to the window of a RegionTracker.
+     */
+    boolean windowed;
+
+    PreviewFrame(byte[] data, int width, int height, long timestampNanos) {
+        this(data, null, width, 1, width, height, timestampNanos, null);
+    }
+
+    PreviewFrame(ByteBuffer yPlane, int rowStride, int pixelStride, int width, int height,
+                 long timestampNanos, Object owner) {
+        this(null, yPlane, rowStride, pixelStride, width, height, timestampNanos, owner);
+    }
+
+    private PreviewFrame(byte[] data, ByteBuffer yPlane, int rowStride, int pixelStride,
+                         int width, int height, long timestampNanos, Object owner) {
+        this.data = data;
+        this.yPlane = yPlane;
+        this.rowStride = rowStride;
+        this.pixelStride = pixelStride;
+        this.width = width;
+        this.height = height;
+        this.timestampNanos = timestampNanos;
+        this.owner = owner;
+        setCrop(0, 0, width, height);
+    }
+
+    /**
+     * Restricts decoding to the given rectangle of the frame.
+     */
+    void setCrop(int left, int top, int width, int height) {
+        cropLeft = left;
+        cropTop = top;
+        cropWidth = width;
+        cropHeight = height;
+    }
+}
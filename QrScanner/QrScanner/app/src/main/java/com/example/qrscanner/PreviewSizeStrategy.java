@@ -0,0 +1,201 @@
+package com.example.qrscanner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the preview frame size from a decode budget instead of taking the largest size the
+ * camera offers.
+ *
+ * The first pick is the smallest size, with the window's aspect ratio, on which a QR code of the
+ * expected version held to fill half the viewfinder still gets MIN_PIXELS_PER_MODULE pixels per
+ * module. While scanning, the size steps down when the average decode time exceeds the budget
+ * or codes keep decoding easily, and steps up when nothing decodes for a while and the next size
+ * is predicted to stay within the budget. Decode time is taken to grow with the frame area.
+ *
+ * Sizes are width, height pairs so that the selection runs without Android classes. Methods may
+ * be called from any thread.
+ */
+final class PreviewSizeStrategy {
+
+    static final int DEFAULT_QR_VERSION = 4;
+
+    /**
+     * Below about three pixels per module the binarizer and finder pattern search start to
+     * lose codes.
+     */
+    static final int MIN_PIXELS_PER_MODULE = 3;
+    /**
+     * Share of the viewfinder a held up code is expected to cover, in percent.
+     */
+    static final int CODE_FILL_PERCENT = 50;
+    /**
+     * Share of the shorter frame side covered by the viewfinder, as in CameraManager.
+     */
+    private static final int VIEWFINDER_EIGHTHS = 6;
+    private static final double MAX_RATIO_DIFF = 0.1;
+    /**
+     * Decodes at a size before it may be changed again.
+     */
+    static final int MIN_SAMPLES = 10;
+    static final int FAILURES_TO_STEP_UP = 30;
+    static final int SUCCESSES_TO_STEP_DOWN = 10;
+    /**
+     * Weight of the newest decode time in the moving average, as a right shift.
+     */
+    private static final int AVERAGE_SHIFT = 3;
+
+    private final List<int[]> mSizes;
+    private final int mMinIndex;
+    private final long mBudgetNanos;
+    private int mIndex;
+    private long mAverageNanos;
+    private int mSamples;
+    private int mFailures;
+    private int mSuccesses;
+    private int mStepCount;
+
+    /**
+     * @param supportedSizes Preview sizes offered by the camera, as {width, height}.
+     * @param qrVersion Version of the codes expected, 1 to 40.
+     */
+    PreviewSizeStrategy(List<int[]> supportedSizes, int windowWidth, int windowHeight,
+                        int qrVersion, long budgetNanos) {
+        if (supportedSizes.isEmpty()) {
+            throw new IllegalArgumentException("No preview sizes");
+        }
+        if (qrVersion < 1 || qrVersion > 40) {
+            throw new IllegalArgumentException("Bad QR version: " + qrVersion);
+        }
+        mSizes = matchingAspectRatio(supportedSizes, windowWidth, windowHeight);
+        Collections.sort(mSizes, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                long areaA = (long) a[0] * a[1];
+                long areaB = (long) b[0] * b[1];
+                return areaA < areaB ? -1 : (areaA == areaB ? 0 : 1);
+            }
+        });
+        int minShortSide = minShortSide(qrVersion);
+        int index = mSizes.size() - 1;
+        for (int i = 0; i < mSizes.size(); i++) {
+            int[] size = mSizes.get(i);
+            if (Math.min(size[0], size[1]) >= minShortSide) {
+                index = i;
+                break;
+            }
+        }
+        mMinIndex = index;
+        mIndex = index;
+        mBudgetNanos = budgetNanos;
+    }
+
+    /**
+     * @return The shorter frame side on which a code of the given version covering
+     * CODE_FILL_PERCENT of the viewfinder gets MIN_PIXELS_PER_MODULE pixels per module.
+     */
+    static int minShortSide(int qrVersion) {
+        int modules = 17 + 4 * qrVersion;
+        long codePixels = (long) modules * MIN_PIXELS_PER_MODULE;
+        return (int) ((codePixels * 100 * 8 + CODE_FILL_PERCENT * VIEWFINDER_EIGHTHS - 1)
+                / (CODE_FILL_PERCENT * VIEWFINDER_EIGHTHS));
+    }
+
+    /**
+     * @return The current preview size as {width, height}.
+     */
+    synchronized int[] getSize() {
+        int[] size = mSizes.get(mIndex);
+        return new int[]{size[0], size[1]};
+    }
+
+    /**
+     * @return How often the size was changed since the first pick.
+     */
+    synchronized int getStepCount() {
+        return mStepCount;
+    }
+
+    synchronized long getAverageDecodeNanos() {
+        return mAverageNanos;
+    }
+
+    /**
+     * Reports a finished decode of a width x height frame. Frames of another size than the
+     * current one, still in flight from before a change, are ignored.
+     *
+     * @return true if the size changed and the preview should be restarted at getSize().
+     */
+    synchronized boolean onDecodeFinished(int width, int height, long decodeNanos,
+                                          boolean success) {
+        int[] size = mSizes.get(mIndex);
+        if (size[0] != width || size[1] != height) {
+            return false;
+        }
+        mAverageNanos = mSamples == 0 ? decodeNanos
+                : mAverageNanos + ((decodeNanos - mAverageNanos) >> AVERAGE_SHIFT);
+        mSamples++;
+        if (success) {
+            mSuccesses++;
+            mFailures = 0;
+        } else {
+            mFailures++;
+            mSuccesses = 0;
+        }
+        if (mSamples < MIN_SAMPLES) {
+            return false;
+        }
+        if (mIndex > mMinIndex
+                && (mAverageNanos > mBudgetNanos || mSuccesses >= SUCCESSES_TO_STEP_DOWN)) {
+            return step(mIndex - 1);
+        }
+        if (mFailures >= FAILURES_TO_STEP_UP && mIndex < mSizes.size() - 1
+                && predictNanos(mIndex + 1) <= mBudgetNanos) {
+            return step(mIndex + 1);
+        }
+        return false;
+    }
+
+    private long predictNanos(int index) {
+        int[] current = mSizes.get(mIndex);
+        int[] next = mSizes.get(index);
+        return (long) ((double) mAverageNanos * next[0] * next[1] / current[0] / current[1]);
+    }
+
+    private boolean step(int index) {
+        mIndex = index;
+        mSamples = 0;
+        mFailures = 0;
+        mSuccesses = 0;
+        mStepCount++;
+        return true;
+    }
+
+    /**
+     * @return Copies of the sizes within MAX_RATIO_DIFF of the window's aspect ratio, or of
+     * every size if none is.
+     */
+    private static List<int[]> matchingAspectRatio(List<int[]> sizes, int windowWidth,
+                                                   int windowHeight) {
+        double windowRatio = getRatio(windowWidth, windowHeight);
+        List<int[]> matching = new ArrayList<int[]>();
+        for (int[] size : sizes) {
+            if (Math.abs(getRatio(size[0], size[1]) - windowRatio) / windowRatio
+                    <= MAX_RATIO_DIFF) {
+                matching.add(new int[]{size[0], size[1]});
+            }
+        }
+        if (matching.isEmpty()) {
+            for (int[] size : sizes) {
+                matching.add(new int[]{size[0], size[1]});
+            }
+        }
+        return matching;
+    }
+
+    private static double getRatio(double x, double y) {
+        return (x < y) ? x / y : y / x;
+    }
+}
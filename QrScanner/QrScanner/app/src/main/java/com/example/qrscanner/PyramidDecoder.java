@@ -0,0 +1,318 @@
+package com.example.qrscanner;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decodes a preview frame in two passes: the crop rectangle downsampled by two, which finds
+ * codes large enough to survive it quickly, and then overlapping full resolution tiles of the
+ * crop, which finds small codes.
+ *
+ * Without TRY_HARDER ZXing looks for finder patterns on every few rows only, skipping more rows
+ * the taller the image, so a small code in a large frame is easily missed. A tile is a fraction
+ * of the frame's height and skips fewer rows. Tiles overlap by a quarter of the crop's shorter
+ * side, so any code up to that size lies wholly within one tile; larger codes are left to the
+ * downsampled pass.
+ *
+ * Tiles are decoded on the calling thread and threadCount - 1 helper threads, each taking the
+ * next tile until all are done or one decodes; tiles not started by then are skipped. decode()
+ * returns once the tiles being decoded finished, as the frame may be reused afterwards. Every
+ * tile has its own FrameDecoder, so the luminance sources and binarizers are reused from frame
+ * to frame as long as the frame size stays the same.
+ *
+ * decode() must be called from one thread at a time.
+ */
+final class PyramidDecoder {
+
+    /**
+     * Tile rows; the column count follows from the crop's aspect ratio so tiles are about
+     * square.
+     */
+    static final int TILE_ROWS = 2;
+    /**
+     * Overlap of neighbouring tiles, in quarters of the crop's shorter side.
+     */
+    private static final int OVERLAP_QUARTERS = 1;
+
+    private final Map<DecodeHintType, ?> mHints;
+    private final FrameDecoder mHalfDecoder;
+    private final ExecutorService mExecutor;
+    private final int mHelperCount;
+    private final Runnable mHelper = new Runnable() {
+        @Override
+        public void run() {
+            decodeTiles();
+        }
+    };
+
+    private byte[] mHalf;
+    private FrameDecoder[] mTileDecoders = new FrameDecoder[0];
+
+    // State of the frame being decoded in tiles, published to the helpers by execute().
+    private PreviewFrame mFrame;
+    private int mColumns;
+    private int mTileCount;
+    private final AtomicInteger mNextTile = new AtomicInteger();
+    private final AtomicReference<Result> mHit = new AtomicReference<Result>();
+    private int mActive;
+
+    private final AtomicInteger mHalfHits = new AtomicInteger();
+    private final AtomicInteger mTileHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    /**
+     * @param threadCount Threads decoding tiles, including the calling thread.
+     */
+    PyramidDecoder(Map<DecodeHintType, ?> hints, int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Bad thread count: " + threadCount);
+        }
+        mHints = hints;
+        mHalfDecoder = new FrameDecoder(hints);
+        mHelperCount = threadCount - 1;
+        mExecutor = mHelperCount == 0 ? null : Executors.newFixedThreadPool(mHelperCount,
+                new ThreadFactory() {
+                    private final AtomicInteger mIndex = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "TileDecoder-" + mIndex.getAndIncrement());
+                    }
+                });
+    }
+
+    /**
+     * Decodes the crop rectangle of the frame.
+     *
+     * @return The decoded result, or null if no valid QR was found. Result points are relative
+     * to the crop rectangle.
+     */
+    Result decode(PreviewFrame frame) {
+        int halfWidth = frame.cropWidth / 2;
+        int halfHeight = frame.cropHeight / 2;
+        if (mHalf == null || mHalf.length < halfWidth * halfHeight) {
+            mHalf = new byte[halfWidth * halfHeight];
+        }
+        if (frame.data != null) {
+            downsample(frame.data, frame.width, frame.cropLeft, frame.cropTop, halfWidth,
+                    halfHeight, mHalf);
+        } else {
+            downsample(frame.yPlane, frame.rowStride, frame.pixelStride, frame.cropLeft,
+                    frame.cropTop, halfWidth, halfHeight, mHalf);
+        }
+        Result result = mHalfDecoder.decode(mHalf, halfWidth, halfHeight,
+                0, 0, halfWidth, halfHeight);
+        if (result != null) {
+            mHalfHits.incrementAndGet();
+            return withPoints(result, 2, 0, 0);
+        }
+        result = decodeInTiles(frame);
+        if (result != null) {
+            mTileHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Averages every 2x2 block of the width * 2 x height * 2 rectangle at left, top of an NV21
+     * frame's luma into dst, which holds width * height bytes.
+     */
+    static void downsample(byte[] src, int dataWidth, int left, int top, int width, int height,
+                           byte[] dst) {
+        for (int y = 0; y < height; y++) {
+            int row = (top + y * 2) * dataWidth + left;
+            int nextRow = row + dataWidth;
+            int out = y * width;
+            for (int x = 0; x < width; x++) {
+                int sum = (src[row + x * 2] & 0xff) + (src[row + x * 2 + 1] & 0xff)
+                        + (src[nextRow + x * 2] & 0xff) + (src[nextRow + x * 2 + 1] & 0xff);
+                dst[out + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+    }
+
+    /**
+     * downsample() for a camera2 Y plane.
+     */
+    static void downsample(ByteBuffer plane, int rowStride, int pixelStride, int left, int top,
+                           int width, int height, byte[] dst) {
+        for (int y = 0; y < height; y++) {
+            int row = (top + y * 2) * rowStride + left * pixelStride;
+            int nextRow = row + rowStride;
+            int out = y * width;
+            for (int x = 0; x < width; x++) {
+                int offset = x * 2 * pixelStride;
+                int sum = (plane.get(row + offset) & 0xff)
+                        + (plane.get(row + offset + pixelStride) & 0xff)
+                        + (plane.get(nextRow + offset) & 0xff)
+                        + (plane.get(nextRow + offset + pixelStride) & 0xff);
+                dst[out + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+    }
+
+    /**
+     * Computes the rectangle of a tile, relative to the crop, into rect as {left, top, width,
+     * height}.
+     */
+    static void tileRect(int index, int columns, int rows, int cropWidth, int cropHeight,
+                         int[] rect) {
+        int overlap = Math.min(cropWidth, cropHeight) * OVERLAP_QUARTERS / 4;
+        int width = tileSide(cropWidth, columns, overlap);
+        int height = tileSide(cropHeight, rows, overlap);
+        int column = index % columns;
+        int row = index / columns;
+        // The last column and row end at the crop's edge.
+        rect[0] = column == columns - 1 ? cropWidth - width : column * (width - overlap);
+        rect[1] = row == rows - 1 ? cropHeight - height : row * (height - overlap);
+        rect[2] = width;
+        rect[3] = height;
+    }
+
+    /**
+     * @return The side of count tiles overlapping by overlap which together cover length.
+     */
+    private static int tileSide(int length, int count, int overlap) {
+        if (count == 1) {
+            return length;
+        }
+        return Math.min(length, (length + (count - 1) * overlap + count - 1) / count);
+    }
+
+    /**
+     * @return Tile columns for a crop, so that tiles are about as wide as they are high.
+     */
+    static int columnsFor(int cropWidth, int cropHeight) {
+        return Math.max(1, (TILE_ROWS * cropWidth + cropHeight / 2) / cropHeight);
+    }
+
+    int getHalfHits() {
+        return mHalfHits.get();
+    }
+
+    int getTileHits() {
+        return mTileHits.get();
+    }
+
+    int getMisses() {
+        return mMisses.get();
+    }
+
+    /**
+     * Stops the helper threads. decode() must not be called afterwards.
+     */
+    void shutdown() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    private Result decodeInTiles(PreviewFrame frame) {
+        int columns = columnsFor(frame.cropWidth, frame.cropHeight);
+        int tileCount = columns * TILE_ROWS;
+        if (mTileDecoders.length != tileCount) {
+            mTileDecoders = new FrameDecoder[tileCount];
+            for (int i = 0; i < tileCount; i++) {
+                mTileDecoders[i] = new FrameDecoder(mHints);
+            }
+        }
+        mFrame = frame;
+        mColumns = columns;
+        mTileCount = tileCount;
+        mNextTile.set(0);
+        mHit.set(null);
+        int helpers = Math.min(mHelperCount, tileCount - 1);
+        synchronized (this) {
+            mActive = helpers + 1;
+        }
+        for (int i = 0; i < helpers; i++) {
+            try {
+                mExecutor.execute(mHelper);
+            } catch (RejectedExecutionException e) {
+                // Shut down, the calling thread decodes the remaining tiles on its own.
+                synchronized (this) {
+                    mActive--;
+                }
+            }
+        }
+        decodeTiles();
+        boolean interrupted = false;
+        synchronized (this) {
+            while (mActive > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // The helpers still read the frame, wait for them anyway.
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        mFrame = null;
+        return mHit.get();
+    }
+
+    /**
+     * Decodes the next tile until none is left or one decoded. Run by the calling thread and
+     * the helpers.
+     */
+    private void decodeTiles() {
+        try {
+            PreviewFrame frame = mFrame;
+            int[] rect = new int[4];
+            int index;
+            while (mHit.get() == null && (index = mNextTile.getAndIncrement()) < mTileCount) {
+                tileRect(index, mColumns, TILE_ROWS, frame.cropWidth, frame.cropHeight, rect);
+                FrameDecoder decoder = mTileDecoders[index];
+                int left = frame.cropLeft + rect[0];
+                int top = frame.cropTop + rect[1];
+                Result result = frame.data != null
+                        ? decoder.decode(frame.data, frame.width, frame.height,
+                                left, top, rect[2], rect[3])
+                        : decoder.decode(frame.yPlane, frame.rowStride, frame.pixelStride,
+                                frame.width, frame.height, left, top, rect[2], rect[3]);
+                if (result != null) {
+                    mHit.compareAndSet(null, withPoints(result, 1, rect[0], rect[1]));
+                }
+            }
+        } finally {
+            synchronized (this) {
+                mActive--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return The result with its points scaled and then moved by dx, dy.
+     */
+    private static Result withPoints(Result result, int scale, int dx, int dy) {
+        ResultPoint[] points = result.getResultPoints();
+        ResultPoint[] moved = null;
+        if (points != null) {
+            moved = new ResultPoint[points.length];
+            for (int i = 0; i < points.length; i++) {
+                moved[i] = points[i] == null ? null : new ResultPoint(
+                        points[i].getX() * scale + dx, points[i].getY() * scale + dy);
+            }
+        }
+        Result copy = new Result(result.getText(), result.getRawBytes(), moved,
+                result.getBarcodeFormat());
+        copy.putAllMetadata(result.getResultMetadata());
+        return copy;
+    }
+}
@@ -2,7 +2,6 @@ package com.example.qrscanner;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
-import com.google.zxing.ResultPoint;
 
 import android.app.ActionBar;
 import android.app.Activity;
@@ -10,10 +9,16 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.Manifest;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -23,27 +28,277 @@ import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.TextView;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 public class QrScanActivity extends Activity implements SurfaceHolder.Callback {
 
+    /**
+     * Optional int extra: number of threads decoding preview frames in parallel.
+     */
+    public static final String EXTRA_DECODE_WORKERS = "decode_workers";
+    /**
+     * Optional boolean extra: use the camera2 backend instead of android.hardware.Camera.
+     */
+    public static final String EXTRA_USE_CAMERA2 = "use_camera2";
+    /**
+     * Optional string extra: name of a DecodeScheduler.Policy, MAX_THROUGHPUT by default.
+     */
+    public static final String EXTRA_DECODE_POLICY = "decode_policy";
+    /**
+     * Optional float extra: frames decoded per second with the FIXED_RATE policy.
+     */
+    public static final String EXTRA_DECODE_FPS = "decode_fps";
+    /**
+     * Optional float extra: frames with a lower Laplacian variance are not decoded, 0 to decode
+     * blurred frames too.
+     */
+    public static final String EXTRA_MIN_SHARPNESS = "min_sharpness";
+    /**
+     * Optional float extra: frames whose luma moved more than this on average since the
+     * previous frame are not decoded, 0 to ignore motion.
+     */
+    public static final String EXTRA_MAX_MOTION = "max_motion";
+    /**
+     * Optional boolean extra: collect scan pipeline metrics and log them as JSON when the scan
+     * stops.
+     */
+    public static final String EXTRA_METRICS = "metrics";
+    /**
+     * Optional string extra: file name, in the app's files directory, the metrics JSON is also
+     * written to.
+     */
+    public static final String EXTRA_METRICS_FILE = "metrics_file";
+    /**
+     * Optional boolean extra: collect every QR code in view instead of stopping at the first.
+     */
+    public static final String EXTRA_MULTI_CODE = "multi_code";
+    /**
+     * Optional int extra: in multi-code mode, stop once this many distinct codes were seen.
+     */
+    public static final String EXTRA_MULTI_CODE_TARGET = "multi_code_target";
+    /**
+     * Optional long extra: in multi-code mode, stop after this many milliseconds anyway.
+     */
+    public static final String EXTRA_MULTI_CODE_TIMEOUT_MS = "multi_code_timeout_ms";
+    /**
+     * String array list extra with every code found: passed to ScanResult in multi-code mode,
+     * returned as the activity result in continuous mode.
+     */
+    public static final String EXTRA_CODES = "codes";
+    /**
+     * Optional boolean extra: keep scanning after a result, reporting each new code, until the
+     * user leaves. The codes are then returned in the EXTRA_CODES result extra.
+     */
+    public static final String EXTRA_CONTINUOUS = "continuous";
+    /**
+     * Optional long extra: in continuous mode, a code must be out of view this long before it
+     * is reported again.
+     */
+    public static final String EXTRA_DEDUP_TTL_MS = "dedup_ttl_ms";
+    /**
+     * Optional boolean extra: open the camera only once the preview surface exists, negotiate
+     * its settings from scratch and skip the decoder warm-up, e.g. to compare the
+     * timeToFirstDecodeMs metric against the default warm start.
+     */
+    public static final String EXTRA_COLD_START = "cold_start";
+    /**
+     * Optional long extra: pick the preview size for this decode time per frame, in
+     * milliseconds, and adjust it while scanning, instead of using the largest size matching
+     * the surface. 0, the default, keeps the largest size.
+     */
+    public static final String EXTRA_DECODE_BUDGET_MS = "decode_budget_ms";
+    /**
+     * Optional int extra: with a decode budget, the QR code version the preview size must
+     * resolve.
+     */
+    public static final String EXTRA_QR_VERSION = "qr_version";
+    /**
+     * Optional boolean extra: frames hold nothing but one upright code, e.g. a kiosk with a
+     * fixed camera, so ZXing can skip detecting it.
+     */
+    public static final String EXTRA_PURE_BARCODE = "pure_barcode";
+    /**
+     * Optional string extra: encoding of QR byte segments without an ECI, e.g. "Shift_JIS".
+     */
+    public static final String EXTRA_CHARACTER_SET = "character_set";
+    /**
+     * Optional int extra: retry the sharpest of this many undecoded frames with TRY_HARDER, 0
+     * for no retries.
+     */
+    public static final String EXTRA_TRY_HARDER_RETRY_FRAMES = "try_harder_retry_frames";
+    /**
+     * Optional string extra: file name, in the app's files directory, every preview frame is
+     * recorded to for replay with FrameReplayer. Only with the android.hardware.Camera source.
+     */
+    public static final String EXTRA_RECORD_FILE = "record_file";
+    /**
+     * Optional boolean extra: decode every frame at half resolution and then in overlapping
+     * full resolution tiles on EXTRA_DECODE_WORKERS threads, instead of that many frames at
+     * once. Finds small codes in large frames.
+     */
+    public static final String EXTRA_PYRAMID_DECODE = "pyramid_decode";
+    /**
+     * Optional int extra: decode every this many undecoded frames again with inverted luma, for
+     * white on black codes, and rotated upright, 0 for no retries.
+     */
+    public static final String EXTRA_VARIANT_RETRY_FRAMES = "variant_retry_frames";
+    /**
+     * Optional int extra: once single frames keep failing, decode the average of this many
+     * frames, up to FrameFusion.MAX_FRAMES, for dim and noisy scenes. 0, the default, for
+     * single frames only. Not with more than one decode worker.
+     */
+    public static final String EXTRA_FUSION_FRAMES = "fusion_frames";
+    /**
+     * Optional int extra: decode frames only around the code found last, whole or in part,
+     * until this many in a row are not decoded, 0 to always decode the whole viewfinder.
+     * RegionTracker.DEFAULT_MAX_MISSES by default.
+     */
+    public static final String EXTRA_REGION_TRACKING_MISSES = "region_tracking_misses";
+    /**
+     * Optional string extra: file name, in the app's files directory, of the ScanHistory every
+     * result is appended to. "scan_history" by default.
+     */
+    public static final String EXTRA_HISTORY_FILE = "history_file";
+    private static final String DEFAULT_HISTORY_FILE = "scan_history";
+    /**
+     * Optional boolean extra: instead of scanning, calibrate the camera against a reference
+     * code held in view. Candidate preview sizes, focus modes and autofocus intervals, and
+     * decode worker counts are each tried for EXTRA_CALIBRATION_TRIAL_MS, and the profile with
+     * the most decodes per second is stored for this device and used from then on. The
+     * activity result carries it encoded in EXTRA_CAMERA_PROFILE. Only with the
+     * android.hardware.Camera source.
+     */
+    public static final String EXTRA_CALIBRATE = "calibrate";
+    /**
+     * Optional string extra: text of the reference code, so that no other code counts while
+     * calibrating.
+     */
+    public static final String EXTRA_CALIBRATION_TEXT = "calibration_text";
+    /**
+     * Optional long extra: milliseconds every profile is tried for while calibrating.
+     */
+    public static final String EXTRA_CALIBRATION_TRIAL_MS = "calibration_trial_ms";
+    /**
+     * String extra of the calibration result: the stored CameraProfile, encoded.
+     */
+    public static final String EXTRA_CAMERA_PROFILE = "camera_profile";
+    private static final long DEFAULT_CALIBRATION_TRIAL_MS = 3000L;
+    /**
+     * Camera.open() opens the first back facing camera, which getCameraInfo() reports as 0.
+     */
+    private static final String CAMERA_ID = "0";
+    private static final int DEFAULT_TRY_HARDER_RETRY_FRAMES = 30;
+    private static final int DEFAULT_VARIANT_RETRY_FRAMES = 5;
+    private static final float DEFAULT_DECODE_FPS = 10f;
+    private static final long DEFAULT_DEDUP_TTL_MS = 3000L;
+    private static final int DEDUP_CACHE_CAPACITY = 256;
+    private static final long DEFAULT_MULTI_CODE_TIMEOUT_MS = 10000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final int MSG_RESULT = 1;
+    private static final int MSG_PAYLOAD = 2;
+
     private final int CAMERA_REQUEST_CODE = 101;
 
-    private CameraManager mCameraManager;
+    private CameraSource mCameraManager;
     private TextView mStatusView;
     private boolean mHasSurface;
     private String LOG_TAG = "QrScanActivity";
-    private Handler mDecodeHandler;
+    private DecodeHandler mDecodeHandler;
+    private ScanMetrics mScanMetrics;
+    private FrameRecorder mFrameRecorder;
+    private ScanSession mScanSession;
     private HandlerThread mHandlerThread;
     private Context mContext;
     private SurfaceView mSurfaceView;
     private SurfaceHolder mSurfaceHolder;
     private int mSurfaceWidth, mSurfaceHeight;
+    private boolean mColdStart;
+    /**
+     * Main thread handler results and parsed payloads arrive on.
+     */
+    private Handler mResultHandler;
+    private ExecutorService mResultExecutor;
+    /**
+     * When the decoder found the result being handed over.
+     */
+    private volatile long mResultDecodedNanos;
+    private volatile long mScanStartNanos;
+    /**
+     * Whether stopScan() ran since the scan started, so that a result followed by onPause()
+     * closes the camera and dumps the metrics once.
+     */
+    private boolean mScanStopped;
+    /**
+     * Only used on the result thread; null if it could not be opened.
+     */
+    private ScanHistory mScanHistory;
+    /**
+     * Profile applied when the camera opens, null for the negotiated settings.
+     */
+    private CameraProfile mCameraProfile;
+    private boolean mCalibrating;
+    private CameraCalibration mCalibration;
+    private final Runnable mStartCalibration = new Runnable() {
+        @Override
+        public void run() {
+            startCalibration();
+        }
+    };
+    private final Runnable mFinishTrial = new Runnable() {
+        @Override
+        public void run() {
+            mCalibration.finishTrial();
+        }
+    };
+    private final CameraCalibration.Host mCalibrationHost = new CameraCalibration.Host() {
+        @Override
+        public void startTrial(CameraProfile profile) {
+            Log.i(LOG_TAG, "Calibrating " + profile + ", " + mCalibration);
+            mStatusView.setText("Calibrating, hold the code in view\n" + profile);
+            tearDownScanner();
+            mCameraProfile = profile;
+            setUpScanner();
+            startQrScan();
+            mResultHandler.postDelayed(mFinishTrial, getIntent().getLongExtra(
+                    EXTRA_CALIBRATION_TRIAL_MS, DEFAULT_CALIBRATION_TRIAL_MS));
+        }
+
+        @Override
+        public void onCalibrationFinished(CameraProfile best) {
+            stopScan();
+            if (best == null) {
+                Log.w(LOG_TAG, "Calibration never decoded the reference code");
+                setResult(RESULT_CANCELED);
+            } else {
+                Log.i(LOG_TAG, "Calibrated: " + mCalibration);
+                Intent result = new Intent();
+                result.putExtra(EXTRA_CAMERA_PROFILE, best.encode());
+                setResult(RESULT_OK, result);
+            }
+            finish();
+        }
+    };
+    private final Runnable mStopScan = new Runnable() {
+        @Override
+        public void run() {
+            stopScan();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mContext = this;
+        mScanMetrics = getIntent().getBooleanExtra(EXTRA_METRICS, false)
+                ? new ScanMetrics(true) : ScanMetrics.DISABLED;
         Window window = getWindow();
         window.addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
         setContentView(R.layout.activity_qr_scan);
@@ -57,16 +312,220 @@ public class QrScanActivity extends Activity implements SurfaceHolder.Callback {
 
         mStatusView.setText("Scan a valid QR");
         mStatusView.setVisibility(View.VISIBLE);
+
+        mColdStart = getIntent().getBooleanExtra(EXTRA_COLD_START, false);
+        mCalibrating = getIntent().getBooleanExtra(EXTRA_CALIBRATE, false);
+        if (!mCalibrating) {
+            mCameraProfile = CameraProfile.decode(PreferenceManager
+                    .getDefaultSharedPreferences(this).getString(cameraProfileKey(), null));
+            if (mCameraProfile != null) {
+                Log.i(LOG_TAG, "Using camera profile " + mCameraProfile);
+            }
+        }
+        setUpResultHandling();
+        setUpScanner();
+    }
+
+    /**
+     * Creates the main thread handler results are posted to and the thread parsing them.
+     */
+    private void setUpResultHandling() {
+        mResultHandler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_RESULT:
+                        handleDecode((Result) msg.obj, mResultDecodedNanos, msg.arg1);
+                        return true;
+                    case MSG_PAYLOAD:
+                        showPayload((ScanPayload) msg.obj, msg.arg1);
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+        });
+        mResultExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "ResultParser");
+            }
+        });
+        String historyFile = getIntent().getStringExtra(EXTRA_HISTORY_FILE);
+        final File file = new File(getFilesDir(),
+                historyFile != null ? historyFile : DEFAULT_HISTORY_FILE);
+        mResultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mScanHistory = new ScanHistory(file, ScanHistory.DEFAULT_SYNC_EVERY);
+                    Log.i(LOG_TAG, "Scan history holds " + mScanHistory.size() + " scans");
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Could not open scan history: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates the decode thread, handler and camera source once; they are reused every time
+     * the activity resumes.
+     */
+    private void setUpScanner() {
+        mHandlerThread = new HandlerThread("DecodeHandlerThread");
+        mHandlerThread.start();
+        boolean multiCode = !mCalibrating
+                && getIntent().getBooleanExtra(EXTRA_MULTI_CODE, false);
+        boolean pyramid = !multiCode && getIntent().getBooleanExtra(EXTRA_PYRAMID_DECODE, false);
+        int workerCount = multiCode || pyramid ? 1 : getIntent().getIntExtra(
+                EXTRA_DECODE_WORKERS, defaultWorkerCount());
+        DecodeScheduler scheduler = createDecodeScheduler();
+        mDecodeHandler = new DecodeHandler(mHandlerThread.getLooper(), this, workerCount,
+                scheduler, FrameDecoder.createQrCodeHints(
+                        getIntent().getBooleanExtra(EXTRA_PURE_BARCODE, false),
+                        getIntent().getStringExtra(EXTRA_CHARACTER_SET)));
+        mDecodeHandler.setTryHarderRetry(getIntent().getIntExtra(EXTRA_TRY_HARDER_RETRY_FRAMES,
+                DEFAULT_TRY_HARDER_RETRY_FRAMES));
+        mDecodeHandler.setVariantRetry(getIntent().getIntExtra(EXTRA_VARIANT_RETRY_FRAMES,
+                DEFAULT_VARIANT_RETRY_FRAMES));
+        mDecodeHandler.setFrameFusion(getSingleWorkerExtra(EXTRA_FUSION_FRAMES, 0, workerCount));
+        mDecodeHandler.setRegionTracking(getIntent().getIntExtra(EXTRA_REGION_TRACKING_MISSES,
+                RegionTracker.DEFAULT_MAX_MISSES));
+        if (pyramid) {
+            mDecodeHandler.setPyramidDecoding(getIntent().getIntExtra(EXTRA_DECODE_WORKERS,
+                    DecodeWorkerPool.defaultWorkerCount()));
+        }
+        mDecodeHandler.setFrameFilter(new FrameQualityFilter(
+                getIntent().getFloatExtra(EXTRA_MIN_SHARPNESS,
+                        (float) FrameQualityFilter.DEFAULT_MIN_SHARPNESS),
+                getIntent().getFloatExtra(EXTRA_MAX_MOTION,
+                        (float) FrameQualityFilter.DEFAULT_MAX_MOTION)));
+        mDecodeHandler.setScanMetrics(mScanMetrics);
+        if (mCalibrating) {
+            // Before the first trial the camera runs with the negotiated settings.
+            mScanSession = mCalibration != null ? mCalibration.getSession()
+                    : CameraCalibration.createIdleSession();
+            mDecodeHandler.setScanSession(mScanSession);
+        } else if (getIntent().getBooleanExtra(EXTRA_CONTINUOUS, false) && !multiCode) {
+            mScanSession = createScanSession();
+            mDecodeHandler.setScanSession(mScanSession);
+        }
+        if (multiCode) {
+            mDecodeHandler.setMultiCodeMode(
+                    getIntent().getIntExtra(EXTRA_MULTI_CODE_TARGET, 0),
+                    getIntent().getLongExtra(EXTRA_MULTI_CODE_TIMEOUT_MS,
+                            DEFAULT_MULTI_CODE_TIMEOUT_MS));
+        }
+        if (getIntent().getBooleanExtra(EXTRA_USE_CAMERA2, false) && !mCalibrating) {
+            Camera2Manager camera2Manager = new Camera2Manager(this, mDecodeHandler,
+                    mDecodeHandler.getMaxFramesInFlight());
+            camera2Manager.setUseSettingsCache(!mColdStart);
+            mCameraManager = camera2Manager;
+        } else {
+            CameraManager cameraManager = new CameraManager(this, mDecodeHandler);
+            cameraManager.setUseBufferPool(true);
+            cameraManager.setDecodeBufferCount(mDecodeHandler.getMaxFramesInFlight());
+            cameraManager.setUseSettingsCache(!mColdStart);
+            cameraManager.setFrameRecorder(createFrameRecorder());
+            cameraManager.setCameraProfile(mCameraProfile);
+            mCameraManager = cameraManager;
+        }
+        mCameraManager.setDecodeScheduler(scheduler);
+        mCameraManager.setScanMetrics(mScanMetrics);
+        long decodeBudgetMs = getIntent().getLongExtra(EXTRA_DECODE_BUDGET_MS, 0);
+        if (decodeBudgetMs > 0) {
+            mCameraManager.setDecodeBudget(getIntent().getIntExtra(EXTRA_QR_VERSION,
+                    PreviewSizeStrategy.DEFAULT_QR_VERSION), decodeBudgetMs * 1000000L);
+        }
+        if (!mColdStart) {
+            mDecodeHandler.warmUp();
+        }
+    }
+
+    /**
+     * @return The int extra of a feature which only works with a single decode worker, or 0,
+     * which turns it off, with more workers.
+     */
+    private int getSingleWorkerExtra(String name, int defaultValue, int workerCount) {
+        if (workerCount == 1) {
+            return getIntent().getIntExtra(name, defaultValue);
+        }
+        if (getIntent().getIntExtra(name, 0) > 0) {
+            Log.w(LOG_TAG, name + " ignored with " + workerCount + " decode workers");
+        }
+        return 0;
+    }
+
+    private int defaultWorkerCount() {
+        return mCameraProfile != null ? mCameraProfile.decodeWorkers
+                : DecodeWorkerPool.defaultWorkerCount();
+    }
+
+    private static String cameraProfileKey() {
+        return CameraProfile.key(Build.FINGERPRINT, CAMERA_ID);
+    }
+
+    /**
+     * Stops the camera and the decode thread, e.g. to set the scanner up again with another
+     * profile.
+     */
+    private void tearDownScanner() {
+        mCameraManager.closeDriver();
+        mDecodeHandler.quit();
+        mHandlerThread.quit();
+        closeFrameRecorder();
+    }
+
+    /**
+     * Sets up the sweep from what the camera, opened with the negotiated settings, supports and
+     * starts the first trial.
+     */
+    private void startCalibration() {
+        if (!(mCameraManager instanceof CameraManager) || isFinishing()) {
+            return;
+        }
+        CameraManager cameraManager = (CameraManager) mCameraManager;
+        CameraProfile start = cameraManager.getOpenedProfile(defaultWorkerCount());
+        if (start == null) {
+            Log.e(LOG_TAG, "Camera did not open, cannot calibrate");
+            return;
+        }
+        mCalibration = CameraCalibration.create(cameraManager.getSupportedPreviewSizes(),
+                cameraManager.getSupportedFocusModes(), mSurfaceWidth, mSurfaceHeight, start);
+        mCalibration.setReferenceText(getIntent().getStringExtra(EXTRA_CALIBRATION_TEXT));
+        mCalibration.start(mCalibrationHost, DecodeScheduler.SYSTEM_CLOCK,
+                PreferenceManager.getDefaultSharedPreferences(this), cameraProfileKey());
+    }
+
+    /**
+     * @return A recorder for the file named by EXTRA_RECORD_FILE, or null if there is none or
+     * it cannot be created.
+     */
+    private FrameRecorder createFrameRecorder() {
+        String fileName = getIntent().getStringExtra(EXTRA_RECORD_FILE);
+        if (fileName == null || mCalibrating) {
+            // Every trial would start the recording over.
+            return null;
+        }
+        try {
+            mFrameRecorder = new FrameRecorder(new File(getFilesDir(), fileName),
+                    FrameRecorder.DEFAULT_MAX_BYTES);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not record frames: " + e);
+        }
+        return mFrameRecorder;
     }
 
     private void startQrScan() {
         if (checkSelfPermission(Manifest.permission.CAMERA)
                 == PackageManager.PERMISSION_GRANTED) {
-            mHandlerThread = new HandlerThread("DecodeHandlerThread");
-            mHandlerThread.start();
-            mDecodeHandler = new DecodeHandler(mHandlerThread.getLooper(), this);
-            mCameraManager = new CameraManager(this, mDecodeHandler);
-
+            mScanStopped = false;
+            mScanStartNanos = System.nanoTime();
+            mScanMetrics.onScanStarted(mScanStartNanos);
+            if (!mColdStart) {
+                // Open the camera while the preview surface is being created.
+                mCameraManager.prepare();
+            }
             if (mHasSurface) {
                 // The activity was paused but not stopped, so the surface still exists.
                 // Therefore surfaceCreated() won't be called, so init the camera here.
@@ -78,6 +537,50 @@ public class QrScanActivity extends Activity implements SurfaceHolder.Callback {
         }
     }
 
+    private DecodeScheduler createDecodeScheduler() {
+        DecodeScheduler.Policy policy = DecodeScheduler.Policy.MAX_THROUGHPUT;
+        String name = getIntent().getStringExtra(EXTRA_DECODE_POLICY);
+        if (name != null) {
+            try {
+                policy = DecodeScheduler.Policy.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                Log.w(LOG_TAG, "Unknown decode policy " + name);
+            }
+        }
+        switch (policy) {
+            case BATTERY_SAVER:
+                return DecodeScheduler.batterySaver(DecodeScheduler.SYSTEM_CLOCK);
+            case FIXED_RATE:
+                return DecodeScheduler.fixedRate(DecodeScheduler.SYSTEM_CLOCK,
+                        getIntent().getFloatExtra(EXTRA_DECODE_FPS, DEFAULT_DECODE_FPS));
+            case MAX_THROUGHPUT:
+            default:
+                return DecodeScheduler.maxThroughput(DecodeScheduler.SYSTEM_CLOCK);
+        }
+    }
+
+    private ScanSession createScanSession() {
+        long ttlMs = getIntent().getLongExtra(EXTRA_DEDUP_TTL_MS, DEFAULT_DEDUP_TTL_MS);
+        return new ScanSession(new ResultDedupCache(DEDUP_CACHE_CAPACITY, ttlMs * 1000000L),
+                new ScanSession.Listener() {
+                    @Override
+                    public void onNewCode(final String text, BarcodeFormat format,
+                                          int codeCount) {
+                        appendToHistory(Collections.singletonList(text), format,
+                                mDecodeHandler.getScanFrames());
+                        final String status = codeCount + " codes, "
+                                + Math.round(mScanSession.getCodesPerMinute()) + "/min\n"
+                                + text;
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                mStatusView.setText(status);
+                            }
+                        });
+                    }
+                }, DecodeScheduler.SYSTEM_CLOCK);
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions,
                     int[] grantResults) {
@@ -90,7 +593,7 @@ public class QrScanActivity extends Activity implements SurfaceHolder.Callback {
         }
     }
 
-    protected CameraManager getCameraManager() {
+    protected CameraSource getCameraManager() {
         return mCameraManager;
     }
 
@@ -104,15 +607,65 @@ public class QrScanActivity extends Activity implements SurfaceHolder.Callback {
     @Override
     protected void onPause() {
         Log.d(LOG_TAG, "onPause() called");
+        if (mCalibrating && !isFinishing()) {
+            // Trials must not be cut short, so leaving calibrates nothing.
+            mResultHandler.removeCallbacks(mStartCalibration);
+            mResultHandler.removeCallbacks(mFinishTrial);
+            Log.w(LOG_TAG, "Calibration interrupted");
+            setResult(RESULT_CANCELED);
+            finish();
+        }
         stopScan();
+        mResultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mScanHistory != null) {
+                    mScanHistory.sync();
+                }
+            }
+        });
         super.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        mResultHandler.removeCallbacksAndMessages(null);
+        mResultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mScanHistory != null) {
+                    try {
+                        mScanHistory.close();
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Could not close scan history: " + e);
+                    }
+                }
+            }
+        });
+        mResultExecutor.shutdown();
+        mDecodeHandler.quit();
+        mHandlerThread.quit();
+        closeFrameRecorder();
+        super.onDestroy();
+    }
+
+    private void closeFrameRecorder() {
+        if (mFrameRecorder != null) {
+            try {
+                mFrameRecorder.close();
+                Log.i(LOG_TAG, "Recorded " + mFrameRecorder.getFrameCount() + " frames, dropped "
+                        + mFrameRecorder.getDroppedFrames());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not close frame recording: " + e);
+            }
+            mFrameRecorder = null;
+        }
+    }
+
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         if (keyCode == KeyEvent.KEYCODE_BACK) {
-            setResult(RESULT_CANCELED);
-            finish();
+            finishSession();
             return true;
         } else if (keyCode == KeyEvent.KEYCODE_FOCUS || keyCode == KeyEvent.KEYCODE_CAMERA) {
               // Handle these events so they don't launch the Camera app
@@ -122,7 +675,20 @@ public class QrScanActivity extends Activity implements SurfaceHolder.Callback {
     }
 
     public void onCancel(View v) {
-        setResult(RESULT_CANCELED);
+        finishSession();
+    }
+
+    /**
+     * Leaves the scanner, returning the codes of a continuous session if there were any.
+     */
+    private void finishSession() {
+        if (!mCalibrating && mScanSession != null && mScanSession.getCodeCount() > 0) {
+            Intent result = new Intent();
+            result.putStringArrayListExtra(EXTRA_CODES, mScanSession.getCodes());
+            setResult(RESULT_OK, result);
+        } else {
+            setResult(RESULT_CANCELED);
+        }
         finish();
     }
 
@@ -162,6 +728,10 @@ public class QrScanActivity extends Activity implements SurfaceHolder.Callback {
             if (mCameraManager != null) {
                 mCameraManager.setPreviewSize(mSurfaceWidth, mSurfaceHeight);
                 mCameraManager.openDriver(surfaceHolder);
+                if (mCalibrating && mCalibration == null) {
+                    // Posted, as the first trial opens the camera again.
+                    mResultHandler.post(mStartCalibration);
+                }
                 // Starts the preview, which can also throw a
                 // RuntimeException.
             }
@@ -174,19 +744,147 @@ public class QrScanActivity extends Activity implements SurfaceHolder.Callback {
         }
     }
 
-    protected void handleDecode(String data) {
+    /**
+     * Hands a result over to the main thread, ahead of anything already queued there. Called
+     * on the decode thread once the preview stopped.
+     *
+     * @param decodedNanos When the decoder found the result.
+     * @param frameCount Frames decoded during the scan.
+     */
+    void postResult(Result result, long decodedNanos, int frameCount) {
+        mResultDecodedNanos = decodedNanos;
+        mResultHandler.sendMessageAtFrontOfQueue(
+                mResultHandler.obtainMessage(MSG_RESULT, frameCount, 0, result));
+    }
+
+    /**
+     * Shows the result's text at once, and parses it and appends it to the history on the
+     * result thread while the camera closes. Closing is posted rather than run here, so that
+     * it waits for the frame showing the text to be drawn.
+     */
+    private void handleDecode(final Result result, final long decodedNanos,
+                              final int frameCount) {
+        final long timestampMillis = System.currentTimeMillis();
+        final long scanNanos = decodedNanos - mScanStartNanos;
+        mScanMetrics.onScanSucceeded(System.nanoTime());
+        mStatusView.setText(result.getText());
+        Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                long latencyNanos = System.nanoTime() - decodedNanos;
+                mScanMetrics.onResultShown(latencyNanos);
+                Log.d(LOG_TAG, "Result shown " + latencyNanos / NANOS_PER_MILLI
+                        + " ms after decode");
+            }
+        });
+        mResultHandler.post(mStopScan);
+        mResultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                ScanPayload payload = ScanPayload.parse(result);
+                mScanMetrics.onResultParsed(System.nanoTime() - start);
+                int seenCount = mScanHistory != null ? mScanHistory.getCount(result.getText()) : 0;
+                mResultHandler.obtainMessage(MSG_PAYLOAD, seenCount, 0, payload).sendToTarget();
+                // After the payload went out, as every few appends wait for a sync.
+                if (mScanHistory != null) {
+                    try {
+                        mScanHistory.append(timestampMillis, result.getText(),
+                                result.getBarcodeFormat(), scanNanos, frameCount);
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Could not append to scan history: " + e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param seenCount How often the code was scanned before.
+     */
+    private void showPayload(ScanPayload payload, int seenCount) {
+        if (isFinishing()) {
+            return;
+        }
+        Log.d(LOG_TAG, "Scanned " + payload.getType());
+        Intent result = new Intent(this, ScanResult.class);
+        result.putExtra("res", payload.getDisplayText());
+        result.putExtra("title", seenCount > 0
+                ? payload.getTitle() + " (scanned " + seenCount + "x before)"
+                : payload.getTitle());
+        startActivity(result);
+        finish();
+    }
+
+    protected void handleMultiDecode(ArrayList<String> codes) {
+        mScanMetrics.onScanSucceeded(System.nanoTime());
+        // Before stopping, which resets the frame count. The multi reader only finds QR codes.
+        appendToHistory(codes, BarcodeFormat.QR_CODE, mDecodeHandler.getScanFrames());
         stopScan();
-        Log.d("hii",data);
-        Intent result = new Intent(this,ScanResult.class);
-        result.putExtra("res",data);
+        Log.d(LOG_TAG, "Found " + codes.size() + " codes");
+        Intent result = new Intent(this, ScanResult.class);
+        result.putExtra("res", TextUtils.join("\n", codes));
+        result.putStringArrayListExtra(EXTRA_CODES, codes);
         startActivity(result);
         finish();
     }
 
+    /**
+     * Appends the codes of a continuous or multi-code scan to the history on the result thread.
+     * Called on the decode or UI thread as they are found.
+     *
+     * @param frameCount Frames decoded during the scan so far.
+     */
+    private void appendToHistory(final List<String> texts, final BarcodeFormat format,
+                                 final int frameCount) {
+        final long timestampMillis = System.currentTimeMillis();
+        final long scanNanos = System.nanoTime() - mScanStartNanos;
+        try {
+            mResultExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mScanHistory == null) {
+                        return;
+                    }
+                    try {
+                        for (String text : texts) {
+                            mScanHistory.append(timestampMillis, text, format, scanNanos,
+                                    frameCount);
+                        }
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Could not append to scan history: " + e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // A frame decoded while the activity was being destroyed.
+            Log.w(LOG_TAG, "Scan history closed, dropped " + texts.size() + " codes");
+        }
+    }
+
     private void stopScan() {
-        if (mCameraManager != null) mCameraManager.closeDriver();
-        if (mDecodeHandler != null) mDecodeHandler.removeCallbacksAndMessages(null);
-        if (mHandlerThread != null) mHandlerThread.quit();
+        if (mScanStopped) {
+            return;
+        }
+        mScanStopped = true;
+        mCameraManager.closeDriver();
+        mDecodeHandler.pause();
+        if (mScanMetrics.isEnabled()) {
+            dumpMetrics();
+        }
+    }
+
+    private void dumpMetrics() {
+        String json = mScanMetrics.toJson();
+        Log.i(LOG_TAG, "Scan metrics: " + json);
+        String fileName = getIntent().getStringExtra(EXTRA_METRICS_FILE);
+        if (fileName != null) {
+            try {
+                mScanMetrics.writeJson(new File(getFilesDir(), fileName));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not write metrics: " + e);
+            }
+        }
     }
 }
 
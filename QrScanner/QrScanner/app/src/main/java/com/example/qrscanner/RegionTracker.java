@@ -0,0 +1,181 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+/**
+ * Follows a code across preview frames, so that the next frame is decoded only in a window
+ * around it instead of the whole viewfinder, which skips most of the finder pattern search.
+ *
+ * The window is the bounding box of the points of the last result, or of the finder patterns
+ * ZXing found in a frame it could not decode, at least MIN_PARTIAL_POINTS of them, padded by
+ * PADDING of its larger side and at least MIN_PADDING pixels. It only moves once the points
+ * come close to its edge, so frames of a code held still get the same crop. After maxMisses
+ * windowed frames in a row without a result the next frame is decoded whole again.
+ *
+ * Not thread-safe; decode workers share one under its lock.
+ */
+final class RegionTracker {
+
+    static final int DEFAULT_MAX_MISSES = 3;
+    /**
+     * Finder patterns of an undecoded frame needed to start tracking; one may be noise.
+     */
+    static final int MIN_PARTIAL_POINTS = 2;
+    /**
+     * Padding, as a fraction of the larger side of the points' bounding box. Finder pattern
+     * centers are 3.5 modules inside the code, and it may move between frames.
+     */
+    static final float PADDING = 0.5f;
+    static final int MIN_PADDING = 64;
+
+    private final int mMaxMisses;
+    private boolean mTracking;
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+    private int mMisses;
+    private long mWindowHits;
+    private long mWindowMisses;
+    private long mFallbacks;
+
+    /**
+     * @param maxMisses Windowed frames in a row without a result before decoding a whole one.
+     */
+    RegionTracker(int maxMisses) {
+        if (maxMisses <= 0) {
+            throw new IllegalArgumentException("Bad miss count: " + maxMisses);
+        }
+        mMaxMisses = maxMisses;
+    }
+
+    /**
+     * Restricts the crop of the frame to the window, if a code is tracked and the window
+     * overlaps the crop.
+     *
+     * @return Whether the crop was restricted.
+     */
+    boolean apply(PreviewFrame frame) {
+        if (!mTracking) {
+            return false;
+        }
+        int left = Math.max(frame.cropLeft, mLeft);
+        int top = Math.max(frame.cropTop, mTop);
+        int right = Math.min(frame.cropLeft + frame.cropWidth, mRight);
+        int bottom = Math.min(frame.cropTop + frame.cropHeight, mBottom);
+        if (right - left < MIN_PADDING || bottom - top < MIN_PADDING) {
+            // The code left the viewfinder.
+            mTracking = false;
+            return false;
+        }
+        frame.setCrop(left, top, right - left, bottom - top);
+        return true;
+    }
+
+    /**
+     * Updates the window after a frame was decoded.
+     *
+     * @param windowed Whether apply() restricted the frame.
+     * @param result The result, whose points are relative to the crop at cropLeft, cropTop, or
+     * null if the frame was not decoded.
+     * @param finderPoints The finder patterns found in the frame, as {x0, y0, x1, y1, ...} in
+     * frame pixels.
+     * @param finderPointCount How many points finderPoints holds.
+     */
+    void onFrameDecoded(boolean windowed, Result result, int cropLeft, int cropTop,
+                        float[] finderPoints, int finderPointCount) {
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        int count = 0;
+        ResultPoint[] points = result != null ? result.getResultPoints() : null;
+        if (points != null && points.length > 0) {
+            for (ResultPoint point : points) {
+                if (point != null) {
+                    minX = Math.min(minX, cropLeft + point.getX());
+                    minY = Math.min(minY, cropTop + point.getY());
+                    maxX = Math.max(maxX, cropLeft + point.getX());
+                    maxY = Math.max(maxY, cropTop + point.getY());
+                    count++;
+                }
+            }
+        } else if (result == null && finderPointCount >= MIN_PARTIAL_POINTS) {
+            for (int i = 0; i < finderPointCount * 2; i += 2) {
+                minX = Math.min(minX, finderPoints[i]);
+                minY = Math.min(minY, finderPoints[i + 1]);
+                maxX = Math.max(maxX, finderPoints[i]);
+                maxY = Math.max(maxY, finderPoints[i + 1]);
+                count++;
+            }
+        }
+        if (count > 0) {
+            float padding = Math.max(MIN_PADDING, PADDING * Math.max(maxX - minX, maxY - minY));
+            // Keep the window while the points stay half the padding away from its edges.
+            float margin = padding / 2;
+            if (!mTracking || minX - margin < mLeft || minY - margin < mTop
+                    || maxX + margin > mRight || maxY + margin > mBottom) {
+                mLeft = Math.round(minX - padding);
+                mTop = Math.round(minY - padding);
+                mRight = Math.round(maxX + padding);
+                mBottom = Math.round(maxY + padding);
+            }
+            mTracking = true;
+        }
+        if (!windowed) {
+            mMisses = 0;
+        } else if (result != null) {
+            mWindowHits++;
+            mMisses = 0;
+        } else {
+            mWindowMisses++;
+            if (++mMisses >= mMaxMisses) {
+                mTracking = false;
+                mMisses = 0;
+                mFallbacks++;
+            }
+        }
+    }
+
+    /**
+     * Forgets the code, e.g. when the camera was closed.
+     */
+    void reset() {
+        mTracking = false;
+        mMisses = 0;
+    }
+
+    boolean isTracking() {
+        return mTracking;
+    }
+
+    /**
+     * @return The window as {left, top, right, bottom} in frame pixels, or null if no code is
+     * tracked. May reach past the frame.
+     */
+    int[] getWindow() {
+        return mTracking ? new int[]{mLeft, mTop, mRight, mBottom} : null;
+    }
+
+    long getWindowHits() {
+        return mWindowHits;
+    }
+
+    long getWindowMisses() {
+        return mWindowMisses;
+    }
+
+    /**
+     * @return How often tracking was given up after maxMisses misses.
+     */
+    long getFallbacks() {
+        return mFallbacks;
+    }
+
+    @Override
+    public String toString() {
+        return mWindowHits + " windowed hits, " + mWindowMisses + " misses, " + mFallbacks
+                + " fallbacks to the whole frame";
+    }
+}
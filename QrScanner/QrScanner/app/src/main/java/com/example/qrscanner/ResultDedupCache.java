@@ -0,0 +1,71 @@
+package com.example.qrscanner;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recently seen codes so a code held in view is reported once, not once per frame.
+ * A code is new if it was not seen during the last ttl; every sighting restarts its ttl, so a
+ * code fires again only after being out of view for that long. At most capacity codes are
+ * remembered, the least recently seen are forgotten first.
+ *
+ * Not thread-safe.
+ */
+final class ResultDedupCache {
+
+    private final int mCapacity;
+    private final long mTtlNanos;
+    private final LinkedHashMap<String, Long> mLastSeen;
+
+    ResultDedupCache(final int capacity, long ttlNanos) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Bad capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        mTtlNanos = ttlNanos;
+        // Access order, so iteration starts at the least recently seen code.
+        mLastSeen = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Records a sighting of the code.
+     *
+     * @return Whether the code was not seen during the last ttl.
+     */
+    boolean offer(String text, long nowNanos) {
+        Long lastSeen = mLastSeen.put(text, nowNanos);
+        return lastSeen == null || nowNanos - lastSeen >= mTtlNanos;
+    }
+
+    /**
+     * Forgets codes not seen during the last ttl.
+     */
+    void evictExpired(long nowNanos) {
+        Iterator<Long> iterator = mLastSeen.values().iterator();
+        while (iterator.hasNext()) {
+            if (nowNanos - iterator.next() < mTtlNanos) {
+                // Everything after this was seen more recently.
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    int size() {
+        return mLastSeen.size();
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    void clear() {
+        mLastSeen.clear();
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Every scan result, kept in an append-only memory-mapped log file, with an in-memory index of
+ * the distinct texts for "seen before?" lookups and prefix search.
+ *
+ * The file starts with a HEADER_BYTES header: MAGIC, VERSION and the number of complete
+ * records. Every record follows as a RECORD_HEADER_BYTES header, holding its timestamp, the
+ * decode latency, the frame count and the lengths of the format name and text, and then both
+ * as UTF-8. All numbers are big-endian.
+ *
+ * An append is a copy into the mapping, which doubles when full, and an update of the record
+ * count; a record in the page cache survives a crash of the app. The mapping is only forced to
+ * disk every syncEvery records, by the appending thread, so that a power loss costs at most
+ * that many records. Opening a file replays it into the index, ignoring a record cut short.
+ *
+ * The index maps each distinct text to its count and latest record, in a HashMap for lookups
+ * and a TreeMap sharing the same entries for prefix search; 100k distinct texts of 50
+ * characters take about 20 MB of heap. Methods may be called from any thread.
+ */
+final class ScanHistory implements Closeable {
+
+    static final int MAGIC = 0x51525348; // "QRSH"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_COUNT_OFFSET = 8;
+    static final int RECORD_HEADER_BYTES = 26;
+    static final int DEFAULT_SYNC_EVERY = 32;
+    private static final int INITIAL_MAP_BYTES = 256 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A scan as recorded.
+     */
+    static final class Entry {
+        /**
+         * Wall clock time of the scan, in milliseconds since the epoch.
+         */
+        final long timestampMillis;
+        final String text;
+        /**
+         * The format, or null if this ZXing version does not know it.
+         */
+        final BarcodeFormat format;
+        /**
+         * From the start of the scan to the result.
+         */
+        final long latencyNanos;
+        /**
+         * Frames decoded during the scan.
+         */
+        final int frameCount;
+
+        Entry(long timestampMillis, String text, BarcodeFormat format, long latencyNanos,
+              int frameCount) {
+            this.timestampMillis = timestampMillis;
+            this.text = text;
+            this.format = format;
+            this.latencyNanos = latencyNanos;
+            this.frameCount = frameCount;
+        }
+    }
+
+    /**
+     * Index entry of a distinct text.
+     */
+    private static final class Sightings {
+        int count;
+        int latestRecord;
+    }
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mSyncEvery;
+    private MappedByteBuffer mBuffer;
+    private int[] mOffsets = new int[1024];
+    private int mRecordCount;
+    private int mPosition;
+    private int mUnsynced;
+    private final Map<String, Sightings> mIndex = new HashMap<String, Sightings>();
+    private final TreeMap<String, Sightings> mSortedIndex = new TreeMap<String, Sightings>();
+    private boolean mClosed;
+
+    /**
+     * Opens the history in the given file, creating it if it does not exist.
+     *
+     * @param syncEvery Records appended between forcing the file to disk.
+     * @throws IOException If the file is not a scan history or of another version.
+     */
+    ScanHistory(File file, int syncEvery) throws IOException {
+        if (syncEvery <= 0) {
+            throw new IllegalArgumentException("Bad sync interval: " + syncEvery);
+        }
+        mSyncEvery = syncEvery;
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            mChannel = mFile.getChannel();
+            long length = mFile.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Scan history too large: " + file);
+            }
+            if (length == 0) {
+                map(INITIAL_MAP_BYTES);
+                mBuffer.putInt(0, MAGIC);
+                mBuffer.putInt(4, VERSION);
+                mBuffer.putInt(RECORD_COUNT_OFFSET, 0);
+                mPosition = HEADER_BYTES;
+            } else {
+                // Checked before mapping, which would grow the file.
+                if (length < HEADER_BYTES || mFile.readInt() != MAGIC) {
+                    throw new IOException("Not a scan history: " + file);
+                }
+                int version = mFile.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported history version " + version);
+                }
+                map(Math.max(INITIAL_MAP_BYTES, (int) length));
+                replay((int) length);
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a scan.
+     *
+     * @return Whether the text was scanned before.
+     */
+    synchronized boolean append(long timestampMillis, String text, BarcodeFormat format,
+                                long latencyNanos, int frameCount) throws IOException {
+        if (mClosed) {
+            throw new IOException("Scan history is closed");
+        }
+        byte[] formatBytes = format.name().getBytes(UTF_8);
+        byte[] textBytes = text.getBytes(UTF_8);
+        long recordBytes = RECORD_HEADER_BYTES + (long) formatBytes.length + textBytes.length;
+        if (mPosition + recordBytes > Integer.MAX_VALUE) {
+            throw new IOException("Scan history is full");
+        }
+        if (mPosition + recordBytes > mBuffer.capacity()) {
+            map((int) Math.min(Integer.MAX_VALUE,
+                    Math.max(2L * mBuffer.capacity(), mPosition + recordBytes)));
+        }
+        mBuffer.position(mPosition);
+        mBuffer.putLong(timestampMillis);
+        mBuffer.putLong(latencyNanos);
+        mBuffer.putInt(frameCount);
+        mBuffer.putShort((short) formatBytes.length);
+        mBuffer.putInt(textBytes.length);
+        mBuffer.put(formatBytes);
+        mBuffer.put(textBytes);
+        boolean seen = index(text, mRecordCount, mPosition);
+        mPosition += recordBytes;
+        mRecordCount++;
+        mBuffer.putInt(RECORD_COUNT_OFFSET, mRecordCount);
+        if (++mUnsynced >= mSyncEvery) {
+            sync();
+        }
+        return seen;
+    }
+
+    /**
+     * Forces the records appended since the last sync to disk.
+     */
+    synchronized void sync() {
+        if (!mClosed && mUnsynced > 0) {
+            mBuffer.force();
+            mUnsynced = 0;
+        }
+    }
+
+    synchronized int size() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return How many distinct texts were scanned.
+     */
+    synchronized int getDistinctCount() {
+        return mIndex.size();
+    }
+
+    /**
+     * @return How often the text was scanned, 0 if never.
+     */
+    synchronized int getCount(String text) {
+        Sightings sightings = mIndex.get(text);
+        return sightings != null ? sightings.count : 0;
+    }
+
+    synchronized boolean contains(String text) {
+        return mIndex.containsKey(text);
+    }
+
+    /**
+     * @return The latest scan of the text, or null if it was never scanned.
+     */
+    synchronized Entry getLatest(String text) {
+        Sightings sightings = mIndex.get(text);
+        return sightings != null ? get(sightings.latestRecord) : null;
+    }
+
+    /**
+     * @param index Record number, 0 for the oldest.
+     */
+    synchronized Entry get(int index) {
+        if (index < 0 || index >= mRecordCount) {
+            throw new IndexOutOfBoundsException("Bad record: " + index);
+        }
+        int offset = mOffsets[index];
+        int formatLength = mBuffer.getShort(offset + 20);
+        int textLength = mBuffer.getInt(offset + 22);
+        String formatName = readString(offset + RECORD_HEADER_BYTES, formatLength);
+        BarcodeFormat format;
+        try {
+            format = BarcodeFormat.valueOf(formatName);
+        } catch (IllegalArgumentException e) {
+            format = null;
+        }
+        return new Entry(mBuffer.getLong(offset), readString(
+                offset + RECORD_HEADER_BYTES + formatLength, textLength), format,
+                mBuffer.getLong(offset + 8), mBuffer.getInt(offset + 16));
+    }
+
+    /**
+     * @return Up to limit distinct texts starting with prefix, in sorted order.
+     */
+    synchronized List<String> findByPrefix(String prefix, int limit) {
+        List<String> texts = new ArrayList<String>();
+        for (String text : mSortedIndex.tailMap(prefix, true).keySet()) {
+            if (texts.size() >= limit || !text.startsWith(prefix)) {
+                break;
+            }
+            texts.add(text);
+        }
+        return texts;
+    }
+
+    /**
+     * Forces the file to disk, cuts it to the records written and closes it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        sync();
+        mClosed = true;
+        mBuffer = null;
+        try {
+            mChannel.truncate(mPosition);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private void map(int size) throws IOException {
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Indexes the records of an existing file of the given length.
+     */
+    private void replay(int length) {
+        int count = Math.max(0, mBuffer.getInt(RECORD_COUNT_OFFSET));
+        int offset = HEADER_BYTES;
+        while (mRecordCount < count && offset + RECORD_HEADER_BYTES <= length) {
+            int formatLength = mBuffer.getShort(offset + 20);
+            int textLength = mBuffer.getInt(offset + 22);
+            long end = offset + RECORD_HEADER_BYTES + (long) formatLength + textLength;
+            if (formatLength < 0 || textLength < 0 || end > length) {
+                break;
+            }
+            index(readString(offset + RECORD_HEADER_BYTES + formatLength, textLength),
+                    mRecordCount, offset);
+            mRecordCount++;
+            offset = (int) end;
+        }
+        mPosition = offset;
+        // Drop what a crash left of a record beyond the count.
+        mBuffer.putInt(RECORD_COUNT_OFFSET, mRecordCount);
+    }
+
+    /**
+     * @return Whether the text was indexed before.
+     */
+    private boolean index(String text, int record, int offset) {
+        if (record == mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, record * 2);
+        }
+        mOffsets[record] = offset;
+        Sightings sightings = mIndex.get(text);
+        boolean seen = sightings != null;
+        if (!seen) {
+            sightings = new Sightings();
+            mIndex.put(text, sightings);
+            mSortedIndex.put(text, sightings);
+        }
+        sightings.count++;
+        sightings.latestRecord = record;
+        return seen;
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.qrscanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms for the scan pipeline:
+ *
+ * queueWait: from the camera handing over a frame to the decoder starting on it.
+ * decode: time spent in FrameDecoder per frame.
+ * framesPerScan: decode attempts from opening the camera to a result.
+ * timeToFirstDecode / timeToResult: from the start of a scan, when the camera starts to open,
+ * to the first decode attempt / result.
+ * resultShown: from the decoder finding a result to the first frame drawn showing it.
+ * resultParse: time spent parsing a result into a ScanPayload.
+ * variants: per VariantRetry variant, how often it was tried and decoded and how long it took.
+ *
+ * Every on*() method may be called from any thread, does not lock and does not allocate. A
+ * disabled instance returns from them straight away, so call sites need no checks of their own.
+ */
+final class ScanMetrics {
+
+    /**
+     * Shared instance recording nothing, for when metrics are off.
+     */
+    static final ScanMetrics DISABLED = new ScanMetrics(false);
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final boolean mEnabled;
+    private final AtomicLong mFramesReceived = new AtomicLong();
+    private final AtomicLong mFramesDecoded = new AtomicLong();
+    private final AtomicLong mFramesRejected = new AtomicLong();
+    private final AtomicLong mScans = new AtomicLong();
+    private final LatencyHistogram mQueueWait = new LatencyHistogram();
+    private final LatencyHistogram mDecode = new LatencyHistogram();
+    private final LatencyHistogram mFramesPerScan = new LatencyHistogram();
+    private final LatencyHistogram mTimeToFirstDecode = new LatencyHistogram();
+    private final LatencyHistogram mTimeToResult = new LatencyHistogram();
+    private final LatencyHistogram mResultShown = new LatencyHistogram();
+    private final LatencyHistogram mResultParse = new LatencyHistogram();
+    private final AtomicLong[] mVariantsDecoded = new AtomicLong[VariantRetry.VARIANTS.length];
+    private final LatencyHistogram[] mVariantDecode =
+            new LatencyHistogram[VariantRetry.VARIANTS.length];
+    private final AtomicLong mScanFrames = new AtomicLong();
+    private volatile long mScanStartNanos;
+    /**
+     * Set to the scan start time once the first decode of that scan has been timed.
+     */
+    private final AtomicLong mFirstDecodeTimedFor = new AtomicLong();
+
+    ScanMetrics(boolean enabled) {
+        mEnabled = enabled;
+        for (int i = 0; i < mVariantDecode.length; i++) {
+            mVariantsDecoded[i] = new AtomicLong();
+            mVariantDecode[i] = new LatencyHistogram();
+        }
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Starts a scan: call when the camera starts to open.
+     */
+    void onScanStarted(long nowNanos) {
+        if (!mEnabled) {
+            return;
+        }
+        mScanFrames.set(0);
+        mScanStartNanos = nowNanos;
+    }
+
+    /**
+     * Call for every preview frame delivered by the camera, whether it is decoded or not.
+     */
+    void onFrameReceived() {
+        if (mEnabled) {
+            mFramesReceived.incrementAndGet();
+        }
+    }
+
+    /**
+     * Call for frames dropped by the FrameQualityFilter.
+     */
+    void onFrameRejected() {
+        if (mEnabled) {
+            mFramesRejected.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param frameNanos When the frame arrived from the camera.
+     * @param startNanos When the decoder started on it.
+     */
+    void onFrameDecoded(long frameNanos, long startNanos, long decodeNanos) {
+        if (!mEnabled) {
+            return;
+        }
+        mFramesDecoded.incrementAndGet();
+        mScanFrames.incrementAndGet();
+        mQueueWait.record(startNanos - frameNanos);
+        mDecode.record(decodeNanos);
+        long scanStartNanos = mScanStartNanos;
+        if (scanStartNanos != 0 && mFirstDecodeTimedFor.get() != scanStartNanos
+                && mFirstDecodeTimedFor.getAndSet(scanStartNanos) != scanStartNanos) {
+            mTimeToFirstDecode.record(startNanos - scanStartNanos);
+        }
+    }
+
+    /**
+     * Call for every frame decoded again as a VariantRetry variant.
+     *
+     * @param variant Index into VariantRetry.VARIANTS.
+     */
+    void onVariantDecoded(int variant, long decodeNanos, boolean success) {
+        if (!mEnabled) {
+            return;
+        }
+        mVariantDecode[variant].record(decodeNanos);
+        if (success) {
+            mVariantsDecoded[variant].incrementAndGet();
+        }
+    }
+
+    /**
+     * Call once a scan produced its result.
+     */
+    void onScanSucceeded(long nowNanos) {
+        if (!mEnabled) {
+            return;
+        }
+        mScans.incrementAndGet();
+        mFramesPerScan.record(mScanFrames.getAndSet(0));
+        long scanStartNanos = mScanStartNanos;
+        if (scanStartNanos != 0) {
+            mTimeToResult.record(nowNanos - scanStartNanos);
+        }
+    }
+
+    /**
+     * @param latencyNanos From the decoder finding the result to the frame showing it.
+     */
+    void onResultShown(long latencyNanos) {
+        if (mEnabled) {
+            mResultShown.record(latencyNanos);
+        }
+    }
+
+    void onResultParsed(long parseNanos) {
+        if (mEnabled) {
+            mResultParse.record(parseNanos);
+        }
+    }
+
+    long getFramesReceived() {
+        return mFramesReceived.get();
+    }
+
+    long getFramesDecoded() {
+        return mFramesDecoded.get();
+    }
+
+    long getFramesRejected() {
+        return mFramesRejected.get();
+    }
+
+    long getScans() {
+        return mScans.get();
+    }
+
+    LatencyHistogram getQueueWait() {
+        return mQueueWait;
+    }
+
+    LatencyHistogram getDecode() {
+        return mDecode;
+    }
+
+    LatencyHistogram getFramesPerScan() {
+        return mFramesPerScan;
+    }
+
+    LatencyHistogram getTimeToFirstDecode() {
+        return mTimeToFirstDecode;
+    }
+
+    LatencyHistogram getTimeToResult() {
+        return mTimeToResult;
+    }
+
+    LatencyHistogram getResultShown() {
+        return mResultShown;
+    }
+
+    LatencyHistogram getResultParse() {
+        return mResultParse;
+    }
+
+    long getVariantsDecoded(int variant) {
+        return mVariantsDecoded[variant].get();
+    }
+
+    /**
+     * @return Decode times of the given VariantRetry variant; its count is how often it was
+     * tried.
+     */
+    LatencyHistogram getVariantDecode(int variant) {
+        return mVariantDecode[variant];
+    }
+
+    /**
+     * @return A snapshot of all counters and histograms, times in milliseconds.
+     */
+    String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"framesReceived\":").append(getFramesReceived())
+                .append(",\"framesDecoded\":").append(getFramesDecoded())
+                .append(",\"framesRejected\":").append(getFramesRejected())
+                .append(",\"scans\":").append(getScans());
+        appendHistogram(json, "queueWaitMs", mQueueWait, NANOS_PER_MILLI);
+        appendHistogram(json, "decodeMs", mDecode, NANOS_PER_MILLI);
+        appendHistogram(json, "framesPerScan", mFramesPerScan, 1);
+        appendHistogram(json, "timeToFirstDecodeMs", mTimeToFirstDecode, NANOS_PER_MILLI);
+        appendHistogram(json, "timeToResultMs", mTimeToResult, NANOS_PER_MILLI);
+        appendHistogram(json, "resultShownMs", mResultShown, NANOS_PER_MILLI);
+        appendHistogram(json, "resultParseMs", mResultParse, NANOS_PER_MILLI);
+        json.append(",\"variants\":{");
+        for (int i = 0; i < mVariantDecode.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(VariantRetry.VARIANTS[i]).append("\":{\"decoded\":")
+                    .append(getVariantsDecoded(i));
+            appendHistogram(json, "decodeMs", mVariantDecode[i], NANOS_PER_MILLI);
+            json.append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Writes toJson() to the given file, replacing it.
+     */
+    void writeJson(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void appendHistogram(StringBuilder json, String name,
+                                        LatencyHistogram histogram, long unit) {
+        json.append(",\"").append(name).append("\":");
+        histogram.appendJson(json, unit);
+    }
+}
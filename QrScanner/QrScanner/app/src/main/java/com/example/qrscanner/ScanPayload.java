@@ -0,0 +1,313 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.client.result.AddressBookParsedResult;
+import com.google.zxing.client.result.ParsedResult;
+import com.google.zxing.client.result.ResultParser;
+import com.google.zxing.client.result.URIParsedResult;
+import com.google.zxing.client.result.WifiParsedResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a decoded code holds: a URL, a contact (vCard or MECARD), Wi-Fi credentials, GS1 element
+ * strings or plain text, as labeled fields ready to show.
+ *
+ * URLs, contacts and Wi-Fi are parsed by ZXing's ResultParser. GS1 element strings, which ZXing
+ * only parses for RSS Expanded, are split into application identifiers here: a QR code holds
+ * them if its symbology identifier is ]Q3 or ]Q4, i.e. it starts with FNC1, and variable length
+ * fields end at a GS character.
+ *
+ * A vCard takes tens of microseconds once warm, but the first parse loads ZXing's parsers and
+ * takes milliseconds, so QrScanActivity runs it off the main thread.
+ */
+final class ScanPayload {
+
+    enum Type {
+        TEXT,
+        URL,
+        CONTACT,
+        WIFI,
+        GS1
+    }
+
+    private static final char GROUP_SEPARATOR = '\u001d';
+
+    private final Type mType;
+    private final String mText;
+    private final List<String> mLabels = new ArrayList<String>();
+    private final List<String> mValues = new ArrayList<String>();
+
+    private ScanPayload(Type type, String text) {
+        mType = type;
+        mText = text;
+    }
+
+    /**
+     * Parses the text of a decoded code.
+     */
+    static ScanPayload parse(Result result) {
+        Object symbology = result.getResultMetadata() != null
+                ? result.getResultMetadata().get(ResultMetadataType.SYMBOLOGY_IDENTIFIER) : null;
+        boolean gs1 = "]Q3".equals(symbology) || "]Q4".equals(symbology);
+        if (gs1) {
+            ScanPayload payload = new ScanPayload(Type.GS1, result.getText());
+            if (payload.addGs1Fields(result.getText())) {
+                return payload;
+            }
+        }
+        ParsedResult parsed = ResultParser.parseResult(result);
+        switch (parsed.getType()) {
+            case URI:
+                ScanPayload url = new ScanPayload(Type.URL, result.getText());
+                url.add("URL", ((URIParsedResult) parsed).getURI());
+                return url;
+            case ADDRESSBOOK:
+                return contact(result.getText(), (AddressBookParsedResult) parsed);
+            case WIFI:
+                WifiParsedResult wifi = (WifiParsedResult) parsed;
+                ScanPayload payload = new ScanPayload(Type.WIFI, result.getText());
+                payload.add("Network", wifi.getSsid());
+                payload.add("Security", wifi.getNetworkEncryption());
+                payload.add("Password", wifi.getPassword());
+                if (wifi.isHidden()) {
+                    payload.add("Hidden", "yes");
+                }
+                return payload;
+            default:
+                ScanPayload text = new ScanPayload(Type.TEXT, result.getText());
+                text.add("Text", result.getText());
+                return text;
+        }
+    }
+
+    Type getType() {
+        return mType;
+    }
+
+    /**
+     * @return The decoded text as it is.
+     */
+    String getText() {
+        return mText;
+    }
+
+    int getFieldCount() {
+        return mLabels.size();
+    }
+
+    String getLabel(int index) {
+        return mLabels.get(index);
+    }
+
+    String getValue(int index) {
+        return mValues.get(index);
+    }
+
+    /**
+     * @return A title for the kind of payload, e.g. "Wi-Fi network".
+     */
+    String getTitle() {
+        switch (mType) {
+            case URL:
+                return "Link";
+            case CONTACT:
+                return "Contact";
+            case WIFI:
+                return "Wi-Fi network";
+            case GS1:
+                return "GS1 product data";
+            default:
+                return "Text";
+        }
+    }
+
+    /**
+     * @return The fields as "label: value" lines, or the text alone for plain text.
+     */
+    String getDisplayText() {
+        if (mType == Type.TEXT) {
+            return mText;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < mLabels.size(); i++) {
+            if (i > 0) {
+                text.append('\n');
+            }
+            text.append(mLabels.get(i)).append(": ").append(mValues.get(i));
+        }
+        return text.toString();
+    }
+
+    private static ScanPayload contact(String text, AddressBookParsedResult contact) {
+        ScanPayload payload = new ScanPayload(Type.CONTACT, text);
+        payload.addAll("Name", contact.getNames());
+        payload.add("Organization", contact.getOrg());
+        payload.add("Title", contact.getTitle());
+        payload.addAll("Phone", contact.getPhoneNumbers());
+        payload.addAll("Email", contact.getEmails());
+        payload.addAll("Address", contact.getAddresses());
+        payload.addAll("Website", contact.getURLs());
+        payload.add("Note", contact.getNote());
+        return payload;
+    }
+
+    /**
+     * Adds a field unless value is null or empty.
+     */
+    private void add(String label, String value) {
+        if (value != null && !value.isEmpty()) {
+            mLabels.add(label);
+            mValues.add(value);
+        }
+    }
+
+    private void addAll(String label, String[] values) {
+        if (values != null) {
+            for (String value : values) {
+                add(label, value);
+            }
+        }
+    }
+
+    /**
+     * Splits GS1 element strings into fields labeled with their application identifiers.
+     *
+     * @return false if the text is not made of valid element strings.
+     */
+    private boolean addGs1Fields(String text) {
+        int position = 0;
+        while (position < text.length()) {
+            if (text.charAt(position) == GROUP_SEPARATOR) {
+                position++;
+                continue;
+            }
+            if (position + 2 > text.length()) {
+                return false;
+            }
+            int aiLength = gs1AiLength(text.substring(position, position + 2));
+            if (aiLength < 0 || position + aiLength > text.length()) {
+                return false;
+            }
+            String ai = text.substring(position, position + aiLength);
+            if (!isDigits(ai)) {
+                return false;
+            }
+            position += aiLength;
+            int dataLength = gs1DataLength(ai);
+            int end;
+            if (dataLength > 0) {
+                end = position + dataLength;
+                if (end > text.length()) {
+                    return false;
+                }
+            } else {
+                end = text.indexOf(GROUP_SEPARATOR, position);
+                if (end < 0) {
+                    end = text.length();
+                }
+            }
+            if (end == position) {
+                return false;
+            }
+            add(gs1Name(ai) + " (" + ai + ")", text.substring(position, end));
+            position = end;
+        }
+        return !mLabels.isEmpty();
+    }
+
+    /**
+     * @return The length of the application identifiers starting with prefix, or -1 if there
+     * are none.
+     */
+    static int gs1AiLength(String prefix) {
+        if (!isDigits(prefix)) {
+            return -1;
+        }
+        int value = Integer.parseInt(prefix);
+        if (value <= 22 || value == 30 || value == 37 || value >= 90) {
+            return 2;
+        }
+        if ((value >= 23 && value <= 25) || (value >= 40 && value <= 42)) {
+            return 3;
+        }
+        if ((value >= 31 && value <= 36) || value == 39 || value == 43
+                || (value >= 70 && value <= 72) || (value >= 80 && value <= 82)) {
+            return 4;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The data length of a predefined length application identifier, 0 for a variable
+     * length one.
+     */
+    static int gs1DataLength(String ai) {
+        int prefix = Integer.parseInt(ai.substring(0, 2));
+        if (prefix == 0) {
+            return 18;
+        }
+        if (prefix >= 1 && prefix <= 3) {
+            return 14;
+        }
+        if (prefix == 4) {
+            return 16;
+        }
+        if (prefix >= 11 && prefix <= 19) {
+            return 6;
+        }
+        if (prefix == 20) {
+            return 2;
+        }
+        if (prefix >= 31 && prefix <= 36) {
+            return 6;
+        }
+        if (prefix == 41) {
+            return 13;
+        }
+        return 0;
+    }
+
+    private static boolean isDigits(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String gs1Name(String ai) {
+        switch (ai) {
+            case "00":
+                return "SSCC";
+            case "01":
+                return "GTIN";
+            case "02":
+                return "Contained GTIN";
+            case "10":
+                return "Batch";
+            case "11":
+                return "Production date";
+            case "13":
+                return "Packaging date";
+            case "15":
+                return "Best before";
+            case "17":
+                return "Expiry";
+            case "21":
+                return "Serial";
+            case "30":
+                return "Count";
+            case "37":
+                return "Units";
+            case "400":
+                return "Order number";
+            default:
+                return "AI";
+        }
+    }
+}
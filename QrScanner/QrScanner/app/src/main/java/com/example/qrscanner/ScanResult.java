@@ -14,6 +14,10 @@ public class ScanResult extends AppCompatActivity {
         setContentView(R.layout.activity_scan_result);
         Intent intent = getIntent();
         String data = intent.getStringExtra("res");
+        String title = intent.getStringExtra("title");
+        if (title != null) {
+            setTitle(title);
+        }
         TextView res = findViewById(R.id.res);
         res.setText(data);
     }
@@ -0,0 +1,86 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A continuous scan: the camera keeps running and every new code is passed to a listener, while
+ * codes seen again within the dedup ttl are dropped. Keeps count of the codes found and the
+ * session throughput.
+ */
+final class ScanSession {
+
+    interface Listener {
+        /**
+         * Called on the decode thread for every new code.
+         */
+        void onNewCode(String text, BarcodeFormat format, int codeCount);
+    }
+
+    private static final double NANOS_PER_MINUTE = 60e9;
+
+    private final ResultDedupCache mDedupCache;
+    private final Listener mListener;
+    private final DecodeScheduler.Clock mClock;
+    private final long mStartNanos;
+    private final List<String> mCodes = new ArrayList<String>();
+    private long mDuplicateCount;
+
+    ScanSession(ResultDedupCache dedupCache, Listener listener, DecodeScheduler.Clock clock) {
+        mDedupCache = dedupCache;
+        mListener = listener;
+        mClock = clock;
+        mStartNanos = clock.nanoTime();
+    }
+
+    /**
+     * Handles one decoded result.
+     *
+     * @return Whether it was a new code.
+     */
+    boolean onResult(Result result) {
+        String text = result.getText();
+        int count;
+        synchronized (this) {
+            long now = mClock.nanoTime();
+            if (!mDedupCache.offer(text, now)) {
+                mDuplicateCount++;
+                return false;
+            }
+            mDedupCache.evictExpired(now);
+            mCodes.add(text);
+            count = mCodes.size();
+        }
+        mListener.onNewCode(text, result.getBarcodeFormat(), count);
+        return true;
+    }
+
+    synchronized int getCodeCount() {
+        return mCodes.size();
+    }
+
+    /**
+     * @return The new codes in the order they were found.
+     */
+    synchronized ArrayList<String> getCodes() {
+        return new ArrayList<String>(mCodes);
+    }
+
+    /**
+     * @return How many results were dropped as repeats of a code still in view.
+     */
+    synchronized long getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * @return New codes per minute since the session started.
+     */
+    synchronized double getCodesPerMinute() {
+        long elapsed = mClock.nanoTime() - mStartNanos;
+        return elapsed <= 0 ? 0 : mCodes.size() * NANOS_PER_MINUTE / elapsed;
+    }
+}
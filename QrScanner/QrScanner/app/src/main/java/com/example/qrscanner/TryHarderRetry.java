@@ -0,0 +1,111 @@
+package com.example.qrscanner;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Retries the sharpest of a run of undecoded preview frames with TRY_HARDER.
+ *
+ * Live frames are decoded without TRY_HARDER, which is several times faster and enough for most
+ * codes. Once windowFrames frames in a row did not decode, the sharpest of them is decoded once
+ * more with TRY_HARDER, which also finds small, skewed or partly damaged codes. The crop of the
+ * sharpest frame is copied when it arrives, since the frame itself goes back to the camera
+ * right after it was decoded.
+ *
+ * Not thread-safe; decode workers share one under its lock.
+ */
+final class TryHarderRetry {
+
+    private final int mWindowFrames;
+    private final FrameDecoder mDecoder;
+    private byte[] mBest;
+    private int mBestWidth;
+    private int mBestHeight;
+    private double mBestSharpness;
+    private int mFailedFrames;
+    private int mRetries;
+    private int mRetriesDecoded;
+
+    /**
+     * @param hints The hints live frames are decoded with; TRY_HARDER is added to them.
+     */
+    TryHarderRetry(int windowFrames, Map<DecodeHintType, ?> hints) {
+        if (windowFrames <= 0) {
+            throw new IllegalArgumentException("Bad window: " + windowFrames);
+        }
+        mWindowFrames = windowFrames;
+        mDecoder = new FrameDecoder(FrameDecoder.withTryHarder(hints));
+    }
+
+    /**
+     * Offers a frame which did not decode. Must be called before the frame is released.
+     *
+     * @param sharpness Higher is sharper, e.g. FrameQualityFilter.getLastSharpness(). Of frames
+     *                  equally sharp the newest is kept.
+     * @return The result of the retry if this frame completed a window and the retry decoded,
+     * else null. Result points are relative to the frame's crop rectangle.
+     */
+    Result onFrameFailed(PreviewFrame frame, double sharpness) {
+        if (mFailedFrames == 0 || sharpness >= mBestSharpness) {
+            copyCrop(frame);
+            mBestSharpness = sharpness;
+        }
+        if (++mFailedFrames < mWindowFrames) {
+            return null;
+        }
+        mFailedFrames = 0;
+        mRetries++;
+        Result result = mDecoder.decode(mBest, mBestWidth, mBestHeight,
+                0, 0, mBestWidth, mBestHeight);
+        if (result != null) {
+            mRetriesDecoded++;
+        }
+        return result;
+    }
+
+    /**
+     * Starts a new window, e.g. after a result or when the camera was closed.
+     */
+    void reset() {
+        mFailedFrames = 0;
+    }
+
+    int getRetries() {
+        return mRetries;
+    }
+
+    /**
+     * @return How many retries found a code the live decode had missed.
+     */
+    int getRetriesDecoded() {
+        return mRetriesDecoded;
+    }
+
+    private void copyCrop(PreviewFrame frame) {
+        int width = frame.cropWidth;
+        int height = frame.cropHeight;
+        if (mBest == null || mBest.length < width * height) {
+            mBest = new byte[width * height];
+        }
+        if (frame.data != null) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(frame.data, (frame.cropTop + y) * frame.width + frame.cropLeft,
+                        mBest, y * width, width);
+            }
+        } else {
+            ByteBuffer plane = frame.yPlane;
+            for (int y = 0; y < height; y++) {
+                int offset = (frame.cropTop + y) * frame.rowStride
+                        + frame.cropLeft * frame.pixelStride;
+                for (int x = 0; x < width; x++) {
+                    mBest[y * width + x] = plane.get(offset + x * frame.pixelStride);
+                }
+            }
+        }
+        mBestWidth = width;
+        mBestHeight = height;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.qrscanner;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ResultPoint;
+
+/**
+ * A window of another LuminanceSource enlarged twice in both directions, every pixel repeated.
+ *
+ * ZXing 3.x only keeps finder patterns confirmed on two scanned rows, and rows are skipped
+ * while scanning, so the three module wide centre of a code with one or two pixel modules is
+ * often seen once and the code not found at all. Enlarged, the centre spans enough rows.
+ *
+ * The window is read from the other source row by row, so it is as rotated or inverted as that
+ * source is.
+ */
+final class UpscaledLuminanceSource extends LuminanceSource {
+
+  static final int SCALE = 2;
+
+  private final LuminanceSource source;
+  private final int left;
+  private final int top;
+  private byte[] sourceRow;
+  private byte[] row;
+
+  /**
+   * @param left Left of the window in source, which must lie inside it.
+   */
+  UpscaledLuminanceSource(LuminanceSource source, int left, int top, int width, int height) {
+    super(width * SCALE, height * SCALE);
+    if (left < 0 || top < 0 || left + width > source.getWidth()
+        || top + height > source.getHeight()) {
+      throw new IllegalArgumentException("Bad window: " + left + "," + top + " "
+          + width + "x" + height);
+    }
+    this.source = source;
+    this.left = left;
+    this.top = top;
+  }
+
+  /**
+   * @return A point found in this source, in the other source.
+   */
+  ResultPoint toSource(ResultPoint point) {
+    return new ResultPoint(left + point.getX() / SCALE, top + point.getY() / SCALE);
+  }
+
+  @Override
+  public byte[] getRow(int y, byte[] row) {
+    if (y < 0 || y >= getHeight()) {
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      if (this.row == null) {
+        this.row = new byte[width];
+      }
+      row = this.row;
+    }
+    readRow(y / SCALE, row, 0);
+    return row;
+  }
+
+  @Override
+  public byte[] getMatrix() {
+    int width = getWidth();
+    byte[] matrix = new byte[width * getHeight()];
+    for (int y = 0; y < getHeight(); y += SCALE) {
+      readRow(y / SCALE, matrix, y * width);
+      System.arraycopy(matrix, y * width, matrix, (y + 1) * width, width);
+    }
+    return matrix;
+  }
+
+  private void readRow(int sourceY, byte[] out, int offset) {
+    sourceRow = source.getRow(top + sourceY, sourceRow);
+    int width = getWidth();
+    for (int x = 0; x < width; x++) {
+      out[offset + x] = sourceRow[left + x / SCALE];
+    }
+  }
+}
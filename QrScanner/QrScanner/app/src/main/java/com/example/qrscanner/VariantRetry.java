@@ -0,0 +1,160 @@
+package com.example.qrscanner;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes preview frames which did not decode once more as variants the live decode cannot
+ * find: with inverted luma, for light codes on a dark background, and turned upright as the
+ * display shows it, so that ZXing scans the frame across the other axis.
+ *
+ * Variants are only tried on every everyFrames-th frame of a run of undecoded frames, in
+ * VARIANTS order until one decodes, and each is timed into the ScanMetrics. They read the frame
+ * through rotated and inverted luminance views, so the frame is not copied. Must be called
+ * before the frame is released.
+ *
+ * Not thread-safe, but decode workers may each own a VariantRetry counting the undecoded frames
+ * of all of them in a shared counter.
+ */
+final class VariantRetry {
+
+    static final int INVERTED = 0;
+    static final int ROTATED = 1;
+    /**
+     * Names of the variants, by index, as used in the metrics.
+     */
+    static final String[] VARIANTS = {"inverted", "rotated"};
+
+    private final int mEveryFrames;
+    private final FrameDecoder[] mDecoders;
+    private final int[] mDecoded = new int[VARIANTS.length];
+    private final AtomicInteger mFailedFrames;
+    private int mQuarterTurns;
+    private int mRetries;
+
+    /**
+     * @param hints The hints live frames are decoded with.
+     */
+    VariantRetry(int everyFrames, Map<DecodeHintType, ?> hints) {
+        this(everyFrames, hints, new AtomicInteger());
+    }
+
+    /**
+     * @param failedFrames Counts the undecoded frames, shared with the other workers' retries.
+     */
+    VariantRetry(int everyFrames, Map<DecodeHintType, ?> hints, AtomicInteger failedFrames) {
+        if (everyFrames <= 0) {
+            throw new IllegalArgumentException("Bad interval: " + everyFrames);
+        }
+        mEveryFrames = everyFrames;
+        mFailedFrames = failedFrames;
+        mDecoders = new FrameDecoder[VARIANTS.length];
+        for (int i = 0; i < mDecoders.length; i++) {
+            mDecoders[i] = new FrameDecoder(hints);
+        }
+        mDecoders[INVERTED].setTransform(0, true);
+        setDisplayOrientation(0);
+    }
+
+    /**
+     * @param displayOrientation Clockwise rotation of the frames on the display, in degrees,
+     *                           see CameraSource.getDisplayOrientation().
+     */
+    void setDisplayOrientation(int displayOrientation) {
+        mQuarterTurns = quarterTurnsFor(displayOrientation);
+        mDecoders[ROTATED].setTransform(mQuarterTurns, false);
+    }
+
+    /**
+     * @return The counter-clockwise quarter turns of the rotated variant: the frame as the
+     * display shows it, or a quarter turn if that is the frame as it is.
+     */
+    static int quarterTurnsFor(int displayOrientation) {
+        int quarterTurns = (4 - displayOrientation / 90 % 4) % 4;
+        return quarterTurns == 0 ? 1 : quarterTurns;
+    }
+
+    /**
+     * Offers a frame which did not decode.
+     *
+     * @return The result of the first variant which decoded, if this frame was retried, else
+     * null. Result points are relative to the frame's crop rectangle.
+     */
+    Result onFrameFailed(PreviewFrame frame, ScanMetrics metrics) {
+        if (mFailedFrames.incrementAndGet() % mEveryFrames != 0) {
+            return null;
+        }
+        mRetries++;
+        for (int i = 0; i < mDecoders.length; i++) {
+            long start = System.nanoTime();
+            Result result = mDecoders[i].decode(frame);
+            metrics.onVariantDecoded(i, System.nanoTime() - start, result != null);
+            if (result != null) {
+                mDecoded[i]++;
+                return i == ROTATED ? unrotate(result, mQuarterTurns, frame.cropWidth,
+                        frame.cropHeight) : result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts a new run of undecoded frames, e.g. after a result or when the camera was closed.
+     */
+    void reset() {
+        mFailedFrames.set(0);
+    }
+
+    int getRetries() {
+        return mRetries;
+    }
+
+    /**
+     * @return How many retries the given variant decoded.
+     */
+    int getDecoded(int variant) {
+        return mDecoded[variant];
+    }
+
+    /**
+     * @return The result with its points moved from the crop rectangle turned by quarterTurns
+     * back to the crop rectangle of width x height.
+     */
+    static Result unrotate(Result result, int quarterTurns, int width, int height) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null) {
+            return result;
+        }
+        ResultPoint[] moved = new ResultPoint[points.length];
+        for (int i = 0; i < points.length; i++) {
+            ResultPoint point = points[i];
+            if (point == null) {
+                continue;
+            }
+            float x = point.getX();
+            float y = point.getY();
+            switch (quarterTurns) {
+                case 1:
+                    moved[i] = new ResultPoint(width - 1 - y, x);
+                    break;
+                case 2:
+                    moved[i] = new ResultPoint(width - 1 - x, height - 1 - y);
+                    break;
+                case 3:
+                    moved[i] = new ResultPoint(y, height - 1 - x);
+                    break;
+                default:
+                    moved[i] = point;
+                    break;
+            }
+        }
+        Result copy = new Result(result.getText(), result.getRawBytes(), moved,
+                result.getBarcodeFormat());
+        copy.putAllMetadata(result.getResultMetadata());
+        return copy;
+    }
+}
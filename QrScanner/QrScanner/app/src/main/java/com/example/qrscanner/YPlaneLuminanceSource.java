@@ -0,0 +1,254 @@
+package com.example.qrscanner;
+
+import com.google.zxing.LuminanceSource;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * This object extends LuminanceSource around the Y plane of a YUV_420_888 image, as returned by
+ * the camera2 ImageReader. The plane is read where it is, honoring its row and pixel stride, so
+ * the frame is never copied to the heap as a whole; only the cropped window asked for by
+ * getMatrix() or getRow() is copied, into scratch arrays kept across frames.
+ *
+ * rotateCounterClockwise() and invert() return views which read the same plane, rotated by
+ * quarter turns or with inverted luma.
+ *
+ * Every source reads through its own duplicate of the buffer, so sources of the same plane,
+ * e.g. the tiles of a PyramidDecoder, may be used by different threads at the same time. A
+ * single source must only be used by one thread at a time.
+ */
+public final class YPlaneLuminanceSource extends LuminanceSource {
+
+  private ByteBuffer yPlane;
+  private byte[] matrix;
+  private byte[] row;
+  private final int dataWidth;
+  private final int dataHeight;
+  private final int rowStride;
+  private final int pixelStride;
+  private final int left;
+  private final int top;
+  private final int cropWidth;
+  private final int cropHeight;
+  private final int quarterTurns;
+  private final boolean inverted;
+  // Offset of the view's top left pixel and the offset steps to its right and downwards.
+  private final int origin;
+  private final int xStep;
+  private final int yStep;
+
+  public YPlaneLuminanceSource(ByteBuffer yPlane, int dataWidth, int dataHeight,
+                               int rowStride, int pixelStride) {
+    this(yPlane, dataWidth, dataHeight, rowStride, pixelStride, 0, 0, dataWidth, dataHeight);
+  }
+
+  public YPlaneLuminanceSource(ByteBuffer yPlane, int dataWidth, int dataHeight,
+                               int rowStride, int pixelStride,
+                               int left, int top, int width, int height) {
+    this(yPlane, dataWidth, dataHeight, rowStride, pixelStride, left, top, width, height,
+        0, false);
+  }
+
+  /**
+   * @param quarterTurns Counter-clockwise quarter turns the crop rectangle is viewed with.
+   * @param inverted View light as dark and dark as light, for white on black codes.
+   */
+  public YPlaneLuminanceSource(ByteBuffer yPlane, int dataWidth, int dataHeight,
+                               int rowStride, int pixelStride,
+                               int left, int top, int width, int height,
+                               int quarterTurns, boolean inverted) {
+    super(quarterTurns % 2 == 0 ? width : height, quarterTurns % 2 == 0 ? height : width);
+
+    if (left < 0 || top < 0 || left + width > dataWidth || top + height > dataHeight) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+    if (quarterTurns < 0 || quarterTurns > 3) {
+      throw new IllegalArgumentException("Bad quarter turns: " + quarterTurns);
+    }
+    if (pixelStride <= 0 || rowStride < (dataWidth - 1) * pixelStride + 1) {
+      throw new IllegalArgumentException("Bad strides: row " + rowStride
+          + ", pixel " + pixelStride);
+    }
+
+    this.dataWidth = dataWidth;
+    this.dataHeight = dataHeight;
+    this.rowStride = rowStride;
+    this.pixelStride = pixelStride;
+    this.left = left;
+    this.top = top;
+    this.cropWidth = width;
+    this.cropHeight = height;
+    this.quarterTurns = quarterTurns;
+    this.inverted = inverted;
+    int right = left + width - 1;
+    int bottom = top + height - 1;
+    switch (quarterTurns) {
+      case 0:
+        origin = top * rowStride + left * pixelStride;
+        xStep = pixelStride;
+        yStep = rowStride;
+        break;
+      case 1:
+        // The top right corner comes to the top left, columns become rows.
+        origin = top * rowStride + right * pixelStride;
+        xStep = rowStride;
+        yStep = -pixelStride;
+        break;
+      case 2:
+        origin = bottom * rowStride + right * pixelStride;
+        xStep = -pixelStride;
+        yStep = -rowStride;
+        break;
+      default:
+        origin = bottom * rowStride + left * pixelStride;
+        xStep = -rowStride;
+        yStep = pixelStride;
+        break;
+    }
+    reset(yPlane);
+  }
+
+  /**
+   * Points this source at the Y plane of another frame with the same dimensions and strides.
+   */
+  public void reset(ByteBuffer yPlane) {
+    // The last row of a plane may stop right after its last pixel.
+    int required = (dataHeight - 1) * rowStride + (dataWidth - 1) * pixelStride + 1;
+    if (yPlane.capacity() < required) {
+      throw new IllegalArgumentException("Y plane holds " + yPlane.capacity()
+          + " bytes, need " + required);
+    }
+    // Reading moves the position, Java 8 has no absolute bulk get().
+    this.yPlane = yPlane.duplicate();
+  }
+
+  /**
+   * @return Whether this source reads the given crop rectangle out of planes of the given
+   * layout.
+   */
+  public boolean hasGeometry(int dataWidth, int dataHeight, int rowStride, int pixelStride,
+                             int left, int top, int width, int height) {
+    return this.dataWidth == dataWidth && this.dataHeight == dataHeight
+        && this.rowStride == rowStride && this.pixelStride == pixelStride
+        && this.left == left && this.top == top
+        && cropWidth == width && cropHeight == height;
+  }
+
+  @Override
+  public byte[] getRow(int y, byte[] row) {
+    if (y < 0 || y >= getHeight()) {
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      if (this.row == null) {
+        this.row = new byte[width];
+      }
+      row = this.row;
+    }
+    readRow(y, row, 0);
+    return row;
+  }
+
+  @Override
+  public byte[] getMatrix() {
+    int width = getWidth();
+    int height = getHeight();
+
+    // A heap buffer laid out exactly like a full frame can be handed out as is.
+    if (quarterTurns == 0 && !inverted
+        && width == dataWidth && height == dataHeight && rowStride == dataWidth
+        && pixelStride == 1 && yPlane.hasArray() && yPlane.arrayOffset() == 0) {
+      return yPlane.array();
+    }
+
+    if (matrix == null) {
+      matrix = new byte[width * height];
+    }
+    for (int y = 0; y < height; y++) {
+      readRow(y, matrix, y * width);
+    }
+    return matrix;
+  }
+
+  @Override
+  public boolean isCropSupported() {
+    return true;
+  }
+
+  /**
+   * Returns a view of a sub-rectangle of this source. The Y plane is shared, not copied.
+   */
+  @Override
+  public LuminanceSource crop(int left, int top, int width, int height) {
+    // Map the rectangle, given in this view's coordinates, back to the plane.
+    int cropLeft;
+    int cropTop;
+    switch (quarterTurns) {
+      case 0:
+        cropLeft = left;
+        cropTop = top;
+        break;
+      case 1:
+        cropLeft = cropWidth - top - height;
+        cropTop = left;
+        break;
+      case 2:
+        cropLeft = cropWidth - left - width;
+        cropTop = cropHeight - top - height;
+        break;
+      default:
+        cropLeft = top;
+        cropTop = cropHeight - left - width;
+        break;
+    }
+    boolean turned = quarterTurns % 2 != 0;
+    return new YPlaneLuminanceSource(yPlane, dataWidth, dataHeight, rowStride, pixelStride,
+        this.left + cropLeft, this.top + cropTop, turned ? height : width,
+        turned ? width : height, quarterTurns, inverted);
+  }
+
+  @Override
+  public boolean isRotateSupported() {
+    return true;
+  }
+
+  /**
+   * Returns this source rotated by 90 degrees counter-clockwise, reading the same plane.
+   */
+  @Override
+  public LuminanceSource rotateCounterClockwise() {
+    return new YPlaneLuminanceSource(yPlane, dataWidth, dataHeight, rowStride, pixelStride,
+        left, top, cropWidth, cropHeight, (quarterTurns + 1) % 4, inverted);
+  }
+
+  /**
+   * Returns this source with inverted luma, reading the same plane.
+   */
+  @Override
+  public LuminanceSource invert() {
+    return new YPlaneLuminanceSource(yPlane, dataWidth, dataHeight, rowStride, pixelStride,
+        left, top, cropWidth, cropHeight, quarterTurns, !inverted);
+  }
+
+  private void readRow(int y, byte[] destination, int destinationOffset) {
+    int width = getWidth();
+    int offset = origin + y * yStep;
+    if (xStep == 1) {
+      // Buffer.position(int), ByteBuffer only overrides it from Java 9 on.
+      ((Buffer) yPlane).position(offset);
+      yPlane.get(destination, destinationOffset, width);
+      if (inverted) {
+        for (int x = destinationOffset; x < destinationOffset + width; x++) {
+          destination[x] = (byte) ~destination[x];
+        }
+      }
+      return;
+    }
+    int mask = inverted ? 0xff : 0;
+    for (int x = 0; x < width; x++) {
+      destination[destinationOffset + x] = (byte) (yPlane.get(offset + x * xStep) ^ mask);
+    }
+  }
+}
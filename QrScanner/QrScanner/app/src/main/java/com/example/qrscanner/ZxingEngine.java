@@ -0,0 +1,36 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+
+/**
+ * The live preview decode path, a FrameDecoder with the QR code hints, as a DecodeEngine.
+ *
+ * Its API has no ZXing types, so the same source compiled against another ZXing release and
+ * relocated can be run next to this one. Not thread-safe, like FrameDecoder.
+ */
+public final class ZxingEngine implements DecodeEngine {
+
+    private final String mName;
+    private final FrameDecoder mDecoder;
+
+    /**
+     * @param tryHarder Decode with TRY_HARDER, as still images are.
+     */
+    public ZxingEngine(String name, boolean tryHarder) {
+        mName = name;
+        mDecoder = new FrameDecoder(tryHarder ? FrameDecoder.createStillImageHints()
+                : FrameDecoder.createQrCodeHints());
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String decode(byte[] luma, int dataWidth, int dataHeight, int left, int top,
+                         int width, int height) {
+        Result result = mDecoder.decode(luma, dataWidth, dataHeight, left, top, width, height);
+        return result != null ? result.getText() : null;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BatchDecoder}, with images rendered in memory.
+ */
+public class BatchDecoderTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Renders "qr-*" sources as a QR code holding the file name, which only decodes at full
+     * resolution when the name contains "small". "broken" sources cannot be read, anything else
+     * is blank.
+     */
+    private static final class FakeLoader implements BatchDecoder.ImageLoader {
+        @Override
+        public BatchDecoder.Pixels load(String source, int maxSide) throws IOException {
+            String name = source.substring(source.lastIndexOf('/') + 1);
+            if (name.startsWith("broken")) {
+                throw new IOException("Corrupt " + name);
+            }
+            int sampleSize = BatchDecoder.sampleSizeFor(800, 600, maxSide);
+            int width = 800 / sampleSize;
+            int height = 600 / sampleSize;
+            int[] argb = new int[width * height];
+            Arrays.fill(argb, 0xffffffff);
+            if (name.startsWith("qr") && (sampleSize == 1 || !name.contains("small"))) {
+                draw(name, argb, width, height);
+            }
+            return new BatchDecoder.Pixels(argb, width, height, sampleSize);
+        }
+    }
+
+    @Test
+    public void decodeAll_decodesEveryImageAndRetriesAtFullResolution() throws Exception {
+        List<String> sources = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            sources.add("/img/qr-" + i + ".png");
+        }
+        sources.add("content://media/qr-small.png");
+        sources.add("/img/blank.png");
+        sources.add("/img/broken.png");
+        final Map<String, BatchResult> results = new HashMap<String, BatchResult>();
+        BatchDecoder decoder = new BatchDecoder(3, new FakeLoader(),
+                FrameDecoder.createStillImageHints(), 300);
+
+        int decoded = decoder.decodeAll(sources, new BatchDecoder.Listener() {
+            @Override
+            public void onResult(BatchResult result) {
+                synchronized (results) {
+                    assertNull(results.put(result.source, result));
+                }
+            }
+        });
+
+        assertEquals(21, decoded);
+        assertEquals(sources.size(), results.size());
+        BatchResult first = results.get("/img/qr-0.png");
+        assertEquals("qr-0.png", first.text);
+        assertEquals(BarcodeFormat.QR_CODE, first.format);
+        assertEquals(2, first.sampleSize);
+        assertEquals(400, first.width);
+        BatchResult small = results.get("content://media/qr-small.png");
+        assertEquals("qr-small.png", small.text);
+        assertEquals(1, small.sampleSize);
+        assertEquals(800, small.width);
+        assertFalse(results.get("/img/blank.png").isDecoded());
+        assertNull(results.get("/img/blank.png").error);
+        assertEquals("Corrupt broken.png", results.get("/img/broken.png").error);
+    }
+
+    @Test
+    public void decodeAll_dropsQueuedImagesWhenInterrupted() throws Exception {
+        final List<String> sources = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            sources.add("/img/blank-" + i + ".png");
+        }
+        final AtomicInteger results = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(3);
+        final AtomicInteger resultsOnReturn = new AtomicInteger(-1);
+        final AtomicReference<Exception> thrown = new AtomicReference<Exception>();
+        final BatchDecoder decoder = new BatchDecoder(2, new BatchDecoder.ImageLoader() {
+            @Override
+            public BatchDecoder.Pixels load(String source, int maxSide) throws IOException {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+                return new BatchDecoder.Pixels(new int[64 * 64], 64, 64, 1);
+            }
+        }, FrameDecoder.createStillImageHints(), 0);
+        Thread batch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    decoder.decodeAll(sources, new BatchDecoder.Listener() {
+                        @Override
+                        public void onResult(BatchResult result) {
+                            results.incrementAndGet();
+                            started.countDown();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    thrown.set(e);
+                }
+                resultsOnReturn.set(results.get());
+            }
+        });
+        batch.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        batch.interrupt();
+        batch.join(10000);
+        assertFalse(batch.isAlive());
+        assertNotNull(thrown.get());
+        Thread.sleep(200);
+        // Nothing was decoded after the call returned, and the queued images never were.
+        assertEquals(resultsOnReturn.get(), results.get());
+        assertTrue(results.get() < sources.size() / 2);
+    }
+
+    @Test
+    public void sampleSizeFor_keepsTheLongerSideAtLeastMaxSide() {
+        assertEquals(1, BatchDecoder.sampleSizeFor(4000, 3000, 0));
+        assertEquals(1, BatchDecoder.sampleSizeFor(800, 600, 1024));
+        assertEquals(2, BatchDecoder.sampleSizeFor(2048, 1536, 1024));
+        assertEquals(2, BatchDecoder.sampleSizeFor(3000, 4000, 1024));
+        assertEquals(4, BatchDecoder.sampleSizeFor(4096, 3072, 1024));
+    }
+
+    @Test
+    public void listImages_returnsImageFilesByName() throws Exception {
+        mFolder.newFile("b.JPG");
+        mFolder.newFile("a.png");
+        mFolder.newFile("notes.txt");
+        mFolder.newFolder("c.png");
+        List<File> images = BatchDecoder.listImages(mFolder.getRoot());
+        assertEquals(2, images.size());
+        assertEquals("a.png", images.get(0).getName());
+        assertEquals("b.JPG", images.get(1).getName());
+        assertEquals(Collections.<File>emptyList(),
+                BatchDecoder.listImages(new File(mFolder.getRoot(), "missing")));
+    }
+
+    private static void draw(String contents, int[] argb, int width, int height) {
+        BitMatrix matrix;
+        try {
+            matrix = new QRCodeWriter().encode(contents, BarcodeFormat.QR_CODE, 0, 0);
+        } catch (WriterException e) {
+            throw new IllegalArgumentException(e);
+        }
+        int scale = Math.min(width, height) / 2 / matrix.getWidth();
+        int size = matrix.getWidth() * scale;
+        int left = (width - size) / 2;
+        int top = (height - size) / 2;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                if (matrix.get(x / scale, y / scale)) {
+                    argb[(top + y) * width + left + x] = 0xff000000;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BatchResultWriter}.
+ */
+public class BatchResultWriterTest {
+
+    private static final BatchResult DECODED = new BatchResult("/img/a.png",
+            "WIFI:S:\"home\",T:WPA;\n", BarcodeFormat.QR_CODE, 640, 480, 2,
+            12000000L, 3000000L, null);
+    private static final BatchResult FAILED = new BatchResult("/img/b.png",
+            null, null, 0, 0, 0, 0, 0, "Not an image: /img/b.png");
+
+    @Test
+    public void csv_writesHeaderAndEscapesFields() throws Exception {
+        StringWriter out = new StringWriter();
+        BatchResultWriter writer = new BatchResultWriter(out, BatchResultWriter.Format.CSV);
+        writer.onResult(DECODED);
+        writer.onResult(FAILED);
+        writer.close();
+        assertEquals(BatchResult.CSV_HEADER + "\n"
+                + "/img/a.png,\"WIFI:S:\"\"home\"\",T:WPA;\n\",QR_CODE,640,480,2,12,3,\n"
+                + "/img/b.png,,,0,0,0,0,0,Not an image: /img/b.png\n", out.toString());
+    }
+
+    @Test
+    public void jsonl_writesOneObjectPerLine() throws Exception {
+        StringWriter out = new StringWriter();
+        BatchResultWriter writer = new BatchResultWriter(out, BatchResultWriter.Format.JSONL);
+        writer.onResult(DECODED);
+        writer.onResult(FAILED);
+        writer.close();
+        assertEquals("{\"path\":\"/img/a.png\",\"text\":\"WIFI:S:\\\"home\\\",T:WPA;\\n\","
+                + "\"format\":\"QR_CODE\",\"width\":640,\"height\":480,\"sampleSize\":2,"
+                + "\"loadMs\":12,\"decodeMs\":3,\"error\":null}\n"
+                + "{\"path\":\"/img/b.png\",\"text\":null,\"format\":null,\"width\":0,"
+                + "\"height\":0,\"sampleSize\":0,\"loadMs\":0,\"decodeMs\":0,"
+                + "\"error\":\"Not an image: /img/b.png\"}\n", out.toString());
+    }
+}
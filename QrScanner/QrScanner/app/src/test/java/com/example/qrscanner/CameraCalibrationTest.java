@@ -0,0 +1,137 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CameraCalibration}.
+ */
+public class CameraCalibrationTest {
+
+    private static final long SECOND = 1000000000L;
+    private static final CameraProfile START = new CameraProfile(1920, 1080, "auto", 1500, 4);
+
+    @Test
+    public void sweep_keepsBestOfEveryStage() {
+        CameraCalibration calibration = new CameraCalibration(
+                Arrays.asList(new int[]{1920, 1080}, new int[]{1280, 720}),
+                Arrays.asList("auto", "continuous-picture"), new int[]{1, 2, 4}, START);
+        List<CameraProfile> trials = new ArrayList<CameraProfile>();
+        CameraProfile trial;
+        while ((trial = calibration.next()) != null) {
+            trials.add(trial);
+            calibration.onTrialFinished(decodesPerSecond(trial) * 3, 3 * SECOND);
+        }
+        // The start, 1280x720, auto at two more intervals, continuous, 1 and 2 workers.
+        assertEquals(7, trials.size());
+        assertEquals(START, trials.get(0));
+        assertEquals(new CameraProfile(1280, 720, "auto", 1500, 4), trials.get(1));
+        assertTrue(trials.contains(new CameraProfile(1280, 720, "continuous-picture", 0, 4)));
+        assertEquals(new CameraProfile(1280, 720, "continuous-picture", 0, 2),
+                calibration.getBest());
+        assertEquals(14, calibration.getBestRate(), 1e-9);
+        assertEquals(7, calibration.getTrialCount());
+        assertEquals(-1, calibration.getRate(new CameraProfile(640, 480, "auto", 0, 1)), 0);
+    }
+
+    @Test
+    public void sweep_withoutDecodesHasNoBest() {
+        CameraCalibration calibration = new CameraCalibration(
+                new ArrayList<int[]>(), new ArrayList<String>(), new int[]{4}, START);
+        assertEquals(START, calibration.next());
+        calibration.onTrialFinished(0, SECOND);
+        assertNull(calibration.next());
+        assertNull(calibration.getBest());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void next_requiresFinishedTrial() {
+        CameraCalibration calibration = new CameraCalibration(
+                new ArrayList<int[]>(), new ArrayList<String>(), new int[]{4}, START);
+        calibration.next();
+        calibration.next();
+    }
+
+    @Test
+    public void start_runsTrialsWithHost() {
+        final long[] now = {0};
+        final List<CameraProfile> trials = new ArrayList<CameraProfile>();
+        final CameraProfile[] best = new CameraProfile[1];
+        final CameraCalibration calibration = new CameraCalibration(
+                Arrays.asList(new int[]{1920, 1080}, new int[]{1280, 720}),
+                new ArrayList<String>(), new int[]{4}, START);
+        calibration.setReferenceText("reference");
+        calibration.start(new CameraCalibration.Host() {
+            @Override
+            public void startTrial(CameraProfile profile) {
+                trials.add(profile);
+            }
+
+            @Override
+            public void onCalibrationFinished(CameraProfile profile) {
+                best[0] = profile;
+            }
+        }, new DecodeScheduler.Clock() {
+            @Override
+            public long nanoTime() {
+                return now[0];
+            }
+        }, null, null);
+        assertEquals(Arrays.asList(START), trials);
+
+        decode(calibration.getSession(), "reference", 3);
+        decode(calibration.getSession(), "other", 5);
+        assertEquals(3, calibration.getTrialDecodes());
+        now[0] += SECOND;
+        calibration.finishTrial();
+        assertEquals(new CameraProfile(1280, 720, "auto", 1500, 4), trials.get(1));
+        assertEquals(0, calibration.getTrialDecodes());
+
+        decode(calibration.getSession(), "reference", 6);
+        now[0] += SECOND;
+        calibration.finishTrial();
+        assertEquals(2, trials.size());
+        assertEquals(trials.get(1), best[0]);
+        assertEquals(6, calibration.getBestRate(), 1e-9);
+    }
+
+    @Test
+    public void candidatePreviewSizes_spreadsMatchingSizes() {
+        List<int[]> supported = Arrays.asList(new int[]{3840, 2160}, new int[]{1920, 1080},
+                new int[]{640, 480}, new int[]{1280, 720}, new int[]{960, 540},
+                new int[]{1600, 900}, new int[]{320, 180});
+        List<int[]> sizes = CameraCalibration.candidatePreviewSizes(supported, 1080, 2340,
+                640 * 360, 1920 * 1080, 3);
+        assertEquals(3, sizes.size());
+        assertArrayEquals(new int[]{1920, 1080}, sizes.get(0));
+        assertArrayEquals(new int[]{1600, 900}, sizes.get(1));
+        assertArrayEquals(new int[]{960, 540}, sizes.get(2));
+    }
+
+    private static void decode(ScanSession session, String text, int times) {
+        for (int i = 0; i < times; i++) {
+            session.onResult(new Result(text, null, null, BarcodeFormat.QR_CODE));
+        }
+    }
+
+    /**
+     * A device on which smaller frames, continuous focus and two workers read fastest.
+     */
+    private static int decodesPerSecond(CameraProfile profile) {
+        int rate = profile.previewWidth == 1280 ? 8 : 5;
+        if ("continuous-picture".equals(profile.focusMode)) {
+            rate += 4;
+        } else if (profile.autoFocusIntervalMs == 750) {
+            rate += 1;
+        }
+        return rate + (profile.decodeWorkers == 2 ? 2 : 0);
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CameraProfile}.
+ */
+public class CameraProfileTest {
+
+    @Test
+    public void decode_readsEncodedProfile() {
+        CameraProfile profile = CameraProfile.decode(
+                new CameraProfile(1280, 720, "macro", 750, 3).encode());
+        assertNotNull(profile);
+        assertEquals(1280, profile.previewWidth);
+        assertEquals(720, profile.previewHeight);
+        assertEquals("macro", profile.focusMode);
+        assertEquals(750, profile.autoFocusIntervalMs);
+        assertEquals(3, profile.decodeWorkers);
+        assertEquals(new CameraProfile(1280, 720, "macro", 750, 3), profile);
+        assertNull(CameraProfile.decode(new CameraProfile(640, 480, null, 0, 1).encode())
+                .focusMode);
+    }
+
+    @Test
+    public void decode_rejectsMalformedValues() {
+        assertNull(CameraProfile.decode(null));
+        assertNull(CameraProfile.decode(""));
+        assertNull(CameraProfile.decode("1280,720,auto,1500"));
+        assertNull(CameraProfile.decode("1280,x,auto,1500,2"));
+        assertNull(CameraProfile.decode("0,720,auto,1500,2"));
+        assertNull(CameraProfile.decode("1280,720,auto,1500,0"));
+    }
+
+    @Test
+    public void isContinuousFocus() {
+        assertTrue(CameraProfile.isContinuousFocus("continuous-picture"));
+        assertTrue(CameraProfile.isContinuousFocus("continuous-video"));
+        assertFalse(CameraProfile.isContinuousFocus("auto"));
+        assertFalse(CameraProfile.isContinuousFocus(null));
+    }
+}
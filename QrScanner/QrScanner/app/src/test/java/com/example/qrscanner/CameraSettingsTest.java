@@ -0,0 +1,52 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CameraSettings}.
+ */
+public class CameraSettingsTest {
+
+    @Test
+    public void decode_readsEncodedSettings() {
+        CameraSettings settings = CameraSettings.decode(
+                new CameraSettings(1280, 720, "auto", "off", 90).encode());
+        assertNotNull(settings);
+        assertEquals(1280, settings.previewWidth);
+        assertEquals(720, settings.previewHeight);
+        assertEquals("auto", settings.focusMode);
+        assertEquals("off", settings.flashMode);
+        assertEquals(90, settings.displayOrientation);
+    }
+
+    @Test
+    public void decode_keepsMissingModesNull() {
+        CameraSettings settings = CameraSettings.decode(
+                new CameraSettings(640, 480, null, null, 0).encode());
+        assertNotNull(settings);
+        assertNull(settings.focusMode);
+        assertNull(settings.flashMode);
+    }
+
+    @Test
+    public void decode_rejectsMalformedValues() {
+        assertNull(CameraSettings.decode(null));
+        assertNull(CameraSettings.decode(""));
+        assertNull(CameraSettings.decode("1280,720,auto,off"));
+        assertNull(CameraSettings.decode("1280,x,auto,off,90"));
+        assertNull(CameraSettings.decode("0,720,auto,off,90"));
+        assertNull(CameraSettings.decode("1280,720,auto,off,45"));
+    }
+
+    @Test
+    public void key_differsPerCameraRotationAndSurface() {
+        String key = CameraSettings.key("fp", "0", 0, 1080, 1920);
+        assertEquals(key, CameraSettings.key("fp", "0", 0, 1080, 1920));
+        assertNotEquals(key, CameraSettings.key("fp2", "0", 0, 1080, 1920));
+        assertNotEquals(key, CameraSettings.key("fp", "1", 0, 1080, 1920));
+        assertNotEquals(key, CameraSettings.key("fp", "0", 1, 1080, 1920));
+        assertNotEquals(key, CameraSettings.key("fp", "0", 0, 1920, 1080));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DecodeScheduler}, driven by a fake clock.
+ */
+public class DecodeSchedulerTest {
+
+    private static final long MS = 1000000L;
+
+    private static final class FakeClock implements DecodeScheduler.Clock {
+        long mNow = 1000 * MS;
+
+        @Override
+        public long nanoTime() {
+            return mNow;
+        }
+
+        void advance(long nanos) {
+            mNow += nanos;
+        }
+    }
+
+    private final FakeClock mClock = new FakeClock();
+
+    @Test
+    public void maxThroughput_decodesEveryFrame() {
+        DecodeScheduler scheduler = DecodeScheduler.maxThroughput(mClock);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scheduler.shouldDecode());
+            scheduler.onDecodeFinished(50 * MS, false);
+            mClock.advance(MS);
+        }
+        assertEquals(0, scheduler.getSkippedCount());
+        assertEquals(50 * MS, scheduler.getAverageDecodeNanos());
+    }
+
+    @Test
+    public void fixedRate_skipsFramesInsideTheInterval() {
+        DecodeScheduler scheduler = DecodeScheduler.fixedRate(mClock, 10f);
+        int decoded = 0;
+        // One second of 30 fps preview.
+        for (int i = 0; i < 30; i++) {
+            if (scheduler.shouldDecode()) {
+                decoded++;
+            }
+            mClock.advance(1000 * MS / 30 + 1);
+        }
+        assertEquals(10, decoded);
+        assertEquals(20, scheduler.getSkippedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fixedRate_rejectsZeroRate() {
+        DecodeScheduler.fixedRate(mClock, 0f);
+    }
+
+    @Test
+    public void batterySaver_followsDecodeTime() {
+        DecodeScheduler scheduler = DecodeScheduler.batterySaver(mClock);
+        assertEquals(200 * MS, scheduler.getTargetIntervalNanos());
+
+        // Slow decodes: busy at most a quarter of the time.
+        for (int i = 0; i < 50; i++) {
+            scheduler.onDecodeFinished(100 * MS, true);
+        }
+        assertEquals(400 * MS, scheduler.getTargetIntervalNanos());
+
+        // The rolling average moves towards faster decodes again.
+        for (int i = 0; i < 100; i++) {
+            scheduler.onDecodeFinished(10 * MS, true);
+        }
+        assertEquals(200 * MS, scheduler.getTargetIntervalNanos());
+    }
+
+    @Test
+    public void batterySaver_backsOffWhileDecodesFail() {
+        DecodeScheduler scheduler = DecodeScheduler.batterySaver(mClock);
+        for (int i = 0; i < 10; i++) {
+            scheduler.onDecodeFinished(10 * MS, false);
+        }
+        assertEquals(400 * MS, scheduler.getTargetIntervalNanos());
+        for (int i = 0; i < 100; i++) {
+            scheduler.onDecodeFinished(10 * MS, false);
+        }
+        assertEquals(800 * MS, scheduler.getTargetIntervalNanos());
+        scheduler.onDecodeFinished(10 * MS, true);
+        assertEquals(200 * MS, scheduler.getTargetIntervalNanos());
+    }
+
+    @Test
+    public void autoFocus_skipsFramesUntilFocused() {
+        DecodeScheduler scheduler = DecodeScheduler.maxThroughput(mClock);
+        scheduler.onAutoFocusStarted();
+        mClock.advance(100 * MS);
+        assertFalse(scheduler.shouldDecode());
+        assertFalse(scheduler.shouldDecode());
+        scheduler.onAutoFocusFinished();
+        assertTrue(scheduler.shouldDecode());
+        assertEquals(2, scheduler.getFocusSkippedCount());
+        assertEquals(0, scheduler.getSkippedCount());
+    }
+
+    @Test
+    public void autoFocus_timesOutWithoutCallback() {
+        DecodeScheduler scheduler = DecodeScheduler.maxThroughput(mClock);
+        scheduler.onAutoFocusStarted();
+        mClock.advance(1999 * MS);
+        assertFalse(scheduler.shouldDecode());
+        mClock.advance(MS);
+        assertTrue(scheduler.shouldDecode());
+        assertTrue(scheduler.shouldDecode());
+    }
+}
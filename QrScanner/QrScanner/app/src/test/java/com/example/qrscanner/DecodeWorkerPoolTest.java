@@ -0,0 +1,301 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DecodeWorkerPool}.
+ */
+public class DecodeWorkerPoolTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void submit_deliversFirstResultOnce() throws Exception {
+        final AtomicInteger deliveries = new AtomicInteger();
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final Set<byte[]> released =
+                Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+        DecodeWorkerPool pool = new DecodeWorkerPool(3, 1, FrameDecoder.createQrCodeHints(),
+                new DecodeWorkerPool.Callback() {
+                    @Override
+                    public void onDecodeSucceeded(Result result) {
+                        assertEquals("worker", result.getText());
+                        deliveries.incrementAndGet();
+                        delivered.countDown();
+                    }
+
+                    @Override
+                    public void onFrameDecoded(PreviewFrame frame, long decodeNanos,
+                                               Result result, FinderPoints finderPoints) {
+                    }
+
+                    @Override
+                    public void onFrameReleased(PreviewFrame frame) {
+                        synchronized (released) {
+                            assertTrue("Frame released twice", released.add(frame.data));
+                        }
+                    }
+                });
+        for (int i = 0; i < 20; i++) {
+            submit(pool, TestFrames.qrFrame("worker", WIDTH, HEIGHT, 4));
+        }
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        Thread.sleep(200);
+        assertEquals(1, deliveries.get());
+        assertFalse(submit(pool, TestFrames.qrFrame("late", WIDTH, HEIGHT, 4)));
+        assertEquals(21, released.size());
+    }
+
+    @Test
+    public void submit_dropsStaleFramesWhenWorkersAreBusy() throws Exception {
+        final byte[] first = TestFrames.blankFrame(WIDTH, HEIGHT);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final AtomicInteger releases = new AtomicInteger();
+        DecodeWorkerPool pool = new DecodeWorkerPool(1, 1, FrameDecoder.createQrCodeHints(),
+                new DecodeWorkerPool.Callback() {
+                    @Override
+                    public void onDecodeSucceeded(Result result) {
+                    }
+
+                    @Override
+                    public void onFrameDecoded(PreviewFrame frame, long decodeNanos,
+                                               Result result, FinderPoints finderPoints) {
+                    }
+
+                    @Override
+                    public void onFrameReleased(PreviewFrame frame) {
+                        if (frame.data == first) {
+                            // Keep the only worker busy with the first frame.
+                            blocked.countDown();
+                            try {
+                                unblock.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        } else {
+                            releases.incrementAndGet();
+                        }
+                    }
+                });
+        submit(pool, first);
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            submit(pool, TestFrames.blankFrame(WIDTH, HEIGHT));
+        }
+        // The worker is busy and the queue holds one frame, so four were dropped.
+        assertEquals(4, pool.getDroppedCount());
+        assertEquals(4, releases.get());
+        unblock.countDown();
+        pool.shutdown();
+    }
+
+    @Test
+    public void clear_releasesQueuedFramesAndAllowsAnotherResult() throws Exception {
+        final byte[] first = TestFrames.blankFrame(WIDTH, HEIGHT);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final AtomicInteger releases = new AtomicInteger();
+        final CountDownLatch firstDelivered = new CountDownLatch(1);
+        final CountDownLatch delivered = new CountDownLatch(2);
+        DecodeWorkerPool pool = new DecodeWorkerPool(1, 1, FrameDecoder.createQrCodeHints(),
+                new DecodeWorkerPool.Callback() {
+                    @Override
+                    public void onDecodeSucceeded(Result result) {
+                        firstDelivered.countDown();
+                        delivered.countDown();
+                    }
+
+                    @Override
+                    public void onFrameDecoded(PreviewFrame frame, long decodeNanos,
+                                               Result result, FinderPoints finderPoints) {
+                    }
+
+                    @Override
+                    public void onFrameReleased(PreviewFrame frame) {
+                        if (frame.data == first) {
+                            blocked.countDown();
+                            try {
+                                unblock.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        } else {
+                            releases.incrementAndGet();
+                        }
+                    }
+                });
+        submit(pool, first);
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        submit(pool, TestFrames.blankFrame(WIDTH, HEIGHT));
+        pool.clear();
+        assertEquals(1, releases.get());
+        unblock.countDown();
+
+        submit(pool, TestFrames.qrFrame("first", WIDTH, HEIGHT, 4));
+        assertTrue(firstDelivered.await(10, TimeUnit.SECONDS));
+        pool.clear();
+        submit(pool, TestFrames.qrFrame("second", WIDTH, HEIGHT, 4));
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    @Test
+    public void setVariantRetry_decodesWhiteOnBlackAcrossWorkers() throws Exception {
+        final AtomicReference<Result> delivered = new AtomicReference<Result>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger successes = new AtomicInteger();
+        final Semaphore decoded = new Semaphore(0);
+        DecodeWorkerPool pool = new DecodeWorkerPool(2, 1, FrameDecoder.createQrCodeHints(),
+                new DecodeWorkerPool.Callback() {
+                    @Override
+                    public void onDecodeSucceeded(Result result) {
+                        delivered.set(result);
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFrameDecoded(PreviewFrame frame, long decodeNanos,
+                                               Result result, FinderPoints finderPoints) {
+                        if (result == null) {
+                            failures.incrementAndGet();
+                        } else {
+                            successes.incrementAndGet();
+                        }
+                        decoded.release();
+                    }
+
+                    @Override
+                    public void onFrameReleased(PreviewFrame frame) {
+                    }
+                });
+        ScanMetrics metrics = new ScanMetrics(true);
+        pool.setScanMetrics(metrics);
+        pool.setVariantRetry(3);
+        byte[] negative = TestFrames.qrFrame("negative", WIDTH, HEIGHT, 4);
+        for (int i = 0; i < negative.length; i++) {
+            negative[i] = (byte) ~negative[i];
+        }
+        // One frame at a time, so that the misses are counted in order.
+        for (int i = 0; i < 20 && successes.get() == 0; i++) {
+            submit(pool, negative.clone());
+            assertTrue(decoded.tryAcquire(10, TimeUnit.SECONDS));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals("negative", delivered.get().getText());
+        // The third miss, on whichever worker, is retried and decodes.
+        assertEquals(2, failures.get());
+        assertEquals(1, pool.getVariantRetries());
+        assertEquals(1, pool.getVariantDecoded(VariantRetry.INVERTED));
+        assertEquals(1, metrics.getVariantsDecoded(VariantRetry.INVERTED));
+    }
+
+    @Test
+    public void setTryHarderRetry_retriesSharpestMissAcrossWorkers() throws Exception {
+        final AtomicReference<Result> delivered = new AtomicReference<Result>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Semaphore decoded = new Semaphore(0);
+        DecodeWorkerPool pool = new DecodeWorkerPool(2, 1, FrameDecoder.createQrCodeHints(),
+                new DecodeWorkerPool.Callback() {
+                    @Override
+                    public void onDecodeSucceeded(Result result) {
+                        delivered.set(result);
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFrameDecoded(PreviewFrame frame, long decodeNanos,
+                                               Result result, FinderPoints finderPoints) {
+                        decoded.release();
+                    }
+
+                    @Override
+                    public void onFrameReleased(PreviewFrame frame) {
+                    }
+                });
+        TryHarderRetry retry = new TryHarderRetry(3, FrameDecoder.createQrCodeHints());
+        pool.setTryHarderRetry(retry);
+        int width = 1280;
+        int height = 720;
+        String contents = "https://example.com/label/0123456789/abcdefghij";
+        // One pixel modules, which only TRY_HARDER finds.
+        byte[] small = TestFrames.blankFrame(width, height);
+        TestFrames.drawQr(small, width, contents, 1, 100, 80);
+        double[] sharpness = {5, 10, 5};
+        for (int i = 0; i < sharpness.length; i++) {
+            PreviewFrame frame = new PreviewFrame(i == 1 ? small
+                    : TestFrames.blankFrame(width, height), width, height, i);
+            frame.sharpness = sharpness[i];
+            pool.submit(frame);
+            assertTrue(decoded.tryAcquire(10, TimeUnit.SECONDS));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals(contents, delivered.get().getText());
+        assertEquals(1, retry.getRetriesDecoded());
+    }
+
+    @Test
+    public void onFrameDecoded_reportsFinderPointsOfUndecodedFrame() throws Exception {
+        byte[] damaged = TestFrames.blankFrame(WIDTH, HEIGHT);
+        TestFrames.drawQr(damaged, WIDTH, "damaged code", 4, 100, 100);
+        // Wipe the modules right and below of the finder patterns.
+        for (int y = 136; y < 184; y++) {
+            Arrays.fill(damaged, y * WIDTH + 136, y * WIDTH + 184, (byte) 235);
+        }
+        final float[] points = new float[FinderPoints.MAX_POINTS * 2];
+        final AtomicInteger count = new AtomicInteger(-1);
+        final CountDownLatch decoded = new CountDownLatch(1);
+        DecodeWorkerPool pool = new DecodeWorkerPool(2, 1, FrameDecoder.createQrCodeHints(),
+                new DecodeWorkerPool.Callback() {
+                    @Override
+                    public void onDecodeSucceeded(Result result) {
+                    }
+
+                    @Override
+                    public void onFrameDecoded(PreviewFrame frame, long decodeNanos,
+                                               Result result, FinderPoints finderPoints) {
+                        assertNull(result);
+                        System.arraycopy(finderPoints.points, 0, points, 0, points.length);
+                        count.set(finderPoints.count);
+                        decoded.countDown();
+                    }
+
+                    @Override
+                    public void onFrameReleased(PreviewFrame frame) {
+                    }
+                });
+        PreviewFrame frame = new PreviewFrame(damaged, WIDTH, HEIGHT, 0);
+        frame.setCrop(40, 40, 200, 180);
+        pool.submit(frame);
+        assertTrue(decoded.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(count.get() >= 2);
+        // In frame pixels, on the modules which span 116 to 200 inside the quiet zone.
+        for (int i = 0; i < count.get() * 2; i++) {
+            assertTrue(points[i] > 116 && points[i] < 200);
+        }
+    }
+
+    private static boolean submit(DecodeWorkerPool pool, byte[] frame) {
+        return pool.submit(new PreviewFrame(frame, WIDTH, HEIGHT, System.nanoTime()));
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FocusController}.
+ */
+public class FocusControllerTest {
+
+    private static final long MS = 1000000L;
+    private static final double SHARP = 400;
+    private static final double BLURRED = 100;
+
+    @Test
+    public void autoMode_holdsFocusWhileSharp() {
+        FocusController controller = new FocusController(false, 1500);
+        assertEquals(FocusController.Action.FOCUS, controller.onFrame(SHARP, 0));
+        assertNull(controller.getFocusArea());
+        assertEquals(FocusController.Action.NONE, controller.onFocusFinished(true, 300 * MS));
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(FocusController.Action.NONE,
+                    controller.onFrame(SHARP * 0.8, (300 + i * 33) * MS));
+        }
+        assertEquals(1, controller.getSweepCount());
+    }
+
+    @Test
+    public void autoMode_refocusesAfterBlurredFrames() {
+        FocusController controller = new FocusController(false, 1500);
+        controller.onFrame(SHARP, 0);
+        controller.onFocusFinished(true, 300 * MS);
+        controller.onFrame(SHARP, 2000 * MS);
+        for (int i = 1; i < FocusController.BLURRED_FRAMES; i++) {
+            assertEquals(FocusController.Action.NONE,
+                    controller.onFrame(BLURRED, (2000 + i * 33) * MS));
+        }
+        assertEquals(FocusController.Action.FOCUS, controller.onFrame(BLURRED, 2200 * MS));
+        assertEquals(2, controller.getSweepCount());
+    }
+
+    @Test
+    public void autoMode_retriesFailedSweepAfterInterval() {
+        FocusController controller = new FocusController(false, 1000);
+        controller.onFrame(Double.NaN, 0);
+        controller.onFocusFinished(false, 400 * MS);
+        assertEquals(FocusController.Action.NONE, controller.onFrame(Double.NaN, 900 * MS));
+        assertEquals(FocusController.Action.FOCUS, controller.onFrame(Double.NaN, 1000 * MS));
+        // A sweep without a callback fails after the timeout.
+        long timeout = 1000 * MS + FocusController.SWEEP_TIMEOUT_NANOS;
+        assertEquals(FocusController.Action.NONE, controller.onFrame(Double.NaN, timeout - MS));
+        assertEquals(FocusController.Action.NONE, controller.onFrame(Double.NaN, timeout));
+        assertEquals(FocusController.Action.FOCUS,
+                controller.onFrame(Double.NaN, timeout + 1000 * MS));
+        assertEquals(2, controller.getFailedSweepCount());
+    }
+
+    @Test
+    public void continuousMode_focusesOnFinderPatternsAndResumes() {
+        FocusController controller = new FocusController(true, 0);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += 33 * MS;
+            assertEquals(FocusController.Action.NONE, controller.onFrame(BLURRED, now));
+        }
+        for (int i = 1; i < FocusController.STUCK_FRAMES; i++) {
+            addCode(controller);
+            now += 33 * MS;
+            assertEquals(FocusController.Action.NONE, controller.onFrame(SHARP, now));
+        }
+        addCode(controller);
+        now += 33 * MS;
+        assertEquals(FocusController.Action.FOCUS, controller.onFrame(SHARP, now));
+        // 100..300 padded by a quarter of the side.
+        assertArrayEquals(new int[]{50, 150, 350, 350}, controller.getFocusArea());
+        assertEquals(1, controller.getAreaSweepCount());
+
+        controller.onFocusFinished(true, now + 300 * MS);
+        now += 400 * MS;
+        controller.onFrame(SHARP, now);
+        for (int i = 1; i < FocusController.BLURRED_FRAMES; i++) {
+            now += 33 * MS;
+            assertEquals(FocusController.Action.NONE, controller.onFrame(BLURRED, now));
+        }
+        now += 33 * MS;
+        assertEquals(FocusController.Action.RESUME_CONTINUOUS, controller.onFrame(BLURRED, now));
+        // A failed sweep resumes continuous focus too.
+        now += FocusController.DEFAULT_INTERVAL_MS * MS;
+        for (int i = 0; i < FocusController.STUCK_FRAMES; i++) {
+            addCode(controller);
+            now += 33 * MS;
+            controller.onFrame(SHARP, now);
+        }
+        assertEquals(2, controller.getAreaSweepCount());
+        assertEquals(FocusController.Action.RESUME_CONTINUOUS,
+                controller.onFocusFinished(false, now + 300 * MS));
+    }
+
+    @Test
+    public void continuousMode_waitsIntervalBetweenSweeps() {
+        FocusController controller = new FocusController(true, 1000);
+        long now = 0;
+        int sweeps = 0;
+        for (int i = 0; i < 60; i++) {
+            addCode(controller);
+            now += 33 * MS;
+            if (controller.onFrame(SHARP, now) == FocusController.Action.FOCUS) {
+                sweeps++;
+                controller.onFocusFinished(true, now);
+            }
+        }
+        // About 2 s of a code which does not decode.
+        assertEquals(2, sweeps);
+    }
+
+    @Test
+    public void toCameraArea_mapsAndClips() {
+        assertArrayEquals(new int[]{-1000, -500, 0, 500},
+                FocusController.toCameraArea(new int[]{-40, 120, 320, 360}, 640, 480));
+        assertArrayEquals(new int[]{999, 999, 1000, 1000},
+                FocusController.toCameraArea(new int[]{700, 500, 800, 600}, 640, 480));
+    }
+
+    /**
+     * Adds the finder patterns of a code with centers from 100 to 300 x and 200 to 300 y.
+     */
+    private static void addCode(FocusController controller) {
+        controller.onFinderPattern(100, 300);
+        controller.onFinderPattern(100, 200);
+        controller.onFinderPattern(300, 200);
+    }
+}
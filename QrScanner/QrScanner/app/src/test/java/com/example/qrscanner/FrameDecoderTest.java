@@ -0,0 +1,95 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FrameDecoder}.
+ */
+public class FrameDecoderTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void isQrCodeOnly_onlyForQrCodeHints() {
+        assertTrue(FrameDecoder.isQrCodeOnly(FrameDecoder.createQrCodeHints()));
+        assertTrue(FrameDecoder.isQrCodeOnly(FrameDecoder.createStillImageHints()));
+        Map<DecodeHintType, Object> hints = FrameDecoder.createQrCodeHints();
+        hints.put(DecodeHintType.POSSIBLE_FORMATS,
+                EnumSet.of(BarcodeFormat.QR_CODE, BarcodeFormat.DATA_MATRIX));
+        assertFalse(FrameDecoder.isQrCodeOnly(hints));
+        assertFalse(FrameDecoder.isQrCodeOnly(null));
+    }
+
+    @Test
+    public void decode_findsSameCodeWithEitherReader() {
+        byte[] frame = TestFrames.qrFrame("reader", WIDTH, HEIGHT, 4);
+        for (boolean qrCodeReader : new boolean[]{true, false}) {
+            FrameDecoder decoder = new FrameDecoder(FrameDecoder.createQrCodeHints(),
+                    qrCodeReader);
+            // Twice, to check the reader is reusable.
+            for (int i = 0; i < 2; i++) {
+                Result result = decoder.decode(new PreviewFrame(frame, WIDTH, HEIGHT, 0));
+                assertNotNull(result);
+                assertEquals("reader", result.getText());
+            }
+        }
+    }
+
+    @Test
+    public void decode_enlargesCodeWithOnePixelModules() {
+        byte[] frame = TestFrames.blankFrame(WIDTH, HEIGHT);
+        TestFrames.drawQr(frame, WIDTH, "small", 1, 100, 100);
+        // ZXing 3.x drops its finder patterns, each seen on one scanned row only.
+        assertNull(new FrameDecoder(FrameDecoder.createQrCodeHints(), false)
+                .decode(new PreviewFrame(frame, WIDTH, HEIGHT, 0)));
+
+        FinderPoints finderPoints = new FinderPoints();
+        finderPoints.start(0, 0);
+        FrameDecoder decoder = new FrameDecoder(
+                FrameDecoder.withResultPointCallback(FrameDecoder.createQrCodeHints(),
+                        finderPoints));
+        Result result = decoder.decode(new PreviewFrame(frame, WIDTH, HEIGHT, 0));
+        assertNotNull(result);
+        assertEquals("small", result.getText());
+        // Points of the enlarged window are reported in frame pixels, on the 21 modules from
+        // 104 inside the quiet zone.
+        for (ResultPoint point : result.getResultPoints()) {
+            assertTrue(point.getX() > 104 && point.getX() < 125);
+            assertTrue(point.getY() > 104 && point.getY() < 125);
+        }
+        assertTrue(finderPoints.count >= 3);
+        for (int i = 0; i < finderPoints.count * 2; i++) {
+            assertTrue(finderPoints.points[i] > 104 && finderPoints.points[i] < 125);
+        }
+    }
+
+    @Test
+    public void decode_pureBarcode() {
+        byte[] frame = TestFrames.qrFrame("kiosk", WIDTH, HEIGHT, 4);
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.createQrCodeHints(true, null));
+        Result result = decoder.decode(new PreviewFrame(frame, WIDTH, HEIGHT, 0));
+        assertNotNull(result);
+        assertEquals("kiosk", result.getText());
+    }
+
+    @Test
+    public void createQrCodeHints_setsCharacterSet() {
+        Map<DecodeHintType, Object> hints = FrameDecoder.createQrCodeHints(false, "Shift_JIS");
+        assertEquals("Shift_JIS", hints.get(DecodeHintType.CHARACTER_SET));
+        assertNull(hints.get(DecodeHintType.PURE_BARCODE));
+        assertEquals(Boolean.TRUE,
+                FrameDecoder.withTryHarder(hints).get(DecodeHintType.TRY_HARDER));
+        assertNull(hints.get(DecodeHintType.TRY_HARDER));
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FrameFusion}.
+ */
+public class FrameFusionTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void fuse_averagesTheLastFrames() {
+        FrameFusion fusion = new FrameFusion(3, 0, FrameDecoder.createQrCodeHints());
+        for (int value = 10; value <= 40; value += 10) {
+            fusion.add(uniformFrame(value));
+        }
+        assertEquals(3, fusion.getCount());
+        byte[] fused = fusion.fuse();
+        assertEquals(30, fused[0]);
+        assertEquals(30, fused[WIDTH * HEIGHT - 1]);
+
+        fusion.add(uniformFrame(51));
+        assertEquals(40, fusion.fuse()[0]); // (30 + 40 + 51) / 3, rounded
+    }
+
+    @Test
+    public void onFrameFailed_decodesDimFramesFilterRejectsAsMoving() {
+        FrameQualityFilter filter = new FrameQualityFilter();
+        FrameFusion fusion = new FrameFusion(8, FrameFusion.DEFAULT_MAX_MOTION,
+                FrameDecoder.createQrCodeHints());
+        byte[] code = TestFrames.qrFrame("dim", WIDTH, HEIGHT, 4);
+        Random random = new Random(5);
+        Result result = null;
+        int movingRejects = 0;
+        for (int i = 0; i < 16 && result == null; i++) {
+            PreviewFrame frame = new PreviewFrame(
+                    TestFrames.dim(code, WIDTH, HEIGHT, 25, random), WIDTH, HEIGHT, i);
+            if (!filter.accept(frame)) {
+                if (!filter.isLastRejectedMoving()) {
+                    continue;
+                }
+                movingRejects++;
+            }
+            result = fusion.onFrameFailed(frame);
+        }
+        // The noise reads as motion to the filter, which lets one frame in 16 through.
+        assertTrue(movingRejects >= 7);
+        assertNotNull(result);
+        assertEquals("dim", result.getText());
+    }
+
+    @Test
+    public void add_yPlaneMatchesNv21() {
+        FrameFusion nv21 = new FrameFusion(2, 0, FrameDecoder.createQrCodeHints());
+        FrameFusion plane = new FrameFusion(2, 0, FrameDecoder.createQrCodeHints());
+        Random random = new Random(3);
+        for (int i = 0; i < 3; i++) {
+            byte[] frame = TestFrames.dim(TestFrames.qrFrame("plane", WIDTH, HEIGHT, 4), WIDTH,
+                    HEIGHT, 10, random);
+            PreviewFrame nv21Frame = new PreviewFrame(frame, WIDTH, HEIGHT, 0);
+            nv21Frame.setCrop(20, 10, 200, 150);
+            nv21.add(nv21Frame);
+            ByteBuffer yPlane = ByteBuffer.allocateDirect(WIDTH * 2 * HEIGHT);
+            for (int p = 0; p < WIDTH * HEIGHT; p++) {
+                yPlane.put(p * 2, frame[p]);
+            }
+            PreviewFrame planeFrame =
+                    new PreviewFrame(yPlane, WIDTH * 2, 2, WIDTH, HEIGHT, 0, null);
+            planeFrame.setCrop(20, 10, 200, 150);
+            plane.add(planeFrame);
+        }
+        assertArrayEquals(Arrays.copyOf(nv21.fuse(), 200 * 150),
+                Arrays.copyOf(plane.fuse(), 200 * 150));
+    }
+
+    @Test
+    public void onFrameFailed_decodesNoisyFramesOnceAveraged() {
+        byte[] code = TestFrames.qrFrame("dim aisle", WIDTH, HEIGHT, 4);
+        Random random = new Random(1);
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.createQrCodeHints());
+        FrameFusion fusion = new FrameFusion(8, FrameFusion.DEFAULT_MAX_MOTION,
+                FrameDecoder.createQrCodeHints());
+        Result result = null;
+        for (int i = 0; i < 8; i++) {
+            PreviewFrame frame = new PreviewFrame(TestFrames.dim(code, WIDTH, HEIGHT, 25, random),
+                    WIDTH, HEIGHT, 0);
+            assertNull("frame " + i, decoder.decode(frame));
+            result = fusion.onFrameFailed(frame);
+            assertEquals(i < 7, result == null);
+        }
+        assertEquals("dim aisle", result.getText());
+        assertEquals(1, fusion.getFusedDecodes());
+        assertEquals(1, fusion.getFusedDecoded());
+        assertEquals(0, fusion.getMotionResets());
+    }
+
+    @Test
+    public void add_startsOverWhenTheCodeMoves() {
+        byte[] code = TestFrames.qrFrame("moving", WIDTH, HEIGHT, 4);
+        byte[] moved = TestFrames.shift(code, WIDTH, HEIGHT, 8);
+        Random random = new Random(2);
+        FrameFusion fusion = new FrameFusion(8, FrameFusion.DEFAULT_MAX_MOTION,
+                FrameDecoder.createQrCodeHints());
+        for (int i = 0; i < 5; i++) {
+            fusion.add(new PreviewFrame(TestFrames.dim(code, WIDTH, HEIGHT, 30, random), WIDTH,
+                    HEIGHT, 0));
+            assertTrue(fusion.getLastMotion() < FrameFusion.DEFAULT_MAX_MOTION);
+        }
+        assertEquals(5, fusion.getCount());
+        fusion.add(new PreviewFrame(TestFrames.dim(moved, WIDTH, HEIGHT, 30, random), WIDTH,
+                HEIGHT, 0));
+        assertEquals(1, fusion.getMotionResets());
+        assertEquals(1, fusion.getCount());
+    }
+
+    @Test
+    public void add_startsOverWhenTheCropChanges() {
+        FrameFusion fusion = new FrameFusion(4, 0, FrameDecoder.createQrCodeHints());
+        fusion.add(uniformFrame(100));
+        fusion.add(uniformFrame(100));
+        PreviewFrame cropped = uniformFrame(50);
+        cropped.setCrop(10, 10, 100, 100);
+        fusion.add(cropped);
+        assertEquals(1, fusion.getCount());
+        assertEquals(100, fusion.getWidth());
+        assertEquals(50, fusion.fuse()[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsTooManyFrames() {
+        new FrameFusion(FrameFusion.MAX_FRAMES + 1, 0, FrameDecoder.createQrCodeHints());
+    }
+
+    private static PreviewFrame uniformFrame(int luma) {
+        byte[] frame = TestFrames.blankFrame(WIDTH, HEIGHT);
+        Arrays.fill(frame, 0, WIDTH * HEIGHT, (byte) luma);
+        return new PreviewFrame(frame, WIDTH, HEIGHT, 0);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FrameQualityFilter}.
+ */
+public class FrameQualityFilterTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void accept_keepsSharpFrames() {
+        FrameQualityFilter filter = new FrameQualityFilter();
+        assertTrue(filter.accept(viewfinder(TestFrames.qrFrame("sharp", WIDTH, HEIGHT, 4))));
+        assertTrue(filter.getLastSharpness() > FrameQualityFilter.DEFAULT_MIN_SHARPNESS);
+        assertEquals(1, filter.getAcceptedCount());
+    }
+
+    @Test
+    public void accept_rejectsBlurredFrames() {
+        FrameQualityFilter filter = new FrameQualityFilter();
+        byte[] blurred = TestFrames.blur(TestFrames.qrFrame("blur", WIDTH, HEIGHT, 4),
+                WIDTH, HEIGHT, 5);
+        PreviewFrame frame = viewfinder(blurred);
+        assertFalse(filter.accept(frame));
+        assertEquals(1, filter.getBlurRejectedCount());
+        assertFalse(filter.isLastRejectedMoving());
+        assertNull(new FrameDecoder(FrameDecoder.createQrCodeHints()).decode(frame));
+    }
+
+    @Test
+    public void accept_rejectsFramesThatChangedTooMuch() {
+        FrameQualityFilter filter = new FrameQualityFilter();
+        byte[] still = TestFrames.qrFrame("still", WIDTH, HEIGHT, 12);
+        assertTrue(filter.accept(viewfinder(still)));
+        assertTrue(filter.accept(viewfinder(still)));
+        assertEquals(0, filter.getLastMotion(), 0);
+        assertFalse(filter.accept(viewfinder(TestFrames.shift(still, WIDTH, HEIGHT, 30))));
+        assertTrue(filter.getLastMotion() > FrameQualityFilter.DEFAULT_MAX_MOTION);
+        assertEquals(1, filter.getMotionRejectedCount());
+        assertTrue(filter.isLastRejectedMoving());
+        assertEquals(2, filter.getAcceptedCount());
+    }
+
+    @Test
+    public void accept_letsAFrameThroughAfterManyRejections() {
+        FrameQualityFilter filter = new FrameQualityFilter();
+        PreviewFrame blank = viewfinder(TestFrames.blankFrame(WIDTH, HEIGHT));
+        int rejected = 0;
+        while (!filter.accept(blank)) {
+            rejected++;
+            assertTrue(rejected < 100);
+        }
+        assertEquals(15, rejected);
+        assertFalse(filter.accept(blank));
+    }
+
+    @Test
+    public void accept_zeroThresholdsDisableTheFilter() {
+        FrameQualityFilter filter = new FrameQualityFilter(0, 0);
+        assertTrue(filter.accept(viewfinder(TestFrames.blankFrame(WIDTH, HEIGHT))));
+        assertTrue(filter.accept(viewfinder(TestFrames.qrFrame("any", WIDTH, HEIGHT, 3))));
+        assertEquals(2, filter.getAcceptedCount());
+    }
+
+    private static PreviewFrame viewfinder(byte[] data) {
+        PreviewFrame frame = new PreviewFrame(data, WIDTH, HEIGHT, 0);
+        frame.setCrop(140, 60, 360, 360);
+        return frame;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.qrscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FrameRecorder} and {@link FrameRecording}.
+ */
+public class FrameRecordingTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAME_BYTES = WIDTH * HEIGHT * 3 / 2;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void recordedFramesReadBack() throws IOException {
+        File file = mFolder.newFile("frames.qrf");
+        FrameRecorder recorder = new FrameRecorder(file, FrameRecorder.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(recorder.record(frame(i), WIDTH, HEIGHT, 1000L * i,
+                    FrameRecording.FOCUS_FOCUSED));
+        }
+        recorder.close();
+        assertEquals(FrameRecording.HEADER_BYTES
+                + 3 * (FrameRecording.FRAME_HEADER_BYTES + FRAME_BYTES), file.length());
+
+        FrameRecording recording = FrameRecording.open(file);
+        assertEquals(3, recording.getFrameCount());
+        byte[] data = new byte[FRAME_BYTES];
+        for (int i = 0; i < 3; i++) {
+            assertEquals(WIDTH, recording.getWidth(i));
+            assertEquals(HEIGHT, recording.getHeight(i));
+            assertEquals(1000L * i, recording.getTimestampNanos(i));
+            assertEquals(FrameRecording.FOCUS_FOCUSED, recording.getFocusState(i));
+            recording.readFrame(i, data);
+            assertArrayEquals(frame(i), data);
+            ByteBuffer view = recording.getData(i);
+            assertEquals(FRAME_BYTES, view.remaining());
+            assertEquals(frame(i)[FRAME_BYTES - 1], view.get(FRAME_BYTES - 1));
+        }
+        recording.close();
+    }
+
+    @Test
+    public void record_growsPastMapWindow() throws IOException {
+        // 1280x720 NV21 frames, 13 of which take more than one 16 MB window.
+        int width = 1280;
+        int height = 720;
+        byte[] data = new byte[width * height * 3 / 2];
+        File file = mFolder.newFile("large.qrf");
+        FrameRecorder recorder = new FrameRecorder(file, FrameRecorder.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < 13; i++) {
+            data[0] = (byte) i;
+            data[data.length - 1] = (byte) i;
+            assertTrue(recorder.record(data, width, height, i, FrameRecording.FOCUS_UNKNOWN));
+        }
+        recorder.close();
+
+        FrameRecording recording = FrameRecording.open(file);
+        assertEquals(13, recording.getFrameCount());
+        recording.readFrame(12, data);
+        assertEquals(12, data[0]);
+        assertEquals(12, data[data.length - 1]);
+        recording.close();
+    }
+
+    @Test
+    public void record_dropsFramesPastMaxBytes() throws IOException {
+        long maxBytes = FrameRecording.HEADER_BYTES
+                + 2 * (FrameRecording.FRAME_HEADER_BYTES + FRAME_BYTES);
+        FrameRecorder recorder = new FrameRecorder(mFolder.newFile("full.qrf"), maxBytes);
+        assertTrue(recorder.record(frame(0), WIDTH, HEIGHT, 0, FrameRecording.FOCUS_UNKNOWN));
+        assertTrue(recorder.record(frame(1), WIDTH, HEIGHT, 1, FrameRecording.FOCUS_UNKNOWN));
+        assertFalse(recorder.record(frame(2), WIDTH, HEIGHT, 2, FrameRecording.FOCUS_UNKNOWN));
+        assertEquals(2, recorder.getFrameCount());
+        assertEquals(1, recorder.getDroppedFrames());
+        recorder.close();
+        assertFalse(recorder.record(frame(3), WIDTH, HEIGHT, 3, FrameRecording.FOCUS_UNKNOWN));
+    }
+
+    @Test
+    public void open_keepsCompleteFramesOfCutFile() throws IOException {
+        File file = mFolder.newFile("cut.qrf");
+        FrameRecorder recorder = new FrameRecorder(file, FrameRecorder.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < 3; i++) {
+            recorder.record(frame(i), WIDTH, HEIGHT, i, FrameRecording.FOCUS_SCANNING);
+        }
+        recorder.close();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() - FRAME_BYTES / 2);
+        randomAccessFile.close();
+
+        FrameRecording recording = FrameRecording.open(file);
+        assertEquals(2, recording.getFrameCount());
+        recording.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws IOException {
+        File file = mFolder.newFile("other.bin");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.write(new byte[64]);
+        randomAccessFile.close();
+        FrameRecording.open(file);
+    }
+
+    private static byte[] frame(int seed) {
+        byte[] data = new byte[FRAME_BYTES];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FrameReplayer}.
+ */
+public class FrameReplayerTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final long FRAME_INTERVAL_NANOS = 33000000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Time advances only when the replayer sleeps or a consumer says so.
+     */
+    private static final class FakeTimer implements FrameReplayer.Timer {
+        long mNow;
+
+        @Override
+        public long nanoTime() {
+            return mNow;
+        }
+
+        @Override
+        public void sleep(long nanos) {
+            mNow += nanos;
+        }
+    }
+
+    @Test
+    public void replay_maximumSpeedDeliversEveryFrame() throws Exception {
+        FrameRecording recording = record(10);
+        final FakeTimer timer = new FakeTimer();
+        final List<Long> deliveredAt = new ArrayList<Long>();
+        FrameReplayer replayer = new FrameReplayer(recording, timer);
+        int delivered = replayer.replay(new FrameReplayer.Consumer() {
+            @Override
+            public void onFrame(PreviewFrame frame, int focusState) {
+                deliveredAt.add(timer.mNow);
+                timer.mNow += 1000;
+            }
+        }, false);
+        assertEquals(10, delivered);
+        assertEquals(0, replayer.getDroppedFrames());
+        assertEquals(Long.valueOf(9000), deliveredAt.get(9));
+        recording.close();
+    }
+
+    @Test
+    public void replay_recordedSpeedDropsFramesWhileBusy() throws Exception {
+        FrameRecording recording = record(10);
+        final FakeTimer timer = new FakeTimer();
+        final List<Integer> focusStates = new ArrayList<Integer>();
+        FrameReplayer replayer = new FrameReplayer(recording, timer);
+        int delivered = replayer.replay(new FrameReplayer.Consumer() {
+            @Override
+            public void onFrame(PreviewFrame frame, int focusState) {
+                focusStates.add(focusState);
+                // Each decode takes two and a half frame intervals.
+                timer.mNow += FRAME_INTERVAL_NANOS * 5 / 2;
+            }
+        }, true);
+        // When a decode finishes the newest frame which already arrived is delivered: frames
+        // 0, 2, 5, 7 and 9.
+        assertEquals(5, delivered);
+        assertEquals(5, replayer.getDroppedFrames());
+        assertEquals(Integer.valueOf(0), focusStates.get(0));
+        assertEquals(Integer.valueOf(2), focusStates.get(1));
+        assertEquals(Integer.valueOf(5), focusStates.get(2));
+        assertEquals(Integer.valueOf(9), focusStates.get(4));
+        recording.close();
+    }
+
+    @Test
+    public void replay_recordedSpeedWaitsForFrames() throws Exception {
+        FrameRecording recording = record(5);
+        final FakeTimer timer = new FakeTimer();
+        FrameReplayer replayer = new FrameReplayer(recording, timer);
+        assertEquals(5, replayer.replay(new FrameReplayer.Consumer() {
+            @Override
+            public void onFrame(PreviewFrame frame, int focusState) {
+            }
+        }, true));
+        assertEquals(4 * FRAME_INTERVAL_NANOS, timer.mNow);
+        recording.close();
+    }
+
+    @Test
+    public void replay_decodesRecordedFrames() throws Exception {
+        File file = mFolder.newFile("scan.qrf");
+        FrameRecorder recorder = new FrameRecorder(file, FrameRecorder.DEFAULT_MAX_BYTES);
+        recorder.record(TestFrames.blankFrame(WIDTH, HEIGHT), WIDTH, HEIGHT, 0,
+                FrameRecording.FOCUS_SCANNING);
+        recorder.record(TestFrames.qrFrame("replayed", WIDTH, HEIGHT, 4), WIDTH, HEIGHT,
+                FRAME_INTERVAL_NANOS, FrameRecording.FOCUS_FOCUSED);
+        recorder.close();
+
+        FrameRecording recording = FrameRecording.open(file);
+        final FrameDecoder decoder = new FrameDecoder(FrameDecoder.createQrCodeHints());
+        final List<String> texts = new ArrayList<String>();
+        new FrameReplayer(recording, FrameReplayer.SYSTEM_TIMER).replay(
+                new FrameReplayer.Consumer() {
+                    @Override
+                    public void onFrame(PreviewFrame frame, int focusState) {
+                        Result result = decoder.decode(frame);
+                        texts.add(result != null ? result.getText() : null);
+                    }
+                }, false);
+        assertEquals(2, texts.size());
+        assertNull(texts.get(0));
+        assertEquals("replayed", texts.get(1));
+        recording.close();
+    }
+
+    /**
+     * @return A recording of count small frames FRAME_INTERVAL_NANOS apart, each with its index
+     * as the focus state so that delivered frames can be told apart.
+     */
+    private FrameRecording record(int count) throws IOException {
+        File file = mFolder.newFile();
+        FrameRecorder recorder = new FrameRecorder(file, FrameRecorder.DEFAULT_MAX_BYTES);
+        byte[] data = new byte[16 * 16 * 3 / 2];
+        for (int i = 0; i < count; i++) {
+            recorder.record(data, 16, 16, 5000000L + i * FRAME_INTERVAL_NANOS, i);
+        }
+        recorder.close();
+        return FrameRecording.open(file);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void indexOf_matchesHighestValueAt() {
+        long[] values = {0, 1, 15, 16, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.highestValueAt(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.highestValueAt(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentiles_areWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long ms = 1; ms <= 100; ms++) {
+            histogram.record(ms * 1000000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        assertEquals(50500000.0, histogram.getMean(), 1);
+        assertWithin(50000000L, histogram.getValueAtPercentile(50));
+        assertWithin(95000000L, histogram.getValueAtPercentile(95));
+        assertWithin(99000000L, histogram.getValueAtPercentile(99));
+        assertEquals(100000000L, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void record_countsEveryValueFromManyThreads() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int n = 0; n < 10000; n++) {
+                        histogram.record(n + offset);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(10002, histogram.getMax());
+    }
+
+    @Test
+    public void appendJson_convertsUnits() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(2000000L);
+        StringBuilder json = new StringBuilder();
+        histogram.appendJson(json, 1000000L);
+        assertEquals("{\"count\":1,\"mean\":2.000,\"p50\":2.000,\"p95\":2.000,\"p99\":2.000,"
+                + "\"max\":2.000}", json.toString());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not within 1/16 of " + expected,
+                Math.abs(actual - expected) <= expected / 16);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link MultiCodeCollector}.
+ */
+public class MultiCodeCollectorTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void add_collectsEveryCodeOfAPalletFrame() {
+        int width = 1280;
+        int height = 720;
+        byte[] data = TestFrames.blankFrame(width, height);
+        for (int i = 0; i < 6; i++) {
+            TestFrames.drawQr(data, width, "pallet-" + i, 5, 60 + (i % 3) * 400,
+                    80 + (i / 3) * 330);
+        }
+        PreviewFrame frame = new PreviewFrame(data, width, height, 0);
+        Result[] results = new FrameDecoder(FrameDecoder.createQrCodeHints())
+                .decodeMultiple(frame);
+
+        MultiCodeCollector collector = new MultiCodeCollector(6, 10000 * MS, 0);
+        assertEquals(6, collector.add(results, 0, 0, MS));
+        assertTrue(collector.isComplete(MS));
+        assertEquals(6, collector.getTexts().size());
+        assertTrue(collector.getTexts().containsAll(Arrays.asList(
+                "pallet-0", "pallet-1", "pallet-2", "pallet-3", "pallet-4", "pallet-5")));
+    }
+
+    @Test
+    public void add_matchesCodesAcrossFramesByContent() {
+        MultiCodeCollector collector = new MultiCodeCollector(0, 10000 * MS, 0);
+        assertEquals(2, collector.add(new Result[]{
+                result("a", 100, 100), result("b", 400, 100)}, 0, 0, MS));
+        // The camera moved: same codes, new positions.
+        assertEquals(0, collector.add(new Result[]{
+                result("a", 160, 120), result("b", 460, 120)}, 0, 0, 2 * MS));
+        assertEquals(1, collector.add(new Result[]{result("c", 10, 10)}, 0, 0, 3 * MS));
+        assertEquals(Arrays.asList("a", "b", "c"), collector.getTexts());
+        MultiCodeCollector.Code a = collector.getCodes().get(0);
+        assertEquals(2, a.seenCount);
+        assertEquals(160 + 40 / 3f, a.x, 0.01f);
+        assertEquals(MS, a.firstSeenNanos);
+    }
+
+    @Test
+    public void add_countsIdenticalLabelsAtDifferentPositions() {
+        MultiCodeCollector collector = new MultiCodeCollector(0, 10000 * MS, 0);
+        assertEquals(1, collector.add(new Result[]{result("same", 100, 100)}, 0, 0, MS));
+        // A duplicate result of the same code in one frame is not a new code.
+        assertEquals(0, collector.add(new Result[]{
+                result("same", 100, 100), result("same", 102, 101)}, 0, 0, 2 * MS));
+        assertEquals(1, collector.add(new Result[]{
+                result("same", 100, 100), result("same", 500, 100)}, 0, 0, 3 * MS));
+        assertEquals(2, collector.size());
+        assertEquals(0, collector.add(new Result[]{result("same", 480, 90)}, 0, 0, 4 * MS));
+    }
+
+    @Test
+    public void isComplete_afterTimeoutWithoutTarget() {
+        MultiCodeCollector collector = new MultiCodeCollector(0, 500 * MS, 1000 * MS);
+        collector.add(new Result[]{result("a", 0, 0)}, 0, 0, 1100 * MS);
+        assertFalse(collector.isComplete(1499 * MS));
+        assertTrue(collector.isComplete(1500 * MS));
+    }
+
+    @Test
+    public void add_offsetsPointsByTheCrop() {
+        MultiCodeCollector collector = new MultiCodeCollector(0, 10000 * MS, 0);
+        collector.add(new Result[]{result("a", 10, 10)}, 100, 50, MS);
+        assertEquals(110 + 40 / 3f, collector.getCodes().get(0).x, 0.01f);
+        assertEquals(60 + 40 / 3f, collector.getCodes().get(0).y, 0.01f);
+    }
+
+    /**
+     * @return A QR result whose finder patterns span 40 pixels from left, top.
+     */
+    private static Result result(String text, float left, float top) {
+        return new Result(text, null, new ResultPoint[]{
+                new ResultPoint(left, top + 40), new ResultPoint(left, top),
+                new ResultPoint(left + 40, top)}, BarcodeFormat.QR_CODE);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.qrscanner;
+
+import com.google.zxing.InvertedLuminanceSource;
+import com.google.zxing.LuminanceSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PlanarYUVLuminanceSource}'s rotated and inverted views.
+ */
+public class PlanarYUVLuminanceSourceTest {
+
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 9;
+
+    @Test
+    public void rotateCounterClockwise_turnsTheCrop() {
+        byte[] frame = numberedFrame();
+        LuminanceSource source = new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 2, 1, 7, 5);
+        assertTrue(source.isRotateSupported());
+        byte[] expected = source.getMatrix().clone();
+        int width = 7;
+        int height = 5;
+        for (int turn = 1; turn <= 4; turn++) {
+            source = source.rotateCounterClockwise();
+            expected = rotate(expected, width, height);
+            int side = width;
+            width = height;
+            height = side;
+            assertEquals(width, source.getWidth());
+            assertEquals(height, source.getHeight());
+            assertArrayEquals("turn " + turn, expected, source.getMatrix());
+            for (int y = 0; y < height; y++) {
+                byte[] row = source.getRow(y, null);
+                for (int x = 0; x < width; x++) {
+                    assertEquals(expected[y * width + x], row[x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void invert_matchesInvertedLuminanceSource() {
+        byte[] frame = numberedFrame();
+        PlanarYUVLuminanceSource source =
+                new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 1, 2, 10, 6);
+        LuminanceSource inverted = source.invert();
+        assertArrayEquals(new InvertedLuminanceSource(source).getMatrix(), inverted.getMatrix());
+        assertArrayEquals(new InvertedLuminanceSource(source).getRow(3, null),
+                inverted.getRow(3, null));
+        LuminanceSource turned = inverted.rotateCounterClockwise();
+        assertArrayEquals(new InvertedLuminanceSource(source.rotateCounterClockwise())
+                .getMatrix(), turned.getMatrix());
+        assertArrayEquals(source.getMatrix(), inverted.invert().getMatrix());
+        // The frame itself is not touched.
+        assertArrayEquals(numberedFrame(), frame);
+    }
+
+    @Test
+    public void crop_ofRotatedViewReadsTheSamePixels() {
+        byte[] frame = numberedFrame();
+        LuminanceSource source = new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 1, 1, 10, 7);
+        for (int turn = 0; turn < 4; turn++) {
+            byte[] matrix = source.getMatrix().clone();
+            int width = source.getWidth();
+            LuminanceSource cropped = source.crop(2, 1, 4, 3);
+            for (int y = 0; y < 3; y++) {
+                byte[] row = cropped.getRow(y, null);
+                for (int x = 0; x < 4; x++) {
+                    assertEquals("turn " + turn, matrix[(y + 1) * width + x + 2], row[x]);
+                }
+            }
+            source = source.rotateCounterClockwise();
+        }
+    }
+
+    @Test
+    public void getMatrix_stillSharesTheWholeFrame() {
+        byte[] frame = numberedFrame();
+        assertSame(frame, new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT).getMatrix());
+        assertNotSame(frame, new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT).invert()
+                .getMatrix());
+    }
+
+    private static byte[] numberedFrame() {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (i * 3);
+        }
+        return frame;
+    }
+
+    /**
+     * @return The width x height matrix turned by 90 degrees counter-clockwise.
+     */
+    private static byte[] rotate(byte[] matrix, int width, int height) {
+        byte[] rotated = new byte[matrix.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rotated[(width - 1 - x) * height + y] = matrix[y * width + x];
+            }
+        }
+        return rotated;
+    }
+}
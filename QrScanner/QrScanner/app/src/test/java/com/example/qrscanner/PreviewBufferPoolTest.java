@@ -0,0 +1,60 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PreviewBufferPool}.
+ */
+public class PreviewBufferPoolTest {
+    @Test
+    public void acquire_handsOutEveryBufferOnce() {
+        PreviewBufferPool pool = new PreviewBufferPool(3, 16);
+        byte[] first = pool.acquire();
+        byte[] second = pool.acquire();
+        byte[] third = pool.acquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNotNull(third);
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+        assertEquals(16, first.length);
+        assertEquals(0, pool.getAvailableCount());
+        assertEquals(3, pool.getAcquireCount());
+    }
+
+    @Test
+    public void acquire_countsStarvationWhenEmpty() {
+        PreviewBufferPool pool = new PreviewBufferPool(1, 16);
+        assertNotNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(2, pool.getStarvationCount());
+        assertEquals(1, pool.getAcquireCount());
+    }
+
+    @Test
+    public void release_recyclesTheSameBuffer() {
+        PreviewBufferPool pool = new PreviewBufferPool(1, 16);
+        byte[] buffer = pool.acquire();
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire());
+        assertEquals(1, pool.getReleaseCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void release_rejectsForeignBuffer() {
+        PreviewBufferPool pool = new PreviewBufferPool(1, 16);
+        pool.acquire();
+        pool.release(new byte[16]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_rejectsDoubleRelease() {
+        PreviewBufferPool pool = new PreviewBufferPool(2, 16);
+        byte[] buffer = pool.acquire();
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PreviewSizeStrategy}.
+ */
+public class PreviewSizeStrategyTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void minShortSide_growsWithVersion() {
+        // Version 4 is 33 modules: 99 pixels, twice that for the viewfinder, 4/3 for the frame.
+        assertEquals(264, PreviewSizeStrategy.minShortSide(4));
+        assertTrue(PreviewSizeStrategy.minShortSide(10) > PreviewSizeStrategy.minShortSide(4));
+    }
+
+    @Test
+    public void getSize_picksSmallestResolvingSizeWithWindowAspect() {
+        PreviewSizeStrategy strategy = new PreviewSizeStrategy(phoneSizes(), 1080, 1920, 4,
+                50 * MS);
+        // 640x480 resolves the code but is 4:3, 320x180 is too small.
+        assertArrayEquals(new int[]{640, 360}, strategy.getSize());
+        strategy = new PreviewSizeStrategy(phoneSizes(), 1080, 1920, 10, 50 * MS);
+        assertArrayEquals(new int[]{960, 540}, strategy.getSize());
+    }
+
+    @Test
+    public void getSize_fallsBackToLargestSize() {
+        PreviewSizeStrategy strategy = new PreviewSizeStrategy(phoneSizes(), 1080, 1920, 40,
+                50 * MS);
+        assertArrayEquals(new int[]{1920, 1080}, strategy.getSize());
+    }
+
+    @Test
+    public void onDecodeFinished_stepsUpWhenNothingDecodes() {
+        PreviewSizeStrategy strategy = new PreviewSizeStrategy(phoneSizes(), 1080, 1920, 4,
+                50 * MS);
+        assertFalse(fail(strategy, 640, 360, 5 * MS, PreviewSizeStrategy.FAILURES_TO_STEP_UP - 1));
+        assertTrue(strategy.onDecodeFinished(640, 360, 5 * MS, false));
+        assertArrayEquals(new int[]{960, 540}, strategy.getSize());
+        assertEquals(1, strategy.getStepCount());
+    }
+
+    @Test
+    public void onDecodeFinished_staysWhenNextSizeIsOverBudget() {
+        PreviewSizeStrategy strategy = new PreviewSizeStrategy(phoneSizes(), 1080, 1920, 4,
+                50 * MS);
+        // 960x540 is 2.25 times the area, so 30 ms would become 67 ms.
+        assertFalse(fail(strategy, 640, 360, 30 * MS, 100));
+        assertArrayEquals(new int[]{640, 360}, strategy.getSize());
+    }
+
+    @Test
+    public void onDecodeFinished_stepsDownWhenOverBudget() {
+        PreviewSizeStrategy strategy = new PreviewSizeStrategy(phoneSizes(), 1080, 1920, 4,
+                50 * MS);
+        fail(strategy, 640, 360, 5 * MS, PreviewSizeStrategy.FAILURES_TO_STEP_UP);
+        assertArrayEquals(new int[]{960, 540}, strategy.getSize());
+        assertFalse(fail(strategy, 960, 540, 80 * MS, PreviewSizeStrategy.MIN_SAMPLES - 1));
+        assertTrue(strategy.onDecodeFinished(960, 540, 80 * MS, false));
+        assertArrayEquals(new int[]{640, 360}, strategy.getSize());
+        // Never below the smallest size which resolves the code.
+        assertFalse(fail(strategy, 640, 360, 80 * MS, 20));
+        assertArrayEquals(new int[]{640, 360}, strategy.getSize());
+    }
+
+    @Test
+    public void onDecodeFinished_stepsDownWhenCodesDecodeEasily() {
+        PreviewSizeStrategy strategy = new PreviewSizeStrategy(phoneSizes(), 1080, 1920, 4,
+                50 * MS);
+        fail(strategy, 640, 360, 5 * MS, PreviewSizeStrategy.FAILURES_TO_STEP_UP);
+        boolean stepped = false;
+        for (int i = 0; i < PreviewSizeStrategy.SUCCESSES_TO_STEP_DOWN; i++) {
+            stepped = strategy.onDecodeFinished(960, 540, 10 * MS, true);
+        }
+        assertTrue(stepped);
+        assertArrayEquals(new int[]{640, 360}, strategy.getSize());
+    }
+
+    @Test
+    public void onDecodeFinished_ignoresFramesOfOtherSizes() {
+        PreviewSizeStrategy strategy = new PreviewSizeStrategy(phoneSizes(), 1080, 1920, 4,
+                50 * MS);
+        assertFalse(fail(strategy, 1920, 1080, 5 * MS, 100));
+        assertEquals(0, strategy.getAverageDecodeNanos());
+    }
+
+    /**
+     * @return Whether any of count failed decodes changed the size.
+     */
+    private static boolean fail(PreviewSizeStrategy strategy, int width, int height,
+                                long decodeNanos, int count) {
+        boolean stepped = false;
+        for (int i = 0; i < count; i++) {
+            stepped |= strategy.onDecodeFinished(width, height, decodeNanos, false);
+        }
+        return stepped;
+    }
+
+    private static List<int[]> phoneSizes() {
+        List<int[]> sizes = new ArrayList<int[]>();
+        sizes.add(new int[]{1920, 1080});
+        sizes.add(new int[]{320, 180});
+        sizes.add(new int[]{1280, 720});
+        sizes.add(new int[]{640, 480});
+        sizes.add(new int[]{960, 540});
+        sizes.add(new int[]{640, 360});
+        return sizes;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PyramidDecoder}.
+ */
+public class PyramidDecoderTest {
+
+    @Test
+    public void downsample_averagesBlocks() {
+        byte[] src = {
+                0, 2, 10, 20, 99,
+                4, 5, 30, 40, 99,
+                (byte) 255, (byte) 255, 1, 1, 99,
+                (byte) 255, (byte) 254, 1, 2, 99,
+        };
+        byte[] dst = new byte[4];
+        PyramidDecoder.downsample(src, 5, 0, 0, 2, 2, dst);
+        assertEquals(3, dst[0]);
+        assertEquals(25, dst[1]);
+        assertEquals(255, dst[2] & 0xff);
+        assertEquals(1, dst[3]);
+    }
+
+    @Test
+    public void downsample_yPlaneMatchesNv21() {
+        int width = 40;
+        int height = 30;
+        byte[] luma = new byte[width * height];
+        for (int i = 0; i < luma.length; i++) {
+            luma[i] = (byte) (i * 7);
+        }
+        // The same luma interleaved with chroma, as in a semi-planar YUV_420_888 Y plane.
+        int rowStride = width * 2 + 8;
+        ByteBuffer plane = ByteBuffer.allocate(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                plane.put(y * rowStride + x * 2, luma[y * width + x]);
+            }
+        }
+        byte[] expected = new byte[15 * 10];
+        byte[] actual = new byte[15 * 10];
+        PyramidDecoder.downsample(luma, width, 4, 6, 15, 10, expected);
+        PyramidDecoder.downsample(plane, rowStride, 2, 4, 6, 15, 10, actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void tileRect_tilesOverlapAndCoverCrop() {
+        int cropWidth = 1280;
+        int cropHeight = 720;
+        int columns = PyramidDecoder.columnsFor(cropWidth, cropHeight);
+        assertEquals(4, columns);
+        int rows = PyramidDecoder.TILE_ROWS;
+        boolean[] covered = new boolean[cropWidth * cropHeight];
+        int[] rect = new int[4];
+        for (int i = 0; i < columns * rows; i++) {
+            PyramidDecoder.tileRect(i, columns, rows, cropWidth, cropHeight, rect);
+            assertTrue(rect[0] >= 0 && rect[0] + rect[2] <= cropWidth);
+            assertTrue(rect[1] >= 0 && rect[1] + rect[3] <= cropHeight);
+            for (int y = rect[1]; y < rect[1] + rect[3]; y++) {
+                for (int x = rect[0]; x < rect[0] + rect[2]; x++) {
+                    covered[y * cropWidth + x] = true;
+                }
+            }
+            if (i % columns > 0) {
+                int[] previous = new int[4];
+                PyramidDecoder.tileRect(i - 1, columns, rows, cropWidth, cropHeight, previous);
+                assertTrue(previous[0] + previous[2] - rect[0] >= cropHeight / 4);
+            }
+        }
+        for (boolean pixel : covered) {
+            assertTrue(pixel);
+        }
+    }
+
+    @Test
+    public void decode_largeCodeAtHalfSize() {
+        int width = 640;
+        int height = 480;
+        byte[] frame = TestFrames.qrFrame("large", width, height, 8);
+        PyramidDecoder decoder = new PyramidDecoder(FrameDecoder.createQrCodeHints(), 1);
+        Result result = decoder.decode(new PreviewFrame(frame, width, height, 0));
+        assertNotNull(result);
+        assertEquals("large", result.getText());
+        assertEquals(1, decoder.getHalfHits());
+
+        // Points are in full size crop coordinates.
+        Result full = new FrameDecoder(FrameDecoder.createQrCodeHints())
+                .decode(new PreviewFrame(frame, width, height, 0));
+        ResultPoint[] points = result.getResultPoints();
+        ResultPoint[] fullPoints = full.getResultPoints();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(fullPoints[i].getX(), points[i].getX(), 4);
+            assertEquals(fullPoints[i].getY(), points[i].getY(), 4);
+        }
+    }
+
+    @Test
+    public void decode_smallCodeAtEdgeInTiles() {
+        int width = 1920;
+        int height = 1080;
+        byte[] frame = TestFrames.blankFrame(width, height);
+        TestFrames.drawQr(frame, width, "small", 2, 20, 20);
+        // Too small for a single pass over the whole frame.
+        assertNull(new FrameDecoder(FrameDecoder.createQrCodeHints())
+                .decode(new PreviewFrame(frame, width, height, 0)));
+
+        for (int threads = 1; threads <= 3; threads++) {
+            PyramidDecoder decoder = new PyramidDecoder(FrameDecoder.createQrCodeHints(),
+                    threads);
+            Result result = decoder.decode(new PreviewFrame(frame, width, height, 0));
+            assertNotNull(result);
+            assertEquals("small", result.getText());
+            assertEquals(1, decoder.getTileHits());
+            // Points are relative to the crop, not the tile.
+            assertTrue(result.getResultPoints()[0].getX() < 100);
+            decoder.shutdown();
+        }
+    }
+
+    @Test
+    public void decode_cropAndMisses() {
+        int width = 640;
+        int height = 480;
+        PyramidDecoder decoder = new PyramidDecoder(FrameDecoder.createQrCodeHints(), 2);
+        PreviewFrame blank = new PreviewFrame(TestFrames.blankFrame(width, height), width,
+                height, 0);
+        assertNull(decoder.decode(blank));
+        assertEquals(1, decoder.getMisses());
+
+        byte[] frame = TestFrames.blankFrame(width, height);
+        TestFrames.drawQr(frame, width, "cropped", 3, 400, 300);
+        PreviewFrame cropped = new PreviewFrame(frame, width, height, 0);
+        cropped.setCrop(320, 240, 320, 240);
+        Result result = decoder.decode(cropped);
+        assertNotNull(result);
+        assertEquals("cropped", result.getText());
+        assertTrue(result.getResultPoints()[0].getX() < 320);
+        decoder.shutdown();
+    }
+}
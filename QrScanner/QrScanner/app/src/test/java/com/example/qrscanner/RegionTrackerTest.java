@@ -0,0 +1,129 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RegionTracker}.
+ */
+public class RegionTrackerTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final float[] NO_POINTS = new float[0];
+
+    @Test
+    public void decode_followsCodeInWindow() {
+        byte[] data = TestFrames.blankFrame(WIDTH, HEIGHT);
+        TestFrames.drawQr(data, WIDTH, "tracked", 4, 400, 60);
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.createQrCodeHints());
+        RegionTracker tracker = new RegionTracker(RegionTracker.DEFAULT_MAX_MISSES);
+
+        PreviewFrame frame = new PreviewFrame(data, WIDTH, HEIGHT, 0);
+        assertFalse(tracker.apply(frame));
+        Result result = decoder.decode(frame);
+        assertNotNull(result);
+        tracker.onFrameDecoded(false, result, 0, 0, NO_POINTS, 0);
+        int[] window = tracker.getWindow();
+
+        frame = new PreviewFrame(data, WIDTH, HEIGHT, 1);
+        assertTrue(tracker.apply(frame));
+        assertTrue(frame.cropWidth * frame.cropHeight < WIDTH * HEIGHT / 3);
+        result = decoder.decode(frame);
+        assertNotNull(result);
+        assertEquals("tracked", result.getText());
+        tracker.onFrameDecoded(true, result, frame.cropLeft, frame.cropTop, NO_POINTS, 0);
+        // The code did not move, neither does the window.
+        assertArrayEquals(window, tracker.getWindow());
+        assertEquals(1, tracker.getWindowHits());
+    }
+
+    @Test
+    public void finderPoints_ofUndecodedFrameStartTracking() {
+        byte[] data = TestFrames.blankFrame(WIDTH, HEIGHT);
+        TestFrames.drawQr(data, WIDTH, "damaged code", 4, 100, 100);
+        // Wipe the modules right and below of the finder patterns.
+        for (int y = 136; y < 184; y++) {
+            Arrays.fill(data, y * WIDTH + 136, y * WIDTH + 184, (byte) 235);
+        }
+        final float[] points = new float[32];
+        final int[] count = new int[1];
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.withResultPointCallback(
+                FrameDecoder.createQrCodeHints(), new ResultPointCallback() {
+                    @Override
+                    public void foundPossibleResultPoint(ResultPoint point) {
+                        if (count[0] < 16) {
+                            points[count[0] * 2] = point.getX();
+                            points[count[0] * 2 + 1] = point.getY();
+                            count[0]++;
+                        }
+                    }
+                }));
+        RegionTracker tracker = new RegionTracker(RegionTracker.DEFAULT_MAX_MISSES);
+        assertNull(decoder.decode(new PreviewFrame(data, WIDTH, HEIGHT, 0)));
+        assertTrue(count[0] >= RegionTracker.MIN_PARTIAL_POINTS);
+        tracker.onFrameDecoded(false, null, 0, 0, points, count[0]);
+        int[] window = tracker.getWindow();
+        assertNotNull(window);
+        // The code spans 100 to 184 on both axes.
+        assertTrue(window[0] <= 100 && window[1] <= 100);
+        assertTrue(window[2] >= 184 && window[3] >= 184);
+    }
+
+    @Test
+    public void onFrameDecoded_padsPartialPoints() {
+        RegionTracker tracker = new RegionTracker(RegionTracker.DEFAULT_MAX_MISSES);
+        // One point may be noise.
+        tracker.onFrameDecoded(false, null, 0, 0, new float[]{300, 200}, 1);
+        assertFalse(tracker.isTracking());
+        tracker.onFrameDecoded(false, null, 0, 0, new float[]{300, 200, 500, 220}, 2);
+        assertArrayEquals(new int[]{200, 100, 600, 320}, tracker.getWindow());
+        // Points well inside keep the window, points near its edge move it.
+        tracker.onFrameDecoded(false, null, 0, 0, new float[]{310, 205, 510, 225}, 2);
+        assertArrayEquals(new int[]{200, 100, 600, 320}, tracker.getWindow());
+        tracker.onFrameDecoded(false, null, 0, 0, new float[]{400, 200, 600, 220}, 2);
+        assertArrayEquals(new int[]{300, 100, 700, 320}, tracker.getWindow());
+    }
+
+    @Test
+    public void misses_fallBackToWholeFrame() {
+        RegionTracker tracker = new RegionTracker(2);
+        tracker.onFrameDecoded(false, null, 0, 0, new float[]{300, 200, 400, 300}, 2);
+        PreviewFrame frame = new PreviewFrame(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 0);
+        assertTrue(tracker.apply(frame));
+        assertEquals(236, frame.cropLeft);
+        assertEquals(100 + 2 * 64, frame.cropWidth);
+        tracker.onFrameDecoded(true, null, frame.cropLeft, frame.cropTop, NO_POINTS, 0);
+        assertTrue(tracker.isTracking());
+        tracker.onFrameDecoded(true, null, frame.cropLeft, frame.cropTop, NO_POINTS, 0);
+        assertFalse(tracker.isTracking());
+        assertFalse(tracker.apply(new PreviewFrame(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 1)));
+        assertEquals(2, tracker.getWindowMisses());
+        assertEquals(1, tracker.getFallbacks());
+    }
+
+    @Test
+    public void apply_clipsToCrop() {
+        RegionTracker tracker = new RegionTracker(RegionTracker.DEFAULT_MAX_MISSES);
+        tracker.onFrameDecoded(false, null, 0, 0, new float[]{20, 20, 120, 120}, 2);
+        PreviewFrame frame = new PreviewFrame(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 0);
+        frame.setCrop(80, 0, 480, 480);
+        assertTrue(tracker.apply(frame));
+        assertEquals(80, frame.cropLeft);
+        assertEquals(0, frame.cropTop);
+        assertEquals(184 - 80, frame.cropWidth);
+        assertEquals(184, frame.cropHeight);
+        // A window outside the viewfinder is dropped.
+        tracker.onFrameDecoded(false, null, 0, 0, new float[]{600, 400, 610, 410}, 2);
+        frame.setCrop(0, 0, 480, 300);
+        assertFalse(tracker.apply(frame));
+        assertFalse(tracker.isTracking());
+    }
+}
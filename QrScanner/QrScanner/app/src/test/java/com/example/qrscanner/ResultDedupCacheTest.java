@@ -0,0 +1,49 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ResultDedupCache}.
+ */
+public class ResultDedupCacheTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void offer_suppressesCodeWhileInView() {
+        ResultDedupCache cache = new ResultDedupCache(16, 1000 * MS);
+        assertTrue(cache.offer("a", 0));
+        // Seen every 100 ms for five seconds: never reported again.
+        for (long t = 100; t <= 5000; t += 100) {
+            assertFalse(cache.offer("a", t * MS));
+        }
+        // Out of view for a full ttl.
+        assertTrue(cache.offer("a", 6000 * MS));
+    }
+
+    @Test
+    public void offer_forgetsLeastRecentlySeenBeyondCapacity() {
+        ResultDedupCache cache = new ResultDedupCache(2, 1000 * MS);
+        assertTrue(cache.offer("a", 0));
+        assertTrue(cache.offer("b", MS));
+        assertFalse(cache.offer("a", 2 * MS));
+        assertTrue(cache.offer("c", 3 * MS));
+        assertEquals(2, cache.size());
+        // "b" was evicted, "a" was kept.
+        assertTrue(cache.offer("b", 4 * MS));
+        assertFalse(cache.offer("c", 5 * MS));
+    }
+
+    @Test
+    public void evictExpired_dropsOnlyExpiredCodes() {
+        ResultDedupCache cache = new ResultDedupCache(16, 1000 * MS);
+        cache.offer("a", 0);
+        cache.offer("b", 500 * MS);
+        cache.offer("c", 900 * MS);
+        cache.evictExpired(1600 * MS);
+        assertEquals(1, cache.size());
+        assertFalse(cache.offer("c", 1700 * MS));
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.qrscanner;
+
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ReusableHybridBinarizer} and reusing a
+ * {@link PlanarYUVLuminanceSource} across frames.
+ */
+public class ReusableHybridBinarizerTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void getBlackMatrix_matchesHybridBinarizer() throws Exception {
+        byte[] frame = TestFrames.qrFrame("reusable", WIDTH, HEIGHT, 5);
+        PlanarYUVLuminanceSource source =
+                new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 100, 60, 420, 357);
+        BitMatrix expected = new HybridBinarizer(source).getBlackMatrix();
+        assertEquals(expected, new ReusableHybridBinarizer(source).getBlackMatrix());
+    }
+
+    @Test
+    public void refresh_binarizesTheNewFrameIntoTheSameMatrix() throws Exception {
+        byte[] first = TestFrames.qrFrame("first", WIDTH, HEIGHT, 5);
+        byte[] second = TestFrames.qrFrame("second frame", WIDTH, HEIGHT, 5);
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(first, WIDTH, HEIGHT);
+        ReusableHybridBinarizer binarizer = new ReusableHybridBinarizer(source);
+        BitMatrix matrix = binarizer.getBlackMatrix();
+
+        source.reset(second);
+        binarizer.refresh();
+        assertSame(matrix, binarizer.getBlackMatrix());
+        PlanarYUVLuminanceSource fresh = new PlanarYUVLuminanceSource(second, WIDTH, HEIGHT);
+        assertEquals(new HybridBinarizer(fresh).getBlackMatrix(), matrix);
+    }
+
+    @Test
+    public void steadyState_allocatesNothingPerFrame() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        byte[][] frames = {
+                TestFrames.qrFrame("first", WIDTH, HEIGHT, 5),
+                TestFrames.qrFrame("second", WIDTH, HEIGHT, 5),
+        };
+        PlanarYUVLuminanceSource source =
+                new PlanarYUVLuminanceSource(frames[0], WIDTH, HEIGHT, 80, 40, 480, 400);
+        ReusableHybridBinarizer binarizer = new ReusableHybridBinarizer(source);
+        runFrames(source, binarizer, frames, 20);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        runFrames(source, binarizer, frames, 100);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertEquals("Bytes allocated over 100 frames", 0, allocated);
+    }
+
+    private static void runFrames(PlanarYUVLuminanceSource source,
+                                  ReusableHybridBinarizer binarizer, byte[][] frames,
+                                  int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            source.reset(frames[i % frames.length]);
+            binarizer.refresh();
+            binarizer.getBlackMatrix();
+            source.getRow(i % source.getHeight(), null);
+        }
+    }
+}
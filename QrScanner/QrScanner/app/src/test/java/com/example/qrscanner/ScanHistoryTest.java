@@ -0,0 +1,115 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ScanHistory}.
+ */
+public class ScanHistoryTest {
+
+    private static final long MS = 1000000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void append_indexesTexts() throws IOException {
+        ScanHistory history = new ScanHistory(new File(mFolder.getRoot(), "history"), 4);
+        assertFalse(history.append(1000L, "https://example.com/a", BarcodeFormat.QR_CODE,
+                120 * MS, 7));
+        assertFalse(history.append(2000L, "https://example.com/b", BarcodeFormat.QR_CODE,
+                80 * MS, 3));
+        assertTrue(history.append(3000L, "https://example.com/a", BarcodeFormat.QR_CODE,
+                40 * MS, 1));
+        assertEquals(3, history.size());
+        assertEquals(2, history.getDistinctCount());
+        assertEquals(2, history.getCount("https://example.com/a"));
+        assertEquals(0, history.getCount("other"));
+        assertFalse(history.contains("other"));
+
+        ScanHistory.Entry latest = history.getLatest("https://example.com/a");
+        assertEquals(3000L, latest.timestampMillis);
+        assertEquals(BarcodeFormat.QR_CODE, latest.format);
+        assertEquals(40 * MS, latest.latencyNanos);
+        assertEquals(1, latest.frameCount);
+        assertEquals("https://example.com/b", history.get(1).text);
+        history.close();
+    }
+
+    @Test
+    public void findByPrefix_returnsSortedDistinctTexts() throws IOException {
+        ScanHistory history = new ScanHistory(new File(mFolder.getRoot(), "history"), 4);
+        for (String text : new String[]{"LOT-2", "BOX-1", "LOT-1", "LOT-2", "LOTTERY", "LO"}) {
+            history.append(0, text, BarcodeFormat.QR_CODE, 0, 1);
+        }
+        assertEquals(Arrays.asList("LOT-1", "LOT-2", "LOTTERY"), history.findByPrefix("LOT", 10));
+        assertEquals(Arrays.asList("LOT-1", "LOT-2"), history.findByPrefix("LOT", 2));
+        assertTrue(history.findByPrefix("X", 10).isEmpty());
+        history.close();
+    }
+
+    @Test
+    public void reopen_replaysRecords() throws IOException {
+        File file = new File(mFolder.getRoot(), "history");
+        ScanHistory history = new ScanHistory(file, 1000);
+        // Enough to grow the mapping a few times.
+        for (int i = 0; i < 20000; i++) {
+            history.append(i, "code-" + (i % 5000) + "-\u00e9", BarcodeFormat.QR_CODE, i * MS, 2);
+        }
+        history.close();
+
+        history = new ScanHistory(file, 1000);
+        assertEquals(20000, history.size());
+        assertEquals(5000, history.getDistinctCount());
+        assertEquals(4, history.getCount("code-42-\u00e9"));
+        assertEquals(15042L, history.getLatest("code-42-\u00e9").timestampMillis);
+        assertTrue(history.append(20000, "code-0-\u00e9", BarcodeFormat.QR_CODE, 0, 1));
+        assertEquals(20001, history.size());
+        history.close();
+    }
+
+    @Test
+    public void reopen_ignoresRecordCutShort() throws IOException {
+        File file = new File(mFolder.getRoot(), "history");
+        ScanHistory history = new ScanHistory(file, 1);
+        history.append(1, "first", BarcodeFormat.QR_CODE, 0, 1);
+        history.append(2, "second", BarcodeFormat.QR_CODE, 0, 1);
+        history.close();
+        // A crash while writing the second record: its count was not updated.
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(ScanHistory.RECORD_COUNT_OFFSET);
+        raw.writeInt(1);
+        raw.setLength(raw.length() - 2);
+        raw.close();
+
+        history = new ScanHistory(file, 1);
+        assertEquals(1, history.size());
+        assertFalse(history.contains("second"));
+        history.append(3, "third", BarcodeFormat.QR_CODE, 0, 1);
+        history.close();
+        history = new ScanHistory(file, 1);
+        assertEquals("third", history.get(1).text);
+        history.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws IOException {
+        File file = mFolder.newFile("other");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[32]);
+        out.close();
+        new ScanHistory(file, 1);
+    }
+}
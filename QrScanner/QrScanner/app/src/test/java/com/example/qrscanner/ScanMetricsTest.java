@@ -0,0 +1,106 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ScanMetrics}.
+ */
+public class ScanMetricsTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void scan_recordsLatenciesAndFramesPerScan() {
+        ScanMetrics metrics = new ScanMetrics(true);
+        metrics.onScanStarted(1000 * MS);
+        for (int i = 0; i < 3; i++) {
+            metrics.onFrameReceived();
+            metrics.onFrameReceived();
+            long frame = (1300 + 100 * i) * MS;
+            metrics.onFrameDecoded(frame, frame + 5 * MS, 40 * MS);
+        }
+        metrics.onFrameRejected();
+        metrics.onScanSucceeded(1600 * MS);
+
+        assertEquals(6, metrics.getFramesReceived());
+        assertEquals(3, metrics.getFramesDecoded());
+        assertEquals(1, metrics.getFramesRejected());
+        assertEquals(1, metrics.getScans());
+        assertEquals(3, metrics.getFramesPerScan().getMax());
+        assertEquals(1, metrics.getTimeToFirstDecode().getCount());
+        assertEquals(305 * MS, metrics.getTimeToFirstDecode().getMax());
+        assertEquals(600 * MS, metrics.getTimeToResult().getMax());
+        assertEquals(5 * MS, metrics.getQueueWait().getMax());
+        assertEquals(40 * MS, metrics.getDecode().getMax());
+    }
+
+    @Test
+    public void onScanStarted_startsANewScan() {
+        ScanMetrics metrics = new ScanMetrics(true);
+        metrics.onScanStarted(1000 * MS);
+        metrics.onFrameDecoded(1100 * MS, 1100 * MS, MS);
+        metrics.onScanStarted(5000 * MS);
+        metrics.onFrameDecoded(5200 * MS, 5200 * MS, MS);
+        metrics.onFrameDecoded(5300 * MS, 5300 * MS, MS);
+        metrics.onScanSucceeded(5400 * MS);
+        assertEquals(2, metrics.getTimeToFirstDecode().getCount());
+        assertEquals(2, metrics.getFramesPerScan().getMax());
+    }
+
+    @Test
+    public void disabled_recordsNothing() {
+        ScanMetrics metrics = ScanMetrics.DISABLED;
+        metrics.onScanStarted(MS);
+        metrics.onFrameReceived();
+        metrics.onFrameDecoded(MS, 2 * MS, MS);
+        metrics.onScanSucceeded(3 * MS);
+        assertFalse(metrics.isEnabled());
+        assertEquals(0, metrics.getFramesReceived());
+        assertEquals(0, metrics.getDecode().getCount());
+    }
+
+    @Test
+    public void toJson_containsEverySection() {
+        ScanMetrics metrics = new ScanMetrics(true);
+        metrics.onFrameReceived();
+        String json = metrics.toJson();
+        assertTrue(json.startsWith("{\"framesReceived\":1,\"framesDecoded\":0,"));
+        for (String key : new String[]{"queueWaitMs", "decodeMs", "framesPerScan",
+                "timeToFirstDecodeMs", "timeToResultMs", "resultShownMs", "resultParseMs"}) {
+            assertTrue(key, json.contains("\"" + key + "\":{\"count\":"));
+        }
+        assertTrue(json.endsWith("}}"));
+    }
+
+    @Test
+    public void onResultShown_recordsResultLatencies() {
+        ScanMetrics metrics = new ScanMetrics(true);
+        metrics.onResultShown(12 * MS);
+        metrics.onResultParsed(2 * MS);
+        assertEquals(1, metrics.getResultShown().getCount());
+        assertEquals(1, metrics.getResultParse().getCount());
+
+        ScanMetrics.DISABLED.onResultShown(MS);
+        assertEquals(0, ScanMetrics.DISABLED.getResultShown().getCount());
+    }
+
+    @Test
+    public void onVariantDecoded_timesEveryVariant() {
+        ScanMetrics metrics = new ScanMetrics(true);
+        metrics.onVariantDecoded(VariantRetry.INVERTED, 2 * MS, false);
+        metrics.onVariantDecoded(VariantRetry.ROTATED, 3 * MS, true);
+        metrics.onVariantDecoded(VariantRetry.INVERTED, 2 * MS, true);
+        assertEquals(2, metrics.getVariantDecode(VariantRetry.INVERTED).getCount());
+        assertEquals(1, metrics.getVariantsDecoded(VariantRetry.INVERTED));
+        assertEquals(1, metrics.getVariantDecode(VariantRetry.ROTATED).getCount());
+        String json = metrics.toJson();
+        assertTrue(json, json.contains(
+                "\"variants\":{\"inverted\":{\"decoded\":1,\"decodeMs\":{\"count\":2,"));
+        assertTrue(json, json.contains("\"rotated\":{\"decoded\":1,\"decodeMs\":{"));
+
+        ScanMetrics.DISABLED.onVariantDecoded(VariantRetry.ROTATED, MS, true);
+        assertEquals(0, ScanMetrics.DISABLED.getVariantDecode(VariantRetry.ROTATED).getCount());
+    }
+}
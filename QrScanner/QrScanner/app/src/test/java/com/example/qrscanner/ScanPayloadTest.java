@@ -0,0 +1,92 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ScanPayload}.
+ */
+public class ScanPayloadTest {
+
+    private static final String GS = "\u001d";
+
+    @Test
+    public void parse_url() {
+        ScanPayload payload = ScanPayload.parse(qr("https://example.com/a?b=c"));
+        assertEquals(ScanPayload.Type.URL, payload.getType());
+        assertEquals("URL: https://example.com/a?b=c", payload.getDisplayText());
+        assertEquals("Link", payload.getTitle());
+    }
+
+    @Test
+    public void parse_vCard() {
+        ScanPayload payload = ScanPayload.parse(qr("BEGIN:VCARD\nVERSION:3.0\nN:Doe;Jane\n"
+                + "FN:Jane Doe\nORG:Example\nTEL:+15550100\nEMAIL:jane@example.com\n"
+                + "END:VCARD"));
+        assertEquals(ScanPayload.Type.CONTACT, payload.getType());
+        String text = payload.getDisplayText();
+        assertTrue(text, text.contains("Name: Jane Doe"));
+        assertTrue(text, text.contains("Organization: Example"));
+        assertTrue(text, text.contains("Phone: +15550100"));
+        assertTrue(text, text.contains("Email: jane@example.com"));
+    }
+
+    @Test
+    public void parse_wifi() {
+        ScanPayload payload = ScanPayload.parse(qr("WIFI:T:WPA;S:home;P:secret;;"));
+        assertEquals(ScanPayload.Type.WIFI, payload.getType());
+        assertEquals("Network: home\nSecurity: WPA\nPassword: secret",
+                payload.getDisplayText());
+    }
+
+    @Test
+    public void parse_gs1ElementStrings() {
+        Result result = qr("0109501101530003" + "10ABC123" + GS + "17250101" + "21S1");
+        result.putMetadata(ResultMetadataType.SYMBOLOGY_IDENTIFIER, "]Q3");
+        ScanPayload payload = ScanPayload.parse(result);
+        assertEquals(ScanPayload.Type.GS1, payload.getType());
+        assertEquals(4, payload.getFieldCount());
+        assertEquals("GTIN (01)", payload.getLabel(0));
+        assertEquals("09501101530003", payload.getValue(0));
+        assertEquals("Batch (10)", payload.getLabel(1));
+        assertEquals("ABC123", payload.getValue(1));
+        assertEquals("Expiry (17)", payload.getLabel(2));
+        assertEquals("250101", payload.getValue(2));
+        assertEquals("S1", payload.getValue(3));
+    }
+
+    @Test
+    public void parse_malformedGs1IsText() {
+        // The GTIN is short a digit.
+        Result result = qr("010950110153000");
+        result.putMetadata(ResultMetadataType.SYMBOLOGY_IDENTIFIER, "]Q3");
+        ScanPayload payload = ScanPayload.parse(result);
+        assertEquals(ScanPayload.Type.TEXT, payload.getType());
+        assertEquals("010950110153000", payload.getDisplayText());
+    }
+
+    @Test
+    public void parse_digitsWithoutFnc1AreText() {
+        ScanPayload payload = ScanPayload.parse(qr("0109501101530003"));
+        assertEquals(ScanPayload.Type.TEXT, payload.getType());
+        assertEquals("0109501101530003", payload.getText());
+    }
+
+    @Test
+    public void gs1AiLength() {
+        assertEquals(2, ScanPayload.gs1AiLength("01"));
+        assertEquals(3, ScanPayload.gs1AiLength("24"));
+        assertEquals(4, ScanPayload.gs1AiLength("31"));
+        assertEquals(-1, ScanPayload.gs1AiLength("5x"));
+        assertEquals(-1, ScanPayload.gs1AiLength("50"));
+    }
+
+    private static Result qr(String text) {
+        return new Result(text, null, null, BarcodeFormat.QR_CODE);
+    }
+}
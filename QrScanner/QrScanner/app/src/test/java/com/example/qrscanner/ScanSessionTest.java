@@ -0,0 +1,74 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ScanSession}.
+ */
+public class ScanSessionTest {
+
+    private static final long MS = 1000000L;
+
+    private long mNow;
+    private final DecodeScheduler.Clock mClock = new DecodeScheduler.Clock() {
+        @Override
+        public long nanoTime() {
+            return mNow;
+        }
+    };
+
+    @Test
+    public void onResult_reportsEachCodeOnceWhileInView() {
+        final List<String> reported = new ArrayList<String>();
+        ScanSession session = new ScanSession(new ResultDedupCache(16, 2000 * MS),
+                new ScanSession.Listener() {
+                    @Override
+                    public void onNewCode(String text, BarcodeFormat format, int codeCount) {
+                        reported.add(text);
+                        assertEquals(reported.size(), codeCount);
+                    }
+                }, mClock);
+
+        // Two items, each held in view for a second, decoded every 50 ms.
+        for (String item : new String[]{"item-1", "item-2"}) {
+            for (int i = 0; i < 20; i++) {
+                session.onResult(result(item));
+                mNow += 50 * MS;
+            }
+        }
+
+        assertEquals(Arrays.asList("item-1", "item-2"), reported);
+        assertEquals(Arrays.asList("item-1", "item-2"), session.getCodes());
+        assertEquals(38, session.getDuplicateCount());
+    }
+
+    @Test
+    public void getCodesPerMinute_usesSessionTime() {
+        ScanSession session = new ScanSession(new ResultDedupCache(16, 2000 * MS),
+                new ScanSession.Listener() {
+                    @Override
+                    public void onNewCode(String text, BarcodeFormat format, int codeCount) {
+                    }
+                }, mClock);
+        assertEquals(0, session.getCodesPerMinute(), 0);
+        for (int i = 0; i < 15; i++) {
+            mNow += 2000 * MS;
+            assertTrue(session.onResult(result("item-" + i)));
+        }
+        // 15 codes in 30 seconds.
+        assertEquals(30, session.getCodesPerMinute(), 0.001);
+    }
+
+    private static Result result(String text) {
+        return new Result(text, null, null, BarcodeFormat.QR_CODE);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Builds synthetic NV21 preview frames for local unit tests.
+ */
+final class TestFrames {
+
+    private TestFrames() {
+    }
+
+    /**
+     * @return A width x height NV21 frame with a QR code of the given contents drawn centered in
+     * the luma plane, each module scale pixels wide.
+     */
+    static byte[] qrFrame(String contents, int width, int height, int scale) {
+        byte[] frame = blankFrame(width, height);
+        BitMatrix matrix = encode(contents);
+        int size = matrix.getWidth() * scale;
+        drawQr(frame, width, matrix, scale, (width - size) / 2, (height - size) / 2);
+        return frame;
+    }
+
+    /**
+     * Draws a QR code of the given contents into the luma plane of an NV21 frame, with its top
+     * left corner at left, top.
+     */
+    static void drawQr(byte[] frame, int width, String contents, int scale, int left, int top) {
+        drawQr(frame, width, encode(contents), scale, left, top);
+    }
+
+    private static void drawQr(byte[] frame, int width, BitMatrix matrix, int scale,
+                               int left, int top) {
+        int size = matrix.getWidth() * scale;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                if (matrix.get(x / scale, y / scale)) {
+                    frame[(top + y) * width + left + x] = (byte) 16;
+                }
+            }
+        }
+    }
+
+    private static BitMatrix encode(String contents) {
+        BitMatrix matrix;
+        try {
+            matrix = new QRCodeWriter().encode(contents, BarcodeFormat.QR_CODE, 0, 0);
+        } catch (WriterException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return matrix;
+    }
+
+    /**
+     * @return A copy of the frame with its luma plane box blurred over (2 * radius + 1) pixels
+     * in each direction.
+     */
+    static byte[] blur(byte[] frame, int width, int height, int radius) {
+        byte[] blurred = frame.clone();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                int count = 0;
+                for (int dy = -radius; dy <= radius; dy++) {
+                    for (int dx = -radius; dx <= radius; dx++) {
+                        int sx = Math.min(width - 1, Math.max(0, x + dx));
+                        int sy = Math.min(height - 1, Math.max(0, y + dy));
+                        sum += frame[sy * width + sx] & 0xff;
+                        count++;
+                    }
+                }
+                blurred[y * width + x] = (byte) (sum / count);
+            }
+        }
+        return blurred;
+    }
+
+    /**
+     * @return A copy of the frame with its luma plane moved dx pixels right, repeating the left
+     * edge column.
+     */
+    static byte[] shift(byte[] frame, int width, int height, int dx) {
+        byte[] shifted = frame.clone();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                shifted[y * width + x] = frame[y * width + Math.max(0, x - dx)];
+            }
+        }
+        return shifted;
+    }
+
+    /**
+     * @return A copy of the frame with its luma plane squeezed into 20..70, as in dim light, and
+     * Gaussian noise of the given standard deviation added.
+     */
+    static byte[] dim(byte[] frame, int width, int height, double noise, Random random) {
+        byte[] dimmed = frame.clone();
+        for (int i = 0; i < width * height; i++) {
+            double luma = 20 + (frame[i] & 0xff) * 50 / 235.0 + random.nextGaussian() * noise;
+            dimmed[i] = (byte) Math.max(0, Math.min(255, Math.round(luma)));
+        }
+        return dimmed;
+    }
+
+    /**
+     * @return A white width x height NV21 frame.
+     */
+    static byte[] blankFrame(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        Arrays.fill(frame, 0, width * height, (byte) 235);
+        Arrays.fill(frame, width * height, frame.length, (byte) 128);
+        return frame;
+    }
+}
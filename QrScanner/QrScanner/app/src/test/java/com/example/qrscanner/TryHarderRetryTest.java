@@ -0,0 +1,77 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TryHarderRetry}.
+ */
+public class TryHarderRetryTest {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final String CONTENTS = "https://example.com/label/0123456789/abcdefghij";
+
+    @Test
+    public void onFrameFailed_retriesSharpestFrameOfWindow() {
+        TryHarderRetry retry = new TryHarderRetry(3, FrameDecoder.createQrCodeHints());
+        PreviewFrame small = smallCodeFrame();
+        // One pixel modules fall between the rows scanned without TRY_HARDER.
+        assertNull(new FrameDecoder(FrameDecoder.createQrCodeHints()).decode(small));
+
+        assertNull(retry.onFrameFailed(blank(), 5));
+        assertNull(retry.onFrameFailed(small, 10));
+        Result result = retry.onFrameFailed(blank(), 5);
+        assertNotNull(result);
+        assertEquals(CONTENTS, result.getText());
+        assertEquals(1, retry.getRetries());
+        assertEquals(1, retry.getRetriesDecoded());
+    }
+
+    @Test
+    public void onFrameFailed_keepsOnlyTheSharpestFrame() {
+        TryHarderRetry retry = new TryHarderRetry(2, FrameDecoder.createQrCodeHints());
+        assertNull(retry.onFrameFailed(smallCodeFrame(), 5));
+        assertNull(retry.onFrameFailed(blank(), 10));
+        assertEquals(1, retry.getRetries());
+        assertEquals(0, retry.getRetriesDecoded());
+    }
+
+    @Test
+    public void onFrameFailed_copiesCropOfYPlaneFrames() {
+        TryHarderRetry retry = new TryHarderRetry(1, FrameDecoder.createQrCodeHints());
+        byte[] luma = TestFrames.blankFrame(WIDTH, HEIGHT);
+        TestFrames.drawQr(luma, WIDTH, CONTENTS, 3, 100, 80);
+        PreviewFrame frame = new PreviewFrame(ByteBuffer.wrap(luma), WIDTH, 1, WIDTH, HEIGHT,
+                0, null);
+        frame.setCrop(50, 40, WIDTH / 2, HEIGHT / 2);
+        Result result = retry.onFrameFailed(frame, 0);
+        assertNotNull(result);
+        assertEquals(CONTENTS, result.getText());
+    }
+
+    @Test
+    public void reset_startsANewWindow() {
+        TryHarderRetry retry = new TryHarderRetry(2, FrameDecoder.createQrCodeHints());
+        assertNull(retry.onFrameFailed(smallCodeFrame(), 10));
+        retry.reset();
+        assertNull(retry.onFrameFailed(blank(), 1));
+        assertNull(retry.onFrameFailed(blank(), 1));
+        assertEquals(0, retry.getRetriesDecoded());
+    }
+
+    private static PreviewFrame smallCodeFrame() {
+        byte[] frame = TestFrames.blankFrame(WIDTH, HEIGHT);
+        TestFrames.drawQr(frame, WIDTH, CONTENTS, 1, 100, 80);
+        return new PreviewFrame(frame, WIDTH, HEIGHT, 0);
+    }
+
+    private static PreviewFrame blank() {
+        return new PreviewFrame(TestFrames.blankFrame(WIDTH, HEIGHT), WIDTH, HEIGHT, 0);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.qrscanner;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ResultPoint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link UpscaledLuminanceSource}.
+ */
+public class UpscaledLuminanceSourceTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 6;
+
+    @Test
+    public void getRowAndMatrix_repeatEveryPixelOfTheWindow() {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            frame[i] = (byte) i;
+        }
+        LuminanceSource source = new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT,
+                0, 0, WIDTH, HEIGHT);
+        UpscaledLuminanceSource upscaled = new UpscaledLuminanceSource(source, 2, 1, 3, 4);
+        assertEquals(6, upscaled.getWidth());
+        assertEquals(8, upscaled.getHeight());
+        byte[] matrix = upscaled.getMatrix();
+        for (int y = 0; y < 8; y++) {
+            byte[] row = upscaled.getRow(y, null);
+            for (int x = 0; x < 6; x++) {
+                byte expected = frame[(1 + y / 2) * WIDTH + 2 + x / 2];
+                assertEquals(expected, row[x]);
+                assertEquals(expected, matrix[y * 6 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void toSource_mapsPointsBackToTheOtherSource() {
+        LuminanceSource source = new PlanarYUVLuminanceSource(
+                new byte[WIDTH * HEIGHT * 3 / 2], WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        UpscaledLuminanceSource upscaled = new UpscaledLuminanceSource(source, 2, 1, 3, 4);
+        ResultPoint point = upscaled.toSource(new ResultPoint(5, 3));
+        assertEquals(4.5f, point.getX(), 0f);
+        assertEquals(2.5f, point.getY(), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsWindowOutsideSource() {
+        LuminanceSource source = new PlanarYUVLuminanceSource(
+                new byte[WIDTH * HEIGHT * 3 / 2], WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        new UpscaledLuminanceSource(source, 6, 0, 3, 4);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link VariantRetry}.
+ */
+public class VariantRetryTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void onFrameFailed_decodesWhiteOnBlack() {
+        byte[] frame = TestFrames.qrFrame("negative", WIDTH, HEIGHT, 4);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            frame[i] = (byte) ~frame[i];
+        }
+        PreviewFrame previewFrame = new PreviewFrame(frame, WIDTH, HEIGHT, 0);
+        assertNull(new FrameDecoder(FrameDecoder.createQrCodeHints()).decode(previewFrame));
+
+        ScanMetrics metrics = new ScanMetrics(true);
+        VariantRetry retry = new VariantRetry(1, FrameDecoder.createQrCodeHints());
+        Result result = retry.onFrameFailed(previewFrame, metrics);
+        assertNotNull(result);
+        assertEquals("negative", result.getText());
+        assertEquals(1, retry.getDecoded(VariantRetry.INVERTED));
+        assertEquals(1, metrics.getVariantsDecoded(VariantRetry.INVERTED));
+        // Decoded before the rotated variant was tried.
+        assertEquals(0, metrics.getVariantDecode(VariantRetry.ROTATED).getCount());
+    }
+
+    @Test
+    public void onFrameFailed_retriesEveryFewFrames() {
+        PreviewFrame blank = new PreviewFrame(TestFrames.blankFrame(WIDTH, HEIGHT), WIDTH,
+                HEIGHT, 0);
+        ScanMetrics metrics = new ScanMetrics(true);
+        VariantRetry retry = new VariantRetry(3, FrameDecoder.createQrCodeHints());
+        for (int i = 0; i < 7; i++) {
+            assertNull(retry.onFrameFailed(blank, metrics));
+        }
+        assertEquals(2, retry.getRetries());
+        assertEquals(2, metrics.getVariantDecode(VariantRetry.INVERTED).getCount());
+        assertEquals(2, metrics.getVariantDecode(VariantRetry.ROTATED).getCount());
+
+        retry.reset();
+        retry.onFrameFailed(blank, metrics);
+        retry.onFrameFailed(blank, metrics);
+        assertEquals(2, retry.getRetries());
+    }
+
+    @Test
+    public void unrotate_movesPointsBackToTheCrop() {
+        byte[] frame = TestFrames.blankFrame(WIDTH, HEIGHT);
+        TestFrames.drawQr(frame, WIDTH, "turned", 3, 150, 40);
+        PreviewFrame previewFrame = new PreviewFrame(frame, WIDTH, HEIGHT, 0);
+        previewFrame.setCrop(20, 10, 280, 200);
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.createQrCodeHints());
+        ResultPoint[] expected = decoder.decode(previewFrame).getResultPoints();
+        for (int quarterTurns = 1; quarterTurns < 4; quarterTurns++) {
+            decoder.setTransform(quarterTurns, false);
+            Result result = VariantRetry.unrotate(decoder.decode(previewFrame), quarterTurns,
+                    previewFrame.cropWidth, previewFrame.cropHeight);
+            // The finder patterns are found in another order, compare them as a set.
+            for (ResultPoint point : result.getResultPoints()) {
+                float distance = Float.MAX_VALUE;
+                for (ResultPoint other : expected) {
+                    distance = Math.min(distance, ResultPoint.distance(point, other));
+                }
+                assertTrue("quarter turns " + quarterTurns + ": " + point, distance < 3);
+            }
+        }
+    }
+
+    @Test
+    public void quarterTurnsFor_turnsUprightOrByAQuarter() {
+        assertEquals(1, VariantRetry.quarterTurnsFor(0));
+        assertEquals(3, VariantRetry.quarterTurnsFor(90));
+        assertEquals(2, VariantRetry.quarterTurnsFor(180));
+        assertEquals(1, VariantRetry.quarterTurnsFor(270));
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.qrscanner;
+
+import com.google.zxing.LuminanceSource;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link YPlaneLuminanceSource}, on heap and direct buffers laid out like
+ * camera2 Y planes.
+ */
+public class YPlaneLuminanceSourceTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void getMatrix_honorsRowAndPixelStride() {
+        byte[] frame = TestFrames.qrFrame("stride", WIDTH, HEIGHT, 4);
+        PlanarYUVLuminanceSource expected =
+                new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 40, 20, 200, 180);
+        for (boolean direct : new boolean[] {false, true}) {
+            for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+                int rowStride = WIDTH * pixelStride + 64;
+                ByteBuffer plane = toPlane(frame, rowStride, pixelStride, direct);
+                YPlaneLuminanceSource source = new YPlaneLuminanceSource(plane, WIDTH, HEIGHT,
+                        rowStride, pixelStride, 40, 20, 200, 180);
+                assertArrayEquals(expected.getMatrix(), source.getMatrix());
+                assertArrayEquals(expected.getRow(7, null), source.getRow(7, null));
+            }
+        }
+    }
+
+    @Test
+    public void rotatedAndInvertedViews_matchNv21() {
+        byte[] frame = TestFrames.qrFrame("views", WIDTH, HEIGHT, 4);
+        LuminanceSource expected =
+                new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 40, 20, 200, 180);
+        int rowStride = WIDTH * 2 + 64;
+        LuminanceSource source = new YPlaneLuminanceSource(toPlane(frame, rowStride, 2, true),
+                WIDTH, HEIGHT, rowStride, 2, 40, 20, 200, 180);
+        assertTrue(source.isRotateSupported());
+        for (int turn = 0; turn < 4; turn++) {
+            assertArrayEquals(expected.getMatrix(), source.getMatrix());
+            assertArrayEquals(expected.invert().getMatrix(), source.invert().getMatrix());
+            assertArrayEquals(expected.crop(10, 20, 30, 40).getRow(3, null),
+                    source.crop(10, 20, 30, 40).getRow(3, null));
+            expected = expected.rotateCounterClockwise();
+            source = source.rotateCounterClockwise();
+        }
+    }
+
+    @Test
+    public void getMatrix_returnsTheArrayOfATightHeapPlane() {
+        byte[] frame = TestFrames.qrFrame("tight", WIDTH, HEIGHT, 4);
+        ByteBuffer plane = ByteBuffer.wrap(frame);
+        assertSame(frame, new YPlaneLuminanceSource(plane, WIDTH, HEIGHT, WIDTH, 1).getMatrix());
+    }
+
+    @Test
+    public void crop_sharesThePlane() {
+        byte[] frame = TestFrames.qrFrame("crop", WIDTH, HEIGHT, 4);
+        ByteBuffer plane = toPlane(frame, WIDTH + 32, 1, true);
+        YPlaneLuminanceSource source =
+                new YPlaneLuminanceSource(plane, WIDTH, HEIGHT, WIDTH + 32, 1);
+        assertTrue(source.isCropSupported());
+        byte[] cropped = source.crop(10, 30, 50, 40).getRow(5, null);
+        byte[] expected = new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 10, 30, 50, 40)
+                .getRow(5, null);
+        assertArrayEquals(expected, cropped);
+    }
+
+    @Test
+    public void decode_findsTheCodeInADirectPlane() {
+        byte[] frame = TestFrames.qrFrame("camera2", WIDTH, HEIGHT, 4);
+        int rowStride = WIDTH + 64;
+        ByteBuffer plane = toPlane(frame, rowStride, 1, true);
+        FrameDecoder decoder = new FrameDecoder(FrameDecoder.createQrCodeHints());
+        PreviewFrame previewFrame =
+                new PreviewFrame(plane, rowStride, 1, WIDTH, HEIGHT, 0L, null);
+        assertEquals("camera2", decoder.decode(previewFrame).getText());
+    }
+
+    @Test
+    public void getRow_leavesSharedPlaneAlone() {
+        byte[] frame = TestFrames.qrFrame("shared", WIDTH, HEIGHT, 4);
+        ByteBuffer plane = toPlane(frame, WIDTH, 1, true);
+        YPlaneLuminanceSource source = new YPlaneLuminanceSource(plane, WIDTH, HEIGHT, WIDTH, 1);
+        source.getRow(HEIGHT / 2, null);
+        source.crop(10, 10, 100, 100).getMatrix();
+        assertEquals(0, plane.position());
+    }
+
+    @Test
+    public void getRow_fromSeveralThreadsOnOnePlane() throws InterruptedException {
+        byte[] frame = TestFrames.qrFrame("threads", WIDTH, HEIGHT, 4);
+        final ByteBuffer plane = toPlane(frame, WIDTH, 1, true);
+        final byte[][] expected = new byte[HEIGHT][];
+        for (int y = 0; y < HEIGHT; y++) {
+            expected[y] = Arrays.copyOfRange(frame, y * WIDTH, (y + 1) * WIDTH);
+        }
+        final AtomicInteger mismatches = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            // Each thread reads its own rows, like the tiles of a PyramidDecoder.
+            final int firstRow = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        YPlaneLuminanceSource source = new YPlaneLuminanceSource(plane, WIDTH,
+                                HEIGHT, WIDTH, 1);
+                        byte[] row = new byte[WIDTH];
+                        for (int i = 0; i < 200; i++) {
+                            for (int y = firstRow; y < HEIGHT; y += 4) {
+                                if (!Arrays.equals(expected[y], source.getRow(y, row))) {
+                                    mismatches.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertEquals(0, mismatches.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsShortPlane() {
+        new YPlaneLuminanceSource(ByteBuffer.allocate(WIDTH * HEIGHT - 1), WIDTH, HEIGHT,
+                WIDTH, 1);
+    }
+
+    /**
+     * Lays out the luma of an NV21 frame as a Y plane with the given strides. The last row
+     * stops right after its last pixel, like on real devices.
+     */
+    private static ByteBuffer toPlane(byte[] frame, int rowStride, int pixelStride,
+                                      boolean direct) {
+        int size = (HEIGHT - 1) * rowStride + (WIDTH - 1) * pixelStride + 1;
+        ByteBuffer plane = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                plane.put(y * rowStride + x * pixelStride, frame[y * WIDTH + x]);
+            }
+        }
+        return plane;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.qrscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ZxingEngine}.
+ */
+public class ZxingEngineTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void decode_returnsText() {
+        byte[] frame = TestFrames.qrFrame("engine", WIDTH, HEIGHT, 4);
+        DecodeEngine engine = new ZxingEngine("current", false);
+        assertEquals("current", engine.getName());
+        assertEquals("engine", engine.decode(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void decode_returnsNullWithoutCode() {
+        byte[] frame = TestFrames.blankFrame(WIDTH, HEIGHT);
+        assertNull(new ZxingEngine("current", true).decode(frame, WIDTH, HEIGHT,
+                0, 0, WIDTH, HEIGHT));
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.Random;
+
+/**
+ * Synthetic NV21 preview frames used as the benchmark corpus. Every frame holds one QR code,
+ * generated with QRCodeWriter, drawn on a noisy grey background roughly the way a label shows
+ * up in a camera preview.
+ */
+final class BenchmarkFrames {
+
+    static final String CONTENTS = "https://example.com/label/0123456789";
+
+    private BenchmarkFrames() {
+    }
+
+    /**
+     * @param resolution Frame size as "WIDTHxHEIGHT", e.g. "1280x720".
+     */
+    static int width(String resolution) {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    static int height(String resolution) {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    /**
+     * @return A width x height NV21 frame with a QR code covering about a third of the shorter
+     * side, centered.
+     */
+    static byte[] qrFrame(int width, int height) {
+        BitMatrix matrix = encode(CONTENTS);
+        int scale = Math.max(2, Math.min(width, height) / 3 / matrix.getWidth());
+        int size = matrix.getWidth() * scale;
+        return qrFrame(width, height, matrix, scale, (width - size) / 2, (height - size) / 2,
+                40, 192, 0, width * 31L + height);
+    }
+
+    /**
+     * @return The modules of a QR code for the contents, with a four module quiet zone.
+     */
+    static BitMatrix encode(String contents) {
+        try {
+            return new QRCodeWriter().encode(contents, BarcodeFormat.QR_CODE, 0, 0);
+        } catch (WriterException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param scale Pixels per module.
+     * @param dark Luma of dark modules, plus up to 15 of noise.
+     * @param light Luma of the background and light modules, plus up to 15 of noise.
+     * @param blurRadius Radius of the box blur applied to the luma afterwards, 0 for none, to
+     *                   stand in for an out of focus or moving camera.
+     * @return A width x height NV21 frame with the code's top left corner at left, top.
+     */
+    static byte[] qrFrame(int width, int height, BitMatrix matrix, int scale, int left, int top,
+                          int dark, int light, int blurRadius, long seed) {
+        int size = matrix.getWidth() * scale;
+        Random random = new Random(seed);
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int luma = light + random.nextInt(16);
+                int codeX = x - left;
+                int codeY = y - top;
+                if (codeX >= 0 && codeY >= 0 && codeX < size && codeY < size
+                        && matrix.get(codeX / scale, codeY / scale)) {
+                    luma = dark + random.nextInt(16);
+                }
+                frame[y * width + x] = (byte) luma;
+            }
+        }
+        if (blurRadius > 0) {
+            boxBlur(frame, width, height, blurRadius);
+        }
+        for (int i = width * height; i < frame.length; i++) {
+            frame[i] = (byte) 128;
+        }
+        return frame;
+    }
+
+    /**
+     * Blurs the luma in place, rows first and columns second, clamping at the edges.
+     */
+    private static void boxBlur(byte[] luma, int width, int height, int radius) {
+        int[] line = new int[Math.max(width, height)];
+        int taps = radius * 2 + 1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                line[x] = luma[y * width + x] & 0xff;
+            }
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                for (int i = -radius; i <= radius; i++) {
+                    sum += line[Math.min(width - 1, Math.max(0, x + i))];
+                }
+                luma[y * width + x] = (byte) (sum / taps);
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                line[y] = luma[y * width + x] & 0xff;
+            }
+            for (int y = 0; y < height; y++) {
+                int sum = 0;
+                for (int i = -radius; i <= radius; i++) {
+                    sum += line[Math.min(height - 1, Math.max(0, y + i))];
+                }
+                luma[y * width + x] = (byte) (sum / taps);
+            }
+        }
+    }
+
+    /**
+     * @return The luma of qrFrame() as opaque grey ARGB pixels, like a still image read with
+     * Bitmap.getPixels().
+     */
+    static int[] argbFrame(int width, int height) {
+        byte[] frame = qrFrame(width, height);
+        int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++) {
+            int luma = frame[i] & 0xff;
+            argb[i] = 0xff000000 | (luma << 16) | (luma << 8) | luma;
+        }
+        return argb;
+    }
+}
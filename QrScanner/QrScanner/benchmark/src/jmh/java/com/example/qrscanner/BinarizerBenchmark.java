@@ -0,0 +1,51 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * HybridBinarizer against GlobalHistogramBinarizer and the ReusableHybridBinarizer used by
+ * FrameDecoder, on full preview frames.
+ */
+@State(Scope.Thread)
+public class BinarizerBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"hybrid", "globalHistogram", "reusable"})
+    public String binarizer;
+
+    private PlanarYUVLuminanceSource mSource;
+    private ReusableHybridBinarizer mReusableBinarizer;
+
+    @Setup
+    public void setUp() {
+        int width = BenchmarkFrames.width(resolution);
+        int height = BenchmarkFrames.height(resolution);
+        mSource = new PlanarYUVLuminanceSource(BenchmarkFrames.qrFrame(width, height),
+                width, height);
+        mReusableBinarizer = new ReusableHybridBinarizer(mSource);
+    }
+
+    @Benchmark
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        if (binarizer.equals("reusable")) {
+            mReusableBinarizer.refresh();
+            return mReusableBinarizer.getBlackMatrix();
+        }
+        Binarizer instance = binarizer.equals("hybrid")
+                ? new HybridBinarizer(mSource)
+                : new GlobalHistogramBinarizer(mSource);
+        return instance.getBlackMatrix();
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.qrscanner;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Full decode of one preview frame, from luminance source to Result.
+ */
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    private byte[] mFrame;
+    private int[] mArgb;
+    private int mWidth;
+    private int mHeight;
+    private PlanarYUVLuminanceSource mSource;
+    private MultiFormatReader mMultiFormatReader;
+    private FrameDecoder mFrameDecoder;
+    private FrameDecoder mMultiFormatDecoder;
+
+    @Setup
+    public void setUp() {
+        mWidth = BenchmarkFrames.width(resolution);
+        mHeight = BenchmarkFrames.height(resolution);
+        mFrame = BenchmarkFrames.qrFrame(mWidth, mHeight);
+        mSource = new PlanarYUVLuminanceSource(mFrame, mWidth, mHeight);
+        mMultiFormatReader = new MultiFormatReader();
+        mFrameDecoder = new FrameDecoder(FrameDecoder.createQrCodeHints());
+        mMultiFormatDecoder = new FrameDecoder(FrameDecoder.createQrCodeHints(), false);
+        mArgb = BenchmarkFrames.argbFrame(mWidth, mHeight);
+        if (mFrameDecoder.decode(mSource) == null
+                || mFrameDecoder.decode(mArgb, mWidth, mHeight) == null
+                || mMultiFormatDecoder.decode(mSource) == null) {
+            throw new IllegalStateException("Benchmark frame does not decode: " + resolution);
+        }
+    }
+
+    /**
+     * MultiFormatReader.decode() without hints, trying every supported format.
+     */
+    @Benchmark
+    public Result multiFormatReader() throws NotFoundException {
+        return mMultiFormatReader.decode(new BinaryBitmap(new HybridBinarizer(mSource)));
+    }
+
+    /**
+     * FrameDecoder with a new luminance source and HybridBinarizer per frame.
+     */
+    @Benchmark
+    public Result frameDecoder() {
+        return mFrameDecoder.decode(mSource);
+    }
+
+    /**
+     * The path DecodeHandler takes for every preview frame, reusing the luminance source and
+     * binarizer across frames.
+     */
+    @Benchmark
+    public Result frameDecoderReused() {
+        return mFrameDecoder.decode(mFrame, mWidth, mHeight, 0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * frameDecoderReused going through MultiFormatReader's dispatch, with QR-only hints,
+     * instead of straight to QRCodeReader.
+     */
+    @Benchmark
+    public Result multiFormatDispatchReused() {
+        return mMultiFormatDecoder.decode(mFrame, mWidth, mHeight, 0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * The path BatchDecoder takes for still images, from ARGB pixels.
+     */
+    @Benchmark
+    public Result frameDecoderArgb() {
+        return mFrameDecoder.decode(mArgb, mWidth, mHeight);
+    }
+}
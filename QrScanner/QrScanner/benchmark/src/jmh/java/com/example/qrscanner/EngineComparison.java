@@ -0,0 +1,163 @@
+package com.example.qrscanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs decode engines side by side on the same frames and reports, for each engine, how many
+ * frames decoded, how many decoded to the wrong text and the decode latency, and the frames on
+ * which the engines disagree.
+ *
+ * Engines take turns on every frame, in an order that alternates each round, so that they see
+ * the same caches and clock speed. Run with gradle :benchmark:compareEngines, adding
+ * -PcompareArgs=/path/to/recording to decode a FrameRecorder recording.
+ */
+final class EngineComparison {
+
+    private static final int DEFAULT_WARM_UP_ROUNDS = 3;
+    private static final int DEFAULT_ROUNDS = 10;
+    private static final int MAX_LISTED_DISAGREEMENTS = 20;
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final List<DecodeEngine> mEngines;
+    private final LatencyHistogram[] mLatencies;
+    private final String[][] mTexts;
+    private final List<FrameCorpus.Frame> mFrames;
+
+    EngineComparison(List<DecodeEngine> engines, List<FrameCorpus.Frame> frames) {
+        mEngines = engines;
+        mFrames = frames;
+        mLatencies = new LatencyHistogram[engines.size()];
+        for (int i = 0; i < mLatencies.length; i++) {
+            mLatencies[i] = new LatencyHistogram();
+        }
+        mTexts = new String[engines.size()][frames.size()];
+    }
+
+    /**
+     * Decodes every frame with every engine, warmUpRounds times without measuring and then
+     * rounds times.
+     */
+    void run(int warmUpRounds, int rounds) {
+        for (int round = 0; round < warmUpRounds + rounds; round++) {
+            boolean measure = round >= warmUpRounds;
+            for (int f = 0; f < mFrames.size(); f++) {
+                FrameCorpus.Frame frame = mFrames.get(f);
+                for (int i = 0; i < mEngines.size(); i++) {
+                    int e = round % 2 == 0 ? i : mEngines.size() - 1 - i;
+                    long start = System.nanoTime();
+                    String text = mEngines.get(e).decode(frame.luma, frame.width, frame.height,
+                            0, 0, frame.width, frame.height);
+                    long nanos = System.nanoTime() - start;
+                    if (measure) {
+                        mLatencies[e].record(nanos);
+                    }
+                    mTexts[e][f] = text;
+                }
+            }
+        }
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "%-21s %6s %7s %7s %5s %8s %8s %8s %8s %8s%n",
+                "engine", "frames", "decoded", "rate", "wrong",
+                "mean us", "p50 us", "p95 us", "p99 us", "max us"));
+        for (int e = 0; e < mEngines.size(); e++) {
+            int decoded = 0;
+            int wrong = 0;
+            for (int f = 0; f < mFrames.size(); f++) {
+                String text = mTexts[e][f];
+                if (text == null) {
+                    continue;
+                }
+                if (mFrames.get(f).isCorrect(text)) {
+                    decoded++;
+                } else {
+                    wrong++;
+                }
+            }
+            LatencyHistogram latency = mLatencies[e];
+            report.append(String.format(Locale.US,
+                    "%-21s %6d %7d %6.1f%% %5d %8.0f %8d %8d %8d %8d%n",
+                    mEngines.get(e).getName(), mFrames.size(), decoded,
+                    100.0 * decoded / mFrames.size(), wrong,
+                    latency.getMean() / NANOS_PER_MICRO,
+                    latency.getValueAtPercentile(50) / NANOS_PER_MICRO,
+                    latency.getValueAtPercentile(95) / NANOS_PER_MICRO,
+                    latency.getValueAtPercentile(99) / NANOS_PER_MICRO,
+                    latency.getMax() / NANOS_PER_MICRO));
+        }
+
+        List<String> disagreements = new ArrayList<String>();
+        for (int f = 0; f < mFrames.size(); f++) {
+            boolean same = true;
+            for (int e = 1; e < mEngines.size(); e++) {
+                same &= equal(mTexts[0][f], mTexts[e][f]);
+            }
+            if (!same) {
+                StringBuilder line = new StringBuilder("  ").append(mFrames.get(f).name);
+                for (int e = 0; e < mEngines.size(); e++) {
+                    line.append("  ").append(mEngines.get(e).getName()).append('=')
+                            .append(mTexts[e][f] == null ? "-"
+                                    : mFrames.get(f).isCorrect(mTexts[e][f]) ? "ok"
+                                    : "wrong");
+                }
+                disagreements.add(line.toString());
+            }
+        }
+        report.append("disagreements: ").append(disagreements.size()).append('\n');
+        for (int i = 0; i < Math.min(disagreements.size(), MAX_LISTED_DISAGREEMENTS); i++) {
+            report.append(disagreements.get(i)).append('\n');
+        }
+        return report.toString();
+    }
+
+    private static boolean isNumber(String arg) {
+        for (int i = 0; i < arg.length(); i++) {
+            if (!Character.isDigit(arg.charAt(i))) {
+                return false;
+            }
+        }
+        return !arg.isEmpty();
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @param args Optionally a FrameRecorder recording to decode instead of the synthetic
+     *             frames, then the measured rounds and the warm-up rounds.
+     */
+    public static void main(String[] args) throws IOException {
+        int arg = 0;
+        FrameCorpus corpus;
+        if (args.length > arg && !isNumber(args[arg])) {
+            corpus = FrameCorpus.fromRecording(new File(args[arg++]));
+        } else {
+            corpus = FrameCorpus.synthetic();
+        }
+        int rounds = args.length > arg ? Integer.parseInt(args[arg++]) : DEFAULT_ROUNDS;
+        int warmUpRounds = args.length > arg ? Integer.parseInt(args[arg])
+                : DEFAULT_WARM_UP_ROUNDS;
+        PyramidEngine pyramid = new PyramidEngine("zxing-3.5.3-pyramid",
+                Runtime.getRuntime().availableProcessors());
+        List<DecodeEngine> engines = Arrays.<DecodeEngine>asList(
+                new ZxingEngine("zxing-3.5.3", false),
+                new com.example.qrscanner.legacy.ZxingEngine("zxing-2.2", false),
+                pyramid,
+                new ZxingEngine("zxing-3.5.3-tryharder", true));
+        EngineComparison comparison = new EngineComparison(engines, corpus.getFrames());
+        try {
+            comparison.run(warmUpRounds, rounds);
+        } finally {
+            pyramid.shutdown();
+        }
+        System.out.print(comparison.report());
+    }
+}
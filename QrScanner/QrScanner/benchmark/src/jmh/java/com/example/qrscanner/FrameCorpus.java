@@ -0,0 +1,135 @@
+package com.example.qrscanner;
+
+import com.google.zxing.common.BitMatrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The frames EngineComparison runs every engine on, each with the text it holds.
+ */
+final class FrameCorpus {
+
+    static final class Frame {
+        final String name;
+        /**
+         * At least width * height bytes of luma, e.g. an NV21 frame.
+         */
+        final byte[] luma;
+        final int width;
+        final int height;
+        /**
+         * Whether expected is known. Recorded frames are not labeled, any text counts as
+         * decoded.
+         */
+        final boolean labeled;
+        /**
+         * The text of the code in the frame, or null if there is none.
+         */
+        final String expected;
+
+        Frame(String name, byte[] luma, int width, int height, boolean labeled,
+              String expected) {
+            this.name = name;
+            this.luma = luma;
+            this.width = width;
+            this.height = height;
+            this.labeled = labeled;
+            this.expected = expected;
+        }
+
+        /**
+         * @return Whether text, the result of decoding the frame, is right.
+         */
+        boolean isCorrect(String text) {
+            return !labeled || (text == null ? expected == null : text.equals(expected));
+        }
+    }
+
+    static final String LONG_CONTENTS = "https://example.com/label/0123456789/abcdefghij"
+            + "?lot=2024-03-21&serial=ABCDEF0123456789&line=7&station=12&operator=4711";
+
+    private static final String[] RESOLUTIONS = {"640x480", "1280x720", "1920x1080"};
+    private static final int[] SCALES = {1, 2, 3, 4, 6};
+    /**
+     * From radius 2 the blur is wider than small modules and nothing decodes any more.
+     */
+    private static final int[] BLUR_RADII = {0, 1};
+    private static final int EMPTY_FRAMES = 4;
+
+    private final List<Frame> mFrames = new ArrayList<Frame>();
+
+    void add(Frame frame) {
+        mFrames.add(frame);
+    }
+
+    List<Frame> getFrames() {
+        return Collections.unmodifiableList(mFrames);
+    }
+
+    /**
+     * @return Synthetic frames covering the conditions which decide whether a code decodes:
+     * frame size, pixels per module, blur, lighting and code version, with the code at a random
+     * but repeatable position, plus a few frames without a code.
+     */
+    static FrameCorpus synthetic() {
+        FrameCorpus corpus = new FrameCorpus();
+        Random random = new Random(42);
+        String[] contents = {BenchmarkFrames.CONTENTS, LONG_CONTENTS};
+        for (String resolution : RESOLUTIONS) {
+            int width = BenchmarkFrames.width(resolution);
+            int height = BenchmarkFrames.height(resolution);
+            for (int c = 0; c < contents.length; c++) {
+                BitMatrix matrix = BenchmarkFrames.encode(contents[c]);
+                for (int scale : SCALES) {
+                    int size = matrix.getWidth() * scale;
+                    if (size > height) {
+                        continue;
+                    }
+                    for (int blur : BLUR_RADII) {
+                        for (int light = 0; light < 2; light++) {
+                            boolean dim = light == 1;
+                            int left = random.nextInt(width - size + 1);
+                            int top = random.nextInt(height - size + 1);
+                            String name = resolution + "/" + (c == 0 ? "short" : "long")
+                                    + "/scale" + scale + "/blur" + blur
+                                    + (dim ? "/dim" : "/bright");
+                            corpus.add(new Frame(name, BenchmarkFrames.qrFrame(width, height,
+                                    matrix, scale, left, top, dim ? 64 : 40, dim ? 160 : 192,
+                                    blur, random.nextLong()), width, height, true, contents[c]));
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < EMPTY_FRAMES; i++) {
+                byte[] luma = BenchmarkFrames.qrFrame(width, height, new BitMatrix(1), 1,
+                        -1, -1, 40, 192, i % 2, random.nextLong());
+                corpus.add(new Frame(resolution + "/empty" + i, luma, width, height, true, null));
+            }
+        }
+        return corpus;
+    }
+
+    /**
+     * @return The frames of a FrameRecorder recording, e.g. pulled from a phone.
+     */
+    static FrameCorpus fromRecording(File file) throws IOException {
+        FrameCorpus corpus = new FrameCorpus();
+        FrameRecording recording = FrameRecording.open(file);
+        try {
+            for (int i = 0; i < recording.getFrameCount(); i++) {
+                byte[] data = new byte[recording.getDataLength(i)];
+                recording.readFrame(i, data);
+                corpus.add(new Frame(file.getName() + "/" + i, data, recording.getWidth(i),
+                        recording.getHeight(i), false, null));
+            }
+        } finally {
+            recording.close();
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.qrscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of reading luma out of a PlanarYUVLuminanceSource, for the whole frame and for the
+ * centered viewfinder crop used by CameraManager.
+ */
+@State(Scope.Thread)
+public class LuminanceSourceBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"full", "viewfinder"})
+    public String region;
+
+    private PlanarYUVLuminanceSource mSource;
+    private byte[] mRow;
+
+    @Setup
+    public void setUp() {
+        int width = BenchmarkFrames.width(resolution);
+        int height = BenchmarkFrames.height(resolution);
+        byte[] frame = BenchmarkFrames.qrFrame(width, height);
+        if (region.equals("full")) {
+            mSource = new PlanarYUVLuminanceSource(frame, width, height);
+        } else {
+            int side = Math.min(width, height) * 3 / 4;
+            mSource = new PlanarYUVLuminanceSource(frame, width, height,
+                    (width - side) / 2, (height - side) / 2, side, side);
+        }
+        mRow = new byte[mSource.getWidth()];
+    }
+
+    @Benchmark
+    public void getRow(Blackhole blackhole) {
+        for (int y = 0; y < mSource.getHeight(); y++) {
+            blackhole.consume(mSource.getRow(y, mRow));
+        }
+    }
+
+    @Benchmark
+    public byte[] getMatrix() {
+        return mSource.getMatrix();
+    }
+}
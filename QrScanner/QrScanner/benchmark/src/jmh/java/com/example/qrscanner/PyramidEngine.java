@@ -0,0 +1,40 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+
+/**
+ * A PyramidDecoder with the QR code hints as a DecodeEngine, decoding tiles on every core.
+ *
+ * Not thread-safe, like PyramidDecoder.
+ */
+final class PyramidEngine implements DecodeEngine {
+
+    private final String mName;
+    private final PyramidDecoder mDecoder;
+
+    PyramidEngine(String name, int threadCount) {
+        mName = name;
+        mDecoder = new PyramidDecoder(FrameDecoder.createQrCodeHints(), threadCount);
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String decode(byte[] luma, int dataWidth, int dataHeight, int left, int top,
+                         int width, int height) {
+        PreviewFrame frame = new PreviewFrame(luma, dataWidth, dataHeight, 0);
+        frame.setCrop(left, top, width, height);
+        Result result = mDecoder.decode(frame);
+        return result != null ? result.getText() : null;
+    }
+
+    /**
+     * Stops the tile threads.
+     */
+    void shutdown() {
+        mDecoder.shutdown();
+    }
+}
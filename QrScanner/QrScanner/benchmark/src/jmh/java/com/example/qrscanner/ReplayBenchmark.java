@@ -0,0 +1,86 @@
+package com.example.qrscanner;
+
+import com.google.zxing.Result;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replay of a whole FrameRecorder recording at maximum speed through the single worker decode
+ * path, one operation per replay.
+ */
+@State(Scope.Thread)
+public class ReplayBenchmark {
+
+    private static final long FRAME_INTERVAL_NANOS = 33000000L;
+
+    /**
+     * Path of a recording, e.g. pulled from a phone with the record_file extra set. Empty to
+     * record the synthetic corpus first.
+     */
+    @Param({""})
+    public String recording;
+
+    private File mTempFile;
+    private FrameRecording mRecording;
+    private FrameReplayer mReplayer;
+    private FrameDecoder mFrameDecoder;
+    private int mDecoded;
+    private final FrameReplayer.Consumer mConsumer = new FrameReplayer.Consumer() {
+        @Override
+        public void onFrame(PreviewFrame frame, int focusState) {
+            Result result = mFrameDecoder.decode(frame);
+            if (result != null) {
+                mDecoded++;
+            }
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        File file;
+        if (recording.isEmpty()) {
+            mTempFile = File.createTempFile("replay", ".qrf");
+            FrameRecorder recorder = new FrameRecorder(mTempFile,
+                    FrameRecorder.DEFAULT_MAX_BYTES);
+            long timestamp = 0;
+            for (FrameCorpus.Frame frame : FrameCorpus.synthetic().getFrames()) {
+                recorder.record(frame.luma, frame.width, frame.height, timestamp,
+                        FrameRecording.FOCUS_UNKNOWN);
+                timestamp += FRAME_INTERVAL_NANOS;
+            }
+            recorder.close();
+            file = mTempFile;
+        } else {
+            file = new File(recording);
+        }
+        mRecording = FrameRecording.open(file);
+        mReplayer = new FrameReplayer(mRecording, FrameReplayer.SYSTEM_TIMER);
+        mFrameDecoder = new FrameDecoder(FrameDecoder.createQrCodeHints());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mRecording.close();
+        if (mTempFile != null && !mTempFile.delete()) {
+            mTempFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * @return How many frames decoded, which should be the same for every replay.
+     */
+    @Benchmark
+    public int replayMaximumSpeed() throws InterruptedException {
+        mDecoded = 0;
+        mReplayer.replay(mConsumer, false);
+        return mDecoded;
+    }
+}